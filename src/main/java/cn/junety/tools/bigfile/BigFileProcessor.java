@@ -1,11 +1,23 @@
 package cn.junety.tools.bigfile;
 
 import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.processor.JoinType;
+import cn.junety.tools.bigfile.processor.Pipeline;
+import cn.junety.tools.bigfile.processor.SetOperation;
+import cn.junety.tools.bigfile.processor.ShardPlan;
 import cn.junety.tools.bigfile.row.DefaultRowHandler;
 import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowJoiner;
+import cn.junety.tools.bigfile.row.RowPredicate;
+import cn.junety.tools.bigfile.row.RowRouter;
+import cn.junety.tools.bigfile.utils.FileRange;
+import cn.junety.tools.bigfile.utils.KeySketch;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by caijt on 2018/8/17
@@ -95,6 +107,14 @@ public interface BigFileProcessor {
      */
         long sort(String sourceFilePath, String outputFilePath) throws IOException;
 
+    /**
+     * 文件排序(字典序)并去重, key相同的数据通过 rowHandler.clash 合并
+     *
+     * @param sourceFilePath 源文件路径
+     * @param outputFilePath 输出文件路径
+     */
+    long sortUnique(String sourceFilePath, String outputFilePath) throws IOException;
+
     /**
      * 过滤不合法数据
      *
@@ -103,6 +123,50 @@ public interface BigFileProcessor {
      */
     long filter(String sourceFilePath, String outputFilePath) throws IOException;
 
+    /**
+     * 使用字节级的过滤条件过滤数据, 数据行不需要解码, 可以通过 RowPredicates 创建过滤条件
+     *
+     * @param sourceFilePath 源文件路径
+     * @param outputFilePath 输出文件路径
+     * @param rowPredicate   过滤条件
+     */
+    long filter(String sourceFilePath, String outputFilePath, RowPredicate rowPredicate) throws IOException;
+
+    /**
+     * 只读取一次源文件, 根据路由规则把每行数据写入零个或多个输出文件, 同一行在同一个输出中只写入一次
+     *
+     * @param sourceFilePath  源文件路径
+     * @param outputFilePaths 输出名称 -> 输出文件路径
+     * @param rowRouter       路由规则, 返回数据行需要写入的输出名称
+     * @return 输出名称 -> 写入的行数
+     */
+    Map<String, Long> route(String sourceFilePath, Map<String, String> outputFilePaths, RowRouter rowRouter)
+            throws IOException;
+
+    /**
+     * 按大小把文件切分成 count 个在换行处对齐的字节区间, 只返回区间描述, 不拷贝任何数据
+     *
+     * @param sourceFilePath 源文件路径
+     * @param count          区间数量
+     */
+    List<FileRange> splitRanges(String sourceFilePath, int count) throws IOException;
+
+    /**
+     * 按大小把文件切分成 count 个文件, 保持数据原有的顺序
+     *
+     * @param sourceFilePath 源文件路径
+     * @param count          切分的文件数量
+     */
+    List<String> split(String sourceFilePath, int count) throws IOException;
+
+    /**
+     * 按行数切分文件, 每个文件包含 lineCount 行, 保持数据原有的顺序
+     *
+     * @param sourceFilePath 源文件路径
+     * @param lineCount      每个文件的行数
+     */
+    List<String> splitByLines(String sourceFilePath, long lineCount) throws IOException;
+
     /**
      * 文件数据分片
      *
@@ -110,4 +174,232 @@ public interface BigFileProcessor {
      * @param shardingCount  分片数量
      */
     List<String> sharding(String sourceFilePath, int shardingCount) throws IOException;
+
+    /**
+     * 文件数据分片, 不满足过滤条件的数据在解码之前就被丢弃
+     *
+     * @param sourceFilePath 源文件路径
+     * @param shardingCount  分片数量
+     * @param rowPredicate   过滤条件
+     */
+    List<String> sharding(String sourceFilePath, int shardingCount, RowPredicate rowPredicate) throws IOException;
+
+    /**
+     * 计算数据源1和数据源2的交集, 数据源可以是文件、输入流或者内存中的数据行
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink    输出目标
+     * @param sort    是否需要对结果进行排序
+     */
+    long intersect(RowSource source1, RowSource source2, RowSink sink, boolean sort) throws IOException;
+
+    /**
+     * 计算数据源1和数据源2的并集
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink    输出目标
+     * @param sort    是否需要对结果进行排序
+     */
+    long union(RowSource source1, RowSource source2, RowSink sink, boolean sort) throws IOException;
+
+    /**
+     * 计算数据源1减去数据源2的差集
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink    输出目标
+     * @param sort    是否需要对结果进行排序
+     */
+    long differ(RowSource source1, RowSource source2, RowSink sink, boolean sort) throws IOException;
+
+    /**
+     * 计算两个按key有序的数据源的交集, 边读边归并, 不会写入临时文件, 数据源无序时抛出 IllegalArgumentException
+     *
+     * @param source1 有序数据源1
+     * @param source2 有序数据源2
+     * @param sink    输出目标
+     */
+    long intersectSorted(RowSource source1, RowSource source2, RowSink sink) throws IOException;
+
+    /**
+     * 计算两个按key有序的数据源的并集, 边读边归并, 不会写入临时文件, 数据源无序时抛出 IllegalArgumentException
+     *
+     * @param source1 有序数据源1
+     * @param source2 有序数据源2
+     * @param sink    输出目标
+     */
+    long unionSorted(RowSource source1, RowSource source2, RowSink sink) throws IOException;
+
+    /**
+     * 计算两个按key有序的数据源的差集, 边读边归并, 不会写入临时文件, 数据源无序时抛出 IllegalArgumentException
+     *
+     * @param source1 有序数据源1
+     * @param source2 有序数据源2
+     * @param sink    输出目标
+     */
+    long differSorted(RowSource source1, RowSource source2, RowSink sink) throws IOException;
+
+    /**
+     * 按key连接文件1(左)和文件2(右), 两边key相同的每一对数据由 rowJoiner 组合后输出, 结果没有顺序
+     *
+     * @param leftFilePath   左边的源文件路径
+     * @param rightFilePath  右边的源文件路径
+     * @param outputFilePath 输出文件路径
+     * @param joinType       连接的类型: 内连接、左外连接、右外连接、全外连接
+     * @param rowJoiner      组合两边数据行的规则, 外连接中没有匹配的一边为 null
+     */
+    long join(String leftFilePath, String rightFilePath, String outputFilePath, JoinType joinType,
+              RowJoiner rowJoiner) throws IOException;
+
+    /**
+     * 按key连接数据源1(左)和数据源2(右), 较小的一边放得下内存时不分片, 否则两边分片后逐对分片连接, 只分片一次
+     *
+     * @param left      左边的数据源
+     * @param right     右边的数据源
+     * @param sink      输出目标
+     * @param joinType  连接的类型
+     * @param rowJoiner 组合两边数据行的规则
+     */
+    long join(RowSource left, RowSource right, RowSink sink, JoinType joinType, RowJoiner rowJoiner)
+            throws IOException;
+
+    /**
+     * 数据源排序(字典序), 直接读取数据源进行分片, 不需要先写入临时文件
+     *
+     * @param source 数据源
+     * @param sink   输出目标
+     */
+    long sort(RowSource source, RowSink sink) throws IOException;
+
+    /**
+     * 数据源排序(字典序)并去重, key相同的数据通过 rowHandler.clash 合并
+     *
+     * @param source 数据源
+     * @param sink   输出目标
+     */
+    long sortUnique(RowSource source, RowSink sink) throws IOException;
+
+    /**
+     * 过滤数据源中的不合法数据, 边读边写, 不会写入临时文件
+     *
+     * @param source 数据源
+     * @param sink   输出目标
+     */
+    long filter(RowSource source, RowSink sink) throws IOException;
+
+    /**
+     * 数据源分片, 直接读取数据源, 不需要先写入临时文件
+     *
+     * @param source        数据源
+     * @param shardingCount 分片数量
+     */
+    List<String> sharding(RowSource source, int shardingCount) throws IOException;
+
+    /**
+     * 只读取一次数据源, 根据路由规则把每行数据写入零个或多个输出目标, 同一行在同一个输出中只写入一次
+     *
+     * @param source    数据源
+     * @param sinkMap   输出名称 -> 输出目标
+     * @param rowRouter 路由规则, 返回数据行需要写入的输出名称
+     * @return 输出名称 -> 写入的行数
+     */
+    Map<String, Long> route(RowSource source, Map<String, RowSink> sinkMap, RowRouter rowRouter) throws IOException;
+
+    /**
+     * 采样数据源, 根据估算的行大小、key的基数和内存预算规划分片数量、并行度和分片方式, 不执行计算
+     * 开启 autoPlan 时集合运算、排序和操作流程按同样的规划分片
+     *
+     * @param unique  计算时是否按key去重读入内存, 集合运算和去重为 true, 排序为 false
+     * @param sort    是否需要对结果排序
+     * @param sources 数据源列表
+     */
+    ShardPlan plan(boolean unique, boolean sort, RowSource... sources) throws IOException;
+
+    /**
+     * 获取数据源中key的概要, 只读取一遍数据源, 不写入任何输出; 开启 persistSketch 时概要保存在数据源旁边,
+     * 数据源没有变化时直接读取保存的概要
+     *
+     * @param source 数据源
+     */
+    KeySketch sketch(RowSource source) throws IOException;
+
+    /**
+     * 估算文件中不重复的key的数量
+     *
+     * @param sourceFilePath 源文件路径
+     */
+    long estimateDistinct(String sourceFilePath) throws IOException;
+
+    /**
+     * 估算文件1和文件2交集的行数, 不执行计算
+     *
+     * @param sourceFilePath1 源文件路径1
+     * @param sourceFilePath2 源文件路径2
+     */
+    long estimateIntersect(String sourceFilePath1, String sourceFilePath2) throws IOException;
+
+    /**
+     * 估算文件1和文件2并集的行数, 不执行计算
+     *
+     * @param sourceFilePath1 源文件路径1
+     * @param sourceFilePath2 源文件路径2
+     */
+    long estimateUnion(String sourceFilePath1, String sourceFilePath2) throws IOException;
+
+    /**
+     * 估算文件1和文件2差集(A-B)的行数, 不执行计算
+     *
+     * @param sourceFilePath1 源文件路径1
+     * @param sourceFilePath2 源文件路径2
+     */
+    long estimateDiffer(String sourceFilePath1, String sourceFilePath2) throws IOException;
+
+    /**
+     * 精确计算文件1和文件2交集的行数, 不输出结果
+     *
+     * @param sourceFilePath1 源文件路径1
+     * @param sourceFilePath2 源文件路径2
+     */
+    long countIntersect(String sourceFilePath1, String sourceFilePath2) throws IOException;
+
+    /**
+     * 精确计算文件1和文件2并集的行数, 不输出结果
+     *
+     * @param sourceFilePath1 源文件路径1
+     * @param sourceFilePath2 源文件路径2
+     */
+    long countUnion(String sourceFilePath1, String sourceFilePath2) throws IOException;
+
+    /**
+     * 精确计算文件1和文件2差集(A-B)的行数, 不输出结果
+     *
+     * @param sourceFilePath1 源文件路径1
+     * @param sourceFilePath2 源文件路径2
+     */
+    long countDiffer(String sourceFilePath1, String sourceFilePath2) throws IOException;
+
+    /**
+     * 精确计算数据源1和数据源2集合运算结果每个分片的行数, 不输出结果; 没有分片计算时只有一个元素
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param operation 集合运算的类型
+     */
+    List<Long> countShards(RowSource source1, RowSource source2, SetOperation operation) throws IOException;
+
+    /**
+     * 创建操作流程, 连续的 filter -> unique -> 集合运算 -> sort 融合成一次分片和一次输出
+     *
+     * @param source 数据源
+     */
+    Pipeline pipeline(RowSource source);
+
+    /**
+     * 创建以文件为数据源的操作流程
+     *
+     * @param sourceFilePath 源文件路径
+     */
+    Pipeline pipeline(String sourceFilePath);
 }
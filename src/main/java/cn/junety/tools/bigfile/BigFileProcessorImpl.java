@@ -3,12 +3,26 @@ package cn.junety.tools.bigfile;
 import cn.junety.tools.bigfile.config.BigFileConfig;
 import cn.junety.tools.bigfile.processor.BigListProcessor;
 import cn.junety.tools.bigfile.processor.BigSetProcessor;
+import cn.junety.tools.bigfile.processor.EstimateProcessor;
+import cn.junety.tools.bigfile.processor.JoinType;
+import cn.junety.tools.bigfile.processor.Pipeline;
+import cn.junety.tools.bigfile.processor.PipelineProcessor;
+import cn.junety.tools.bigfile.processor.SetOperation;
+import cn.junety.tools.bigfile.processor.ShardPlan;
 import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowJoiner;
+import cn.junety.tools.bigfile.row.RowPredicate;
+import cn.junety.tools.bigfile.row.RowRouter;
+import cn.junety.tools.bigfile.utils.FileRange;
+import cn.junety.tools.bigfile.utils.KeySketch;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
 import cn.junety.tools.bigfile.utils.TimeMeter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -19,10 +33,14 @@ public class BigFileProcessorImpl implements BigFileProcessor {
 
     private final BigListProcessor bigListProcessor;
     private final BigSetProcessor bigSetProcessor;
+    private final PipelineProcessor pipelineProcessor;
+    private final EstimateProcessor estimateProcessor;
 
     public BigFileProcessorImpl(BigFileConfig config, RowHandler rowHandler) {
         this.bigListProcessor = new BigListProcessor(config, rowHandler);
         this.bigSetProcessor = new BigSetProcessor(config, rowHandler);
+        this.pipelineProcessor = new PipelineProcessor(config, rowHandler);
+        this.estimateProcessor = new EstimateProcessor(config, rowHandler);
     }
 
     @Override
@@ -78,6 +96,14 @@ public class BigFileProcessorImpl implements BigFileProcessor {
         return totalSize;
     }
 
+    @Override
+    public long sortUnique(String sourceFilePath, String outputFilePath) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigListProcessor.sortUnique(sourceFilePath, outputFilePath);
+        log.debug("sortUnique total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
     @Override
     public long filter(String sourceFilePath, String outputFilePath) throws IOException {
         TimeMeter timeMeter = new TimeMeter();
@@ -86,6 +112,44 @@ public class BigFileProcessorImpl implements BigFileProcessor {
         return totalSize;
     }
 
+    @Override
+    public long filter(String sourceFilePath, String outputFilePath, RowPredicate rowPredicate) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigListProcessor.filter(sourceFilePath, outputFilePath, rowPredicate);
+        log.debug("filter total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public Map<String, Long> route(String sourceFilePath, Map<String, String> outputFilePaths, RowRouter rowRouter)
+            throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        Map<String, Long> countMap = bigListProcessor.route(sourceFilePath, outputFilePaths, rowRouter);
+        log.debug("route total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return countMap;
+    }
+
+    @Override
+    public List<FileRange> splitRanges(String sourceFilePath, int count) throws IOException {
+        return bigListProcessor.splitRanges(sourceFilePath, count);
+    }
+
+    @Override
+    public List<String> split(String sourceFilePath, int count) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        List<String> splitFileList = bigListProcessor.split(sourceFilePath, count);
+        log.debug("split total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return splitFileList;
+    }
+
+    @Override
+    public List<String> splitByLines(String sourceFilePath, long lineCount) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        List<String> splitFileList = bigListProcessor.splitByLines(sourceFilePath, lineCount);
+        log.debug("splitByLines total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return splitFileList;
+    }
+
     @Override
     public List<String> sharding(String sourceFilePath, int shardingCount) throws IOException {
         TimeMeter timeMeter = new TimeMeter();
@@ -93,4 +157,188 @@ public class BigFileProcessorImpl implements BigFileProcessor {
         log.debug("sharding total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
         return shardingFileList;
     }
+
+    @Override
+    public List<String> sharding(String sourceFilePath, int shardingCount, RowPredicate rowPredicate)
+            throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        List<String> shardingFileList = bigListProcessor.sharding(sourceFilePath, shardingCount, rowPredicate);
+        log.debug("sharding total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return shardingFileList;
+    }
+
+    @Override
+    public long intersect(RowSource source1, RowSource source2, RowSink sink, boolean sort) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigSetProcessor.intersect(source1, source2, sink, sort);
+        log.debug("intersect total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public long union(RowSource source1, RowSource source2, RowSink sink, boolean sort) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigSetProcessor.union(source1, source2, sink, sort);
+        log.debug("union total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public long differ(RowSource source1, RowSource source2, RowSink sink, boolean sort) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigSetProcessor.differ(source1, source2, sink, sort);
+        log.debug("differ total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public long intersectSorted(RowSource source1, RowSource source2, RowSink sink) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigSetProcessor.intersectSorted(source1, source2, sink);
+        log.debug("intersectSorted total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public long unionSorted(RowSource source1, RowSource source2, RowSink sink) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigSetProcessor.unionSorted(source1, source2, sink);
+        log.debug("unionSorted total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public long differSorted(RowSource source1, RowSource source2, RowSink sink) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigSetProcessor.differSorted(source1, source2, sink);
+        log.debug("differSorted total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public long join(String leftFilePath, String rightFilePath, String outputFilePath, JoinType joinType,
+                     RowJoiner rowJoiner) throws IOException {
+        return join(RowSource.of(leftFilePath), RowSource.of(rightFilePath), RowSink.of(outputFilePath), joinType,
+                rowJoiner);
+    }
+
+    @Override
+    public long join(RowSource left, RowSource right, RowSink sink, JoinType joinType, RowJoiner rowJoiner)
+            throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigSetProcessor.join(left, right, sink, joinType, rowJoiner);
+        log.debug("join total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public long sort(RowSource source, RowSink sink) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigListProcessor.sort(source, sink);
+        log.debug("sort total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public long sortUnique(RowSource source, RowSink sink) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigListProcessor.sortUnique(source, sink);
+        log.debug("sortUnique total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public long filter(RowSource source, RowSink sink) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = bigListProcessor.filter(source, sink);
+        log.debug("filter total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    @Override
+    public List<String> sharding(RowSource source, int shardingCount) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        List<String> shardingFileList = bigListProcessor.sharding(source, shardingCount);
+        log.debug("sharding total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return shardingFileList;
+    }
+
+    @Override
+    public Map<String, Long> route(RowSource source, Map<String, RowSink> sinkMap, RowRouter rowRouter)
+            throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        Map<String, Long> countMap = bigListProcessor.route(source, sinkMap, rowRouter);
+        log.debug("route total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return countMap;
+    }
+
+    @Override
+    public ShardPlan plan(boolean unique, boolean sort, RowSource... sources) throws IOException {
+        return bigSetProcessor.plan(unique, sort, sources);
+    }
+
+    @Override
+    public KeySketch sketch(RowSource source) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        KeySketch sketch = estimateProcessor.sketch(source);
+        log.debug("sketch total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return sketch;
+    }
+
+    @Override
+    public long estimateDistinct(String sourceFilePath) throws IOException {
+        return estimateProcessor.estimateDistinct(RowSource.of(sourceFilePath));
+    }
+
+    @Override
+    public long estimateIntersect(String sourceFilePath1, String sourceFilePath2) throws IOException {
+        return estimateProcessor.estimateIntersect(RowSource.of(sourceFilePath1), RowSource.of(sourceFilePath2));
+    }
+
+    @Override
+    public long estimateUnion(String sourceFilePath1, String sourceFilePath2) throws IOException {
+        return estimateProcessor.estimateUnion(RowSource.of(sourceFilePath1), RowSource.of(sourceFilePath2));
+    }
+
+    @Override
+    public long estimateDiffer(String sourceFilePath1, String sourceFilePath2) throws IOException {
+        return estimateProcessor.estimateDiffer(RowSource.of(sourceFilePath1), RowSource.of(sourceFilePath2));
+    }
+
+    @Override
+    public long countIntersect(String sourceFilePath1, String sourceFilePath2) throws IOException {
+        return count(sourceFilePath1, sourceFilePath2, SetOperation.INTERSECT);
+    }
+
+    @Override
+    public long countUnion(String sourceFilePath1, String sourceFilePath2) throws IOException {
+        return count(sourceFilePath1, sourceFilePath2, SetOperation.UNION);
+    }
+
+    @Override
+    public long countDiffer(String sourceFilePath1, String sourceFilePath2) throws IOException {
+        return count(sourceFilePath1, sourceFilePath2, SetOperation.DIFFER);
+    }
+
+    @Override
+    public List<Long> countShards(RowSource source1, RowSource source2, SetOperation operation) throws IOException {
+        return bigSetProcessor.countShards(source1, source2, operation);
+    }
+
+    private long count(String sourceFilePath1, String sourceFilePath2, SetOperation operation) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long count = bigSetProcessor.count(RowSource.of(sourceFilePath1), RowSource.of(sourceFilePath2), operation);
+        log.debug("count {} total use {} seconds", operation, timeMeter.getUsed(TimeUnit.SECONDS));
+        return count;
+    }
+
+    @Override
+    public Pipeline pipeline(RowSource source) {
+        return pipelineProcessor.pipeline(source);
+    }
+
+    @Override
+    public Pipeline pipeline(String sourceFilePath) {
+        return pipeline(RowSource.of(sourceFilePath));
+    }
 }
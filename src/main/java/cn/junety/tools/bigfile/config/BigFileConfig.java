@@ -1,6 +1,14 @@
 package cn.junety.tools.bigfile.config;
 
+import cn.junety.tools.bigfile.scheduler.MemoryBudget;
+
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 /**
  * Created by caijt on 2018/8/17
@@ -20,6 +28,15 @@ public class BigFileConfig {
 
     private static final String DEFAULT_BASE_DIRECTORY = System.getProperty("user.dir") + "/bigfile/";
 
+    private static final int DEFAULT_MAX_SORTED_RUN_COUNT = 32;
+
+    private static final int DEFAULT_PARALLELISM = 1;
+
+    private static final long MAX_HEAP_SIZE = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+
+    // 没有指定内存预算的计算共用同一个预算, 为 JVM 和调用方预留堆内存的 40%
+    private static final MemoryBudget DEFAULT_MEMORY_BUDGET = new MemoryBudget(MAX_HEAP_SIZE / 5 * 3);
+
 
     private final String baseDirectory;
     // 每个分片文件的期望大小
@@ -28,12 +45,54 @@ public class BigFileConfig {
     private final long maxShardingBufferRowsInMemory;
     // 分片的buffer在内存中能驻留的最大字节数
     private final long maxShardingBufferSizeInMemory;
+    // 排序时, 源文件的有序段不超过该数量则直接多路归并, 不再分片; 超过时已扫描的有序段参与归并, 只对剩下的部分分片
+    private final int maxSortedRunCount;
+    // 集合运算时源文件的分片方式
+    private final PartitionStrategy partitionStrategy;
+    // 集合运算的执行方式, 默认 AUTO; 指定 SHUFFLE 时总是分片计算, 不需要排序时按分片的顺序输出
+    private final SetStrategy setStrategy;
+    // 并行处理的线程数, 大于1时 rowHandler 需要是线程安全的
+    private final int parallelism;
+    // 存放分片等临时文件的目录, 通常分布在不同的磁盘上, 为空时使用 baseDirectory
+    private final List<String> scratchDirectories;
+    // 临时文件在多个临时目录之间的分布方式
+    private final ScratchPlacement scratchPlacement;
+    // 是否记录计算进度, 失败后重新执行相同的计算时跳过已经完成的分片
+    private final boolean resumable;
+    // 每个分片读入内存计算时估算占用内存的上限, 超过时切分成子分片写入磁盘; 默认按内存预算计算
+    private final long maxShardMemorySize;
+    // 分片缓存占用磁盘空间的上限, 为 0 时不缓存
+    private final long shardCacheSize;
+    // 分片buffer、分片计算和排序等阶段申请内存的预算
+    private final MemoryBudget memoryBudget;
+    // 是否根据采样估算的行大小和key的基数规划分片数、并行度和分片方式, 关闭时按文件大小和 shardingFileSize 计算分片数
+    private final boolean autoPlan;
+    // 是否把估算时生成的key概要保存在数据源旁边, 数据源没有变化时后续的估算和分片规划直接使用
+    private final boolean persistSketch;
+    // 并行计算共享的线程池, 为空时每次计算创建自己的线程池
+    private final ExecutorService executor;
+    // 限制同时进行分片、归并输出等磁盘密集阶段的计算数量, 为空时不限制
+    private final Semaphore ioSemaphore;
 
     public BigFileConfig(Builder builder) {
         this.baseDirectory = builder.baseDirectory;
         this.shardingFileSize = builder.shardingFileSize;
         this.maxShardingBufferRowsInMemory = builder.maxShardingBufferRowsInMemory;
         this.maxShardingBufferSizeInMemory = builder.maxShardingBufferSizeInMemory;
+        this.maxSortedRunCount = builder.maxSortedRunCount;
+        this.partitionStrategy = builder.partitionStrategy;
+        this.setStrategy = builder.setStrategy;
+        this.parallelism = builder.parallelism;
+        this.scratchDirectories = Collections.unmodifiableList(new ArrayList<>(builder.scratchDirectories));
+        this.scratchPlacement = builder.scratchPlacement;
+        this.resumable = builder.resumable;
+        this.maxShardMemorySize = builder.maxShardMemorySize;
+        this.shardCacheSize = builder.shardCacheSize;
+        this.memoryBudget = builder.memoryBudget;
+        this.autoPlan = builder.autoPlan;
+        this.persistSketch = builder.persistSketch;
+        this.executor = builder.executor;
+        this.ioSemaphore = builder.ioSemaphore;
     }
 
 
@@ -53,6 +112,77 @@ public class BigFileConfig {
         return maxShardingBufferSizeInMemory;
     }
 
+    public int getMaxSortedRunCount() {
+        return maxSortedRunCount;
+    }
+
+    public PartitionStrategy getPartitionStrategy() {
+        return partitionStrategy;
+    }
+
+    public SetStrategy getSetStrategy() {
+        return setStrategy;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * 临时目录列表, 没有设置时只包含 baseDirectory
+     */
+    public List<String> getScratchDirectories() {
+        return scratchDirectories.isEmpty() ? Collections.singletonList(baseDirectory) : scratchDirectories;
+    }
+
+    public ScratchPlacement getScratchPlacement() {
+        return scratchPlacement;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    public long getMaxShardMemorySize() {
+        // 内存预算平分给并行计算的分片, 再留一份给分片buffer、排序等同时进行的阶段
+        return maxShardMemorySize > 0 ? maxShardMemorySize
+                : getMemoryBudget().getCapacity() / (Math.max(parallelism, 1) + 1);
+    }
+
+    public long getShardCacheSize() {
+        return shardCacheSize;
+    }
+
+    /**
+     * 分片缓存的目录, 位于 baseDirectory 下
+     */
+    public String getShardCacheDirectory() {
+        return (baseDirectory.endsWith("/") ? baseDirectory : baseDirectory + "/") + "shard-cache/";
+    }
+
+    /**
+     * 内存预算, 没有指定时返回同一个 JVM 内所有计算共用的默认预算
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget != null ? memoryBudget : DEFAULT_MEMORY_BUDGET;
+    }
+
+    public boolean isAutoPlan() {
+        return autoPlan;
+    }
+
+    public boolean isPersistSketch() {
+        return persistSketch;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public Semaphore getIoSemaphore() {
+        return ioSemaphore;
+    }
+
 
     public static class Builder {
 
@@ -60,6 +190,49 @@ public class BigFileConfig {
         private long shardingFileSize = DEFAULT_SHARDING_FILE_SIZE;
         private long maxShardingBufferRowsInMemory = DEFAULT_MAX_SHARDING_BUFFER_ROWS_IN_MEMORY;
         private long maxShardingBufferSizeInMemory = DEFAULT_MAX_SHARDING_BUFFER_SIZE_IN_MEMORY;
+        private int maxSortedRunCount = DEFAULT_MAX_SORTED_RUN_COUNT;
+        private PartitionStrategy partitionStrategy = PartitionStrategy.HASH;
+        private SetStrategy setStrategy = SetStrategy.AUTO;
+        private int parallelism = DEFAULT_PARALLELISM;
+        private List<String> scratchDirectories = new ArrayList<>();
+        private ScratchPlacement scratchPlacement = ScratchPlacement.ROUND_ROBIN;
+        private boolean resumable;
+        private long maxShardMemorySize;
+        private long shardCacheSize;
+        private MemoryBudget memoryBudget;
+        private boolean autoPlan;
+        private boolean persistSketch;
+        private ExecutorService executor;
+        private Semaphore ioSemaphore;
+
+        public Builder() {
+        }
+
+        /**
+         * 以已有的配置为基础创建 Builder
+         *
+         * @param config 已有的配置
+         */
+        public Builder(BigFileConfig config) {
+            this.baseDirectory = config.baseDirectory;
+            this.shardingFileSize = config.shardingFileSize;
+            this.maxShardingBufferRowsInMemory = config.maxShardingBufferRowsInMemory;
+            this.maxShardingBufferSizeInMemory = config.maxShardingBufferSizeInMemory;
+            this.maxSortedRunCount = config.maxSortedRunCount;
+            this.partitionStrategy = config.partitionStrategy;
+            this.setStrategy = config.setStrategy;
+            this.parallelism = config.parallelism;
+            this.scratchDirectories = new ArrayList<>(config.scratchDirectories);
+            this.scratchPlacement = config.scratchPlacement;
+            this.resumable = config.resumable;
+            this.maxShardMemorySize = config.maxShardMemorySize;
+            this.shardCacheSize = config.shardCacheSize;
+            this.memoryBudget = config.memoryBudget;
+            this.autoPlan = config.autoPlan;
+            this.persistSketch = config.persistSketch;
+            this.executor = config.executor;
+            this.ioSemaphore = config.ioSemaphore;
+        }
 
         public Builder setBaseDirectory(String baseDirectory) {
             this.baseDirectory = baseDirectory;
@@ -81,6 +254,76 @@ public class BigFileConfig {
             return this;
         }
 
+        public Builder setMaxSortedRunCount(int maxSortedRunCount) {
+            this.maxSortedRunCount = maxSortedRunCount;
+            return this;
+        }
+
+        public Builder setPartitionStrategy(PartitionStrategy partitionStrategy) {
+            this.partitionStrategy = partitionStrategy;
+            return this;
+        }
+
+        public Builder setSetStrategy(SetStrategy setStrategy) {
+            this.setStrategy = setStrategy;
+            return this;
+        }
+
+        public Builder setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder setScratchDirectories(String... scratchDirectories) {
+            this.scratchDirectories = new ArrayList<>(Arrays.asList(scratchDirectories));
+            return this;
+        }
+
+        public Builder setScratchPlacement(ScratchPlacement scratchPlacement) {
+            this.scratchPlacement = scratchPlacement;
+            return this;
+        }
+
+        public Builder setResumable(boolean resumable) {
+            this.resumable = resumable;
+            return this;
+        }
+
+        public Builder setMaxShardMemorySize(long maxShardMemorySize) {
+            this.maxShardMemorySize = maxShardMemorySize;
+            return this;
+        }
+
+        public Builder setShardCacheSize(long shardCacheSize) {
+            this.shardCacheSize = shardCacheSize;
+            return this;
+        }
+
+        public Builder setMemoryBudget(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        public Builder setAutoPlan(boolean autoPlan) {
+            this.autoPlan = autoPlan;
+            return this;
+        }
+
+        public Builder setPersistSketch(boolean persistSketch) {
+            this.persistSketch = persistSketch;
+            return this;
+        }
+
+        public Builder setExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder setIoSemaphore(Semaphore ioSemaphore) {
+            this.ioSemaphore = ioSemaphore;
+            return this;
+        }
+
         public BigFileConfig build() {
             return new BigFileConfig(this);
         }
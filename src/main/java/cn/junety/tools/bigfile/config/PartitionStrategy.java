@@ -0,0 +1,17 @@
+package cn.junety.tools.bigfile.config;
+
+/**
+ * 集合运算时源文件的分片方式
+ */
+public enum PartitionStrategy {
+
+    /**
+     * 按照key的哈希值分片
+     */
+    HASH,
+
+    /**
+     * 按照采样得到的key区间分片, 分片之间的key有序, 需要排序时可以省去结果的全局归并
+     */
+    RANGE
+}
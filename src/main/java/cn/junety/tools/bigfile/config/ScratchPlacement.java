@@ -0,0 +1,17 @@
+package cn.junety.tools.bigfile.config;
+
+/**
+ * 临时文件在多个临时目录之间的分布方式
+ */
+public enum ScratchPlacement {
+
+    /**
+     * 按顺序轮流使用各个临时目录
+     */
+    ROUND_ROBIN,
+
+    /**
+     * 按各个临时目录所在磁盘的剩余空间加权分配
+     */
+    FREE_SPACE
+}
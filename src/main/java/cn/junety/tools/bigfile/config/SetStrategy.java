@@ -0,0 +1,33 @@
+package cn.junety.tools.bigfile.config;
+
+/**
+ * 集合运算的执行方式
+ */
+public enum SetStrategy {
+
+    /**
+     * 根据数据源的估算内存、内存预算和数据源是否有序自动选择, 依次尝试 IN_MEMORY、BROADCAST、SORT_MERGE, 最后使用 SHUFFLE
+     * 默认的执行方式; 结果的行与 SHUFFLE 相同, 但不需要排序时输出的顺序不再是分片的顺序, 依赖这个顺序时指定 SHUFFLE
+     */
+    AUTO,
+
+    /**
+     * 两个数据源都读入内存计算, 不创建临时目录, 不写入临时文件
+     */
+    IN_MEMORY,
+
+    /**
+     * 较小的数据源读入内存, 顺序读取一遍另一个数据源; 只用于交集和较小的数据源为被减数的差集
+     */
+    BROADCAST,
+
+    /**
+     * 两个数据源都按key有序时边读边归并, 结果按key有序; 需要按行排序时不适用, 改为 SHUFFLE
+     */
+    SORT_MERGE,
+
+    /**
+     * 两个数据源按相同的规则分片到磁盘, 逐个分片计算后合并
+     */
+    SHUFFLE
+}
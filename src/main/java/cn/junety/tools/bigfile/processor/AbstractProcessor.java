@@ -2,23 +2,32 @@ package cn.junety.tools.bigfile.processor;
 
 import cn.junety.tools.bigfile.config.BigFileConfig;
 import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.ConcurrentUtils;
+import cn.junety.tools.bigfile.utils.FileRange;
 import cn.junety.tools.bigfile.utils.FileUtils;
 import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.LineWriter;
+import cn.junety.tools.bigfile.utils.MemoryUtils;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
+import cn.junety.tools.bigfile.utils.TimeMeter;
+import lombok.extern.slf4j.Slf4j;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by caijt on 2018/8/17
  */
+@Slf4j
 public class AbstractProcessor {
 
+    // 多路归并同时打开的文件数上限, 超过时分多轮归并
+    static final int MAX_MERGE_FAN_IN = 256;
+
     protected BigFileConfig config;
     protected RowHandler rowHandler;
 
@@ -34,137 +43,446 @@ public class AbstractProcessor {
      * @param shardingCount  切分的分片数
      */
     public List<String> sharding(String sourceFilePath, int shardingCount) throws IOException {
-        return createShardingProcessor(createTempDirectory(), sourceFilePath, shardingCount).sharding();
+        return sharding(RowSource.of(sourceFilePath), shardingCount);
     }
 
     /**
-     * 使用归并排序对分片文件进行合并
+     * 对数据源进行分片, 直接读取数据源, 不需要先写入临时文件
+     *
+     * @param source        数据源
+     * @param shardingCount 切分的分片数
+     */
+    public List<String> sharding(RowSource source, int shardingCount) throws IOException {
+        return createShardingProcessor(createScratchSpace(), source, shardingCount).sharding();
+    }
+
+    /**
+     * 对分片文件进行排序并合并, 分片文件原地排序, 合并完成后删除
      *
      * @param shardingFileList 分片文件的路径列表
      * @param outputFilePath   输出的文件路径
      */
     public long sort(List<String> shardingFileList, String outputFilePath) throws IOException {
-        long totalSize = 0;
+        List<String> sortedFileList = sortShards(shardingFileList, false, null);
+        long totalSize = mergeSortedFiles(sortedFileList, RowSink.of(outputFilePath), false);
+        deleteFiles(sortedFileList);
+        return totalSize;
+    }
 
-        // 先对小文件进行内部排序
-        for (String filePath : shardingFileList) {
-            List<String> rowList = FileUtils.readLines(filePath);
-            totalSize += rowList.size();
-            Collections.sort(rowList);
-            FileUtils.writeLines(filePath, rowList, false);
-        }
+    /**
+     * 对分片文件分别进行内部排序, 然后多路归并输出到目标文件
+     *
+     * @param shardingFileList 分片文件的路径列表
+     * @param sink             输出目标
+     * @param unique           是否使用rowHandler合并key相同的数据
+     */
+    long sortAndMerge(List<String> shardingFileList, RowSink sink, boolean unique) throws IOException {
+        return sortAndMerge(shardingFileList, sink, unique, null);
+    }
 
-        // 每次拿两个文件进行归并排序
-        int step = 1;
-        do {
-            step *= 2;
-            for (int i = 0; i < shardingFileList.size(); i += step) {
-                if (i + step / 2 >= shardingFileList.size()) continue;
+    /**
+     * 对分片文件分别进行内部排序, 然后多路归并输出到目标文件
+     * 排序后的分片尽量写入与原分片不同磁盘上的临时目录; 每个分片从内存预算中申请内存, 超过分配的内存时分段排序
+     *
+     * @param shardingFileList 分片文件的路径列表
+     * @param sink             输出目标
+     * @param unique           是否使用rowHandler合并key相同的数据
+     * @param scratchSpace     临时目录, 为 null 时原地覆盖分片文件
+     */
+    long sortAndMerge(List<String> shardingFileList, RowSink sink, boolean unique,
+                      ScratchSpace scratchSpace) throws IOException {
+        return sortAndMerge(shardingFileList, Collections.emptyList(), sink, unique, scratchSpace);
+    }
 
-                String file1 = shardingFileList.get(i);
-                String file2 = shardingFileList.get(i + step / 2);
-                String file3 = file1 + ".tmp";
+    /**
+     * 对分片文件分别进行内部排序, 然后与源文件中已经有序的区间一起多路归并输出到目标文件
+     *
+     * @param shardingFileList 分片文件的路径列表
+     * @param sortedRangeList  源文件中已经有序的区间, 其中不合法的数据在归并时过滤
+     * @param sink             输出目标
+     * @param unique           是否使用rowHandler合并key相同的数据
+     * @param scratchSpace     临时目录, 为 null 时原地覆盖分片文件
+     */
+    long sortAndMerge(List<String> shardingFileList, List<FileRange> sortedRangeList, RowSink sink, boolean unique,
+                      ScratchSpace scratchSpace) throws IOException {
+        return mergeSortedFiles(sortShards(shardingFileList, unique, scratchSpace), sortedRangeList, sink, unique);
+    }
 
-                sort(file1, file2, file3);
+    /**
+     * 对分片文件分别进行内部排序, 返回有序文件列表
+     * 排序后的分片尽量写入与原分片不同磁盘上的临时目录; 每个分片从内存预算中申请内存, 超过分配的内存时分段排序
+     *
+     * @param shardingFileList 分片文件的路径列表
+     * @param unique           是否使用rowHandler合并key相同的数据
+     * @param scratchSpace     临时目录, 为 null 时原地覆盖分片文件
+     */
+    private List<String> sortShards(List<String> shardingFileList, boolean unique, ScratchSpace scratchSpace)
+            throws IOException {
+        List<String> sortedFileList = new ArrayList<>(shardingFileList.size());
+        for (String filePath : shardingFileList) {
+            String sortedFilePath = scratchSpace == null ? filePath
+                    : scratchSpace.otherDirectory(filePath) + FileUtils.getName(filePath);
+            long memory = config.getMemoryBudget().reserve(config.getMaxShardMemorySize());
+            try {
+                if (unique) {
+                    sortedFileList.addAll(sortUniqueShard(filePath, sortedFilePath,
+                            new ShardSpiller(rowHandler, memory), 0));
+                } else {
+                    sortedFileList.addAll(sortShard(filePath, sortedFilePath, memory));
+                }
+            } finally {
+                config.getMemoryBudget().release(memory);
+            }
+        }
+        return sortedFileList;
+    }
 
-                FileUtils.delete(file1);
-                FileUtils.delete(file2);
-                FileUtils.rename(file3, file1);
+    /**
+     * 对一个分片排序, 返回有序文件列表
+     * 读入的数据超过内存上限时, 先排序写入一个有序段, 再继续读取, 每个有序段生成一个有序文件
+     *
+     * @param filePath       分片文件
+     * @param sortedFilePath 有序文件
+     * @param memoryLimit    内存上限
+     */
+    private List<String> sortShard(String filePath, String sortedFilePath, long memoryLimit) throws IOException {
+        List<String> runFileList = new ArrayList<>();
+        List<String> rowList = new ArrayList<>();
+        long usedMemory = 0;
+        try (LineIterator lineIterator = FileUtils.newLineIterator(filePath)) {
+            while (lineIterator.hasNext()) {
+                String row = lineIterator.nextLine();
+                rowList.add(row);
+                usedMemory += MemoryUtils.stringSize(row) + MemoryUtils.LIST_ELEMENT_SIZE;
+                if (usedMemory > memoryLimit) {
+                    String runFilePath = sortedFilePath + "-run" + runFileList.size();
+                    Collections.sort(rowList);
+                    FileUtils.writeLines(runFilePath, rowList, false);
+                    runFileList.add(runFilePath);
+                    rowList = new ArrayList<>();
+                    usedMemory = 0;
+                }
             }
-        } while (step < shardingFileList.size());
+        }
+        if (!runFileList.isEmpty()) {
+            log.debug("sort {} in {} runs", filePath, runFileList.size() + 1);
+        }
 
-        FileUtils.rename(shardingFileList.get(0), outputFilePath, true);
+        // 最后一段写入有序文件, 原地排序时需要在读取完成后才能覆盖分片文件
+        Collections.sort(rowList);
+        FileUtils.writeLines(sortedFilePath, rowList, false);
+        if (!sortedFilePath.equals(filePath)) {
+            FileUtils.delete(filePath);
+        }
+        runFileList.add(sortedFilePath);
+        return runFileList;
+    }
 
-        return totalSize;
+    /**
+     * 对一个分片去重并排序, 返回有序文件列表
+     * 估算的内存超过上限时把分片切分成子分片, 逐个子分片递归地去重排序, 每个子分片生成一个有序文件
+     *
+     * @param filePath       分片文件
+     * @param sortedFilePath 有序文件
+     * @param spiller        超过内存上限时切分分片
+     * @param level          切分的层数, 原始分片为 0
+     */
+    private List<String> sortUniqueShard(String filePath, String sortedFilePath, ShardSpiller spiller, int level)
+            throws IOException {
+        if (!spiller.mustSpill(level, Collections.singletonList(filePath))) {
+            Map<String, String> rowMap = spiller.readAsMap(filePath, level, new long[1]);
+            if (rowMap != null) {
+                List<String> rowList = new ArrayList<>(rowMap.values());
+                Collections.sort(rowList);
+                FileUtils.writeLines(sortedFilePath, rowList, false);
+                if (!sortedFilePath.equals(filePath)) {
+                    FileUtils.delete(filePath);
+                }
+                return Collections.singletonList(sortedFilePath);
+            }
+        }
+
+        List<List<String>> partitionList = spiller.spill(Collections.singletonList(filePath), level, sortedFilePath);
+        FileUtils.delete(filePath);
+        List<String> sortedFileList = new ArrayList<>();
+        for (int i = 0; i < partitionList.size(); i++) {
+            sortedFileList.addAll(sortUniqueShard(partitionList.get(i).get(0), sortedFilePath + "-sub" + i,
+                    spiller, level + 1));
+        }
+        return sortedFileList;
     }
 
     /**
-     * 对两个有序文件通过使用归并排序得到一个有序的文件
+     * 对多个有序文件进行多路归并, 输出到目标文件
+     * 有序文件超过 MAX_MERGE_FAN_IN 个时, 每 MAX_MERGE_FAN_IN 个先归并成一个中间文件, 直到可以一次归并
      *
-     * @param inputFilePath1 有序文件1的路径
-     * @param inputFilePath2 有序文件2的路径
-     * @param outputFilePath 排序后的文件路径
+     * @param sortedFileList 有序文件的路径列表
+     * @param sink           输出目标
+     * @param unique         是否使用rowHandler合并相邻的key相同的数据
      */
-    private void sort(String inputFilePath1, String inputFilePath2, String outputFilePath) throws IOException {
-        FileUtils.deleteIfExists(outputFilePath);
-        try (BufferedReader br1 = Files.newBufferedReader(Paths.get(inputFilePath1));
-             BufferedReader br2 = Files.newBufferedReader(Paths.get(inputFilePath2));
-             BufferedWriter bw = Files.newBufferedWriter(Paths.get(outputFilePath), StandardOpenOption.CREATE_NEW)) {
+    long mergeSortedFiles(List<String> sortedFileList, RowSink sink, boolean unique) throws IOException {
+        return mergeSortedFiles(sortedFileList, Collections.emptyList(), sink, unique);
+    }
 
-            String str1 = br1.readLine();
-            String str2 = br2.readLine();
-            while (str1 != null && str2 != null) {
-                int comp = str1.compareTo(str2);
-                if (comp < 0) {
-                    bw.write(str1);
-                    bw.newLine();
-                    str1 = br1.readLine();
-                } else {
-                    bw.write(str2);
-                    bw.newLine();
-                    str2 = br2.readLine();
-                }
+    /**
+     * 对多个有序文件和源文件中已经有序的区间进行多路归并, 输出到目标文件
+     * 有序区间只在最后一轮归并, 之前的轮次只归并有序文件, 为有序区间留出打开文件的数量
+     *
+     * @param sortedFileList  有序文件的路径列表
+     * @param sortedRangeList 源文件中已经有序的区间, 其中不合法的数据在归并时过滤
+     * @param sink            输出目标
+     * @param unique          是否使用rowHandler合并相邻的key相同的数据
+     */
+    long mergeSortedFiles(List<String> sortedFileList, List<FileRange> sortedRangeList, RowSink sink,
+                          boolean unique) throws IOException {
+        int finalFanIn = Math.max(MAX_MERGE_FAN_IN - sortedRangeList.size(), 2);
+        List<String> fileList = sortedFileList;
+        for (int pass = 0; fileList.size() > finalFanIn; pass++) {
+            List<String> passFileList = new ArrayList<>((fileList.size() - 1) / MAX_MERGE_FAN_IN + 1);
+            for (int i = 0; i < fileList.size(); i += MAX_MERGE_FAN_IN) {
+                List<String> groupList = fileList.subList(i, Math.min(i + MAX_MERGE_FAN_IN, fileList.size()));
+                String passFilePath = groupList.get(0) + "-merge" + pass;
+                mergeFiles(groupList, RowSink.of(passFilePath), unique);
+                passFileList.add(passFilePath);
+            }
+            log.debug("merge {} sorted files into {} files in pass {}", fileList.size(), passFileList.size(), pass);
+            // 上一轮的中间文件已经归并, 原始的有序文件由调用方删除
+            if (pass > 0) {
+                deleteFiles(fileList);
             }
+            fileList = passFileList;
+        }
+
+        long totalSize = sortedRangeList.isEmpty() ? mergeFiles(fileList, sink, unique)
+                : mergeFilesAndRanges(fileList, sortedRangeList, sink, unique);
+        if (fileList != sortedFileList) {
+            deleteFiles(fileList);
+        }
+        return totalSize;
+    }
 
-            while (str1 != null) {
-                bw.write(str1);
-                bw.newLine();
-                str1 = br1.readLine();
+    private void deleteFiles(List<String> fileList) throws IOException {
+        for (String filePath : fileList) {
+            FileUtils.delete(filePath);
+        }
+    }
+
+    // 同时打开所有有序文件进行多路归并
+    private long mergeFiles(List<String> sortedFileList, RowSink sink, boolean unique) throws IOException {
+        List<LineIterator> iteratorList = new ArrayList<>(sortedFileList.size());
+        try {
+            for (String filePath : sortedFileList) {
+                iteratorList.add(FileUtils.newLineIterator(filePath));
+            }
+            return merge(iteratorList, sink, false, unique);
+        } finally {
+            for (LineIterator iterator : iteratorList) {
+                iterator.close();
             }
+        }
+    }
 
-            while (str2 != null) {
-                bw.write(str2);
-                bw.newLine();
-                str2 = br2.readLine();
+    // 有序文件已经过滤过, 只有源文件中的有序区间需要过滤
+    private long mergeFilesAndRanges(List<String> sortedFileList, List<FileRange> sortedRangeList, RowSink sink,
+                                     boolean unique) throws IOException {
+        List<LineIterator> iteratorList = new ArrayList<>(sortedFileList.size() + sortedRangeList.size());
+        try {
+            List<MergeEntry> entryList = new ArrayList<>(sortedFileList.size() + sortedRangeList.size());
+            for (String filePath : sortedFileList) {
+                iteratorList.add(FileUtils.newLineIterator(filePath));
+                entryList.add(new MergeEntry(iteratorList.get(iteratorList.size() - 1), false));
+            }
+            for (FileRange range : sortedRangeList) {
+                iteratorList.add(FileUtils.newLineIterator(range));
+                entryList.add(new MergeEntry(iteratorList.get(iteratorList.size() - 1), true));
+            }
+            return merge(entryList, sink, unique);
+        } finally {
+            for (LineIterator iterator : iteratorList) {
+                iterator.close();
             }
         }
     }
 
     /**
-     * 读取文件作为一个集合, 使用rowHandler解决数据冲突
+     * 对多个有序的数据源进行多路归并, 输出到目标文件
      *
-     * @param filePath 文件路径
+     * @param iteratorList   有序数据源列表
+     * @param sink           输出目标
+     * @param filter         是否使用rowHandler过滤不合法的数据
+     * @param unique         是否使用rowHandler合并相邻的key相同的数据
      */
-    Set<String> readAsSet(String filePath) throws IOException {
-        try (LineIterator lineIterator = FileUtils.newLineIterator(filePath)) {
+    long merge(List<LineIterator> iteratorList, RowSink sink, boolean filter, boolean unique)
+            throws IOException {
+        List<MergeEntry> entryList = new ArrayList<>(iteratorList.size());
+        for (LineIterator iterator : iteratorList) {
+            entryList.add(new MergeEntry(iterator, filter));
+        }
+        return merge(entryList, sink, unique);
+    }
 
-            Map<String, String> rowSet = new HashMap<>();
-            String newRow, oldRow, key;
+    private long merge(List<MergeEntry> entryList, RowSink sink, boolean unique) throws IOException {
+        PriorityQueue<MergeEntry> queue = new PriorityQueue<>(Math.max(entryList.size(), 1));
+        for (MergeEntry entry : entryList) {
+            if (entry.next()) {
+                queue.add(entry);
+            }
+        }
 
-            while (lineIterator.hasNext()) {
-                newRow = lineIterator.nextLine();
-                key = rowHandler.getKey(newRow);
-                oldRow = rowSet.get(key);
-                if (oldRow == null) {
-                    rowSet.put(key, newRow);
+        long totalSize = 0;
+        ConcurrentUtils.acquire(config.getIoSemaphore());
+        try (LineWriter writer = sink.open()) {
+            String pendingRow = null, pendingKey = null;
+            while (!queue.isEmpty()) {
+                MergeEntry entry = queue.poll();
+                String row = entry.row;
+                if (entry.next()) {
+                    queue.add(entry);
+                }
+
+                if (!unique) {
+                    writer.writeLine(row);
+                    totalSize++;
+                    continue;
+                }
+
+                String key = rowHandler.getKey(row);
+                if (pendingKey != null && pendingKey.equals(key)) {
+                    pendingRow = rowHandler.clash(row, pendingRow);
                 } else {
-                    rowSet.put(key, rowHandler.clash(newRow, oldRow));
+                    if (pendingRow != null) {
+                        writer.writeLine(pendingRow);
+                        totalSize++;
+                    }
+                    pendingRow = row;
+                    pendingKey = key;
+                }
+            }
+            if (pendingRow != null) {
+                writer.writeLine(pendingRow);
+                totalSize++;
+            }
+        } finally {
+            ConcurrentUtils.release(config.getIoSemaphore());
+        }
+        return totalSize;
+    }
+
+    /**
+     * 多路归并中的一路数据源
+     */
+    private class MergeEntry implements Comparable<MergeEntry> {
+        private final LineIterator iterator;
+        private final boolean filter;
+        private String row;
+
+        MergeEntry(LineIterator iterator, boolean filter) {
+            this.iterator = iterator;
+            this.filter = filter;
+        }
+
+        boolean next() {
+            while (iterator.hasNext()) {
+                row = iterator.nextLine();
+                if (!filter || rowHandler.accept(row)) {
+                    return true;
                 }
             }
-            return new HashSet<>(rowSet.values());
+            return false;
+        }
+
+        @Override
+        public int compareTo(MergeEntry o) {
+            return row.compareTo(o.row);
         }
     }
 
-    ShardingProcessor createShardingProcessor(String tempDirectory, String sourceFilePath, int shardingCount) {
-        return new ShardingProcessor(tempDirectory, sourceFilePath,shardingCount, rowHandler);
+    ShardingProcessor createShardingProcessor(ScratchSpace scratchSpace, String sourceFilePath, int shardingCount) {
+        return createShardingProcessor(scratchSpace, RowSource.of(sourceFilePath), shardingCount);
+    }
+
+    ShardingProcessor createShardingProcessor(ScratchSpace scratchSpace, RowSource source, int shardingCount) {
+        return createShardingProcessor(scratchSpace, source, new HashPartitioner(shardingCount, rowHandler));
     }
 
-    String createTempDirectory() throws IOException {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
-        String directory = String.format("%s%s-%s/", config.getBaseDirectory(),
-                dateFormat.format(new Date()),
-                String.format("%04d", new Random().nextInt(10000)));
-        FileUtils.createDirectories(directory);
-        return directory;
+    ShardingProcessor createShardingProcessor(ScratchSpace scratchSpace, RowSource source, Partitioner partitioner) {
+        return new ShardingProcessor(scratchSpace, source, rowHandler, partitioner, config.getParallelism())
+                .setConfig(config);
     }
 
-    int calcShardingCount(String... sourceFiles) {
+    /**
+     * 获取并行计算使用的线程池, 配置了共享线程池时使用共享线程池
+     *
+     * @param threads 创建线程池时的线程数
+     */
+    ExecutorService newExecutor(int threads) {
+        return config.getExecutor() != null ? config.getExecutor() : Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * 关闭 newExecutor 创建的线程池, 共享线程池不会被关闭
+     *
+     * @param executor 线程池
+     */
+    void shutdownExecutor(ExecutorService executor) {
+        if (executor != config.getExecutor()) {
+            executor.shutdownNow();
+        }
+    }
+
+    // 在每个临时目录下创建本次计算使用的子目录
+    ScratchSpace createScratchSpace() throws IOException {
+        return ScratchSpace.create(config);
+    }
+
+    int calcShardingCount(String... sourceFiles) throws IOException {
+        RowSource[] sources = new RowSource[sourceFiles.length];
+        for (int i = 0; i < sourceFiles.length; i++) {
+            sources[i] = RowSource.of(sourceFiles[i]);
+        }
+        return calcShardingCount(sources);
+    }
+
+    /**
+     * 根据数据源的大小计算分片数量, 大小未知的数据源按 64 个分片估算
+     *
+     * @param sources 数据源列表
+     */
+    int calcShardingCount(RowSource... sources) throws IOException {
         long maxLength = 0;
-        for (String filePath : sourceFiles) {
-            long length = FileUtils.getFileLength(filePath);
-            maxLength = Math.max(maxLength, length);
+        for (RowSource source : sources) {
+            maxLength = Math.max(maxLength, ShardPlanner.estimateLength(source, config));
         }
         int count = (int) ((maxLength + config.getShardingFileSize() - 1) / config.getShardingFileSize());
         return count < 1 ? 1 : count;
     }
+
+    /**
+     * 采样数据源, 根据估算的行大小、key的基数和内存预算规划分片数量、并行度和分片方式
+     *
+     * @param unique  计算时是否按key去重读入内存, 集合运算和去重为 true, 排序为 false
+     * @param sort    是否需要对结果排序
+     * @param sources 数据源列表
+     */
+    public ShardPlan plan(boolean unique, boolean sort, RowSource... sources) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        ShardPlan plan = new ShardPlanner(config, rowHandler).plan(unique, sort, sources);
+        log.debug("shard plan of {}: {}, use {} ms", Arrays.toString(sources), plan,
+                timeMeter.getUsed(TimeUnit.MILLISECONDS));
+        return plan;
+    }
+
+    /**
+     * 计算使用的分片计划, 开启 autoPlan 时采样规划, 否则按数据源的大小计算分片数量, 并行度和分片方式来自配置
+     *
+     * @param unique  计算时是否按key去重读入内存
+     * @param sort    是否需要对结果排序
+     * @param sources 数据源列表
+     */
+    ShardPlan planSharding(boolean unique, boolean sort, RowSource... sources) throws IOException {
+        if (config.isAutoPlan()) {
+            return plan(unique, sort, sources);
+        }
+        return new ShardPlan(calcShardingCount(sources), config.getParallelism(), config.getPartitionStrategy());
+    }
 }
@@ -2,21 +2,42 @@ package cn.junety.tools.bigfile.processor;
 
 import cn.junety.tools.bigfile.config.BigFileConfig;
 import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowPredicate;
+import cn.junety.tools.bigfile.row.RowRouter;
+import cn.junety.tools.bigfile.utils.ByteLineReader;
+import cn.junety.tools.bigfile.utils.ConcurrentUtils;
+import cn.junety.tools.bigfile.utils.FileRange;
 import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.GzipUtils;
 import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.LineWriter;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
+import lombok.extern.slf4j.Slf4j;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
-import java.util.Set;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Created by caijt on 2018/8/17
  */
+@Slf4j
 public class BigListProcessor extends AbstractProcessor {
 
+    private static final long FILTER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private static final byte[] LINE_SEPARATOR_BYTES = LINE_SEPARATOR.getBytes(StandardCharsets.UTF_8);
+
     public BigListProcessor(BigFileConfig config, RowHandler rowHandler) {
         super(config, rowHandler);
     }
@@ -28,17 +49,171 @@ public class BigListProcessor extends AbstractProcessor {
      * @param outputFilePath 输出路径
      */
     public long sort(String sourceFilePath, String outputFilePath) throws IOException {
-        int shardingCount = calcShardingCount(sourceFilePath);
+        return sort(RowSource.of(sourceFilePath), RowSink.of(outputFilePath));
+    }
+
+    /**
+     * 对数据源按字典序进行排序, 数据源不是文件时直接读取数据流进行分片
+     *
+     * @param source 数据源
+     * @param sink   输出目标
+     */
+    public long sort(RowSource source, RowSink sink) throws IOException {
+        // 源文件已经有序, 或者只由少量有序段组成时, 不需要分片
+        // gzip 文件和数据流无法按偏移量读取有序段, 直接分片
+        List<FileRange> sortedRangeList = Collections.emptyList();
+        RowSource shardingSource = source;
+        if (config.getMaxSortedRunCount() > 0 && source.isFile() && !GzipUtils.isGzip(source.getFilePath())) {
+            SortedRunScanner scanner = new SortedRunScanner(rowHandler, config.getMaxSortedRunCount());
+            if (scanner.scan(source.getFilePath())) {
+                return naturalMergeSort(scanner, source.getFilePath(), sink);
+            }
+            // 扫描过的部分已经切分成有序段, 直接参与最后的归并, 只对剩下的部分分片
+            sortedRangeList = scanner.getRunList();
+            long scannedEnd = sortedRangeList.get(sortedRangeList.size() - 1).getEnd();
+            shardingSource = RowSource.of(new FileRange(source.getFilePath(), scannedEnd,
+                    FileUtils.getFileLength(source.getFilePath())));
+            log.debug("{} has more than {} sorted runs, merge the first {} bytes directly and shard the rest",
+                    source, config.getMaxSortedRunCount(), scannedEnd);
+        }
+
+        int shardingCount = planSharding(false, true, shardingSource).getShardingCount();
 
         // 文件分片
-        String tempDirectory = createTempDirectory();
+        ScratchSpace scratchSpace = createScratchSpace();
+        ShardingProcessor shardingProcessor =
+                createShardingProcessor(scratchSpace, shardingSource, shardingCount);
+        List<String> shardingFileList = shardingProcessor.sharding();
+
+        // 排序, 分片排序后与已扫描的有序段一起多路归并
+        long totalSize = sortAndMerge(shardingFileList, sortedRangeList, sink, false, scratchSpace);
+        scratchSpace.delete();
+        return totalSize;
+    }
+
+    /**
+     * 源文件已经有序时直接拷贝, 否则对源文件中的各个有序段进行多路归并
+     *
+     * @param scanner        源文件的有序段扫描结果
+     * @param sourceFilePath 源文件路径
+     * @param sink           输出目标
+     */
+    private long naturalMergeSort(SortedRunScanner scanner, String sourceFilePath, RowSink sink)
+            throws IOException {
+        if (scanner.isCopyable() && sink.isFile() && !GzipUtils.isGzipOutput(sink.getFilePath())) {
+            log.debug("{} is already sorted, copy to {}", sourceFilePath, sink);
+            Files.copy(Paths.get(sourceFilePath), Paths.get(sink.getFilePath()), StandardCopyOption.REPLACE_EXISTING);
+            return scanner.getRowCount();
+        }
+
+        log.debug("{} has {} sorted runs, merge them directly", sourceFilePath, scanner.getRunList().size());
+        List<LineIterator> iteratorList = new ArrayList<>(scanner.getRunList().size());
+        try {
+            for (FileRange range : scanner.getRunList()) {
+                iteratorList.add(FileUtils.newLineIterator(range));
+            }
+            return merge(iteratorList, sink, true, false);
+        } finally {
+            for (LineIterator iterator : iteratorList) {
+                iterator.close();
+            }
+        }
+    }
+
+    /**
+     * 对源文件进行分片, 使用字节级的过滤条件在解码之前过滤数据
+     *
+     * @param sourceFilePath 源文件路径
+     * @param shardingCount  切分的分片数
+     * @param rowPredicate   过滤条件
+     */
+    public List<String> sharding(String sourceFilePath, int shardingCount, RowPredicate rowPredicate)
+            throws IOException {
+        return createShardingProcessor(createScratchSpace(), sourceFilePath, shardingCount)
+                .setRowPredicate(rowPredicate)
+                .sharding();
+    }
+
+    /**
+     * 按大小把源文件切分成 count 个在换行处对齐的字节区间, 不拷贝任何数据
+     *
+     * @param sourceFilePath 源文件路径
+     * @param count          区间数量
+     */
+    public List<FileRange> splitRanges(String sourceFilePath, int count) throws IOException {
+        return FileUtils.splitRangesByCount(sourceFilePath, count);
+    }
+
+    /**
+     * 按大小把源文件切分成 count 个文件, 不会打乱数据的顺序, 也不需要解码数据
+     *
+     * @param sourceFilePath 源文件路径
+     * @param count          切分的文件数量
+     */
+    public List<String> split(String sourceFilePath, int count) throws IOException {
+        return copyRanges(FileUtils.splitRangesByCount(sourceFilePath, count));
+    }
+
+    /**
+     * 按行数切分源文件, 每个文件包含 lineCount 行, 最后一个文件可能更少
+     *
+     * @param sourceFilePath 源文件路径
+     * @param lineCount      每个文件的行数
+     */
+    public List<String> splitByLines(String sourceFilePath, long lineCount) throws IOException {
+        return copyRanges(FileUtils.splitRangesByLines(sourceFilePath, lineCount));
+    }
+
+    /**
+     * 把各个文件区间拷贝到临时目录下的独立文件
+     *
+     * @param rangeList 文件区间列表
+     */
+    private List<String> copyRanges(List<FileRange> rangeList) throws IOException {
+        ScratchSpace scratchSpace = createScratchSpace();
+        List<String> splitFileList = new ArrayList<>(rangeList.size());
+        for (int i = 0; i < rangeList.size(); i++) {
+            FileRange range = rangeList.get(i);
+            String splitFilePath = scratchSpace.nextDirectory()
+                    + getSplitFileName(FileUtils.getName(range.getFilePath()), i);
+            FileUtils.copyRange(range, splitFilePath);
+            splitFileList.add(splitFilePath);
+        }
+        return splitFileList;
+    }
+
+    private String getSplitFileName(String fileName, int index) {
+        return String.format("%s-split-%s", fileName, index);
+    }
+
+    /**
+     * 排序并去重, key相同的数据使用rowHandler进行合并, 只需要一次分片和一次归并
+     *
+     * @param sourceFilePath 源文件路径
+     * @param outputFilePath 输出路径
+     */
+    public long sortUnique(String sourceFilePath, String outputFilePath) throws IOException {
+        return sortUnique(RowSource.of(sourceFilePath), RowSink.of(outputFilePath));
+    }
+
+    /**
+     * 对数据源排序并去重, key相同的数据使用rowHandler进行合并
+     *
+     * @param source 数据源
+     * @param sink   输出目标
+     */
+    public long sortUnique(RowSource source, RowSink sink) throws IOException {
+        int shardingCount = planSharding(true, true, source).getShardingCount();
+
+        // 文件分片, key相同的数据会落在同一个分片
+        ScratchSpace scratchSpace = createScratchSpace();
         ShardingProcessor shardingProcessor =
-                createShardingProcessor(tempDirectory, sourceFilePath, shardingCount);
+                createShardingProcessor(scratchSpace, source, shardingCount);
         List<String> shardingFileList = shardingProcessor.sharding();
 
-        // 排序
-        long totalSize = sort(shardingFileList, outputFilePath);
-        FileUtils.delete(tempDirectory);
+        // 分片内去重排序, 然后归并
+        long totalSize = sortAndMerge(shardingFileList, sink, true, scratchSpace);
+        scratchSpace.delete();
         return totalSize;
     }
 
@@ -52,18 +227,56 @@ public class BigListProcessor extends AbstractProcessor {
         int shardingCount = calcShardingCount(sourceFilePath);
 
         // 文件分片
-        String tempDirectory = createTempDirectory();
+        ScratchSpace scratchSpace = createScratchSpace();
         ShardingProcessor shardingProcessor =
-                createShardingProcessor(tempDirectory, sourceFilePath, shardingCount);
+                createShardingProcessor(scratchSpace, sourceFilePath, shardingCount);
         List<String> shardingFileList = shardingProcessor.sharding();
 
         long totalSize = 0;
-        for (String filePath : shardingFileList) {
-            Set<String> set = readAsSet(filePath);
-            totalSize += set.size();
-            FileUtils.writeLines(outputFilePath, set);
+        try (BufferedWriter bw = FileUtils.newBufferedWriter(outputFilePath)) {
+            for (String filePath : shardingFileList) {
+                // 从内存预算中申请分片去重的内存, 分配不足时更早地切分成子分片
+                long memory = config.getMemoryBudget().reserve(config.getMaxShardMemorySize());
+                try {
+                    totalSize += uniqueShard(filePath, bw, new ShardSpiller(rowHandler, memory), 0);
+                } finally {
+                    config.getMemoryBudget().release(memory);
+                }
+            }
+        }
+        scratchSpace.delete();
+        return totalSize;
+    }
+
+    /**
+     * 对一个分片去重并写入输出, 返回写入的行数
+     * 估算的内存超过上限时把分片切分成子分片, 逐个子分片递归地去重
+     *
+     * @param filePath 分片文件
+     * @param bw       输出
+     * @param spiller  超过内存上限时切分分片
+     * @param level    切分的层数, 原始分片为 0
+     */
+    private long uniqueShard(String filePath, BufferedWriter bw, ShardSpiller spiller, int level)
+            throws IOException {
+        if (!spiller.mustSpill(level, Collections.singletonList(filePath))) {
+            Map<String, String> rowMap = spiller.readAsMap(filePath, level, new long[1]);
+            if (rowMap != null) {
+                for (String row : rowMap.values()) {
+                    bw.write(row);
+                    bw.newLine();
+                }
+                FileUtils.delete(filePath);
+                return rowMap.size();
+            }
+        }
+
+        List<List<String>> partitionList = spiller.spill(Collections.singletonList(filePath), level, filePath);
+        FileUtils.delete(filePath);
+        long totalSize = 0;
+        for (List<String> partition : partitionList) {
+            totalSize += uniqueShard(partition.get(0), bw, spiller, level + 1);
         }
-        FileUtils.delete(tempDirectory);
         return totalSize;
     }
 
@@ -74,7 +287,11 @@ public class BigListProcessor extends AbstractProcessor {
      * @param outputFilePath 输出路径
      */
     public long filter(String sourceFilePath, String outputFilePath) throws IOException {
-        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(outputFilePath));
+        if (isParallelFilter(sourceFilePath)) {
+            return filterWithThreadPool(sourceFilePath, outputFilePath, this::filterRange);
+        }
+
+        try (BufferedWriter bw = FileUtils.newBufferedWriter(outputFilePath);
              LineIterator lineIterator = FileUtils.newLineIterator(sourceFilePath)) {
             long totalSize = 0;
             String line;
@@ -89,4 +306,253 @@ public class BigListProcessor extends AbstractProcessor {
             return totalSize;
         }
     }
+
+    /**
+     * 过滤数据源中不合法的数据, 边读边写, 不会写入临时文件
+     * 数据源和输出目标都是文件时使用文件的过滤方式, 可以并行处理
+     *
+     * @param source 数据源
+     * @param sink   输出目标
+     */
+    public long filter(RowSource source, RowSink sink) throws IOException {
+        if (source.isFile() && sink.isFile()) {
+            return filter(source.getFilePath(), sink.getFilePath());
+        }
+
+        try (LineWriter writer = sink.open();
+             LineIterator lineIterator = source.open()) {
+            long totalSize = 0;
+            String line;
+            while (lineIterator.hasNext()) {
+                line = lineIterator.nextLine();
+                if (rowHandler.accept(line)) {
+                    totalSize++;
+                    writer.writeLine(line);
+                }
+            }
+            return totalSize;
+        }
+    }
+
+    /**
+     * 只读取一次源文件, 根据路由规则把每行合法数据写入零个或多个输出文件
+     * 路由规则对同一行多次返回同一个输出名称时, 该行只写入一次
+     *
+     * @param sourceFilePath  源文件路径
+     * @param outputFilePaths 输出名称 -> 输出文件路径
+     * @param rowRouter       路由规则
+     * @return 输出名称 -> 写入的行数
+     */
+    public Map<String, Long> route(String sourceFilePath, Map<String, String> outputFilePaths, RowRouter rowRouter)
+            throws IOException {
+        Map<String, RowSink> sinkMap = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : outputFilePaths.entrySet()) {
+            sinkMap.put(entry.getKey(), RowSink.of(entry.getValue()));
+        }
+        return route(RowSource.of(sourceFilePath), sinkMap, rowRouter);
+    }
+
+    /**
+     * 只读取一次数据源, 根据路由规则把每行合法数据写入零个或多个输出目标, 每个输出目标有自己的缓冲
+     * 路由规则对同一行多次返回同一个输出名称时, 该行只写入一次
+     *
+     * @param source    数据源
+     * @param sinkMap   输出名称 -> 输出目标
+     * @param rowRouter 路由规则
+     * @return 输出名称 -> 写入的行数
+     */
+    public Map<String, Long> route(RowSource source, Map<String, RowSink> sinkMap, RowRouter rowRouter)
+            throws IOException {
+        Map<String, LineWriter> writerMap = new LinkedHashMap<>();
+        // 输出名称 -> {写入的行数, 最后写入的行号}, 行号用于跳过路由规则重复返回的输出名称
+        Map<String, long[]> countMap = new LinkedHashMap<>();
+        // 与归并输出一样是磁盘密集的阶段, 同时写入多个输出时共用一个许可
+        ConcurrentUtils.acquire(config.getIoSemaphore());
+        try {
+            for (Map.Entry<String, RowSink> entry : sinkMap.entrySet()) {
+                writerMap.put(entry.getKey(), entry.getValue().open());
+                countMap.put(entry.getKey(), new long[]{0, -1});
+            }
+
+            try (LineIterator lineIterator = source.open()) {
+                String line;
+                for (long lineNumber = 0; lineIterator.hasNext(); lineNumber++) {
+                    line = lineIterator.nextLine();
+                    if (!rowHandler.accept(line)) {
+                        continue;
+                    }
+                    Collection<String> nameList = rowRouter.route(line);
+                    if (nameList == null) {
+                        continue;
+                    }
+                    for (String name : nameList) {
+                        LineWriter writer = writerMap.get(name);
+                        if (writer == null) {
+                            throw new IllegalArgumentException("unknown output: " + name);
+                        }
+                        long[] count = countMap.get(name);
+                        if (count[1] == lineNumber) {
+                            continue;
+                        }
+                        writer.writeLine(line);
+                        count[0]++;
+                        count[1] = lineNumber;
+                    }
+                }
+            }
+
+            // 正常结束时逐个关闭, 把缓冲的数据写入输出目标, 出错时抛出异常
+            for (String name : new ArrayList<>(writerMap.keySet())) {
+                writerMap.remove(name).close();
+            }
+        } finally {
+            for (LineWriter writer : writerMap.values()) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+            ConcurrentUtils.release(config.getIoSemaphore());
+        }
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : countMap.entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[0]);
+            log.debug("route {} rows to {}", entry.getValue()[0], entry.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * 使用字节级的过滤条件过滤数据, 数据行不需要解码, 满足条件的数据行按原始字节写入目标文件
+     *
+     * @param sourceFilePath 源文件路径
+     * @param outputFilePath 输出路径
+     * @param rowPredicate   过滤条件
+     */
+    public long filter(String sourceFilePath, String outputFilePath, RowPredicate rowPredicate) throws IOException {
+        if (isParallelFilter(sourceFilePath)) {
+            return filterWithThreadPool(sourceFilePath, outputFilePath, range -> filterRange(range, rowPredicate));
+        }
+
+        try (OutputStream os = FileUtils.newOutputStream(outputFilePath);
+             ByteLineReader reader = FileUtils.newByteLineReader(sourceFilePath)) {
+            return filterBytes(reader, os, rowPredicate);
+        }
+    }
+
+    /**
+     * 源文件足够大并且可以按偏移量切分时才并行过滤, gzip 文件只能顺序读取
+     *
+     * @param sourceFilePath 源文件路径
+     */
+    private boolean isParallelFilter(String sourceFilePath) throws IOException {
+        return config.getParallelism() > 1 && FileUtils.getFileLength(sourceFilePath) > FILTER_CHUNK_SIZE
+                && !GzipUtils.isGzip(sourceFilePath);
+    }
+
+    /**
+     * 把源文件按行切分成多个区间, 在线程池中并行过滤, 按区间的顺序写入目标文件
+     *
+     * @param sourceFilePath 源文件路径
+     * @param outputFilePath 输出路径
+     * @param rangeFilter    区间的过滤处理
+     */
+    private long filterWithThreadPool(String sourceFilePath, String outputFilePath, RangeFilter rangeFilter)
+            throws IOException {
+        List<FileRange> rangeList = FileUtils.splitRanges(sourceFilePath, FILTER_CHUNK_SIZE);
+        ExecutorService executor = newExecutor(config.getParallelism());
+        long[] totalSize = new long[1];
+
+        try (OutputStream os = FileUtils.newOutputStream(outputFilePath)) {
+            OrderedTaskRunner<FilterChunk> runner = new OrderedTaskRunner<>(executor, config.getParallelism() * 2,
+                    chunk -> {
+                        os.write(chunk.bytes);
+                        totalSize[0] += chunk.rowCount;
+                    });
+            try {
+                for (FileRange range : rangeList) {
+                    runner.submit(() -> rangeFilter.filter(range));
+                }
+                runner.finish();
+            } finally {
+                runner.cancel();
+            }
+        } finally {
+            shutdownExecutor(executor);
+        }
+        return totalSize[0];
+    }
+
+    /**
+     * 过滤文件区间内的数据, 返回合法数据编码后的字节
+     *
+     * @param range 文件区间
+     */
+    private FilterChunk filterRange(FileRange range) throws IOException {
+        StringBuilder sb = new StringBuilder((int) Math.min(range.getLength(), Integer.MAX_VALUE - 8));
+        long rowCount = 0;
+        try (LineIterator lineIterator = FileUtils.newLineIterator(range)) {
+            String line;
+            while (lineIterator.hasNext()) {
+                line = lineIterator.nextLine();
+                if (rowHandler.accept(line)) {
+                    rowCount++;
+                    sb.append(line).append(LINE_SEPARATOR);
+                }
+            }
+        }
+        return new FilterChunk(sb.toString().getBytes(StandardCharsets.UTF_8), rowCount);
+    }
+
+    /**
+     * 使用字节级的过滤条件过滤文件区间内的数据, 返回满足条件的数据行的原始字节
+     *
+     * @param range        文件区间
+     * @param rowPredicate 过滤条件
+     */
+    private FilterChunk filterRange(FileRange range, RowPredicate rowPredicate) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream((int) Math.min(range.getLength(), Integer.MAX_VALUE - 8));
+        try (ByteLineReader reader = FileUtils.newByteLineReader(range)) {
+            long rowCount = filterBytes(reader, os, rowPredicate);
+            return new FilterChunk(os.toByteArray(), rowCount);
+        }
+    }
+
+    /**
+     * 逐行读取字节, 把满足条件的数据行写入输出流
+     *
+     * @param reader       数据源
+     * @param os           输出流
+     * @param rowPredicate 过滤条件
+     */
+    private long filterBytes(ByteLineReader reader, OutputStream os, RowPredicate rowPredicate) throws IOException {
+        long rowCount = 0;
+        while (reader.next()) {
+            if (rowPredicate.test(reader.buffer(), reader.start(), reader.end())) {
+                rowCount++;
+                os.write(reader.buffer(), reader.start(), reader.length());
+                os.write(LINE_SEPARATOR_BYTES);
+            }
+        }
+        return rowCount;
+    }
+
+    // 文件区间的过滤处理
+    private interface RangeFilter {
+
+        FilterChunk filter(FileRange range) throws IOException;
+    }
+
+    // 一个文件区间的过滤结果
+    private static class FilterChunk {
+        private final byte[] bytes;
+        private final long rowCount;
+
+        FilterChunk(byte[] bytes, long rowCount) {
+            this.bytes = bytes;
+            this.rowCount = rowCount;
+        }
+    }
 }
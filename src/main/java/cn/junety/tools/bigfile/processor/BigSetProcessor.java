@@ -1,16 +1,27 @@
 package cn.junety.tools.bigfile.processor;
 
 import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.config.PartitionStrategy;
+import cn.junety.tools.bigfile.config.SetStrategy;
 import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowJoiner;
+import cn.junety.tools.bigfile.utils.ConcurrentUtils;
 import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.GzipUtils;
 import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.LineWriter;
+import cn.junety.tools.bigfile.utils.PartitionedDataset;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Created by caijt on 2018/8/17
@@ -18,6 +29,9 @@ import java.util.*;
 @Slf4j
 public class BigSetProcessor extends AbstractProcessor {
 
+    private static final int MIN_RANGE_SAMPLE_COUNT = 1024;
+    private static final int MAX_RANGE_SAMPLE_COUNT = 65536;
+
     public BigSetProcessor(BigFileConfig config, RowHandler rowHandler) {
         super(config, rowHandler);
     }
@@ -32,30 +46,20 @@ public class BigSetProcessor extends AbstractProcessor {
      */
     public long intersect(String sourceFilePath1, String sourceFilePath2, String outputFilePath, boolean sort)
             throws IOException {
+        return intersect(RowSource.of(sourceFilePath1), RowSource.of(sourceFilePath2),
+                RowSink.of(outputFilePath), sort);
+    }
 
-        return setCalculate(
-                sourceFilePath1,
-                sourceFilePath2,
-                outputFilePath,
-                (set1, set2) -> {
-                    Map<String, String> dataSet = new HashMap<>(set1.size());
-                    String oldRow, key;
-
-                    for (String row : set2) {
-                        dataSet.put(rowHandler.getKey(row), row);
-                    }
-
-                    Set<String> result = new HashSet<>(set1.size());
-                    for (String newRow : set1) {
-                        key = rowHandler.getKey(newRow);
-                        oldRow = dataSet.get(key);
-                        if (oldRow != null) {
-                            result.add(rowHandler.clash(newRow, oldRow));
-                        }
-                    }
-                    return result;
-                },
-                sort);
+    /**
+     * 求两个数据源的交集, 输出到目标
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink 输出目标
+     * @param sort 是否需要对结果进行排序
+     */
+    public long intersect(RowSource source1, RowSource source2, RowSink sink, boolean sort) throws IOException {
+        return setCalculate(source1, source2, sink, SetOperation.INTERSECT, sort, null);
     }
 
     /**
@@ -68,31 +72,20 @@ public class BigSetProcessor extends AbstractProcessor {
      */
     public long union(String sourceFilePath1, String sourceFilePath2, String outputFilePath, boolean sort)
             throws IOException {
+        return union(RowSource.of(sourceFilePath1), RowSource.of(sourceFilePath2),
+                RowSink.of(outputFilePath), sort);
+    }
 
-        return setCalculate(
-                sourceFilePath1,
-                sourceFilePath2,
-                outputFilePath,
-                (set1, set2) -> {
-                    Map<String, String> dataSet = new HashMap<>(set1.size());
-                    String oldRow, key;
-
-                    for (String row : set2) {
-                        dataSet.put(rowHandler.getKey(row), row);
-                    }
-
-                    for (String newRow : set1) {
-                        key = rowHandler.getKey(newRow);
-                        oldRow = dataSet.get(key);
-                        if (oldRow != null) {
-                            dataSet.put(key, rowHandler.clash(newRow, oldRow));
-                        } else {
-                            dataSet.put(key, newRow);
-                        }
-                    }
-                    return new HashSet<>(dataSet.values());
-                },
-                sort);
+    /**
+     * 求两个数据源的并集, 输出到目标
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink 输出目标
+     * @param sort 是否需要对结果进行排序
+     */
+    public long union(RowSource source1, RowSource source2, RowSink sink, boolean sort) throws IOException {
+        return setCalculate(source1, source2, sink, SetOperation.UNION, sort, null);
     }
 
     /**
@@ -105,73 +98,529 @@ public class BigSetProcessor extends AbstractProcessor {
      */
     public long differ(String sourceFilePath1, String sourceFilePath2, String outputFilePath, boolean sort)
             throws IOException {
+        return differ(RowSource.of(sourceFilePath1), RowSource.of(sourceFilePath2),
+                RowSink.of(outputFilePath), sort);
+    }
 
-        return setCalculate(
-                sourceFilePath1,
-                sourceFilePath2,
-                outputFilePath,
-                (set1, set2) -> {
-                    Map<String, String> dataSet = new HashMap<>(set1.size());
-                    String oldRow, key;
+    /**
+     * 求两个数据源的差集(A-B), 输出到目标
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink 输出目标
+     * @param sort 是否需要对结果进行排序
+     */
+    public long differ(RowSource source1, RowSource source2, RowSink sink, boolean sort) throws IOException {
+        return setCalculate(source1, source2, sink, SetOperation.DIFFER, sort, null);
+    }
 
-                    for (String row : set2) {
-                        dataSet.put(rowHandler.getKey(row), row);
-                    }
+    /**
+     * 求两个按key有序的数据源的交集, 边读边归并, 不需要分片, 也不会写入临时文件
+     *
+     * @param source1 有序数据源1
+     * @param source2 有序数据源2
+     * @param sink 输出目标
+     */
+    public long intersectSorted(RowSource source1, RowSource source2, RowSink sink) throws IOException {
+        return new SortedSetMerger(rowHandler, SetOperation.INTERSECT).merge(source1, source2, sink);
+    }
 
-                    Set<String> result = new HashSet<>(set1.size());
-                    for (String newRow : set1) {
-                        key = rowHandler.getKey(newRow);
-                        oldRow = dataSet.get(key);
-                        if (oldRow == null) {
-                            result.add(newRow);
-                        }
-                    }
-                    return result;
-                },
-                sort);
+    /**
+     * 求两个按key有序的数据源的并集, 边读边归并, 不需要分片, 也不会写入临时文件
+     *
+     * @param source1 有序数据源1
+     * @param source2 有序数据源2
+     * @param sink 输出目标
+     */
+    public long unionSorted(RowSource source1, RowSource source2, RowSink sink) throws IOException {
+        return new SortedSetMerger(rowHandler, SetOperation.UNION).merge(source1, source2, sink);
     }
 
     /**
-     * 对两个文件进行集合运算
+     * 求两个按key有序的数据源的差集(A-B), 边读边归并, 不需要分片, 也不会写入临时文件
      *
-     * @param sourceFilePath1 源文件1
-     * @param sourceFilePath2 源文件2
-     * @param outputFilePath 目标文件
-     * @param handler 集合运算处理
+     * @param source1 有序数据源1
+     * @param source2 有序数据源2
+     * @param sink 输出目标
+     */
+    public long differSorted(RowSource source1, RowSource source2, RowSink sink) throws IOException {
+        return new SortedSetMerger(rowHandler, SetOperation.DIFFER).merge(source1, source2, sink);
+    }
+
+    /**
+     * 精确计算两个数据源集合运算结果的行数, 不输出结果
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param operation 集合运算的类型
+     */
+    public long count(RowSource source1, RowSource source2, SetOperation operation) throws IOException {
+        long totalCount = 0;
+        for (long shardCount : countShards(source1, source2, operation)) {
+            totalCount += shardCount;
+        }
+        return totalCount;
+    }
+
+    /**
+     * 精确计算两个数据源集合运算结果每个分片的行数, 不输出结果
+     * 执行方式的选择与输出结果时相同; 分片计算时各个分片并行计算后只保留行数, 不写入结果分片, 也不合并和排序,
+     * 不记录计算进度; 不分片计算时返回只有一个元素的列表
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param operation 集合运算的类型
+     */
+    public List<Long> countShards(RowSource source1, RowSource source2, SetOperation operation) throws IOException {
+        List<Long> shardCounts = new ArrayList<>();
+        setCalculate(source1, source2, RowSink.of(row -> {
+        }), operation, false, shardCounts);
+        return shardCounts;
+    }
+
+    /**
+     * 按key连接两个数据源, 输出到目标, 结果没有顺序
+     * 估算的较小一边不超过内存上限时不分片, 直接读入内存后顺序读取另一边; 否则两边按相同的规则分片,
+     * 每对分片并行地用较小的分片构建哈希表, 超过内存上限时继续切分; 配置的 setStrategy 为 SHUFFLE 时总是分片,
+     * 为 IN_MEMORY 或 BROADCAST 时总是不分片
+     *
+     * @param left 左边的数据源
+     * @param right 右边的数据源
+     * @param sink 输出目标
+     * @param joinType 连接的类型
+     * @param rowJoiner 组合两边数据行的规则
+     */
+    public long join(RowSource left, RowSource right, RowSink sink, JoinType joinType, RowJoiner rowJoiner)
+            throws IOException {
+        HashJoiner joiner = new HashJoiner(rowHandler, joinType, rowJoiner);
+        SetStrategy strategy = config.getSetStrategy();
+        if (strategy == SetStrategy.SHUFFLE) {
+            log.debug("{} join {} and {} by SHUFFLE", joinType, left, right);
+            return shuffleJoin(left, right, sink, joiner);
+        }
+
+        ShardPlanner planner = new ShardPlanner(config, rowHandler);
+        long leftMemory = planner.estimateMemory(left, false);
+        long rightMemory = planner.estimateMemory(right, false);
+        log.debug("estimated memory of {} and {}: {} and {}, limit {}", left, right, leftMemory, rightMemory,
+                planner.memoryLimit());
+        boolean buildLeft = leftMemory <= rightMemory;
+        long memory = Math.min(leftMemory, rightMemory);
+        if (strategy != SetStrategy.IN_MEMORY && strategy != SetStrategy.BROADCAST && memory > planner.memoryLimit()) {
+            log.debug("{} join {} and {} by SHUFFLE", joinType, left, right);
+            return shuffleJoin(left, right, sink, joiner);
+        }
+
+        log.debug("{} join {} and {} by BROADCAST, build {}", joinType, left, right, buildLeft ? left : right);
+        long granted = config.getMemoryBudget().acquire(Math.max(memory, 1));
+        ConcurrentUtils.acquire(config.getIoSemaphore());
+        try {
+            return joiner.join(left, right, buildLeft, sink);
+        } finally {
+            ConcurrentUtils.release(config.getIoSemaphore());
+            config.getMemoryBudget().release(granted);
+        }
+    }
+
+    /**
+     * 对两个数据源进行集合运算, 按配置的执行方式计算, AUTO 时根据估算的内存、内存预算和数据源是否有序选择
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink 输出目标
+     * @param operation 集合运算的类型
+     * @param sort 是否需要对结果进行排序
+     * @param shardCounts 只计算行数时收集每个分片的行数, 输出结果时为 null
+     */
+    private long setCalculate(RowSource source1, RowSource source2, RowSink sink, SetOperation operation,
+                              boolean sort, List<Long> shardCounts) throws IOException {
+        ShardPlanner planner = new ShardPlanner(config, rowHandler);
+        long memory1 = 0, memory2 = 0;
+        if (!sink.isDataset() && (config.getSetStrategy() == SetStrategy.AUTO
+                || config.getSetStrategy() == SetStrategy.BROADCAST)) {
+            memory1 = planner.estimateMemory(source1, true);
+            memory2 = planner.estimateMemory(source2, true);
+            log.debug("estimated memory of {} and {}: {} and {}, limit {}", source1, source2, memory1, memory2,
+                    planner.memoryLimit());
+        }
+        SetStrategy strategy = chooseSetStrategy(source1, source2, sink, operation, sort,
+                memory1, memory2, planner.memoryLimit());
+        log.debug("{} {} and {} by {}", operation, source1, source2, strategy);
+
+        long rowCount;
+        switch (strategy) {
+            case IN_MEMORY:
+                rowCount = calcInMemory(source1, source2, sink, operation, sort, false, false, memory1 + memory2);
+                break;
+            case BROADCAST:
+                boolean broadcast1 = MemorySetCalculator.canBroadcast(operation, true)
+                        && (memory1 <= memory2 || !MemorySetCalculator.canBroadcast(operation, false));
+                rowCount = calcInMemory(source1, source2, sink, operation, sort, true, broadcast1,
+                        broadcast1 ? memory1 : memory2);
+                break;
+            case SORT_MERGE:
+                if (config.getSetStrategy() != SetStrategy.AUTO) {
+                    rowCount = new SortedSetMerger(rowHandler, operation).merge(source1, source2, sink);
+                    break;
+                }
+                Long mergedCount = mergeSampledSources(source1, source2, sink, operation, shardCounts != null);
+                if (mergedCount == null) {
+                    return shuffle(source1, source2, sink, operation, sort, shardCounts);
+                }
+                rowCount = mergedCount;
+                break;
+            default:
+                return shuffle(source1, source2, sink, operation, sort, shardCounts);
+        }
+        if (shardCounts != null) {
+            shardCounts.add(rowCount);
+        }
+        return rowCount;
+    }
+
+    /**
+     * 选择集合运算的执行方式, 配置的执行方式不适用时使用 SHUFFLE
+     * AUTO 时依次尝试: 两个数据源的估算内存之和不超过上限时全部读入内存; 可以广播的较小数据源不超过上限时广播;
+     * 不需要排序并且两个数据源都是抽样检查按key有序的文件时归并; 否则分片计算
+     * 归并的结果按key有序而不是按行有序, 需要排序时不使用 SORT_MERGE
+     * 输出目标是分区数据集时需要按哈希分区的结果, 总是分片计算
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink 输出目标
+     * @param operation 集合运算的类型
+     * @param sort 是否需要对结果进行排序
+     * @param memory1 数据源1读入内存的估算内存
+     * @param memory2 数据源2读入内存的估算内存
+     * @param memoryLimit 读入内存计算时可以使用的内存
+     */
+    private SetStrategy chooseSetStrategy(RowSource source1, RowSource source2, RowSink sink, SetOperation operation,
+                                          boolean sort, long memory1, long memory2, long memoryLimit)
+            throws IOException {
+        SetStrategy strategy = config.getSetStrategy();
+        if (sink.isDataset() || strategy == SetStrategy.SHUFFLE) {
+            return SetStrategy.SHUFFLE;
+        }
+        boolean canBroadcast1 = MemorySetCalculator.canBroadcast(operation, true);
+        boolean canBroadcast2 = MemorySetCalculator.canBroadcast(operation, false);
+        switch (strategy) {
+            case IN_MEMORY:
+                return strategy;
+            case SORT_MERGE:
+                return sort ? SetStrategy.SHUFFLE : strategy;
+            case BROADCAST:
+                return canBroadcast1 || canBroadcast2 ? strategy : SetStrategy.SHUFFLE;
+            default:
+                break;
+        }
+
+        if (memory1 + memory2 <= memoryLimit) {
+            return SetStrategy.IN_MEMORY;
+        }
+        if (canBroadcast1 && memory1 <= memoryLimit || canBroadcast2 && memory2 <= memoryLimit) {
+            return SetStrategy.BROADCAST;
+        }
+        if (!sort && source1.isFile() && source2.isFile()) {
+            // 只抽样检查开头和均匀分布的若干位置, 不完整扫描文件, 归并时继续校验
+            SortedRunScanner scanner = new SortedRunScanner(rowHandler, 1);
+            if (scanner.looksSortedByKey(source1.getFilePath()) && scanner.looksSortedByKey(source2.getFilePath())) {
+                return SetStrategy.SORT_MERGE;
+            }
+        }
+        return SetStrategy.SHUFFLE;
+    }
+
+    /**
+     * AUTO 时按抽样检查的结果归并, 返回输出的行数, 需要改为 SHUFFLE 时返回 null
+     * 输出目标是文件或者只计算行数时直接归并, 发现逆序时已经写入的结果可以丢弃, 改为 SHUFFLE 重新计算;
+     * 其它输出目标已经写入的数据无法撤回, 归并前先完整扫描两个文件确认有序
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink 输出目标
+     * @param operation 集合运算的类型
+     * @param countOnly 是否只计算行数
+     */
+    private Long mergeSampledSources(RowSource source1, RowSource source2, RowSink sink, SetOperation operation,
+                                     boolean countOnly) throws IOException {
+        SortedSetMerger merger = new SortedSetMerger(rowHandler, operation);
+        if (!sink.isFile() && !countOnly) {
+            SortedRunScanner scanner = new SortedRunScanner(rowHandler, 1);
+            if (!scanner.isSortedByKey(source1.getFilePath()) || !scanner.isSortedByKey(source2.getFilePath())) {
+                return null;
+            }
+            return merger.merge(source1, source2, sink);
+        }
+        try {
+            return merger.merge(source1, source2, sink);
+        } catch (SortedSetMerger.UnsortedSourceException e) {
+            log.debug("{}, fall back to {}", e.getMessage(), SetStrategy.SHUFFLE);
+            return null;
+        }
+    }
+
+    /**
+     * 不分片, 数据源读入内存计算, 计算期间从内存预算中申请估算的内存
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink 输出目标
+     * @param operation 集合运算的类型
      * @param sort 是否需要对结果进行排序
+     * @param broadcast 是否只把一个数据源读入内存
+     * @param broadcast1 广播时读入内存的是否是数据源1
+     * @param memory 估算的内存
      */
-    private long setCalculate(String sourceFilePath1, String sourceFilePath2, String outputFilePath,
-                              BigSetHandler handler, boolean sort) throws IOException {
+    private long calcInMemory(RowSource source1, RowSource source2, RowSink sink, SetOperation operation,
+                              boolean sort, boolean broadcast, boolean broadcast1, long memory) throws IOException {
+        MemorySetCalculator calculator = new MemorySetCalculator(rowHandler, operation);
+        long granted = config.getMemoryBudget().acquire(Math.max(memory, 1));
+        ConcurrentUtils.acquire(config.getIoSemaphore());
+        try {
+            return broadcast ? calculator.broadcast(source1, source2, broadcast1, sink, sort)
+                    : calculator.calculate(source1, source2, sink, sort);
+        } finally {
+            ConcurrentUtils.release(config.getIoSemaphore());
+            config.getMemoryBudget().release(granted);
+        }
+    }
 
-        int shardingCount = calcShardingCount(sourceFilePath1, sourceFilePath2);
-        String tempDirectory = createTempDirectory();
+    /**
+     * 对两个数据源分片后进行集合运算
+     * 开启 resumable、rowHandler 有标识并且两个数据源都是文件时, 相同的计算使用相同的临时目录并记录进度,
+     * 重新执行时跳过已经完成的分片和分片运算;
+     * 数据源是按相同哈希函数分区的数据集时直接使用数据集的分区, 输出目标是分区数据集时结果分片直接作为数据集的分区
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink 输出目标
+     * @param operation 集合运算的类型
+     * @param sort 是否需要对结果进行排序
+     * @param shardCounts 只计算行数时收集每个分片的行数, 此时不写入结果分片, 也不记录进度; 输出结果时为 null
+     */
+    private long shuffle(RowSource source1, RowSource source2, RowSink sink, SetOperation operation,
+                         boolean sort, List<Long> shardCounts) throws IOException {
 
-        // 文件1分片
-        ShardingProcessor shardingProcessor1 =
-                new ShardingProcessor(tempDirectory, sourceFilePath1, shardingCount, rowHandler);
-        List<String> shardingFileList1 = shardingProcessor1.sharding();
+        boolean countOnly = shardCounts != null;
+        RowMapHandler handler = SetHandlers.of(operation, rowHandler);
+        ShardPlan plan = planSharding(true, sort, source1, source2);
+        int shardingCount = plan.getShardingCount();
 
-        // 文件2分片
-        ShardingProcessor shardingProcessor2 =
-                new ShardingProcessor(tempDirectory, sourceFilePath2, shardingCount, rowHandler);
-        List<String> shardingFileList2 = shardingProcessor2.sharding();
+        // 数据源是分区数据集时按数据集的分区数分片, 数据集本身不需要重新分片
+        int datasetPartitionCount = chooseDatasetPartitionCount(shardingCount, source1, source2);
+        if (datasetPartitionCount > 0) {
+            shardingCount = datasetPartitionCount;
+        }
+        boolean hashPartition = plan.getPartitionStrategy() == PartitionStrategy.HASH || sink.isDataset()
+                || datasetPartitionCount > 0;
 
-        // 拿分片文件做集合运算
-        List<String> outputShardingFileList;
-        outputShardingFileList = calcWithoutThreadPool(shardingFileList1, shardingFileList2, shardingCount,
-                handler, outputFilePath, tempDirectory);
+        // 开启分片缓存时, 优先使用数据源已有缓存项的分片数, 两个数据源都按该分片数分片
+        ShardCache shardCache = datasetPartitionCount > 0 ? null : ShardCache.of(config, rowHandler);
+        if (shardCache != null && hashPartition) {
+            shardingCount = shardCache.chooseShardingCount(shardingCount, source1, source2);
+        }
 
-        long totalSize;
-        if (sort) {
-            // 排序并且合并输出
-            totalSize = sort(outputShardingFileList, outputFilePath);
-        } else {
-            // 合并输出
-            totalSize = mergeShardingFile(outputShardingFileList, outputFilePath);
+        // 只计算行数时没有结果分片, 无法记录进度; rowHandler 没有标识时无法判断是否是相同的计算
+        // 分片数和分片方式随采样变化, 记录在进度中而不是指纹中
+        String fingerprint = config.isResumable() && !countOnly && rowHandler.hashId() != null
+                ? JobManifest.fingerprint(String.format("%s,%s,%s,%s,%s", operation, sort,
+                sink.isFile() || sink.isDataset() ? sink.toString() : "stream",
+                config.getPartitionStrategy(), rowHandler.hashId()), source1, source2) : null;
+        ScratchSpace scratchSpace = fingerprint == null ? createScratchSpace()
+                : ScratchSpace.create(config, JobManifest.directoryName(fingerprint));
+        JobManifest manifest = fingerprint == null ? null : JobManifest.open(scratchSpace, fingerprint);
+        if (manifest != null && manifest.getShardingCount() > 0) {
+            shardingCount = manifest.getShardingCount();
+            hashPartition = manifest.isHashPartition();
+        } else if (manifest != null) {
+            manifest.planned(shardingCount, hashPartition);
         }
-        FileUtils.delete(tempDirectory);
+        List<ShardCache.Entry> cacheEntryList = new ArrayList<>(2);
+        try {
+            List<String> shardingFileList1 = manifest == null ? null : manifest.getShardingFiles(0);
+            List<String> shardingFileList2 = manifest == null ? null : manifest.getShardingFiles(1);
+            if (shardingFileList1 == null || shardingFileList2 == null) {
+                // 两个文件使用同一个分片规则, 保证相同的key落在相同下标的分片
+                Partitioner partitioner = hashPartition ? new HashPartitioner(shardingCount, rowHandler)
+                        : createSetPartitioner(shardingCount, source1, source2);
 
-        return totalSize;
+                // 文件1分片, 按区间分片的边界来自随机采样, 文件2需要重新分片时文件1也要使用新的规则重新分片,
+                // 已经完成的分片运算也不再对应新的分片
+                if (manifest != null && !(partitioner instanceof HashPartitioner)) {
+                    manifest.clearShardResults();
+                }
+                if (shardingFileList1 == null || !(partitioner instanceof HashPartitioner)) {
+                    shardingFileList1 = sharding(scratchSpace, source1, partitioner, manifest, 0, shardCache,
+                            cacheEntryList);
+                }
+
+                // 文件2分片
+                shardingFileList2 = sharding(scratchSpace, source2, partitioner, manifest, 1, shardCache,
+                        cacheEntryList);
+            }
+            shardingCount = shardingFileList1.size();
+
+            // 拿分片文件做集合运算
+            List<ShardResult> resultList;
+            if (plan.getParallelism() > 1) {
+                resultList = calcWithThreadPool(shardingFileList1, shardingFileList2, shardingCount,
+                        plan.getParallelism(), handler, sink.getName(), scratchSpace, sort, manifest, countOnly);
+            } else {
+                resultList = calcWithoutThreadPool(shardingFileList1, shardingFileList2, shardingCount,
+                        handler, sink.getName(), scratchSpace, sort, manifest, countOnly);
+            }
+            if (countOnly) {
+                long totalCount = 0;
+                for (ShardResult result : resultList) {
+                    shardCounts.add(result.getRowCount());
+                    totalCount += result.getRowCount();
+                }
+                scratchSpace.delete();
+                return totalCount;
+            }
+
+            List<String> outputShardingFileList = new ArrayList<>(resultList.size());
+            for (ShardResult result : resultList) {
+                outputShardingFileList.add(result.getFilePath());
+            }
+
+            long totalSize;
+            if (sink.isDataset()) {
+                // 结果分片按哈希分区, 直接作为数据集的分区, 记录进度时合并失败后还需要结果分片, 改为复制
+                totalSize = writeDataset(resultList, sink.getDatasetDirectory(), manifest == null);
+            } else if (sort && !isOrderedBetweenShards(resultList)) {
+                // 结果分片已经有序, 多路归并输出
+                totalSize = mergeSortedFiles(outputShardingFileList, sink, false);
+            } else {
+                // 合并输出, 按区间分片时结果分片首尾相接即为全局有序
+                if (sort) {
+                    log.debug("result shards are ordered between each other, skip merging");
+                }
+                // 记录进度时合并失败后还需要结果分片, 全部输出后随临时目录一起删除
+                totalSize = mergeShardingFile(outputShardingFileList, sink, manifest == null);
+            }
+            scratchSpace.delete();
+            return totalSize;
+        } finally {
+            for (ShardCache.Entry entry : cacheEntryList) {
+                entry.close();
+            }
+        }
+    }
+
+    /**
+     * 对数据源分片, 开启分片缓存时使用或者放入缓存, 否则分片到临时目录, 记录进度时在分片完成后记录分片文件
+     *
+     * @param scratchSpace 临时目录
+     * @param source 数据源
+     * @param partitioner 分片规则
+     * @param manifest 计算进度, 不记录进度时为 null
+     * @param sourceIndex 数据源下标
+     * @param shardCache 分片缓存, 没有开启时为 null
+     * @param cacheEntryList 本次计算使用的缓存项, 计算结束后关闭
+     */
+    private List<String> sharding(ScratchSpace scratchSpace, RowSource source, Partitioner partitioner,
+                                  JobManifest manifest, int sourceIndex, ShardCache shardCache,
+                                  List<ShardCache.Entry> cacheEntryList) throws IOException {
+        PartitionedDataset dataset = source.getDataset();
+        if (dataset != null && partitioner instanceof HashPartitioner
+                && dataset.isPartitionedBy(hashFunction(), partitioner.getPartitionCount())) {
+            log.debug("{} is co-partitioned with {} partitions, skip sharding", source, dataset.getPartitionCount());
+            return dataset.getFileList();
+        }
+
+        if (shardCache != null && partitioner instanceof HashPartitioner) {
+            ShardCache.Entry entry = shardCache.open(source, (HashPartitioner) partitioner,
+                    cacheSpace -> createShardingProcessor(cacheSpace, source, partitioner).sharding());
+            if (entry != null) {
+                cacheEntryList.add(entry);
+                return entry.getShardingFileList();
+            }
+        }
+
+        List<String> shardingFileList = createShardingProcessor(scratchSpace, source, partitioner).sharding();
+        if (manifest != null) {
+            manifest.shardingDone(sourceIndex, shardingFileList);
+        }
+        return shardingFileList;
+    }
+
+    /**
+     * 在按 rowHandler 哈希分区并且分区数不小于 minCount 的数据集中, 选择最大的数据集的分区数, 没有时返回 0
+     *
+     * @param minCount 期望的分片数
+     * @param sources 数据源列表
+     */
+    private int chooseDatasetPartitionCount(int minCount, RowSource... sources) {
+        int partitionCount = 0;
+        long maxSize = -1;
+        for (RowSource source : sources) {
+            PartitionedDataset dataset = source.getDataset();
+            if (dataset == null || dataset.getPartitionCount() < minCount
+                    || !dataset.isPartitionedBy(hashFunction(), dataset.getPartitionCount())) {
+                continue;
+            }
+            long size = dataset.getSize();
+            if (size > maxSize) {
+                maxSize = size;
+                partitionCount = dataset.getPartitionCount();
+            }
+        }
+        return partitionCount;
+    }
+
+    // 分区数据集中记录的哈希函数, rowHandler 没有标识时为 null, 数据集不能被当作按哈希分区复用
+    private String hashFunction() {
+        return rowHandler.hashId();
+    }
+
+    /**
+     * 创建集合运算按区间分片的规则, 只有一个分片或者数据源无法采样时退回按哈希分片
+     *
+     * @param shardingCount 期望的分片数量
+     * @param sources 数据源列表
+     */
+    private Partitioner createSetPartitioner(int shardingCount, RowSource... sources) throws IOException {
+        if (shardingCount <= 1) {
+            return new HashPartitioner(shardingCount, rowHandler);
+        }
+        // 只有普通文件可以按偏移量随机读取进行采样, gzip 文件和数据流都不能采样
+        for (RowSource source : sources) {
+            if (!source.isFile() || GzipUtils.isGzip(source.getFilePath())) {
+                log.debug("{} can not be sampled, fallback to hash partition", source);
+                return new HashPartitioner(shardingCount, rowHandler);
+            }
+        }
+
+        int sampleCount = Math.min(Math.max(shardingCount * 16, MIN_RANGE_SAMPLE_COUNT), MAX_RANGE_SAMPLE_COUNT);
+        KeySampler sampler = new KeySampler(rowHandler);
+        List<String> sampleKeyList = new ArrayList<>();
+        for (RowSource source : sources) {
+            sampleKeyList.addAll(sampler.sampleKeys(source.getFilePath(), sampleCount));
+        }
+        RangePartitioner partitioner = RangePartitioner.fromSamples(sampleKeyList, shardingCount);
+        log.debug("range partition by {} sampled keys, {} partitions", sampleKeyList.size(),
+                partitioner.getPartitionCount());
+        return partitioner;
+    }
+
+    /**
+     * 判断各个有序的结果分片首尾相接后是否全局有序
+     *
+     * @param resultList 结果分片列表
+     */
+    private boolean isOrderedBetweenShards(List<ShardResult> resultList) {
+        String lastRow = null;
+        for (ShardResult result : resultList) {
+            if (result.getRowCount() == 0) {
+                continue;
+            }
+            if (lastRow != null && lastRow.compareTo(result.getFirstRow()) > 0) {
+                return false;
+            }
+            lastRow = result.getLastRow();
+        }
+        return true;
     }
 
     /**
@@ -181,58 +630,400 @@ public class BigSetProcessor extends AbstractProcessor {
      * @param shardingFileList2 分片文件列表2
      * @param shardingCount 分片数量
      * @param handler 集合运算处理
-     * @param outputFilePath 目标文件
-     * @param tempDirectory 临时目录路径
+     * @param outputFileName 目标的名称, 用于命名结果分片
+     * @param scratchSpace 临时目录
+     * @param sort 是否在写入前对每个分片的结果进行排序
+     * @param manifest 计算进度, 不记录进度时为 null
+     * @param countOnly 是否只计算行数, 不写入结果分片
      */
-    private List<String> calcWithoutThreadPool(List<String> shardingFileList1, List<String> shardingFileList2,
-                                               int shardingCount, BigSetHandler handler, String outputFilePath,
-                                               String tempDirectory) throws IOException {
-        String outputFileName = FileUtils.getName(outputFilePath);
-        List<String> outputShardingFileList = new ArrayList<>();
+    private List<ShardResult> calcWithoutThreadPool(List<String> shardingFileList1, List<String> shardingFileList2,
+                                                    int shardingCount, RowMapHandler handler, String outputFileName,
+                                                    ScratchSpace scratchSpace, boolean sort, JobManifest manifest,
+                                                    boolean countOnly) throws IOException {
+        List<ShardResult> resultList = new ArrayList<>(shardingCount);
         for (int i = 0; i < shardingCount; i++) {
-            String file1 = shardingFileList1.get(i);
-            String file2 = shardingFileList2.get(i);
+            // 结果分片尽量写入与输入分片不同的磁盘
+            String shardingFilePath = scratchSpace.otherDirectory(shardingFileList1.get(i))
+                    + getShardingFileName(outputFileName, i);
+            resultList.add(calcSharding(i, shardingFileList1.get(i), shardingFileList2.get(i), handler,
+                    shardingFilePath, sort, manifest, countOnly));
+        }
+        return resultList;
+    }
 
-            Set<String> set1 = readAsSet(file1);
-            Set<String> set2 = readAsSet(file2);
-            Set<String> result = handler.handle(set1, set2);
+    /**
+     * 使用线程池并行地对两个分片文件列表相同下标的文件做集合运算
+     *
+     * @param shardingFileList1 分片文件列表1
+     * @param shardingFileList2 分片文件列表2
+     * @param shardingCount 分片数量
+     * @param parallelism 并行计算的线程数
+     * @param handler 集合运算处理
+     * @param outputFileName 目标的名称, 用于命名结果分片
+     * @param scratchSpace 临时目录
+     * @param sort 是否在写入前对每个分片的结果进行排序
+     * @param manifest 计算进度, 不记录进度时为 null
+     * @param countOnly 是否只计算行数, 不写入结果分片
+     */
+    private List<ShardResult> calcWithThreadPool(List<String> shardingFileList1, List<String> shardingFileList2,
+                                                 int shardingCount, int parallelism, RowMapHandler handler,
+                                                 String outputFileName, ScratchSpace scratchSpace, boolean sort,
+                                                 JobManifest manifest, boolean countOnly) throws IOException {
+        ExecutorService executor = newExecutor(Math.min(parallelism, shardingCount));
+        List<Future<ShardResult>> futureList = new ArrayList<>(shardingCount);
+        try {
+            for (int i = 0; i < shardingCount; i++) {
+                int index = i;
+                String file1 = shardingFileList1.get(i);
+                String file2 = shardingFileList2.get(i);
+                String shardingFilePath = scratchSpace.otherDirectory(file1)
+                        + getShardingFileName(outputFileName, i);
+                futureList.add(executor.submit(() -> calcSharding(index, file1, file2, handler, shardingFilePath,
+                        sort, manifest, countOnly)));
+            }
 
-            String shardingFilePath = tempDirectory + getShardingFileName(outputFileName, i);
-            FileUtils.writeLines(shardingFilePath, result, false);
-            outputShardingFileList.add(shardingFilePath);
+            List<ShardResult> resultList = new ArrayList<>(shardingCount);
+            for (Future<ShardResult> future : futureList) {
+                resultList.add(ConcurrentUtils.getResult(future));
+            }
+            return resultList;
+        } finally {
+            // 共享线程池不会被关闭, 需要取消还没完成的任务
+            for (Future<ShardResult> future : futureList) {
+                future.cancel(true);
+            }
+            shutdownExecutor(executor);
+        }
+    }
 
-            FileUtils.deleteIfExists(file1);
-            FileUtils.deleteIfExists(file2);
+    /**
+     * 对一对分片文件做集合运算, 结果写入结果分片文件, 记录进度时跳过已经完成的分片, 只计算行数时不写入结果分片
+     *
+     * @param index 分片下标
+     * @param file1 分片文件1
+     * @param file2 分片文件2
+     * @param handler 集合运算处理
+     * @param shardingFilePath 结果分片文件
+     * @param sort 是否在写入前对结果进行排序
+     * @param manifest 计算进度, 不记录进度时为 null
+     * @param countOnly 是否只计算行数
+     */
+    private ShardResult calcSharding(int index, String file1, String file2, RowMapHandler handler,
+                                     String shardingFilePath, boolean sort, JobManifest manifest,
+                                     boolean countOnly) throws IOException {
+        ShardResult doneResult = manifest == null ? null : manifest.getShardResult(index);
+        if (doneResult != null) {
+            return doneResult;
+        }
+
+        // 从内存预算中申请分片计算的内存, 分配不足时更早地切分成子分片
+        long memory = config.getMemoryBudget().reserve(config.getMaxShardMemorySize());
+        ShardResult shardResult;
+        try {
+            shardResult = calcShardFiles(file1, file2, handler, shardingFilePath, sort,
+                    new ShardSpiller(rowHandler, memory), 0, countOnly);
+        } finally {
+            config.getMemoryBudget().release(memory);
+        }
+
+        // 先记录完成再删除输入的分片, 中断后总能找到结果或者重新计算
+        if (manifest != null) {
+            manifest.shardDone(index, shardResult);
+        }
+        deleteShardingFile(file1);
+        deleteShardingFile(file2);
+        return shardResult;
+    }
+
+    /**
+     * 对一对分片文件做集合运算, 结果写入结果文件
+     * 估算的内存超过上限时把两个文件切分成子分片, 逐个子分片递归地计算, 最后合并子分片的结果
+     * 只计算行数时不写入结果文件, 返回的结果只有行数
+     *
+     * @param file1 分片文件1
+     * @param file2 分片文件2
+     * @param handler 集合运算处理
+     * @param resultFilePath 结果文件
+     * @param sort 是否对结果进行排序
+     * @param spiller 超过内存上限时切分分片
+     * @param level 切分的层数, 原始分片为 0
+     * @param countOnly 是否只计算行数
+     */
+    private ShardResult calcShardFiles(String file1, String file2, RowMapHandler handler, String resultFilePath,
+                                       boolean sort, ShardSpiller spiller, int level, boolean countOnly)
+            throws IOException {
+        List<String> fileList = Arrays.asList(file1, file2);
+        if (!spiller.mustSpill(level, fileList)) {
+            long[] usedMemory = new long[1];
+            Map<String, String> rowMap1 = spiller.readAsMap(file1, level, usedMemory);
+            Map<String, String> rowMap2 = rowMap1 == null ? null : spiller.readAsMap(file2, level, usedMemory);
+            if (rowMap2 != null) {
+                // 直接在读入的映射上运算, 不再复制成数据行的集合
+                Map<String, String> result = handler.handle(rowMap1, rowMap2);
+                return countOnly ? new ShardResult(resultFilePath, result.size(), null, null)
+                        : writeShardResult(result.values(), resultFilePath, sort);
+            }
+        }
+
+        List<List<String>> partitionList = spiller.spill(fileList, level, resultFilePath);
+        List<String> subResultFileList = new ArrayList<>(partitionList.size());
+        long rowCount = 0;
+        String firstRow = null, lastRow = null;
+        for (int i = 0; i < partitionList.size(); i++) {
+            List<String> partition = partitionList.get(i);
+            ShardResult subResult = calcShardFiles(partition.get(0), partition.get(1), handler,
+                    resultFilePath + "-sub" + i, sort, spiller, level + 1, countOnly);
+            FileUtils.delete(partition.get(0));
+            FileUtils.delete(partition.get(1));
+            subResultFileList.add(subResult.getFilePath());
+            rowCount += subResult.getRowCount();
+            if (subResult.getRowCount() > 0 && sort && !countOnly) {
+                firstRow = firstRow == null || subResult.getFirstRow().compareTo(firstRow) < 0
+                        ? subResult.getFirstRow() : firstRow;
+                lastRow = lastRow == null || subResult.getLastRow().compareTo(lastRow) > 0
+                        ? subResult.getLastRow() : lastRow;
+            }
+        }
+
+        // 子分片的结果各自有序时多路归并, 否则直接拼接
+        if (countOnly) {
+            return new ShardResult(resultFilePath, rowCount, null, null);
+        }
+        if (sort) {
+            mergeSortedFiles(subResultFileList, RowSink.of(resultFilePath), false);
+            for (String filePath : subResultFileList) {
+                FileUtils.delete(filePath);
+            }
+        } else {
+            mergeShardingFile(subResultFileList, RowSink.of(resultFilePath), true);
+        }
+        return new ShardResult(resultFilePath, rowCount, firstRow, lastRow);
+    }
+
+    /**
+     * 把集合运算的结果写入结果文件
+     *
+     * @param result 集合运算的结果
+     * @param resultFilePath 结果文件
+     * @param sort 是否在写入前对结果进行排序
+     */
+    private ShardResult writeShardResult(Collection<String> result, String resultFilePath, boolean sort) throws IOException {
+        if (!sort) {
+            FileUtils.writeLines(resultFilePath, result, false);
+            return new ShardResult(resultFilePath, result.size(), null, null);
+        }
+        List<String> sortedResult = new ArrayList<>(result);
+        Collections.sort(sortedResult);
+        FileUtils.writeLines(resultFilePath, sortedResult, false);
+        return sortedResult.isEmpty()
+                ? new ShardResult(resultFilePath, 0, null, null)
+                : new ShardResult(resultFilePath, sortedResult.size(),
+                sortedResult.get(0), sortedResult.get(sortedResult.size() - 1));
+    }
+
+    /**
+     * 两个数据源按哈希分片后逐对分片连接, 结果分片拼接输出
+     * 数据源是按相同哈希函数分区的数据集时直接使用数据集的分区, 开启分片缓存时使用或者放入缓存
+     *
+     * @param left 左边的数据源
+     * @param right 右边的数据源
+     * @param sink 输出目标
+     * @param joiner 连接运算处理
+     */
+    private long shuffleJoin(RowSource left, RowSource right, RowSink sink, HashJoiner joiner) throws IOException {
+        ShardPlan plan = planSharding(false, false, left, right);
+        int shardingCount = plan.getShardingCount();
+        int datasetPartitionCount = chooseDatasetPartitionCount(shardingCount, left, right);
+        if (datasetPartitionCount > 0) {
+            shardingCount = datasetPartitionCount;
+        }
+        ShardCache shardCache = datasetPartitionCount > 0 ? null : ShardCache.of(config, rowHandler);
+        if (shardCache != null) {
+            shardingCount = shardCache.chooseShardingCount(shardingCount, left, right);
+        }
+
+        ScratchSpace scratchSpace = createScratchSpace();
+        List<ShardCache.Entry> cacheEntryList = new ArrayList<>(2);
+        try {
+            // 连接只能按哈希分片, 保证相同的key落在相同下标的分片
+            Partitioner partitioner = new HashPartitioner(shardingCount, rowHandler);
+            List<String> leftFileList = sharding(scratchSpace, left, partitioner, null, 0, shardCache,
+                    cacheEntryList);
+            List<String> rightFileList = sharding(scratchSpace, right, partitioner, null, 1, shardCache,
+                    cacheEntryList);
+            shardingCount = leftFileList.size();
+
+            List<String> resultFileList = new ArrayList<>(shardingCount);
+            for (int i = 0; i < shardingCount; i++) {
+                resultFileList.add(scratchSpace.otherDirectory(leftFileList.get(i))
+                        + getJoinFileName(sink.getName(), i));
+            }
+            int parallelism = Math.min(plan.getParallelism(), shardingCount);
+            if (parallelism > 1) {
+                ExecutorService executor = newExecutor(parallelism);
+                List<Future<Long>> futureList = new ArrayList<>(shardingCount);
+                try {
+                    for (int i = 0; i < shardingCount; i++) {
+                        String leftFile = leftFileList.get(i);
+                        String rightFile = rightFileList.get(i);
+                        String resultFile = resultFileList.get(i);
+                        futureList.add(executor.submit(() -> joinSharding(leftFile, rightFile, joiner, resultFile)));
+                    }
+                    for (Future<Long> future : futureList) {
+                        ConcurrentUtils.getResult(future);
+                    }
+                } finally {
+                    // 共享线程池不会被关闭, 需要取消还没完成的任务
+                    for (Future<Long> future : futureList) {
+                        future.cancel(true);
+                    }
+                    shutdownExecutor(executor);
+                }
+            } else {
+                for (int i = 0; i < shardingCount; i++) {
+                    joinSharding(leftFileList.get(i), rightFileList.get(i), joiner, resultFileList.get(i));
+                }
+            }
+
+            long totalSize = mergeShardingFile(resultFileList, sink, true);
+            scratchSpace.delete();
+            return totalSize;
+        } finally {
+            for (ShardCache.Entry entry : cacheEntryList) {
+                entry.close();
+            }
+        }
+    }
+
+    /**
+     * 连接一对分片文件, 结果写入结果分片文件, 计算期间从内存预算中申请分片计算的内存
+     *
+     * @param leftFile 左边的分片文件
+     * @param rightFile 右边的分片文件
+     * @param joiner 连接运算处理
+     * @param resultFilePath 结果分片文件
+     */
+    private long joinSharding(String leftFile, String rightFile, HashJoiner joiner, String resultFilePath)
+            throws IOException {
+        long memory = config.getMemoryBudget().reserve(config.getMaxShardMemorySize());
+        long rowCount;
+        try {
+            rowCount = joinShardFiles(leftFile, rightFile, joiner, resultFilePath,
+                    new ShardSpiller(rowHandler, memory), 0);
+        } finally {
+            config.getMemoryBudget().release(memory);
+        }
+        deleteShardingFile(leftFile);
+        deleteShardingFile(rightFile);
+        return rowCount;
+    }
+
+    /**
+     * 连接一对分片文件, 较小的文件构建哈希表, 估算的内存超过上限时把两个文件切分成子分片, 逐个子分片递归地连接,
+     * 最后拼接子分片的结果
+     *
+     * @param leftFile 左边的分片文件
+     * @param rightFile 右边的分片文件
+     * @param joiner 连接运算处理
+     * @param resultFilePath 结果文件
+     * @param spiller 超过内存上限时切分分片
+     * @param level 切分的层数, 原始分片为 0
+     */
+    private long joinShardFiles(String leftFile, String rightFile, HashJoiner joiner, String resultFilePath,
+                                ShardSpiller spiller, int level) throws IOException {
+        boolean buildLeft = FileUtils.getFileLength(leftFile) <= FileUtils.getFileLength(rightFile);
+        String buildFile = buildLeft ? leftFile : rightFile;
+        if (!spiller.mustSpill(level, Collections.singletonList(buildFile))) {
+            Map<String, List<String>> buildMap = spiller.readAsGroups(buildFile, level);
+            if (buildMap != null) {
+                try (LineIterator lineIterator = FileUtils.newLineIterator(buildLeft ? rightFile : leftFile);
+                     LineWriter writer = RowSink.of(resultFilePath).open()) {
+                    return joiner.probe(buildMap, buildLeft, lineIterator, false, writer);
+                }
+            }
+        }
+
+        List<List<String>> partitionList = spiller.spill(Arrays.asList(leftFile, rightFile), level, resultFilePath);
+        List<String> subResultFileList = new ArrayList<>(partitionList.size());
+        long rowCount = 0;
+        for (int i = 0; i < partitionList.size(); i++) {
+            List<String> partition = partitionList.get(i);
+            String subResultFilePath = resultFilePath + "-sub" + i;
+            rowCount += joinShardFiles(partition.get(0), partition.get(1), joiner, subResultFilePath, spiller,
+                    level + 1);
+            FileUtils.delete(partition.get(0));
+            FileUtils.delete(partition.get(1));
+            subResultFileList.add(subResultFilePath);
+        }
+        mergeShardingFile(subResultFileList, RowSink.of(resultFilePath), true);
+        return rowCount;
+    }
+
+    // 删除用完的分片文件, 分片缓存和分区数据集中的文件需要保留
+    private void deleteShardingFile(String filePath) throws IOException {
+        if (!filePath.startsWith(config.getShardCacheDirectory())
+                && !PartitionedDataset.isDataset(FileUtils.getParent(filePath))) {
+            FileUtils.deleteIfExists(filePath);
         }
-        return outputShardingFileList;
     }
 
     /**
      * 将分片文件合并成目标文件
      *
      * @param shardingFileList 分片文件列表
-     * @param outputFilePath 目标文件路径
+     * @param sink 输出目标
+     * @param delete 是否在合并后立即删除分片文件
      */
-    private long mergeShardingFile(List<String> shardingFileList, String outputFilePath) throws IOException {
-        FileUtils.deleteIfExists(outputFilePath);
-
+    private long mergeShardingFile(List<String> shardingFileList, RowSink sink, boolean delete) throws IOException {
         long totalSize = 0;
-        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(outputFilePath))) {
+        try (LineWriter writer = sink.open()) {
             for (String filePath : shardingFileList) {
                 try (LineIterator lineIterator = FileUtils.newLineIterator(filePath)) {
                     while (lineIterator.hasNext()) {
-                        bw.write(lineIterator.nextLine());
-                        bw.newLine();
+                        writer.writeLine(lineIterator.nextLine());
                         totalSize++;
                     }
                 }
-                FileUtils.delete(filePath);
+                if (delete) {
+                    FileUtils.delete(filePath);
+                }
             }
         }
         return totalSize;
     }
 
+    /**
+     * 把结果分片写入分区数据集
+     *
+     * @param resultList 结果分片列表
+     * @param directory 数据集目录
+     * @param move 是否移动结果分片, 否则复制
+     */
+    private long writeDataset(List<ShardResult> resultList, String directory, boolean move) throws IOException {
+        PartitionedDataset.prepare(directory);
+        List<String> fileList = new ArrayList<>(resultList.size());
+        List<Long> rowCountList = new ArrayList<>(resultList.size());
+        for (int i = 0; i < resultList.size(); i++) {
+            ShardResult result = resultList.get(i);
+            String filePath = directory + PartitionedDataset.partitionFileName(i);
+            if (move) {
+                FileUtils.rename(result.getFilePath(), filePath);
+            } else {
+                Files.copy(Paths.get(result.getFilePath()), Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING);
+            }
+            fileList.add(filePath);
+            rowCountList.add(result.getRowCount());
+        }
+        PartitionedDataset dataset = PartitionedDataset.write(directory, hashFunction(), fileList, rowCountList);
+        log.debug("write {} partitions to {}", dataset.getPartitionCount(), directory);
+        return dataset.getRowCount();
+    }
+
     private String getShardingFileName(String fileName, int index) {
         return String.format("%s-set-%s", fileName, String.valueOf(index));
     }
+
+    private String getJoinFileName(String fileName, int index) {
+        return String.format("%s-join-%s", fileName, String.valueOf(index));
+    }
 }
@@ -0,0 +1,153 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.ConcurrentUtils;
+import cn.junety.tools.bigfile.utils.FileRange;
+import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.GzipUtils;
+import cn.junety.tools.bigfile.utils.KeySketch;
+import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.RowSource;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 估算数据源中不重复的key的数量, 以及集合运算的结果大小, 只读取一遍数据源, 不写入任何输出
+ * 开启 persistSketch 时概要保存在数据源旁边, 数据源没有变化时后续的估算直接读取概要
+ */
+@Slf4j
+public class EstimateProcessor extends AbstractProcessor {
+
+    private static final long SKETCH_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    public EstimateProcessor(BigFileConfig config, RowHandler rowHandler) {
+        super(config, rowHandler);
+    }
+
+    /**
+     * 获取数据源中key的概要, 优先使用已经保存并且没有过期的概要
+     * 普通文件在并行度大于 1 时按区间并行读取, 各个区间的概要合并为整个文件的概要
+     *
+     * @param source 数据源
+     */
+    public KeySketch sketch(RowSource source) throws IOException {
+        SketchStore sketchStore = new SketchStore(rowHandler);
+        KeySketch sketch = sketchStore.load(source);
+        if (sketch != null) {
+            log.debug("use saved sketch of {}: {}", source, sketch);
+            return sketch;
+        }
+
+        if (isParallelSketch(source)) {
+            sketch = sketchWithThreadPool(source.getFilePath());
+        } else {
+            try (LineIterator lineIterator = source.open()) {
+                sketch = sketch(lineIterator);
+            }
+        }
+        log.debug("sketch of {}: {}", source, sketch);
+        if (config.isPersistSketch()) {
+            sketchStore.save(source, sketch);
+        }
+        return sketch;
+    }
+
+    /**
+     * 估算数据源中不重复的key的数量
+     *
+     * @param source 数据源
+     */
+    public long estimateDistinct(RowSource source) throws IOException {
+        return sketch(source).cardinality();
+    }
+
+    /**
+     * 估算两个数据源交集的行数
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     */
+    public long estimateIntersect(RowSource source1, RowSource source2) throws IOException {
+        return KeySketch.estimateIntersect(sketch(source1), sketch(source2));
+    }
+
+    /**
+     * 估算两个数据源并集的行数
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     */
+    public long estimateUnion(RowSource source1, RowSource source2) throws IOException {
+        return KeySketch.estimateUnion(sketch(source1), sketch(source2));
+    }
+
+    /**
+     * 估算两个数据源差集(A-B)的行数
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     */
+    public long estimateDiffer(RowSource source1, RowSource source2) throws IOException {
+        return KeySketch.estimateDiffer(sketch(source1), sketch(source2));
+    }
+
+    // 读取合法数据的key生成概要
+    private KeySketch sketch(LineIterator lineIterator) {
+        KeySketch sketch = new KeySketch();
+        while (lineIterator.hasNext()) {
+            String row = lineIterator.nextLine();
+            if (rowHandler.accept(row)) {
+                sketch.add(rowHandler.getKey(row));
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * 数据源是足够大的普通文件时才并行读取, gzip 文件只能顺序读取
+     *
+     * @param source 数据源
+     */
+    private boolean isParallelSketch(RowSource source) throws IOException {
+        return config.getParallelism() > 1 && source.isFile() && !GzipUtils.isGzip(source.getFilePath())
+                && FileUtils.getFileLength(source.getFilePath()) > SKETCH_CHUNK_SIZE;
+    }
+
+    /**
+     * 把文件按行切分成多个区间, 在线程池中并行生成每个区间的概要, 再合并
+     *
+     * @param filePath 文件路径
+     */
+    private KeySketch sketchWithThreadPool(String filePath) throws IOException {
+        List<FileRange> rangeList = FileUtils.splitRanges(filePath, SKETCH_CHUNK_SIZE);
+        ExecutorService executor = newExecutor(config.getParallelism());
+        List<Future<KeySketch>> futureList = new ArrayList<>(rangeList.size());
+        try {
+            for (FileRange range : rangeList) {
+                futureList.add(executor.submit(() -> {
+                    try (LineIterator lineIterator = FileUtils.newLineIterator(range)) {
+                        return sketch(lineIterator);
+                    }
+                }));
+            }
+
+            KeySketch sketch = new KeySketch();
+            for (Future<KeySketch> future : futureList) {
+                sketch.merge(ConcurrentUtils.getResult(future));
+            }
+            return sketch;
+        } finally {
+            // 共享线程池不会被关闭, 需要取消还没完成的任务
+            for (Future<KeySketch> future : futureList) {
+                future.cancel(true);
+            }
+            shutdownExecutor(executor);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowJoiner;
+import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.LineWriter;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 按key连接两边的数据: 较小的一边读入哈希表(构建), 顺序读取另一边逐行查找(探测)
+ *
+ * 与集合运算不同, key相同的数据不会使用rowHandler合并, 两边key相同的每一对数据都会组合输出;
+ * 外连接中没有匹配的数据与 null 组合输出, 构建的一边需要输出时, 探测结束后输出没有被匹配过的key
+ */
+class HashJoiner {
+
+    private final RowHandler rowHandler;
+    private final JoinType joinType;
+    private final RowJoiner rowJoiner;
+
+    HashJoiner(RowHandler rowHandler, JoinType joinType, RowJoiner rowJoiner) {
+        this.rowHandler = rowHandler;
+        this.joinType = joinType;
+        this.rowJoiner = rowJoiner;
+    }
+
+    /**
+     * 不分片, 构建的一边全部读入内存后探测另一边, 返回输出的行数
+     *
+     * @param left      左边的数据源
+     * @param right     右边的数据源
+     * @param buildLeft 读入内存的是否是左边
+     * @param sink      输出目标
+     */
+    long join(RowSource left, RowSource right, boolean buildLeft, RowSink sink) throws IOException {
+        Map<String, List<String>> buildMap = new HashMap<>();
+        try (LineIterator lineIterator = (buildLeft ? left : right).open()) {
+            while (lineIterator.hasNext()) {
+                String row = lineIterator.nextLine();
+                if (rowHandler.accept(row)) {
+                    buildMap.computeIfAbsent(rowHandler.getKey(row), key -> new ArrayList<>(1)).add(row);
+                }
+            }
+        }
+        try (LineIterator lineIterator = (buildLeft ? right : left).open();
+             LineWriter writer = sink.open()) {
+            return probe(buildMap, buildLeft, lineIterator, true, writer);
+        }
+    }
+
+    /**
+     * 逐行探测哈希表并输出组合后的数据, 返回输出的行数
+     *
+     * @param buildMap      构建的一边, key相同的数据全部保留
+     * @param buildLeft     构建的是否是左边
+     * @param probeIterator 探测的一边
+     * @param filter        是否需要过滤探测的数据, 分片文件已经过滤过
+     * @param writer        输出
+     */
+    long probe(Map<String, List<String>> buildMap, boolean buildLeft, LineIterator probeIterator, boolean filter,
+               LineWriter writer) throws IOException {
+        boolean keepProbe = buildLeft ? joinType.keepRight() : joinType.keepLeft();
+        boolean keepBuild = buildLeft ? joinType.keepLeft() : joinType.keepRight();
+        Set<String> matchedKeySet = keepBuild ? new HashSet<>() : null;
+        long rowCount = 0;
+        while (probeIterator.hasNext() && (keepProbe || !buildMap.isEmpty())) {
+            String row = probeIterator.nextLine();
+            if (filter && !rowHandler.accept(row)) {
+                continue;
+            }
+            String key = rowHandler.getKey(row);
+            List<String> buildRowList = buildMap.get(key);
+            if (buildRowList == null) {
+                if (keepProbe) {
+                    rowCount += write(writer, buildLeft, null, row);
+                }
+                continue;
+            }
+            if (matchedKeySet != null) {
+                matchedKeySet.add(key);
+            }
+            for (String buildRow : buildRowList) {
+                rowCount += write(writer, buildLeft, buildRow, row);
+            }
+        }
+
+        if (keepBuild) {
+            for (Map.Entry<String, List<String>> entry : buildMap.entrySet()) {
+                if (matchedKeySet.contains(entry.getKey())) {
+                    continue;
+                }
+                for (String buildRow : entry.getValue()) {
+                    rowCount += write(writer, buildLeft, buildRow, null);
+                }
+            }
+        }
+        return rowCount;
+    }
+
+    // 按左右顺序组合构建和探测的数据行, 返回输出的行数
+    private int write(LineWriter writer, boolean buildLeft, String buildRow, String probeRow) throws IOException {
+        String row = buildLeft ? rowJoiner.join(buildRow, probeRow) : rowJoiner.join(probeRow, buildRow);
+        if (row == null) {
+            return 0;
+        }
+        writer.writeLine(row);
+        return 1;
+    }
+}
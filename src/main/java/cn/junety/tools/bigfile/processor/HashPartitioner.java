@@ -0,0 +1,30 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowHandler;
+
+/**
+ * 按照 rowHandler.hash 对key进行哈希分片
+ */
+public class HashPartitioner implements Partitioner {
+
+    private final int partitionCount;
+    private final RowHandler rowHandler;
+
+    public HashPartitioner(int partitionCount, RowHandler rowHandler) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("partition count must be positive: " + partitionCount);
+        }
+        this.partitionCount = partitionCount;
+        this.rowHandler = rowHandler;
+    }
+
+    @Override
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    @Override
+    public int partition(String key) {
+        return Math.abs(rowHandler.hash(key) % partitionCount);
+    }
+}
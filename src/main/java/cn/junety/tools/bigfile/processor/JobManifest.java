@@ -0,0 +1,325 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.RowSource;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * 记录一次计算的进度, 保存在临时目录中, 计算失败后重新执行相同的计算时跳过已经完成的分片和运算
+ *
+ * manifest.properties 记录输入的指纹(路径、大小、修改时间和计算参数)、分片规划和每个数据源分片完成后的分片文件,
+ * 每次更新都先写入临时文件再原子替换; 分片运算完成的记录(结果文件、行数和 crc32 校验和)数量很多,
+ * 逐行追加到 shards.log, 进程中断时写了一半的最后一行在重新打开时被截掉
+ *
+ * 分片数来自随机采样和分片缓存的状态, 每次执行可能不同, 不属于指纹; 重新执行时沿用第一次记录的分片规划
+ */
+@Slf4j
+class JobManifest {
+
+    private static final String FILE_NAME = "manifest.properties";
+    private static final String SHARD_LOG_NAME = "shards.log";
+    private static final String NULL_VALUE = "-";
+    // 分片运算记录的结束标记, 没有结束标记的行是中断时写了一半的记录
+    private static final String END_MARK = ".";
+
+    private final Path filePath;
+    private final Properties properties;
+    private final Path shardLogPath;
+    // 分片下标 -> 分片运算完成的记录
+    private final Map<Integer, String[]> shardRecords;
+    // 已经校验过结果文件的分片下标, 避免重复计算校验和
+    private final Set<Integer> verifiedShards = new HashSet<>();
+
+    private JobManifest(Path filePath, Properties properties, Path shardLogPath,
+                        Map<Integer, String[]> shardRecords) {
+        this.filePath = filePath;
+        this.properties = properties;
+        this.shardLogPath = shardLogPath;
+        this.shardRecords = shardRecords;
+    }
+
+    /**
+     * 计算指纹, 任意一个数据源不是文件时返回 null, 表示不能恢复
+     *
+     * @param operation 计算的名称和参数
+     * @param sources   数据源列表
+     */
+    static String fingerprint(String operation, RowSource... sources) throws IOException {
+        StringBuilder builder = new StringBuilder(operation);
+        for (RowSource source : sources) {
+            if (!source.isFile()) {
+                return null;
+            }
+            Path path = Paths.get(source.getFilePath()).toAbsolutePath();
+            builder.append('|').append(path)
+                    .append(',').append(Files.size(path))
+                    .append(',').append(Files.getLastModifiedTime(path).toMillis());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 根据指纹生成临时目录的名称, 相同的计算使用相同的目录
+     *
+     * @param fingerprint 指纹
+     */
+    static String directoryName(String fingerprint) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(fingerprint.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder("job-");
+            for (int i = 0; i < 8; i++) {
+                builder.append(String.format("%02x", digest[i]));
+            }
+            return builder.append('/').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 读取临时目录中的进度记录, 不存在或者指纹不一致时创建新的记录
+     *
+     * @param scratchSpace 临时目录
+     * @param fingerprint  指纹
+     */
+    static JobManifest open(ScratchSpace scratchSpace, String fingerprint) throws IOException {
+        String directory = scratchSpace.getDirectoryList().get(0);
+        Path filePath = Paths.get(directory + FILE_NAME);
+        Path shardLogPath = Paths.get(directory + SHARD_LOG_NAME);
+        Properties properties = new Properties();
+        if (FileUtils.exist(filePath)) {
+            try (InputStream is = Files.newInputStream(filePath)) {
+                properties.load(is);
+            }
+            if (fingerprint.equals(properties.getProperty("fingerprint"))) {
+                Map<Integer, String[]> shardRecords = readShardLog(shardLogPath);
+                log.debug("resume from {}, {} shards done", filePath, shardRecords.size());
+                return new JobManifest(filePath, properties, shardLogPath, shardRecords);
+            }
+            log.debug("fingerprint of {} does not match, start over", filePath);
+            properties.clear();
+        }
+        FileUtils.deleteIfExists(shardLogPath.toString());
+        properties.setProperty("fingerprint", fingerprint);
+        JobManifest manifest = new JobManifest(filePath, properties, shardLogPath, new HashMap<>());
+        manifest.save();
+        return manifest;
+    }
+
+    // 读取分片运算完成的记录, 忽略写了一半的记录
+    private static Map<Integer, String[]> readShardLog(Path shardLogPath) throws IOException {
+        Map<Integer, String[]> shardRecords = new HashMap<>();
+        if (!FileUtils.exist(shardLogPath)) {
+            return shardRecords;
+        }
+        truncateTornLine(shardLogPath);
+        for (String line : Files.readAllLines(shardLogPath, StandardCharsets.UTF_8)) {
+            String[] fields = line.split(" ");
+            if (fields.length != 7 || !END_MARK.equals(fields[6])) {
+                continue;
+            }
+            try {
+                for (int i = 3; i < 6; i++) {
+                    fields[i] = decode(fields[i]);
+                }
+                shardRecords.put(Integer.parseInt(fields[0]), fields);
+            } catch (IllegalArgumentException e) {
+                log.debug("ignore broken shard record: {}", line);
+            }
+        }
+        return shardRecords;
+    }
+
+    // 截掉中断时写了一半的最后一行, 否则之后追加的记录会接在这一行后面而被忽略
+    private static void truncateTornLine(Path shardLogPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(shardLogPath, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            long end = channel.size();
+            while (end > 0) {
+                buffer.clear();
+                channel.read(buffer, end - 1);
+                if (buffer.get(0) == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < channel.size()) {
+                log.debug("truncate torn shard record at {} of {}", end, shardLogPath);
+                channel.truncate(end);
+            }
+        }
+    }
+
+    /**
+     * 返回记录的分片数, 还没有记录时返回 0
+     */
+    synchronized int getShardingCount() {
+        return Integer.parseInt(properties.getProperty("plan.shardingCount", "0"));
+    }
+
+    /**
+     * 返回记录的分片方式是否按哈希分片
+     */
+    synchronized boolean isHashPartition() {
+        return Boolean.parseBoolean(properties.getProperty("plan.hashPartition"));
+    }
+
+    /**
+     * 记录分片规划, 需要在分片之前调用
+     *
+     * @param shardingCount 分片数
+     * @param hashPartition 是否按哈希分片
+     */
+    synchronized void planned(int shardingCount, boolean hashPartition) throws IOException {
+        properties.setProperty("plan.shardingCount", String.valueOf(shardingCount));
+        properties.setProperty("plan.hashPartition", String.valueOf(hashPartition));
+        save();
+    }
+
+    /**
+     * 返回数据源已经完成的分片文件, 没有完成或者分片文件缺失时返回 null, 需要重新分片
+     * 分片运算完成后输入的分片文件会被删除, 只有运算结果无效(缺失或者校验和不一致)的分片才需要分片文件
+     *
+     * @param sourceIndex 数据源下标
+     */
+    List<String> getShardingFiles(int sourceIndex) throws IOException {
+        String prefix = "sharding." + sourceIndex + ".";
+        List<String> fileList = new ArrayList<>();
+        synchronized (this) {
+            String count = properties.getProperty(prefix + "count");
+            if (count == null) {
+                return null;
+            }
+            for (int i = 0; i < Integer.parseInt(count); i++) {
+                fileList.add(properties.getProperty(prefix + i));
+            }
+        }
+        for (int i = 0; i < fileList.size(); i++) {
+            if (!FileUtils.exist(fileList.get(i)) && getShardResult(i) == null) {
+                log.debug("sharding file {} is missing, shard again", fileList.get(i));
+                return null;
+            }
+        }
+        return fileList;
+    }
+
+    /**
+     * 记录数据源分片完成
+     *
+     * @param sourceIndex 数据源下标
+     * @param fileList    分片文件列表
+     */
+    synchronized void shardingDone(int sourceIndex, List<String> fileList) throws IOException {
+        String prefix = "sharding." + sourceIndex + ".";
+        for (int i = 0; i < fileList.size(); i++) {
+            properties.setProperty(prefix + i, fileList.get(i));
+        }
+        properties.setProperty(prefix + "count", String.valueOf(fileList.size()));
+        save();
+    }
+
+    /**
+     * 返回已经完成的分片运算结果, 没有完成、结果文件缺失或者校验和不一致时返回 null
+     *
+     * @param index 分片下标
+     */
+    ShardResult getShardResult(int index) throws IOException {
+        String[] fields;
+        boolean verified;
+        synchronized (this) {
+            fields = shardRecords.get(index);
+            verified = verifiedShards.contains(index);
+        }
+        if (fields == null || !FileUtils.exist(fields[3])) {
+            return null;
+        }
+        if (!verified) {
+            if (FileUtils.checksumCRC32(fields[3]) != Long.parseLong(fields[2])) {
+                log.debug("checksum of {} does not match, recalculate", fields[3]);
+                synchronized (this) {
+                    shardRecords.remove(index);
+                }
+                return null;
+            }
+            synchronized (this) {
+                verifiedShards.add(index);
+            }
+        }
+        return new ShardResult(fields[3], Long.parseLong(fields[1]), fields[4], fields[5]);
+    }
+
+    /**
+     * 清除所有分片运算完成的记录, 按新的分片规则重新分片后, 原来的运算结果不再对应相同的分片
+     */
+    synchronized void clearShardResults() throws IOException {
+        shardRecords.clear();
+        verifiedShards.clear();
+        FileUtils.deleteIfExists(shardLogPath.toString());
+    }
+
+    /**
+     * 记录分片运算完成, 需要在删除分片的输入文件之前调用
+     *
+     * @param index  分片下标
+     * @param result 分片运算结果
+     */
+    void shardDone(int index, ShardResult result) throws IOException {
+        long crc = FileUtils.checksumCRC32(result.getFilePath());
+        String[] fields = {String.valueOf(index), String.valueOf(result.getRowCount()), String.valueOf(crc),
+                result.getFilePath(), result.getFirstRow(), result.getLastRow()};
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            line.append(i < 3 ? fields[i] : encode(fields[i])).append(' ');
+        }
+        line.append(END_MARK).append('\n');
+        synchronized (this) {
+            Files.write(shardLogPath, line.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            shardRecords.put(index, fields);
+            verifiedShards.add(index);
+        }
+    }
+
+    // 文件路径和数据行可能包含空格, 使用 Base64 编码
+    private static String encode(String value) {
+        return value == null ? NULL_VALUE
+                : Base64.getUrlEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String value) {
+        return NULL_VALUE.equals(value) ? null
+                : new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+    }
+
+    // 先写入临时文件再原子替换
+    private void save() throws IOException {
+        Path tempPath = Paths.get(filePath + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tempPath)) {
+            properties.store(os, null);
+        }
+        FileUtils.rename(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
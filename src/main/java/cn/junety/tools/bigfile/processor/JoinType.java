@@ -0,0 +1,41 @@
+package cn.junety.tools.bigfile.processor;
+
+/**
+ * 连接运算的类型
+ */
+public enum JoinType {
+
+    /**
+     * 内连接, 只输出两边都有的key
+     */
+    INNER,
+
+    /**
+     * 左外连接, 左边没有匹配的数据也输出
+     */
+    LEFT,
+
+    /**
+     * 右外连接, 右边没有匹配的数据也输出
+     */
+    RIGHT,
+
+    /**
+     * 全外连接, 两边没有匹配的数据都输出
+     */
+    FULL;
+
+    /**
+     * 左边没有匹配的数据是否需要输出
+     */
+    boolean keepLeft() {
+        return this == LEFT || this == FULL;
+    }
+
+    /**
+     * 右边没有匹配的数据是否需要输出
+     */
+    boolean keepRight() {
+        return this == RIGHT || this == FULL;
+    }
+}
@@ -0,0 +1,106 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 在文件的随机位置读取数据行进行采样, 不需要读取整个文件
+ *
+ * 每次采样取出随机位置所在的整行, 一行被采到的概率与它的字节数(包括换行符)成正比:
+ * 按区间分片时采样的key按字节数分布, 分片的大小更均匀; 估算行数和平均行大小时需要按字节数的倒数加权
+ */
+class KeySampler {
+
+    private static final int SAMPLE_BUFFER_SIZE = 8 * 1024;
+
+    private final RowHandler rowHandler;
+    private final Random random;
+
+    KeySampler(RowHandler rowHandler) {
+        this.rowHandler = rowHandler;
+        this.random = new Random();
+    }
+
+    /**
+     * 对文件采样, 返回采样到的合法数据行, 所有采样共用一个打开的文件
+     *
+     * @param filePath    文件路径
+     * @param sampleCount 采样次数
+     */
+    List<String> sampleRows(String filePath, int sampleCount) throws IOException {
+        List<String> rowList = new ArrayList<>(sampleCount);
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            long length = file.length();
+            if (length == 0) {
+                return rowList;
+            }
+            byte[] buffer = new byte[SAMPLE_BUFFER_SIZE];
+            ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+            for (int i = 0; i < sampleCount; i++) {
+                long offset = (long) (random.nextDouble() * length);
+                String row = readLine(file, lineStart(file, offset, buffer), buffer, lineBuffer);
+                if (rowHandler.accept(row)) {
+                    rowList.add(row);
+                }
+            }
+        }
+        return rowList;
+    }
+
+    // 向前查找 offset 所在行的起始位置, 即 offset 之前最后一个换行符之后的位置
+    private long lineStart(RandomAccessFile file, long offset, byte[] buffer) throws IOException {
+        long end = offset;
+        while (end > 0) {
+            int n = (int) Math.min(buffer.length, end);
+            file.seek(end - n);
+            file.readFully(buffer, 0, n);
+            for (int i = n - 1; i >= 0; i--) {
+                if (buffer[i] == '\n') {
+                    return end - n + i + 1;
+                }
+            }
+            end -= n;
+        }
+        return 0;
+    }
+
+    // 从 start 开始读取一行, 行在 '\n' 或 '\r' 处结束, 与 ByteLineReader 一致
+    private String readLine(RandomAccessFile file, long start, byte[] buffer, ByteArrayOutputStream lineBuffer)
+            throws IOException {
+        lineBuffer.reset();
+        file.seek(start);
+        int n;
+        while ((n = file.read(buffer)) > 0) {
+            int lineEnd = 0;
+            while (lineEnd < n && buffer[lineEnd] != '\n' && buffer[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            lineBuffer.write(buffer, 0, lineEnd);
+            if (lineEnd < n) {
+                break;
+            }
+        }
+        return new String(lineBuffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 对文件采样, 返回采样到的数据的key
+     *
+     * @param filePath    文件路径
+     * @param sampleCount 采样次数
+     */
+    List<String> sampleKeys(String filePath, int sampleCount) throws IOException {
+        List<String> keyList = new ArrayList<>(sampleCount);
+        for (String row : sampleRows(filePath, sampleCount)) {
+            keyList.add(rowHandler.getKey(row));
+        }
+        return keyList;
+    }
+}
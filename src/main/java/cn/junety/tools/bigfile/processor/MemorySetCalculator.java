@@ -0,0 +1,139 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.LineWriter;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 不分片的集合运算, 数据源直接读入内存, 不创建临时目录, 也不写入临时文件
+ *
+ * 两个数据源都较小时全部读入内存计算; 只有一个数据源较小时把它读入内存, 顺序读取一遍另一个数据源(广播),
+ * 广播只用于结果不超过较小数据源的运算: 交集, 以及较小的数据源为被减数的差集
+ * 同一个数据源内key相同的数据、两个数据源key相同的数据都使用rowHandler合并, 结果与分片计算相同
+ */
+class MemorySetCalculator {
+
+    private final RowHandler rowHandler;
+    private final SetOperation operation;
+
+    MemorySetCalculator(RowHandler rowHandler, SetOperation operation) {
+        this.rowHandler = rowHandler;
+        this.operation = operation;
+    }
+
+    /**
+     * 判断是否可以把一个数据源广播
+     *
+     * @param operation  集合运算的类型
+     * @param broadcast1 广播的是否是数据源1
+     */
+    static boolean canBroadcast(SetOperation operation, boolean broadcast1) {
+        return operation == SetOperation.INTERSECT || operation == SetOperation.DIFFER && broadcast1;
+    }
+
+    /**
+     * 两个数据源都读入内存计算, 返回输出的行数
+     *
+     * @param source1 数据源1
+     * @param source2 数据源2
+     * @param sink    输出目标
+     * @param sort    是否需要对结果进行排序
+     */
+    long calculate(RowSource source1, RowSource source2, RowSink sink, boolean sort) throws IOException {
+        Map<String, String> rowMap1 = readAsMap(source1);
+        Map<String, String> rowMap2 = readAsMap(source2);
+        Map<String, String> result = SetHandlers.of(operation, rowHandler).handle(rowMap1, rowMap2);
+        return write(result.values(), sink, sort);
+    }
+
+    /**
+     * 较小的数据源读入内存, 顺序读取一遍另一个数据源, 返回输出的行数
+     *
+     * @param source1    数据源1
+     * @param source2    数据源2
+     * @param broadcast1 读入内存的是否是数据源1
+     * @param sink       输出目标
+     * @param sort       是否需要对结果进行排序
+     */
+    long broadcast(RowSource source1, RowSource source2, boolean broadcast1, RowSink sink, boolean sort)
+            throws IOException {
+        if (!canBroadcast(operation, broadcast1)) {
+            throw new IllegalArgumentException(String.format("can not broadcast source%d for %s",
+                    broadcast1 ? 1 : 2, operation));
+        }
+        Map<String, String> smallMap = readAsMap(broadcast1 ? source1 : source2);
+        RowSource streamSource = broadcast1 ? source2 : source1;
+
+        if (operation == SetOperation.DIFFER) {
+            // 被减数在内存中, 删除减数中出现的key
+            try (LineIterator lineIterator = streamSource.open()) {
+                while (lineIterator.hasNext() && !smallMap.isEmpty()) {
+                    String row = lineIterator.nextLine();
+                    if (rowHandler.accept(row)) {
+                        smallMap.remove(rowHandler.getKey(row));
+                    }
+                }
+            }
+            return write(smallMap.values(), sink, sort);
+        }
+
+        // 交集只保留较小数据源中出现的key, 顺序读取的数据源中key相同的数据先合并, 最后与较小数据源的数据合并
+        Map<String, String> matchedMap = new HashMap<>();
+        try (LineIterator lineIterator = streamSource.open()) {
+            while (lineIterator.hasNext()) {
+                String row = lineIterator.nextLine();
+                if (!rowHandler.accept(row)) {
+                    continue;
+                }
+                String key = rowHandler.getKey(row);
+                if (smallMap.containsKey(key)) {
+                    String oldRow = matchedMap.get(key);
+                    matchedMap.put(key, oldRow == null ? row : rowHandler.clash(row, oldRow));
+                }
+            }
+        }
+        for (Map.Entry<String, String> entry : matchedMap.entrySet()) {
+            String smallRow = smallMap.get(entry.getKey());
+            entry.setValue(broadcast1 ? rowHandler.clash(smallRow, entry.getValue())
+                    : rowHandler.clash(entry.getValue(), smallRow));
+        }
+        return write(matchedMap.values(), sink, sort);
+    }
+
+    // 读取数据源中的合法数据, key相同的数据使用rowHandler合并
+    private Map<String, String> readAsMap(RowSource source) throws IOException {
+        Map<String, String> rowMap = new HashMap<>();
+        try (LineIterator lineIterator = source.open()) {
+            while (lineIterator.hasNext()) {
+                String newRow = lineIterator.nextLine();
+                if (!rowHandler.accept(newRow)) {
+                    continue;
+                }
+                String key = rowHandler.getKey(newRow);
+                String oldRow = rowMap.get(key);
+                rowMap.put(key, oldRow == null ? newRow : rowHandler.clash(newRow, oldRow));
+            }
+        }
+        return rowMap;
+    }
+
+    private long write(Collection<String> result, RowSink sink, boolean sort) throws IOException {
+        Collection<String> rows = result;
+        if (sort) {
+            List<String> sortedRows = new ArrayList<>(result);
+            Collections.sort(sortedRows);
+            rows = sortedRows;
+        }
+        try (LineWriter writer = sink.open()) {
+            for (String row : rows) {
+                writer.writeLine(row);
+            }
+        }
+        return rows.size();
+    }
+}
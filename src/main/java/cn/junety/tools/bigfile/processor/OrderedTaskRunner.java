@@ -0,0 +1,79 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.utils.ConcurrentUtils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 把任务提交到线程池并行执行, 但是按照提交的顺序处理任务结果
+ * 在途的任务数量不超过 window, 避免结果在内存中堆积
+ */
+class OrderedTaskRunner<T> {
+
+    private final ExecutorService executor;
+    private final int window;
+    private final ResultHandler<T> resultHandler;
+    private final Deque<Future<T>> pendingList;
+
+    OrderedTaskRunner(ExecutorService executor, int window, ResultHandler<T> resultHandler) {
+        this.executor = executor;
+        this.window = Math.max(window, 1);
+        this.resultHandler = resultHandler;
+        this.pendingList = new ArrayDeque<>(this.window);
+    }
+
+    /**
+     * 提交任务, 在途任务达到上限时, 先按顺序处理最早提交的任务结果
+     *
+     * @param task 任务
+     */
+    void submit(Callable<T> task) throws IOException {
+        while (pendingList.size() >= window) {
+            handleFirst();
+        }
+        pendingList.add(executor.submit(task));
+    }
+
+    /**
+     * 等待并按顺序处理所有在途任务的结果
+     */
+    void finish() throws IOException {
+        while (!pendingList.isEmpty()) {
+            handleFirst();
+        }
+    }
+
+    /**
+     * 取消所有还没完成的任务
+     */
+    void cancel() {
+        for (Future<T> future : pendingList) {
+            future.cancel(true);
+        }
+        pendingList.clear();
+    }
+
+    private void handleFirst() throws IOException {
+        try {
+            resultHandler.handle(ConcurrentUtils.getResult(pendingList.poll()));
+        } catch (IOException | RuntimeException | Error e) {
+            cancel();
+            throw e;
+        }
+    }
+
+    interface ResultHandler<T> {
+
+        /**
+         * 处理任务结果
+         *
+         * @param result 任务结果
+         */
+        void handle(T result) throws IOException;
+    }
+}
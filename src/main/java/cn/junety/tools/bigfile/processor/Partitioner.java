@@ -0,0 +1,19 @@
+package cn.junety.tools.bigfile.processor;
+
+/**
+ * 根据key计算数据所在的分片
+ */
+public interface Partitioner {
+
+    /**
+     * 分片数量
+     */
+    int getPartitionCount();
+
+    /**
+     * 计算key所在的分片下标, 取值范围 [0, partitionCount)
+     *
+     * @param key key
+     */
+    int partition(String key);
+}
@@ -0,0 +1,165 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowPredicate;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
+import cn.junety.tools.bigfile.utils.TimeMeter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把多个连续的操作融合成一次执行, 整个流程只对数据源分片一次, 只输出一次, 不会生成中间文件
+ * 操作的顺序必须是 filter -> unique -> 集合运算 -> sort, 每一步都可以省略
+ *
+ * <pre>
+ * long count = bigFileProcessor.pipeline(RowSource.of("input"))
+ *         .filter(RowPredicates.contains("abc"))
+ *         .unique()
+ *         .intersect("reference")
+ *         .sort()
+ *         .execute("output");
+ * </pre>
+ */
+@Slf4j
+public class Pipeline {
+
+    private final PipelineProcessor processor;
+    private final RowSource source;
+
+    // 分片时应用的过滤条件
+    private RowPredicate rowPredicate;
+    private boolean unique;
+    // 依次与数据源做运算的集合运算及其数据源
+    private final List<SetOperation> operationList = new ArrayList<>();
+    private final List<RowSource> operandList = new ArrayList<>();
+    private boolean sort;
+
+    Pipeline(PipelineProcessor processor, RowSource source) {
+        this.processor = processor;
+        this.source = source;
+    }
+
+    /**
+     * 过滤数据, 多个过滤条件同时满足才会保留, 过滤条件在分片时应用
+     *
+     * @param rowPredicate 过滤条件
+     */
+    public Pipeline filter(RowPredicate rowPredicate) {
+        if (unique || !operationList.isEmpty() || sort) {
+            throw new IllegalStateException("filter must be added before unique, set operations and sort");
+        }
+        this.rowPredicate = this.rowPredicate == null ? rowPredicate : this.rowPredicate.and(rowPredicate);
+        return this;
+    }
+
+    /**
+     * 去重, key相同的数据使用rowHandler合并
+     */
+    public Pipeline unique() {
+        if (!operationList.isEmpty() || sort) {
+            throw new IllegalStateException("unique must be added before set operations and sort");
+        }
+        this.unique = true;
+        return this;
+    }
+
+    /**
+     * 与另一个数据源求交集, 另一个数据源与主数据源使用相同的分片规则, 只分片一次
+     *
+     * @param other 另一个数据源
+     */
+    public Pipeline intersect(RowSource other) {
+        return addOperation(SetOperation.INTERSECT, other);
+    }
+
+    public Pipeline intersect(String otherFilePath) {
+        return intersect(RowSource.of(otherFilePath));
+    }
+
+    /**
+     * 与另一个数据源求并集
+     *
+     * @param other 另一个数据源
+     */
+    public Pipeline union(RowSource other) {
+        return addOperation(SetOperation.UNION, other);
+    }
+
+    public Pipeline union(String otherFilePath) {
+        return union(RowSource.of(otherFilePath));
+    }
+
+    /**
+     * 减去另一个数据源
+     *
+     * @param other 另一个数据源
+     */
+    public Pipeline differ(RowSource other) {
+        return addOperation(SetOperation.DIFFER, other);
+    }
+
+    public Pipeline differ(String otherFilePath) {
+        return differ(RowSource.of(otherFilePath));
+    }
+
+    private Pipeline addOperation(SetOperation operation, RowSource other) {
+        if (sort) {
+            throw new IllegalStateException("set operations must be added before sort");
+        }
+        operationList.add(operation);
+        operandList.add(other);
+        return this;
+    }
+
+    /**
+     * 按字典序输出结果, 各个分片的结果排序后多路归并输出
+     */
+    public Pipeline sort() {
+        this.sort = true;
+        return this;
+    }
+
+    /**
+     * 执行整个流程, 返回输出的行数
+     *
+     * @param sink 输出目标
+     */
+    public long execute(RowSink sink) throws IOException {
+        TimeMeter timeMeter = new TimeMeter();
+        long totalSize = processor.execute(this, sink);
+        log.debug("pipeline total use {} seconds", timeMeter.getUsed(TimeUnit.SECONDS));
+        return totalSize;
+    }
+
+    public long execute(String outputFilePath) throws IOException {
+        return execute(RowSink.of(outputFilePath));
+    }
+
+    RowSource getSource() {
+        return source;
+    }
+
+    RowPredicate getRowPredicate() {
+        return rowPredicate;
+    }
+
+    boolean isUnique() {
+        return unique;
+    }
+
+    List<SetOperation> getOperationList() {
+        return operationList;
+    }
+
+    List<RowSource> getOperandList() {
+        return operandList;
+    }
+
+    boolean isSort() {
+        return sort;
+    }
+}
@@ -0,0 +1,278 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowPredicate;
+import cn.junety.tools.bigfile.utils.ByteLineReader;
+import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.LineWriter;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 执行融合后的操作流程
+ */
+@Slf4j
+public class PipelineProcessor extends AbstractProcessor {
+
+    public PipelineProcessor(BigFileConfig config, RowHandler rowHandler) {
+        super(config, rowHandler);
+    }
+
+    /**
+     * 创建以 source 为数据源的操作流程
+     *
+     * @param source 数据源
+     */
+    public Pipeline pipeline(RowSource source) {
+        return new Pipeline(this, source);
+    }
+
+    /**
+     * 执行操作流程, 返回输出的行数
+     *
+     * @param pipeline 操作流程
+     * @param sink     输出目标
+     */
+    long execute(Pipeline pipeline, RowSink sink) throws IOException {
+        boolean setCalculate = pipeline.isUnique() || !pipeline.getOperationList().isEmpty();
+        if (!setCalculate && !pipeline.isSort()) {
+            // 只有过滤, 边读边写
+            return filter(pipeline.getSource(), pipeline.getRowPredicate(), sink);
+        }
+
+        List<RowSource> sourceList = new ArrayList<>();
+        sourceList.add(pipeline.getSource());
+        sourceList.addAll(pipeline.getOperandList());
+        ShardPlan plan = planSharding(setCalculate, pipeline.isSort(), sourceList.toArray(new RowSource[0]));
+        int shardingCount = plan.getShardingCount();
+        Partitioner partitioner = new HashPartitioner(shardingCount, rowHandler);
+        ScratchSpace scratchSpace = createScratchSpace();
+
+        try {
+            // 所有数据源使用同一个分片规则, 过滤条件只作用于主数据源
+            List<String> shardingFileList = createShardingProcessor(scratchSpace, pipeline.getSource(), partitioner)
+                    .setRowPredicate(pipeline.getRowPredicate())
+                    .sharding();
+            if (!setCalculate) {
+                // 只有过滤和排序
+                return sortAndMerge(shardingFileList, sink, false, scratchSpace);
+            }
+
+            List<List<String>> operandShardingList = new ArrayList<>();
+            for (RowSource operand : pipeline.getOperandList()) {
+                operandShardingList.add(createShardingProcessor(scratchSpace, operand, partitioner).sharding());
+            }
+            log.debug("pipeline sharded {} sources into {} shards", sourceList.size(), shardingCount);
+
+            List<RowMapHandler> handlerList = new ArrayList<>();
+            for (SetOperation operation : pipeline.getOperationList()) {
+                handlerList.add(SetHandlers.of(operation, rowHandler));
+            }
+            return calcShards(shardingFileList, operandShardingList, handlerList, pipeline.isSort(),
+                    Math.max(plan.getParallelism(), 1), scratchSpace, sink);
+        } finally {
+            scratchSpace.delete();
+        }
+    }
+
+    /**
+     * 在线程池中逐个分片计算去重和集合运算, 按分片的顺序输出
+     * 不需要排序时直接写入输出目标, 需要排序时各个分片的结果排序后写入临时文件, 最后多路归并
+     *
+     * @param shardingFileList    主数据源的分片文件
+     * @param operandShardingList 各个集合运算数据源的分片文件
+     * @param handlerList         各个集合运算的处理
+     * @param sort                是否排序
+     * @param parallelism         并行计算的线程数
+     * @param scratchSpace        临时目录
+     * @param sink                输出目标
+     */
+    private long calcShards(List<String> shardingFileList, List<List<String>> operandShardingList,
+                            List<RowMapHandler> handlerList, boolean sort, int parallelism,
+                            ScratchSpace scratchSpace, RowSink sink) throws IOException {
+        long[] totalSize = new long[1];
+        List<String> sortedFileList = new ArrayList<>(shardingFileList.size());
+        ExecutorService executor = newExecutor(parallelism);
+
+        try (LineWriter writer = sort ? null : sink.open()) {
+            OrderedTaskRunner<ShardOutput> runner = new OrderedTaskRunner<>(executor,
+                    parallelism * 2, output -> {
+                        if (sort) {
+                            sortedFileList.addAll(output.fileList);
+                            return;
+                        }
+                        for (String row : output.rows) {
+                            writer.writeLine(row);
+                        }
+                        // 切分过的分片, 子分片的结果在临时文件中
+                        for (String filePath : output.fileList) {
+                            try (LineIterator lineIterator = FileUtils.newLineIterator(filePath)) {
+                                while (lineIterator.hasNext()) {
+                                    writer.writeLine(lineIterator.nextLine());
+                                }
+                            }
+                            FileUtils.delete(filePath);
+                        }
+                        totalSize[0] += output.rowCount;
+                    });
+            try {
+                for (int i = 0; i < shardingFileList.size(); i++) {
+                    List<String> fileList = new ArrayList<>(handlerList.size() + 1);
+                    fileList.add(shardingFileList.get(i));
+                    for (List<String> operandShardingFileList : operandShardingList) {
+                        fileList.add(operandShardingFileList.get(i));
+                    }
+                    String resultFilePath = scratchSpace.otherDirectory(shardingFileList.get(i))
+                            + FileUtils.getName(shardingFileList.get(i)) + "-result";
+                    runner.submit(() -> {
+                        // 内存预算不足时等待, 同时计算的分片因此减少; 分配不足时更早地切分成子分片
+                        long memory = config.getMemoryBudget().reserve(config.getMaxShardMemorySize());
+                        try {
+                            ShardOutput output = new ShardOutput();
+                            calcShard(fileList, handlerList, resultFilePath, sort,
+                                    new ShardSpiller(rowHandler, memory), 0, output);
+                            return output;
+                        } finally {
+                            config.getMemoryBudget().release(memory);
+                        }
+                    });
+                }
+                runner.finish();
+            } finally {
+                runner.cancel();
+            }
+        } finally {
+            shutdownExecutor(executor);
+        }
+
+        return sort ? mergeSortedFiles(sortedFileList, sink, false) : totalSize[0];
+    }
+
+    /**
+     * 计算一个分片: 读取主数据源的分片并按key去重, 依次与其它数据源相同下标的分片做集合运算
+     * 估算的内存超过上限时把所有分片文件切分成子分片, 逐个子分片递归地计算, 子分片的结果写入临时文件
+     * 没有切分并且不需要排序时结果留在内存中, 需要排序时排序后写入结果文件
+     *
+     * @param fileList       主数据源和各个集合运算数据源的分片文件
+     * @param handlerList    各个集合运算的处理
+     * @param resultFilePath 结果文件
+     * @param sort           是否对结果进行排序
+     * @param spiller        超过内存上限时切分分片
+     * @param level          切分的层数, 原始分片为 0
+     * @param output         收集计算结果
+     */
+    private void calcShard(List<String> fileList, List<RowMapHandler> handlerList, String resultFilePath,
+                           boolean sort, ShardSpiller spiller, int level, ShardOutput output) throws IOException {
+        if (!spiller.mustSpill(level, fileList)) {
+            Map<String, String> rowMap = calcInMemory(fileList, handlerList, spiller, level);
+            if (rowMap != null) {
+                for (String filePath : fileList) {
+                    FileUtils.deleteIfExists(filePath);
+                }
+                output.rowCount += rowMap.size();
+                if (level == 0 && !sort) {
+                    output.rows = rowMap.values();
+                    return;
+                }
+                Collection<String> rows = rowMap.values();
+                if (sort) {
+                    List<String> sortedRows = new ArrayList<>(rows);
+                    Collections.sort(sortedRows);
+                    rows = sortedRows;
+                }
+                FileUtils.writeLines(resultFilePath, rows, false);
+                output.fileList.add(resultFilePath);
+                return;
+            }
+        }
+
+        List<List<String>> partitionList = spiller.spill(fileList, level, resultFilePath);
+        for (String filePath : fileList) {
+            FileUtils.deleteIfExists(filePath);
+        }
+        for (int i = 0; i < partitionList.size(); i++) {
+            calcShard(partitionList.get(i), handlerList, resultFilePath + "-sub" + i, sort, spiller, level + 1,
+                    output);
+        }
+    }
+
+    /**
+     * 分片文件读入内存计算, 集合运算直接在按key建立的映射上进行; 还可以切分并且超过内存上限时返回 null
+     * 估算的内存累加所有读入的分片, 不扣除运算后释放的映射
+     *
+     * @param fileList    主数据源和各个集合运算数据源的分片文件
+     * @param handlerList 各个集合运算的处理
+     * @param spiller     估算内存
+     * @param level       切分的层数
+     */
+    private Map<String, String> calcInMemory(List<String> fileList, List<RowMapHandler> handlerList,
+                                             ShardSpiller spiller, int level) throws IOException {
+        long[] usedMemory = new long[1];
+        Map<String, String> rowMap = spiller.readAsMap(fileList.get(0), level, usedMemory);
+        for (int i = 0; rowMap != null && i < handlerList.size(); i++) {
+            Map<String, String> operandMap = spiller.readAsMap(fileList.get(i + 1), level, usedMemory);
+            rowMap = operandMap == null ? null : handlerList.get(i).handle(rowMap, operandMap);
+        }
+        return rowMap;
+    }
+
+    /**
+     * 只有过滤时不需要分片, 读取数据源的同时写入输出目标
+     *
+     * @param source       数据源
+     * @param rowPredicate 过滤条件, 可以为 null
+     * @param sink         输出目标
+     */
+    private long filter(RowSource source, RowPredicate rowPredicate, RowSink sink) throws IOException {
+        long totalSize = 0;
+        try (LineWriter writer = sink.open()) {
+            if (rowPredicate != null && source.isFile()) {
+                // 文件数据源按字节过滤, 只解码满足条件的数据行
+                try (ByteLineReader reader = FileUtils.newByteLineReader(source.getFilePath())) {
+                    while (reader.next()) {
+                        if (rowPredicate.test(reader.buffer(), reader.start(), reader.end())) {
+                            String row = reader.line();
+                            if (rowHandler.accept(row)) {
+                                writer.writeLine(row);
+                                totalSize++;
+                            }
+                        }
+                    }
+                }
+                return totalSize;
+            }
+
+            try (LineIterator lineIterator = source.open()) {
+                while (lineIterator.hasNext()) {
+                    String row = lineIterator.nextLine();
+                    if (rowPredicate != null) {
+                        byte[] bytes = row.getBytes(StandardCharsets.UTF_8);
+                        if (!rowPredicate.test(bytes, 0, bytes.length)) {
+                            continue;
+                        }
+                    }
+                    if (rowHandler.accept(row)) {
+                        writer.writeLine(row);
+                        totalSize++;
+                    }
+                }
+            }
+        }
+        return totalSize;
+    }
+
+    // 一个分片的计算结果: 留在内存中的数据行, 或者写入临时文件的子分片结果
+    private static class ShardOutput {
+        private Collection<String> rows = Collections.emptyList();
+        private final List<String> fileList = new ArrayList<>();
+        private long rowCount;
+    }
+}
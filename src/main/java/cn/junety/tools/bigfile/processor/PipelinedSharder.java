@@ -0,0 +1,525 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowPredicate;
+import cn.junety.tools.bigfile.utils.DaemonThreadFactory;
+import cn.junety.tools.bigfile.utils.MemoryUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流水线式的分片, 读取、解析和写入分成三个阶段, 在不同的线程中同时运行
+ *
+ * 读取阶段在调用方线程中把数据读入大块的字节数组, 每块都在换行符之后结束;
+ * 解析阶段在多个线程中按块切分数据行, 过滤并计算分片下标, 按写入线程分组;
+ * 写入阶段的每个线程负责一部分分片(分片下标 % 写入线程数), 按块的读取顺序写入, 分片内数据的顺序与数据源一致
+ *
+ * 阶段之间按块交接, 不会逐行跨线程传递: 字节块在预先分配的块池中循环使用,
+ * 解析结果放入固定大小的环形缓冲区, 所有写入线程都处理完后槽位才会被复用
+ *
+ * 解析和写入都是不会等待其它阶段的短任务, 可以放在配置中共享的线程池中执行, 线程数受共享线程池的限制:
+ * 每块数据一个解析任务, 环形缓冲区有空闲槽位时读取阶段才提交; 解析完成后为可以继续写入的写入线程提交写入任务,
+ * 写入任务按块的顺序写入已经解析的数据, 遇到还没有解析的块时结束, 由该块的解析任务重新提交
+ * 只有调用方线程中的读取阶段会等待
+ *
+ * 占用的内存都在 blockMemory 之内: 块池中的字节块数量固定, 为超长的行扩大的字节块用完后丢弃, 不放回块池;
+ * 环形缓冲区中解码后的数据行按实际占用的内存累计, 读取阶段在累计的内存和正在解析的块的估算内存超过上限时等待
+ */
+class PipelinedSharder {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    // 解码后的数据行占用的内存与字节数之比的初始估计: UTF-16 字符串是字节数的两倍, 再加上对象头和引用
+    private static final double DECODED_FACTOR = 3;
+
+    // RowBatch 中每行的字符串引用和分片下标, 加上数组扩容预留的空间
+    private static final int BATCH_ROW_SIZE = MemoryUtils.LIST_ELEMENT_SIZE + 4;
+
+    // 阶段之间等待时检查其它阶段是否失败的间隔
+    private static final long POLL_MILLIS = 100;
+
+    private final RowHandler rowHandler;
+    private final Partitioner partitioner;
+    private final RowPredicate rowPredicate;
+    private final int parserCount;
+    private final int writerCount;
+    // 每个写入线程负责的分片
+    private final ShardingBufferWriter[] writers;
+    // 共享线程池, 为 null 时使用自己的线程池
+    private final ExecutorService sharedExecutor;
+    private ExecutorService executor;
+
+    // 空闲的字节块
+    private final BlockingQueue<byte[]> freeBlocks;
+    // 按块的顺序存放解析结果
+    private final ParsedRing parsedRing;
+
+    // 第一个失败的阶段抛出的异常
+    private volatile Throwable failure;
+
+    /**
+     * @param shardingFileList  分片文件列表
+     * @param rowHandler        数据处理规则
+     * @param partitioner       分片规则
+     * @param rowPredicate      字节级的过滤条件, 可以为 null
+     * @param parallelism       解析和写入的线程总数
+     * @param bufferListMaxSize 所有分片buffer总的字节大小上限
+     * @param executor          共享线程池, 可以为 null
+     */
+    PipelinedSharder(List<String> shardingFileList, RowHandler rowHandler, Partitioner partitioner,
+                     RowPredicate rowPredicate, int parallelism, long bufferListMaxSize, ExecutorService executor) {
+        this.rowHandler = rowHandler;
+        this.sharedExecutor = executor;
+        this.partitioner = partitioner;
+        this.rowPredicate = rowPredicate;
+        // 解析阶段的计算量最大, 每4个线程分配1个写入线程
+        this.writerCount = Math.min(Math.max(parallelism / 4, 1), shardingFileList.size());
+        this.parserCount = Math.max(parallelism - writerCount, 1);
+
+        this.writers = new ShardingBufferWriter[writerCount];
+        for (int i = 0; i < writerCount; i++) {
+            List<String> fileList = new ArrayList<>();
+            for (int j = i; j < shardingFileList.size(); j += writerCount) {
+                fileList.add(shardingFileList.get(j));
+            }
+            writers[i] = new ShardingBufferWriter(fileList, bufferListMaxSize / writerCount);
+        }
+
+        int blockCount = parserCount * 2;
+        this.freeBlocks = new ArrayBlockingQueue<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            freeBlocks.add(new byte[BLOCK_SIZE]);
+        }
+        this.parsedRing = new ParsedRing(blockCount + 2);
+    }
+
+    /**
+     * 流水线占用内存的上限, 解析线程数不超过 parallelism
+     * 字节块: 每个解析线程两个字节块, 加上读取时的拼接块; 环形缓冲区: 每个槽位按一块数据解码后的估算内存
+     *
+     * @param parallelism 解析和写入的线程总数
+     */
+    static long blockMemory(int parallelism) {
+        return (parallelism * 2L + 1) * BLOCK_SIZE + ringMemory(parallelism * 2 + 2);
+    }
+
+    // 环形缓冲区中解码后的数据行占用内存的上限
+    private static long ringMemory(int slotCount) {
+        return (long) (slotCount * (double) BLOCK_SIZE * DECODED_FACTOR);
+    }
+
+    /**
+     * 读取数据流并写入分片文件, 数据流会被关闭
+     *
+     * @param inputStream 数据流
+     */
+    void sharding(InputStream inputStream) throws IOException {
+        executor = sharedExecutor != null ? sharedExecutor
+                : Executors.newFixedThreadPool(parserCount + writerCount, new DaemonThreadFactory("bigfile-sharding-"));
+        try (InputStream is = inputStream) {
+            read(is);
+            parsedRing.awaitTasks();
+            for (int i = 0; i < writerCount; i++) {
+                ShardingBufferWriter writer = writers[i];
+                submit(writer::flush);
+            }
+            parsedRing.awaitTasks();
+        } catch (Exception e) {
+            // 通知还没有执行的任务直接退出, 等待已经开始的任务结束后才返回, 之后不会再有任务写入分片文件
+            fail(e);
+            parsedRing.awaitIdle();
+            // 抛出最先失败的阶段的异常, 其它阶段只是随之退出
+            Throwable cause = failure;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            if (executor != sharedExecutor) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    // 在线程池中执行一个任务, 已经失败时不再执行, 任务抛出的异常记录为失败
+    private void submit(Stage stage) throws IOException {
+        parsedRing.taskStarted();
+        try {
+            executor.execute(() -> {
+                try {
+                    if (failure == null) {
+                        stage.run();
+                    }
+                } catch (Throwable e) {
+                    fail(e);
+                } finally {
+                    parsedRing.taskDone();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            parsedRing.taskDone();
+            throw new IOException("sharding task rejected", e);
+        }
+    }
+
+    // 记录最先失败的阶段抛出的异常
+    private synchronized void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * 读取阶段: 把数据读入字节块, 每块在最后一个换行符之后截断, 剩余的不完整行放到下一块的开头
+     * 一整块都没有换行符时扩大字节块
+     *
+     * @param inputStream 数据流
+     */
+    private void read(InputStream inputStream) throws IOException {
+        byte[] carry = new byte[BLOCK_SIZE];
+        int carryLength = 0;
+        long seq = 0;
+        boolean eof = false;
+
+        while (!eof) {
+            byte[] block = take(freeBlocks);
+            if (block.length < carryLength * 2) {
+                block = new byte[carryLength * 2];
+            }
+            System.arraycopy(carry, 0, block, 0, carryLength);
+            int length = carryLength;
+            int lineEnd;
+            while (true) {
+                length += readFully(inputStream, block, length);
+                eof = length < block.length;
+                lineEnd = lastLineEnd(block, length);
+                if (eof || lineEnd > 0) {
+                    break;
+                }
+                block = Arrays.copyOf(block, block.length * 2);
+            }
+            if (eof) {
+                lineEnd = length;
+            }
+
+            carryLength = length - lineEnd;
+            if (carry.length < carryLength || carry.length > BLOCK_SIZE && carryLength <= BLOCK_SIZE) {
+                // 超长的行读完后拼接块恢复原来的大小
+                carry = new byte[Math.max(carryLength, BLOCK_SIZE)];
+            }
+            System.arraycopy(block, lineEnd, carry, 0, carryLength);
+
+            if (lineEnd > 0) {
+                // 环形缓冲区有空闲槽位并且内存足够后才提交解析任务, 解析任务放入结果时不需要等待
+                Block readBlock = new Block(seq++, block, lineEnd);
+                parsedRing.admit(readBlock);
+                submit(() -> parse(readBlock));
+            } else {
+                recycle(block);
+            }
+        }
+    }
+
+    // 读满字节块, 返回读取的字节数, 小于剩余空间说明数据流已经读取完毕
+    private int readFully(InputStream inputStream, byte[] block, int offset) throws IOException {
+        int total = 0;
+        int n;
+        while (offset + total < block.length
+                && (n = inputStream.read(block, offset + total, block.length - offset - total)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+
+    // 最后一个换行符之后的位置, 没有换行符时返回0
+    private int lastLineEnd(byte[] block, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (block[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 解析阶段: 切分一块数据中的数据行, 过滤不合法的数据, 计算分片下标并按写入线程分组,
+     * 放入环形缓冲区后为可以继续写入的写入线程提交写入任务
+     * 行以 '\n'、'\r' 或 "\r\n" 结尾, 换行符不算作行的内容, 与 ByteLineReader 一致
+     * 字节块在 '\n' 之后切分, "\r\n" 不会被分到两个字节块中
+     *
+     * @param block 字节块
+     */
+    private void parse(Block block) throws IOException {
+        RowBatch[] batches = new RowBatch[writerCount];
+        long memory = 0;
+        for (int i = 0; i < writerCount; i++) {
+            batches[i] = new RowBatch();
+        }
+
+        byte[] data = block.data;
+        int start = 0;
+        while (start < block.length) {
+            int end = start;
+            while (end < block.length && data[end] != '\n' && data[end] != '\r') {
+                end++;
+            }
+            if (rowPredicate == null || rowPredicate.test(data, start, end)) {
+                String row = new String(data, start, end - start, StandardCharsets.UTF_8);
+                if (rowHandler.accept(row)) {
+                    int index = partitioner.partition(rowHandler.getKey(row));
+                    batches[index % writerCount].add(row, index / writerCount);
+                    memory += MemoryUtils.stringSize(row) + BATCH_ROW_SIZE;
+                }
+            }
+            start = end + 1 < block.length && data[end] == '\r' && data[end + 1] == '\n' ? end + 2 : end + 1;
+        }
+
+        recycle(data);
+        for (int writerIndex : parsedRing.put(block, batches, memory)) {
+            submit(() -> write(writerIndex));
+        }
+    }
+
+    /**
+     * 写入阶段: 按块的顺序取出属于自己的已经解析的数据, 写入负责的分片, 下一块还没有解析时结束
+     * 同一个写入线程同时只有一个写入任务
+     *
+     * @param writerIndex 写入线程的下标
+     */
+    private void write(int writerIndex) throws IOException {
+        ShardingBufferWriter writer = writers[writerIndex];
+        RowBatch batch;
+        while ((batch = parsedRing.poll(writerIndex)) != null) {
+            for (int i = 0; i < batch.size; i++) {
+                writer.write(batch.rows[i], batch.indexes[i]);
+            }
+            parsedRing.release(writerIndex);
+        }
+    }
+
+    // 字节块放回块池, 为超长的行扩大的字节块丢弃, 换成原来大小的字节块, 块池占用的内存保持不变
+    private void recycle(byte[] block) {
+        freeBlocks.offer(block.length == BLOCK_SIZE ? block : new byte[BLOCK_SIZE]);
+    }
+
+    private <T> T take(BlockingQueue<T> queue) throws IOException {
+        try {
+            T item;
+            while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                checkFailure();
+            }
+            return item;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while sharding");
+        }
+    }
+
+    // 其它阶段已经失败时退出当前阶段
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("sharding aborted", failure);
+        }
+    }
+
+    private interface Stage {
+
+        void run() throws IOException;
+    }
+
+    // 一块在换行符之后结束的数据
+    private static class Block {
+        private final long seq;
+        private final byte[] data;
+        private final int length;
+        // 提交解析时估算的内存, 包括解码后的数据行和超出块池大小的字节
+        private long estimatedMemory;
+
+        Block(long seq, byte[] data, int length) {
+            this.seq = seq;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    // 一个写入线程在一块数据中需要写入的数据行及其在该线程内的分片下标
+    private static class RowBatch {
+        private String[] rows = new String[1024];
+        private int[] indexes = new int[1024];
+        private int size;
+
+        void add(String row, int index) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                indexes = Arrays.copyOf(indexes, size * 2);
+            }
+            rows[size] = row;
+            indexes[size] = index;
+            size++;
+        }
+    }
+
+    /**
+     * 存放解析结果的环形缓冲区, 块序号为 seq 的结果放在 seq % 槽位数 的槽位中
+     * 解析任务可能乱序完成, 每个写入线程按序号依次读取, 所有写入线程都释放后槽位才会被复用
+     * 写入线程按序号依次释放, 所以槽位也按序号依次释放; 读取阶段只在 seq - 槽位数 之前的块都释放后提交序号 seq,
+     * 放入时槽位一定是空闲的
+     * 读取阶段还按内存限制提交: 已经放入的块按实际占用的内存累计, 正在解析的块按目前为止最大的解码比例估算,
+     * 两者之和不超过上限; 没有任何块占用内存时总是可以提交, 保证单独一块超过上限时也能继续
+     * 同时记录还没有结束的任务数, 用于等待所有任务结束
+     */
+    private class ParsedRing {
+        private final RowBatch[][] slots;
+        private final long[] seqs;
+        // 每个槽位还没有释放的写入线程数
+        private final int[] pending;
+        // 每个槽位中解码后的数据行占用的内存
+        private final long[] memories;
+        private final long memoryLimit;
+        // 已经放入的块占用的内存
+        private long parsedMemory;
+        // 已经提交还没有放入的块的估算内存
+        private long parsingMemory;
+        // 解码后的内存与字节数之比, 取目前为止的最大值
+        private double decodedFactor = DECODED_FACTOR;
+        // 每个写入线程下一个要写入的块序号
+        private final long[] nextSeqs;
+        // 每个写入线程是否已经有写入任务
+        private final boolean[] writing;
+        // 最小的还没有被所有写入线程释放的块序号
+        private long lowestUnreleased;
+        // 已经提交还没有结束的任务数
+        private int runningTasks;
+
+        ParsedRing(int size) {
+            this.slots = new RowBatch[size][];
+            this.seqs = new long[size];
+            this.pending = new int[size];
+            this.memories = new long[size];
+            this.memoryLimit = ringMemory(size);
+            this.nextSeqs = new long[writerCount];
+            this.writing = new boolean[writerCount];
+        }
+
+        // 等待块有空闲的槽位并且内存足够, 然后计入估算的内存
+        synchronized void admit(Block block) throws IOException {
+            block.estimatedMemory = (long) (block.length * decodedFactor) + block.data.length - BLOCK_SIZE;
+            while (block.seq >= lowestUnreleased + slots.length
+                    || parsedMemory + parsingMemory > 0
+                    && parsedMemory + parsingMemory + block.estimatedMemory > memoryLimit) {
+                await();
+            }
+            parsingMemory += block.estimatedMemory;
+        }
+
+        /**
+         * 放入解析结果, 返回需要提交写入任务的写入线程: 下一块正是该块并且没有写入任务
+         *
+         * @param block   解析的块
+         * @param batches 按写入线程分组的数据行
+         * @param memory  数据行占用的内存
+         */
+        synchronized List<Integer> put(Block block, RowBatch[] batches, long memory) {
+            int slot = (int) (block.seq % slots.length);
+            slots[slot] = batches;
+            seqs[slot] = block.seq;
+            pending[slot] = writerCount;
+            memories[slot] = memory;
+            parsedMemory += memory;
+            parsingMemory -= block.estimatedMemory;
+            decodedFactor = Math.max(decodedFactor, (double) memory / block.length);
+            notifyAll();
+
+            List<Integer> writerList = new ArrayList<>(writerCount);
+            for (int i = 0; i < writerCount; i++) {
+                if (!writing[i] && nextSeqs[i] == block.seq) {
+                    writing[i] = true;
+                    writerList.add(i);
+                }
+            }
+            return writerList;
+        }
+
+        /**
+         * 取出写入线程下一块中属于它的数据, 下一块还没有解析时结束写入任务并返回 null
+         */
+        synchronized RowBatch poll(int writerIndex) {
+            long seq = nextSeqs[writerIndex];
+            int slot = (int) (seq % slots.length);
+            if (slots[slot] == null || seqs[slot] != seq) {
+                writing[writerIndex] = false;
+                return null;
+            }
+            return slots[slot][writerIndex];
+        }
+
+        // 写入线程释放 poll 取出的块
+        synchronized void release(int writerIndex) {
+            long seq = nextSeqs[writerIndex]++;
+            int slot = (int) (seq % slots.length);
+            if (--pending[slot] == 0) {
+                slots[slot] = null;
+                parsedMemory -= memories[slot];
+                lowestUnreleased = seq + 1;
+                notifyAll();
+            }
+        }
+
+        synchronized void taskStarted() {
+            runningTasks++;
+        }
+
+        synchronized void taskDone() {
+            runningTasks--;
+            notifyAll();
+        }
+
+        // 等待所有任务结束, 读取完毕并且解析任务都结束后, 所有块也都已经写入
+        synchronized void awaitTasks() throws IOException {
+            while (runningTasks > 0) {
+                await();
+            }
+        }
+
+        // 失败后等待已经开始的任务结束, 不检查失败
+        synchronized void awaitIdle() {
+            boolean interrupted = false;
+            while (runningTasks > 0) {
+                try {
+                    wait(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void await() throws IOException {
+            checkFailure();
+            try {
+                wait(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while sharding");
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package cn.junety.tools.bigfile.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按照key的字典序区间进行分片, 分片下标越大, 分片内的key越大
+ * 分界key通过对源文件采样得到, 同一组分界key切分出来的多个文件, 相同下标的分片对应相同的key区间
+ */
+public class RangePartitioner implements Partitioner {
+
+    // 分界key, 第i个分片的key区间为 [splitters[i-1], splitters[i])
+    private final String[] splitters;
+
+    public RangePartitioner(String[] splitters) {
+        this.splitters = splitters;
+    }
+
+    /**
+     * 从采样的key中选出分界key
+     *
+     * @param sampleKeyList  采样得到的key
+     * @param partitionCount 期望的分片数量, 重复的key较多时, 实际分片数可能更少
+     */
+    public static RangePartitioner fromSamples(List<String> sampleKeyList, int partitionCount) {
+        List<String> keyList = new ArrayList<>(sampleKeyList);
+        Collections.sort(keyList);
+
+        List<String> splitterList = new ArrayList<>(Math.max(partitionCount - 1, 0));
+        for (int i = 1; i < partitionCount && !keyList.isEmpty(); i++) {
+            String splitter = keyList.get((int) ((long) i * keyList.size() / partitionCount));
+            if (splitterList.isEmpty() || splitterList.get(splitterList.size() - 1).compareTo(splitter) < 0) {
+                splitterList.add(splitter);
+            }
+        }
+        return new RangePartitioner(splitterList.toArray(new String[0]));
+    }
+
+    @Override
+    public int getPartitionCount() {
+        return splitters.length + 1;
+    }
+
+    @Override
+    public int partition(String key) {
+        int index = Arrays.binarySearch(splitters, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
@@ -0,0 +1,18 @@
+package cn.junety.tools.bigfile.processor;
+
+import java.util.Map;
+
+/**
+ * 在key到数据行的映射上进行集合运算, 供内部直接使用读入时建立的映射, 对外的接口仍然是 BigSetHandler
+ */
+interface RowMapHandler {
+
+    /**
+     * 对两个集合进行运算, 各自内部key相同的数据已经合并
+     * 运算可以直接修改传入的映射, 返回结果的映射
+     *
+     * @param rowMap1 集合1
+     * @param rowMap2 集合2
+     */
+    Map<String, String> handle(Map<String, String> rowMap1, Map<String, String> rowMap2);
+}
@@ -0,0 +1,200 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.config.ScratchPlacement;
+import cn.junety.tools.bigfile.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 一次计算使用的临时目录, 可以分布在多个磁盘上, 分片等临时文件按分布方式放置到各个目录
+ * 多路归并等同时读写的场景, 输出尽量放在与输入不同的磁盘上
+ */
+@Slf4j
+class ScratchSpace {
+
+    // 剩余空间的权重精度
+    private static final int MAX_WEIGHT = 100;
+
+    private final List<String> directoryList;
+    // 每个目录所在的磁盘, 获取失败时为 null
+    private final List<FileStore> fileStoreList;
+    private final int[] weights;
+    private final int totalWeight;
+    // 平滑加权轮询的当前权重
+    private final int[] currentWeights;
+
+    ScratchSpace(List<String> directoryList, ScratchPlacement placement) {
+        if (directoryList.isEmpty()) {
+            throw new IllegalArgumentException("scratch directories must not be empty");
+        }
+        this.directoryList = new ArrayList<>(directoryList.size());
+        this.fileStoreList = new ArrayList<>(directoryList.size());
+        for (String directory : directoryList) {
+            this.directoryList.add(directory.endsWith("/") ? directory : directory + "/");
+            this.fileStoreList.add(getFileStore(directory));
+        }
+        this.weights = calcWeights(placement);
+        int sum = 0;
+        for (int weight : weights) {
+            sum += weight;
+        }
+        this.totalWeight = sum;
+        this.currentWeights = new int[weights.length];
+    }
+
+    /**
+     * 在配置的每个临时目录下创建本次计算使用的子目录, 子目录名称相同
+     *
+     * @param config 配置
+     */
+    static ScratchSpace create(BigFileConfig config) throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
+        String name = String.format("%s-%s/", dateFormat.format(new Date()),
+                String.format("%04d", new Random().nextInt(10000)));
+        return create(config, name);
+    }
+
+    /**
+     * 在配置的每个临时目录下创建指定名称的子目录, 子目录已经存在时直接使用
+     *
+     * @param config 配置
+     * @param name   子目录名称
+     */
+    static ScratchSpace create(BigFileConfig config, String name) throws IOException {
+        name = name.endsWith("/") ? name : name + "/";
+        List<String> directoryList = new ArrayList<>();
+        for (String scratchDirectory : config.getScratchDirectories()) {
+            String directory = (scratchDirectory.endsWith("/") ? scratchDirectory : scratchDirectory + "/") + name;
+            FileUtils.createDirectories(directory);
+            directoryList.add(directory);
+        }
+        ScratchSpace scratchSpace = new ScratchSpace(directoryList, config.getScratchPlacement());
+        if (directoryList.size() > 1) {
+            log.debug("scratch directories {}, weights {}", directoryList, scratchSpace.weights);
+        }
+        return scratchSpace;
+    }
+
+    /**
+     * 只有一个临时目录的情况
+     *
+     * @param directory 临时目录
+     */
+    static ScratchSpace of(String directory) {
+        return new ScratchSpace(Collections.singletonList(directory), ScratchPlacement.ROUND_ROBIN);
+    }
+
+    private static FileStore getFileStore(String directory) {
+        try {
+            return Files.getFileStore(Paths.get(directory));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private int[] calcWeights(ScratchPlacement placement) {
+        int[] result = new int[directoryList.size()];
+        if (placement != ScratchPlacement.FREE_SPACE) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = 1;
+            }
+            return result;
+        }
+
+        long[] usableSpaces = new long[result.length];
+        long maxUsableSpace = 0;
+        for (int i = 0; i < result.length; i++) {
+            usableSpaces[i] = getUsableSpace(fileStoreList.get(i));
+            maxUsableSpace = Math.max(maxUsableSpace, usableSpaces[i]);
+        }
+        for (int i = 0; i < result.length; i++) {
+            // 获取不到剩余空间时平均分配, 保证每个目录至少分到一份
+            result[i] = maxUsableSpace <= 0 ? 1
+                    : (int) Math.max(1, usableSpaces[i] * MAX_WEIGHT / maxUsableSpace);
+        }
+        return result;
+    }
+
+    private static long getUsableSpace(FileStore fileStore) {
+        try {
+            return fileStore == null ? 0 : fileStore.getUsableSpace();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 按分布方式选择下一个临时目录
+     */
+    synchronized String nextDirectory() {
+        return directoryList.get(nextIndex());
+    }
+
+    /**
+     * 选择一个与文件不在同一个磁盘上的临时目录, 没有其它磁盘时按分布方式选择
+     *
+     * @param filePath 文件路径
+     */
+    synchronized String otherDirectory(String filePath) {
+        FileStore fileStore = findFileStore(filePath);
+        if (fileStore == null) {
+            return directoryList.get(nextIndex());
+        }
+        // 最多尝试一轮完整的加权轮询
+        for (int i = 0; i < totalWeight; i++) {
+            int index = nextIndex();
+            if (!fileStore.equals(fileStoreList.get(index))) {
+                return directoryList.get(index);
+            }
+        }
+        return directoryList.get(nextIndex());
+    }
+
+    // 平滑加权轮询, 权重相同时等价于按顺序轮询
+    private int nextIndex() {
+        int index = 0;
+        for (int i = 0; i < weights.length; i++) {
+            currentWeights[i] += weights[i];
+            if (currentWeights[i] > currentWeights[index]) {
+                index = i;
+            }
+        }
+        currentWeights[index] -= totalWeight;
+        return index;
+    }
+
+    private FileStore findFileStore(String filePath) {
+        for (int i = 0; i < directoryList.size(); i++) {
+            if (filePath.startsWith(directoryList.get(i))) {
+                return fileStoreList.get(i);
+            }
+        }
+        return getFileStore(FileUtils.getParent(filePath));
+    }
+
+    List<String> getDirectoryList() {
+        return directoryList;
+    }
+
+    /**
+     * 删除本次计算使用的所有临时目录
+     */
+    void delete() throws IOException {
+        for (String directory : directoryList) {
+            if (FileUtils.exist(directory)) {
+                FileUtils.delete(directory);
+            }
+        }
+    }
+}
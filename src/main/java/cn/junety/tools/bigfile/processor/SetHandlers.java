@@ -0,0 +1,65 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowHandler;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 各种集合运算在内存中的实现, key相同的数据使用rowHandler合并
+ * 直接在读入时按key建立的映射上运算, 不再复制成数据行的集合, 也不需要重新计算key
+ */
+class SetHandlers {
+
+    /**
+     * 创建集合运算处理
+     *
+     * @param operation  集合运算的类型
+     * @param rowHandler 数据处理规则
+     */
+    static RowMapHandler of(SetOperation operation, RowHandler rowHandler) {
+        switch (operation) {
+            case INTERSECT:
+                return (rowMap1, rowMap2) -> intersect(rowMap1, rowMap2, rowHandler);
+            case UNION:
+                return (rowMap1, rowMap2) -> union(rowMap1, rowMap2, rowHandler);
+            case DIFFER:
+                return SetHandlers::differ;
+            default:
+                throw new IllegalArgumentException("unknown set operation: " + operation);
+        }
+    }
+
+    // 原地保留集合1中两边都出现的key, 数据使用rowHandler合并
+    private static Map<String, String> intersect(Map<String, String> rowMap1, Map<String, String> rowMap2,
+                                                 RowHandler rowHandler) {
+        Iterator<Map.Entry<String, String>> iterator = rowMap1.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            String oldRow = rowMap2.get(entry.getKey());
+            if (oldRow == null) {
+                iterator.remove();
+            } else {
+                entry.setValue(rowHandler.clash(entry.getValue(), oldRow));
+            }
+        }
+        return rowMap1;
+    }
+
+    // 集合2的数据原地并入集合1, 两边都出现的key使用rowHandler合并
+    private static Map<String, String> union(Map<String, String> rowMap1, Map<String, String> rowMap2,
+                                             RowHandler rowHandler) {
+        for (Map.Entry<String, String> entry : rowMap2.entrySet()) {
+            String newRow = rowMap1.get(entry.getKey());
+            rowMap1.put(entry.getKey(), newRow == null ? entry.getValue()
+                    : rowHandler.clash(newRow, entry.getValue()));
+        }
+        return rowMap1;
+    }
+
+    // 原地删除集合1中在集合2出现的key
+    private static Map<String, String> differ(Map<String, String> rowMap1, Map<String, String> rowMap2) {
+        rowMap1.keySet().removeAll(rowMap2.keySet());
+        return rowMap1;
+    }
+}
@@ -0,0 +1,22 @@
+package cn.junety.tools.bigfile.processor;
+
+/**
+ * 集合运算的类型
+ */
+public enum SetOperation {
+
+    /**
+     * 交集
+     */
+    INTERSECT,
+
+    /**
+     * 并集
+     */
+    UNION,
+
+    /**
+     * 差集(A-B)
+     */
+    DIFFER
+}
@@ -0,0 +1,304 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.GzipUtils;
+import cn.junety.tools.bigfile.utils.RowSource;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 文件数据源按哈希分片后的缓存, 保存在 baseDirectory 下, 后续使用相同分片规则的计算可以直接使用
+ *
+ * 缓存项以数据源的路径、大小、修改时间和 rowHandler 的标识(hashId)作为 key, 同一个数据源可以有多个不同分片数的缓存项
+ * rowHandler 没有标识时不使用缓存
+ * 每次使用时更新缓存项的访问时间, 占用空间超过上限时按最近最少使用淘汰, 正在使用的缓存项不会被淘汰
+ * 只在同一个 JVM 内保证并发安全, 多个进程不能共享同一个缓存目录
+ */
+@Slf4j
+class ShardCache {
+
+    private static final String ENTRY_FILE_NAME = "entry.properties";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // 估算缓存项大小时 gzip 文件的压缩比
+    private static final int GZIP_COMPRESSION_RATIO = 4;
+
+    // 没有完成的临时目录超过该时间后被清理
+    private static final long TEMP_EXPIRE_MILLIS = 24 * 3600 * 1000L;
+
+    // 同一个 JVM 内所有计算共用的锁, 保护缓存项的查找、放入和淘汰
+    private static final Object LOCK = new Object();
+
+    // 缓存项目录 -> 正在使用的计算数量
+    private static final Map<String, Integer> IN_USE = new HashMap<>();
+
+    private final String directory;
+    private final long maxSize;
+    private final RowHandler rowHandler;
+
+    private ShardCache(String directory, long maxSize, RowHandler rowHandler) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.rowHandler = rowHandler;
+    }
+
+    /**
+     * 根据配置创建分片缓存, 没有开启缓存或者 rowHandler 没有标识时返回 null
+     *
+     * @param config     配置信息
+     * @param rowHandler 数据处理规则
+     */
+    static ShardCache of(BigFileConfig config, RowHandler rowHandler) throws IOException {
+        if (config.getShardCacheSize() <= 0 || rowHandler.hashId() == null) {
+            return null;
+        }
+        FileUtils.createDirectories(config.getShardCacheDirectory());
+        return new ShardCache(config.getShardCacheDirectory(), config.getShardCacheSize(), rowHandler);
+    }
+
+    /**
+     * 在数据源已有的缓存项中, 选择分片数不小于 minCount 的最小分片数, 没有时返回 minCount
+     * 分片越多每个分片越小, 使用缓存的分片数不会超过内存的限制
+     *
+     * @param minCount 期望的分片数
+     * @param sources  数据源列表
+     */
+    int chooseShardingCount(int minCount, RowSource... sources) throws IOException {
+        int result = Integer.MAX_VALUE;
+        synchronized (LOCK) {
+            for (RowSource source : sources) {
+                String prefix = entryPrefix(source);
+                if (prefix == null) {
+                    continue;
+                }
+                for (int count : listCounts(prefix)) {
+                    if (count >= minCount && count < result) {
+                        result = count;
+                    }
+                }
+            }
+        }
+        if (result == Integer.MAX_VALUE) {
+            return minCount;
+        }
+        if (result != minCount) {
+            log.debug("use {} shards of shard cache instead of {}", result, minCount);
+        }
+        return result;
+    }
+
+    /**
+     * 打开数据源的缓存项, 缓存中没有时调用 sharder 分片后放入缓存
+     * 数据源不是文件或者估算大小超过缓存上限时返回 null, 由调用方自己分片
+     *
+     * @param source      数据源
+     * @param partitioner 哈希分片规则
+     * @param sharder     在指定的临时目录中对数据源分片
+     */
+    Entry open(RowSource source, HashPartitioner partitioner, Sharder sharder) throws IOException {
+        String prefix = entryPrefix(source);
+        if (prefix == null || estimateSize(source) > maxSize) {
+            return null;
+        }
+        int count = partitioner.getPartitionCount();
+        String entryDirectory = directory + prefix + "-" + count + "/";
+
+        synchronized (LOCK) {
+            if (FileUtils.exist(entryDirectory + ENTRY_FILE_NAME)) {
+                log.debug("shard cache hit {} for {}", entryDirectory, source);
+                return acquire(entryDirectory, count);
+            }
+        }
+
+        // 先分片到临时目录, 完成后再改名, 缓存中只会出现完整的缓存项
+        String tempDirectory = directory + prefix + "-" + count + TEMP_SUFFIX + "-" + UUID.randomUUID() + "/";
+        FileUtils.createDirectories(tempDirectory);
+        List<String> shardingFileList;
+        try {
+            shardingFileList = sharder.sharding(ScratchSpace.of(tempDirectory));
+        } catch (IOException | RuntimeException e) {
+            FileUtils.delete(tempDirectory);
+            throw e;
+        }
+
+        long size = 0;
+        Properties properties = new Properties();
+        properties.setProperty("source", source.getFilePath());
+        properties.setProperty("count", String.valueOf(count));
+        for (int i = 0; i < shardingFileList.size(); i++) {
+            properties.setProperty(String.valueOf(i), FileUtils.getName(shardingFileList.get(i)));
+            size += FileUtils.getFileLength(shardingFileList.get(i));
+        }
+        properties.setProperty("size", String.valueOf(size));
+        try (OutputStream os = Files.newOutputStream(Paths.get(tempDirectory + ENTRY_FILE_NAME))) {
+            properties.store(os, null);
+        }
+
+        synchronized (LOCK) {
+            if (FileUtils.exist(entryDirectory)) {
+                // 其它计算已经放入了相同的缓存项
+                FileUtils.delete(tempDirectory);
+            } else {
+                FileUtils.rename(tempDirectory, entryDirectory);
+                log.debug("shard cache add {} for {}, {} bytes", entryDirectory, source, size);
+            }
+            Entry entry = acquire(entryDirectory, count);
+            evict();
+            return entry;
+        }
+    }
+
+    // 标记缓存项正在使用并更新访问时间, 需要持有 LOCK
+    private Entry acquire(String entryDirectory, int count) throws IOException {
+        Path entryFile = Paths.get(entryDirectory + ENTRY_FILE_NAME);
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(entryFile)) {
+            properties.load(is);
+        }
+        List<String> shardingFileList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shardingFileList.add(entryDirectory + properties.getProperty(String.valueOf(i)));
+        }
+        Files.setLastModifiedTime(entryFile, FileTime.fromMillis(System.currentTimeMillis()));
+        IN_USE.merge(entryDirectory, 1, Integer::sum);
+        return new Entry(entryDirectory, shardingFileList);
+    }
+
+    /**
+     * 占用空间超过上限时, 按访问时间从早到晚淘汰没有在使用的缓存项, 需要持有 LOCK
+     */
+    private void evict() throws IOException {
+        File[] files = new File(directory).listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> entryList = new ArrayList<>();
+        long totalSize = 0;
+        for (File file : files) {
+            if (!file.isDirectory()) {
+                continue;
+            }
+            if (file.getName().contains(TEMP_SUFFIX)) {
+                if (System.currentTimeMillis() - file.lastModified() > TEMP_EXPIRE_MILLIS) {
+                    FileUtils.delete(file.getPath());
+                }
+                continue;
+            }
+            entryList.add(file);
+            totalSize += entrySize(file);
+        }
+
+        entryList.sort(Comparator.comparingLong(file -> new File(file, ENTRY_FILE_NAME).lastModified()));
+        for (File file : entryList) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            String entryDirectory = directory + file.getName() + "/";
+            if (IN_USE.containsKey(entryDirectory)) {
+                continue;
+            }
+            totalSize -= entrySize(file);
+            FileUtils.delete(file.getPath());
+            log.debug("shard cache evict {}", entryDirectory);
+        }
+    }
+
+    private long entrySize(File entryDirectory) throws IOException {
+        Path entryFile = Paths.get(entryDirectory.getPath(), ENTRY_FILE_NAME);
+        if (!FileUtils.exist(entryFile)) {
+            return 0;
+        }
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(entryFile)) {
+            properties.load(is);
+        }
+        return Long.parseLong(properties.getProperty("size", "0"));
+    }
+
+    // 数据源已有缓存项的分片数
+    private List<Integer> listCounts(String prefix) {
+        List<Integer> countList = new ArrayList<>();
+        String[] names = new File(directory).list();
+        if (names == null) {
+            return countList;
+        }
+        for (String name : names) {
+            if (name.startsWith(prefix + "-") && !name.contains(TEMP_SUFFIX)
+                    && FileUtils.exist(directory + name + "/" + ENTRY_FILE_NAME)) {
+                countList.add(Integer.parseInt(name.substring(prefix.length() + 1)));
+            }
+        }
+        return countList;
+    }
+
+    // 缓存项名称的前缀, 由数据源的路径、大小、修改时间和 rowHandler 的标识计算, 数据源不是文件时返回 null
+    private String entryPrefix(RowSource source) throws IOException {
+        if (!source.isFile()) {
+            return null;
+        }
+        Path path = Paths.get(source.getFilePath()).toAbsolutePath();
+        String key = String.format("%s|%s|%s|%s", path, Files.size(path),
+                Files.getLastModifiedTime(path).toMillis(), rowHandler.hashId());
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                builder.append(String.format("%02x", digest[i]));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long estimateSize(RowSource source) throws IOException {
+        long length = FileUtils.getFileLength(source.getFilePath());
+        return GzipUtils.isGzip(source.getFilePath()) ? length * GZIP_COMPRESSION_RATIO : length;
+    }
+
+    /**
+     * 在指定的临时目录中对数据源分片
+     */
+    interface Sharder {
+
+        List<String> sharding(ScratchSpace scratchSpace) throws IOException;
+    }
+
+    /**
+     * 正在使用的缓存项, 使用完后需要关闭, 关闭后才可能被淘汰
+     */
+    static class Entry implements AutoCloseable {
+        private final String directory;
+        private final List<String> shardingFileList;
+
+        Entry(String directory, List<String> shardingFileList) {
+            this.directory = directory;
+            this.shardingFileList = shardingFileList;
+        }
+
+        List<String> getShardingFileList() {
+            return shardingFileList;
+        }
+
+        @Override
+        public void close() {
+            synchronized (LOCK) {
+                IN_USE.computeIfPresent(directory, (key, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.PartitionStrategy;
+
+/**
+ * 分片计划, 计算开始前决定的分片数量、并行度和分片方式, 以及做出决定所依据的估算值
+ * 没有开启 autoPlan 时只有分片数量来自数据源大小, 估算值为 -1
+ */
+public class ShardPlan {
+
+    private final int shardingCount;
+    private final int parallelism;
+    private final PartitionStrategy partitionStrategy;
+    // 所有数据源的估算行数
+    private final long estimatedRows;
+    // 所有数据源按key去重后的估算行数
+    private final long estimatedDistinctRows;
+    // 采样得到的平均每行字节数
+    private final long averageRowSize;
+    // 所有数据读入内存计算时估算占用的内存
+    private final long estimatedMemory;
+    // 每个分片计算时可以使用的内存
+    private final long shardMemory;
+
+    ShardPlan(int shardingCount, int parallelism, PartitionStrategy partitionStrategy) {
+        this(shardingCount, parallelism, partitionStrategy, -1, -1, -1, -1, -1);
+    }
+
+    ShardPlan(int shardingCount, int parallelism, PartitionStrategy partitionStrategy, long estimatedRows,
+              long estimatedDistinctRows, long averageRowSize, long estimatedMemory, long shardMemory) {
+        this.shardingCount = shardingCount;
+        this.parallelism = parallelism;
+        this.partitionStrategy = partitionStrategy;
+        this.estimatedRows = estimatedRows;
+        this.estimatedDistinctRows = estimatedDistinctRows;
+        this.averageRowSize = averageRowSize;
+        this.estimatedMemory = estimatedMemory;
+        this.shardMemory = shardMemory;
+    }
+
+    public int getShardingCount() {
+        return shardingCount;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public PartitionStrategy getPartitionStrategy() {
+        return partitionStrategy;
+    }
+
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public long getEstimatedDistinctRows() {
+        return estimatedDistinctRows;
+    }
+
+    public long getAverageRowSize() {
+        return averageRowSize;
+    }
+
+    public long getEstimatedMemory() {
+        return estimatedMemory;
+    }
+
+    public long getShardMemory() {
+        return shardMemory;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d shards, parallelism %d, %s partition, rows %d, distinct rows %d, "
+                        + "row size %d, memory %d, shard memory %d", shardingCount, parallelism, partitionStrategy,
+                estimatedRows, estimatedDistinctRows, averageRowSize, estimatedMemory, shardMemory);
+    }
+}
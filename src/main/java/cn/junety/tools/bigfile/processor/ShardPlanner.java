@@ -0,0 +1,278 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.config.PartitionStrategy;
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.GzipUtils;
+import cn.junety.tools.bigfile.utils.HyperLogLog;
+import cn.junety.tools.bigfile.utils.KeySketch;
+import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.MemoryUtils;
+import cn.junety.tools.bigfile.utils.PartitionedDataset;
+import cn.junety.tools.bigfile.utils.RowSource;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 根据采样规划分片: 采样估算每个数据源的行数、平均行大小、读入内存后每行占用的内存, 以及按key去重后的比例,
+ * 再按内存预算和每个分片的内存上限决定分片数量、并行度和分片方式, 使每个分片读入内存计算时不需要切分子分片
+ *
+ * 普通文件在随机位置采样, 较小的文件和 gzip 文件读取开头的数据行; 分区数据集采样最大的分区, 行数来自数据集的记录;
+ * 数据源旁边保存了没有过期的key概要时, 行数和去重后的行数来自概要;
+ * 数据流无法采样, 按数据的估算字节数的倍数估算内存
+ */
+@Slf4j
+class ShardPlanner {
+
+    // 估算分片数量时 gzip 文件的压缩比
+    private static final int GZIP_COMPRESSION_RATIO = 4;
+
+    // 数据源大小未知时按该分片数量切分
+    private static final int UNKNOWN_SIZE_SHARDING_COUNT = 64;
+
+    // 每个数据源的采样行数
+    private static final int SAMPLE_COUNT = 2048;
+
+    // 不超过该大小的文件顺序读取开头的数据行, 随机位置的有放回采样在小文件上会重复采到相同的行
+    private static final long SEQUENTIAL_SAMPLE_SIZE = 4 * 1024 * 1024;
+
+    // 无法采样时, 数据读入内存后占用的内存按数据字节数的该倍数估算
+    private static final int UNSAMPLED_MEMORY_FACTOR = 4;
+
+    // 估算值有误差, 每个分片只按可以使用的内存的该比例规划
+    private static final double SHARD_MEMORY_RATIO = 0.8;
+
+    private static final int MAX_SHARDING_COUNT = 4096;
+
+    private final BigFileConfig config;
+    private final RowHandler rowHandler;
+    private final KeySampler sampler;
+    private final SketchStore sketchStore;
+
+    ShardPlanner(BigFileConfig config, RowHandler rowHandler) {
+        this.config = config;
+        this.rowHandler = rowHandler;
+        this.sampler = new KeySampler(rowHandler);
+        this.sketchStore = new SketchStore(rowHandler);
+    }
+
+    /**
+     * 规划分片, 分片方式只用于集合运算
+     *
+     * @param unique  计算时是否按key去重读入内存, 集合运算和去重为 true, 排序为 false
+     * @param sort    是否需要对结果排序
+     * @param sources 数据源列表
+     */
+    ShardPlan plan(boolean unique, boolean sort, RowSource... sources) throws IOException {
+        long totalRows = 0, totalDistinctRows = 0, totalMemory = 0;
+        double totalSampleBytes = 0, totalSampleWeight = 0;
+        boolean rowsKnown = true;
+        for (RowSource source : sources) {
+            Estimate estimate = estimate(source, unique);
+            totalMemory += estimate.memory;
+            if (estimate.sampleCount == 0) {
+                rowsKnown = rowsKnown && estimate.rows == 0;
+                continue;
+            }
+            totalRows += estimate.rows;
+            totalDistinctRows += estimate.distinctRows;
+            totalSampleBytes += estimate.sampleBytes;
+            totalSampleWeight += estimate.sampleWeight;
+        }
+
+        // 并行计算的分片平分内存预算, 分片数超过上限时减少并行度, 每个分片可以使用更多的内存
+        long capacity = config.getMemoryBudget().getCapacity();
+        int parallelism = Math.max(config.getParallelism(), 1);
+        long shardMemory = shardMemory(capacity, parallelism);
+        long count = (totalMemory + shardMemory - 1) / shardMemory;
+        while (count > MAX_SHARDING_COUNT && parallelism > 1) {
+            parallelism /= 2;
+            shardMemory = shardMemory(capacity, parallelism);
+            count = (totalMemory + shardMemory - 1) / shardMemory;
+        }
+        int shardingCount = (int) Math.min(Math.max(count, parallelism), MAX_SHARDING_COUNT);
+
+        return new ShardPlan(shardingCount, parallelism, chooseStrategy(sort, shardingCount, sources),
+                rowsKnown ? totalRows : -1, rowsKnown ? totalDistinctRows : -1,
+                totalSampleWeight == 0 ? -1 : Math.round(totalSampleBytes / totalSampleWeight), totalMemory, shardMemory);
+    }
+
+    /**
+     * 估算数据源读入内存计算时占用的内存
+     *
+     * @param source 数据源
+     * @param unique 是否按key去重读入内存
+     */
+    long estimateMemory(RowSource source, boolean unique) throws IOException {
+        return estimate(source, unique).memory;
+    }
+
+    /**
+     * 采样估算一个数据源, 无法采样时只按数据的估算字节数估算内存, 行数未知
+     *
+     * @param source 数据源
+     * @param unique 是否按key去重读入内存
+     */
+    private Estimate estimate(RowSource source, boolean unique) throws IOException {
+        Estimate estimate = new Estimate();
+        long length = estimateLength(source, config);
+        Sample sample = sample(source);
+        List<String> sampleList = sample.rowList;
+        if (sampleList.isEmpty()) {
+            log.debug("{} can not be sampled, estimate memory by {} bytes", source, length);
+            estimate.rows = length == 0 ? 0 : -1;
+            estimate.memory = length * UNSAMPLED_MEMORY_FACTOR;
+            return estimate;
+        }
+
+        // 随机位置采样时长的行更容易被采到, 每行按字节数的倒数加权, 加权平均即为按行的平均
+        HyperLogLog hyperLogLog = new HyperLogLog();
+        double listMemory = 0, mapMemory = 0;
+        for (String row : sampleList) {
+            String key = rowHandler.getKey(row);
+            hyperLogLog.add(key);
+            int rowBytes = row.getBytes(StandardCharsets.UTF_8).length + 1;
+            double weight = sample.lengthBiased ? 1.0 / rowBytes : 1;
+            estimate.sampleWeight += weight;
+            estimate.sampleBytes += weight * rowBytes;
+            listMemory += weight * (MemoryUtils.stringSize(row) + MemoryUtils.LIST_ELEMENT_SIZE);
+            // 与 ShardSpiller.readAsMap 的估算一致, 每个key一个哈希表节点
+            mapMemory += weight * (MemoryUtils.stringSize(row) + MemoryUtils.HASH_ENTRY_SIZE
+                    + (key == row ? 0 : MemoryUtils.stringSize(key)));
+        }
+        int sampleCount = sampleList.size();
+        estimate.sampleCount = sampleCount;
+        estimate.rows = source.getDataset() != null ? source.getDataset().getRowCount()
+                : (long) (length * estimate.sampleWeight / estimate.sampleBytes);
+        double distinctRatio = Math.min((double) hyperLogLog.cardinality() / sampleCount, 1);
+        estimate.distinctRows = (long) Math.ceil(estimate.rows * distinctRatio);
+
+        // 数据源旁边保存了概要时, 行数和不重复的key的数量使用概要, 比采样更准确
+        KeySketch sketch = sketchStore.load(source);
+        if (sketch != null) {
+            estimate.rows = sketch.getRowCount();
+            estimate.distinctRows = sketch.cardinality();
+        }
+        estimate.memory = (long) (unique ? estimate.distinctRows * mapMemory / estimate.sampleWeight
+                : estimate.rows * listMemory / estimate.sampleWeight);
+        return estimate;
+    }
+
+    /**
+     * 数据源的估算字节数, gzip 文件按压缩比估算, 大小未知的数据源按 UNKNOWN_SIZE_SHARDING_COUNT 个分片估算
+     *
+     * @param source 数据源
+     * @param config 配置信息
+     */
+    static long estimateLength(RowSource source, BigFileConfig config) throws IOException {
+        long length = source.getSizeHint();
+        if (source.isFile() && GzipUtils.isGzip(source.getFilePath())) {
+            length *= GZIP_COMPRESSION_RATIO;
+        } else if (length < 0) {
+            log.debug("size of {} is unknown, assume {} shards", source, UNKNOWN_SIZE_SHARDING_COUNT);
+            length = UNKNOWN_SIZE_SHARDING_COUNT * config.getShardingFileSize();
+        }
+        return length;
+    }
+
+    /**
+     * 整个计算读入内存时可以使用的内存, 不超过内存预算, 也不超过并行计算的各个分片可以使用的内存之和
+     */
+    long memoryLimit() {
+        long shardMemorySum = config.getMaxShardMemorySize() * Math.max(config.getParallelism(), 1);
+        return (long) (Math.min(config.getMemoryBudget().getCapacity(), shardMemorySum) * SHARD_MEMORY_RATIO);
+    }
+
+    private long shardMemory(long capacity, int parallelism) {
+        return Math.max((long) (Math.min(config.getMaxShardMemorySize(), capacity / parallelism)
+                * SHARD_MEMORY_RATIO), 1);
+    }
+
+    /**
+     * 配置为按区间分片时按区间分片; 需要排序、有多个分片、没有开启分片缓存并且所有数据源都是可以随机采样的普通文件时,
+     * 按区间分片可以省去结果的全局归并, 否则按哈希分片
+     */
+    private PartitionStrategy chooseStrategy(boolean sort, int shardingCount, RowSource... sources)
+            throws IOException {
+        if (config.getPartitionStrategy() == PartitionStrategy.RANGE) {
+            return PartitionStrategy.RANGE;
+        }
+        if (!sort || shardingCount <= 1 || config.getShardCacheSize() > 0) {
+            return PartitionStrategy.HASH;
+        }
+        for (RowSource source : sources) {
+            if (!source.isFile() || GzipUtils.isGzip(source.getFilePath())) {
+                return PartitionStrategy.HASH;
+            }
+        }
+        return PartitionStrategy.RANGE;
+    }
+
+    /**
+     * 对数据源采样, 无法采样时采样结果为空
+     *
+     * @param source 数据源
+     */
+    private Sample sample(RowSource source) throws IOException {
+        PartitionedDataset dataset = source.getDataset();
+        if (dataset != null) {
+            String largestFile = null;
+            for (String filePath : dataset.getFileList()) {
+                if (largestFile == null || FileUtils.getFileLength(filePath) > FileUtils.getFileLength(largestFile)) {
+                    largestFile = filePath;
+                }
+            }
+            return largestFile == null ? new Sample(new ArrayList<>(), false) : sampleFile(largestFile);
+        }
+        return source.isFile() ? sampleFile(source.getFilePath()) : new Sample(new ArrayList<>(), false);
+    }
+
+    private Sample sampleFile(String filePath) throws IOException {
+        if (!GzipUtils.isGzip(filePath) && FileUtils.getFileLength(filePath) > SEQUENTIAL_SAMPLE_SIZE) {
+            return new Sample(sampler.sampleRows(filePath, SAMPLE_COUNT), true);
+        }
+        List<String> rowList = new ArrayList<>(SAMPLE_COUNT);
+        try (LineIterator lineIterator = FileUtils.newLineIterator(filePath)) {
+            while (lineIterator.hasNext() && rowList.size() < SAMPLE_COUNT) {
+                String row = lineIterator.nextLine();
+                if (rowHandler.accept(row)) {
+                    rowList.add(row);
+                }
+            }
+        }
+        return new Sample(rowList, false);
+    }
+
+    /**
+     * 采样到的数据行
+     */
+    private static class Sample {
+        private final List<String> rowList;
+        // 是否是随机位置采样, 每行被采到的概率与字节数成正比
+        private final boolean lengthBiased;
+
+        Sample(List<String> rowList, boolean lengthBiased) {
+            this.rowList = rowList;
+            this.lengthBiased = lengthBiased;
+        }
+    }
+
+    /**
+     * 一个数据源的估算值
+     */
+    private static class Estimate {
+        // 估算行数, 未知时为 -1
+        private long rows;
+        private long distinctRows;
+        private int sampleCount;
+        // 采样行的权重之和, 以及按权重累加的字节数
+        private double sampleWeight;
+        private double sampleBytes;
+        private long memory;
+    }
+}
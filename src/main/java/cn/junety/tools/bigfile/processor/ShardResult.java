@@ -0,0 +1,38 @@
+package cn.junety.tools.bigfile.processor;
+
+/**
+ * 单个分片的计算结果
+ */
+class ShardResult {
+
+    // 结果文件路径
+    private final String filePath;
+    // 结果行数
+    private final long rowCount;
+    // 结果有序时的第一行和最后一行, 结果为空或者无序时为 null
+    private final String firstRow;
+    private final String lastRow;
+
+    ShardResult(String filePath, long rowCount, String firstRow, String lastRow) {
+        this.filePath = filePath;
+        this.rowCount = rowCount;
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+    }
+
+    String getFilePath() {
+        return filePath;
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    String getFirstRow() {
+        return firstRow;
+    }
+
+    String getLastRow() {
+        return lastRow;
+    }
+}
@@ -0,0 +1,188 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.MemoryUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分片读入内存计算时估算占用的内存, 超过上限时把同一个下标的各个分片文件按另一个哈希函数切分成更小的子分片写入磁盘,
+ * 逐个子分片计算, 子分片仍然超过上限时递归地继续切分
+ *
+ * 每一层使用不同的哈希种子, key相同的数据总是落在相同下标的子分片; 同一个key的数据无法再切分,
+ * 超过最大层数后不再切分, 直接读入内存
+ */
+@Slf4j
+class ShardSpiller {
+
+    // 最多切分的层数
+    private static final int MAX_LEVEL = 4;
+
+    private static final int MIN_FANOUT = 2;
+    private static final int MAX_FANOUT = 64;
+
+    // 文件读入内存后, 字符串和哈希表占用的内存至少是文件大小的倍数
+    private static final int MIN_MEMORY_FACTOR = 2;
+
+    private final RowHandler rowHandler;
+    private final long memoryLimit;
+
+    ShardSpiller(RowHandler rowHandler, long memoryLimit) {
+        this.rowHandler = rowHandler;
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * 当前层是否还可以切分
+     *
+     * @param level 切分的层数, 原始分片为 0
+     */
+    boolean canSpill(int level) {
+        return memoryLimit > 0 && level < MAX_LEVEL;
+    }
+
+    /**
+     * 只根据文件大小判断是否一定超过内存上限, 超过时不需要读取, 直接切分
+     *
+     * @param level    切分的层数
+     * @param fileList 分片文件列表
+     */
+    boolean mustSpill(int level, List<String> fileList) {
+        return canSpill(level) && totalLength(fileList) * MIN_MEMORY_FACTOR > memoryLimit;
+    }
+
+    /**
+     * 读取文件作为一个集合, 使用rowHandler解决数据冲突, 同时累加估算的内存,
+     * 还可以切分并且超过内存上限时停止读取, 返回 null
+     *
+     * @param filePath   文件路径
+     * @param level      切分的层数
+     * @param usedMemory 已经使用的内存, 读取时累加
+     */
+    Map<String, String> readAsMap(String filePath, int level, long[] usedMemory) throws IOException {
+        boolean limited = canSpill(level);
+        try (LineIterator lineIterator = FileUtils.newLineIterator(filePath)) {
+            Map<String, String> rowMap = new HashMap<>();
+            String newRow, oldRow, key;
+
+            while (lineIterator.hasNext()) {
+                newRow = lineIterator.nextLine();
+                key = rowHandler.getKey(newRow);
+                oldRow = rowMap.get(key);
+                if (oldRow == null) {
+                    rowMap.put(key, newRow);
+                    // 集合运算直接在映射上进行, 每个key一个哈希表节点
+                    usedMemory[0] += MemoryUtils.stringSize(newRow) + MemoryUtils.HASH_ENTRY_SIZE
+                            + (key == newRow ? 0 : MemoryUtils.stringSize(key));
+                } else {
+                    String row = rowHandler.clash(newRow, oldRow);
+                    rowMap.put(key, row);
+                    usedMemory[0] += MemoryUtils.stringSize(row) - MemoryUtils.stringSize(oldRow);
+                }
+                if (limited && usedMemory[0] > memoryLimit) {
+                    return null;
+                }
+            }
+            return rowMap;
+        }
+    }
+
+    /**
+     * 读取文件并按key分组, key相同的数据全部保留, 用于连接运算的构建; 同时估算占用的内存,
+     * 还可以切分并且超过内存上限时停止读取, 返回 null
+     *
+     * @param filePath 文件路径
+     * @param level    切分的层数
+     */
+    Map<String, List<String>> readAsGroups(String filePath, int level) throws IOException {
+        boolean limited = canSpill(level);
+        try (LineIterator lineIterator = FileUtils.newLineIterator(filePath)) {
+            Map<String, List<String>> groupMap = new HashMap<>();
+            long usedMemory = 0;
+            while (lineIterator.hasNext()) {
+                String row = lineIterator.nextLine();
+                String key = rowHandler.getKey(row);
+                List<String> group = groupMap.get(key);
+                if (group == null) {
+                    group = new ArrayList<>(1);
+                    groupMap.put(key, group);
+                    // 哈希表节点和列表对象按两个哈希表节点估算
+                    usedMemory += 2 * MemoryUtils.HASH_ENTRY_SIZE + (key == row ? 0 : MemoryUtils.stringSize(key));
+                }
+                group.add(row);
+                usedMemory += MemoryUtils.stringSize(row) + MemoryUtils.LIST_ELEMENT_SIZE;
+                if (limited && usedMemory > memoryLimit) {
+                    return null;
+                }
+            }
+            return groupMap;
+        }
+    }
+
+    /**
+     * 把同一个下标的各个分片文件切分成子分片, 子分片的数量由文件大小决定
+     * 返回每个子分片下标对应的文件列表, 与 fileList 的顺序一致
+     *
+     * @param fileList 分片文件列表
+     * @param level    切分的层数, 决定哈希种子
+     * @param prefix   子分片文件路径的前缀
+     */
+    List<List<String>> spill(List<String> fileList, int level, String prefix) throws IOException {
+        long length = totalLength(fileList);
+        int fanout = (int) Math.min(Math.max(length * MIN_MEMORY_FACTOR * 2 / memoryLimit, MIN_FANOUT), MAX_FANOUT);
+        log.debug("spill {} bytes of {} into {} sub partitions at level {}", length, fileList.get(0), fanout, level);
+
+        List<List<String>> partitionList = new ArrayList<>(fanout);
+        for (int i = 0; i < fanout; i++) {
+            partitionList.add(new ArrayList<>(fileList.size()));
+        }
+        for (int f = 0; f < fileList.size(); f++) {
+            List<BufferedWriter> writerList = new ArrayList<>(fanout);
+            try (LineIterator lineIterator = FileUtils.newLineIterator(fileList.get(f))) {
+                for (int i = 0; i < fanout; i++) {
+                    String filePath = String.format("%s-spill%d-%d-%d", prefix, level, f, i);
+                    partitionList.get(i).add(filePath);
+                    writerList.add(FileUtils.newBufferedWriter(filePath));
+                }
+                while (lineIterator.hasNext()) {
+                    String row = lineIterator.nextLine();
+                    BufferedWriter writer = writerList.get(partition(rowHandler.getKey(row), level, fanout));
+                    writer.write(row);
+                    writer.newLine();
+                }
+            } finally {
+                for (BufferedWriter writer : writerList) {
+                    writer.close();
+                }
+            }
+        }
+        return partitionList;
+    }
+
+    // 按层数作为种子重新打散 key 的哈希值, 与分片使用的 rowHandler.hash 无关
+    private int partition(String key, int level, int fanout) {
+        int h = key.hashCode() + (level + 1) * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, fanout);
+    }
+
+    private long totalLength(List<String> fileList) {
+        long length = 0;
+        for (String filePath : fileList) {
+            length += FileUtils.getFileLength(filePath);
+        }
+        return length;
+    }
+}
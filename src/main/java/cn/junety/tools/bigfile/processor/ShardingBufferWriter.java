@@ -2,6 +2,7 @@ package cn.junety.tools.bigfile.processor;
 
 import cn.junety.tools.bigfile.row.RowHandler;
 import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.MemoryUtils;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
@@ -30,7 +31,7 @@ public class ShardingBufferWriter {
     // buffer list
     private final Buffer[] bufferList;
 
-    // 当前buffer list存储的字节大小
+    // 当前buffer list在内存中占用的字节数
     private long bufferListSize;
 
     // 每个buffer的字节大小上限, 超过则同步数据到文件
@@ -42,17 +43,45 @@ public class ShardingBufferWriter {
     // 数据项处理逻辑
     private final RowHandler rowHandler;
 
+    // 计算数据所在的分片
+    private final Partitioner partitioner;
+
     public ShardingBufferWriter(List<String> shardingFileList, RowHandler rowHandler) {
+        this(shardingFileList, rowHandler, new HashPartitioner(shardingFileList.size(), rowHandler));
+    }
+
+    public ShardingBufferWriter(List<String> shardingFileList, RowHandler rowHandler, Partitioner partitioner) {
+        this(shardingFileList, rowHandler, partitioner, initBufferListMaxSize());
+    }
+
+    /**
+     * 只通过 write(row, index) 写入已经计算好分片下标的数据, 不需要 rowHandler 和 partitioner
+     *
+     * @param bufferListMaxSize 所有buffer总的字节大小上限
+     */
+    ShardingBufferWriter(List<String> shardingFileList, long bufferListMaxSize) {
+        this(shardingFileList, null, null, bufferListMaxSize);
+    }
+
+    /**
+     * @param bufferListMaxSize 所有buffer总的字节大小上限, 由调用方按内存预算分配
+     */
+    public ShardingBufferWriter(List<String> shardingFileList, RowHandler rowHandler, Partitioner partitioner,
+                                long bufferListMaxSize) {
         if (shardingFileList == null || shardingFileList.isEmpty()) {
             throw new IllegalArgumentException("sharding file list is null or empty...");
         }
+        if (partitioner != null && partitioner.getPartitionCount() != shardingFileList.size()) {
+            throw new IllegalArgumentException("partition count does not match sharding file count...");
+        }
         this.shardingCount = shardingFileList.size();
         this.shardingFileList = shardingFileList.toArray(new String[0]);
         this.bufferListSize = 0;
         this.bufferList = initBufferList(shardingCount);
         this.bufferMaxSize = DEFAULT_BUFFER_MAX_SIZE;
-        this.bufferListMaxSize = initBufferListMaxSize();
+        this.bufferListMaxSize = bufferListMaxSize;
         this.rowHandler = rowHandler;
+        this.partitioner = partitioner;
     }
 
     private Buffer[] initBufferList(int size) {
@@ -63,19 +92,41 @@ public class ShardingBufferWriter {
         return buffers;
     }
 
-    private long initBufferListMaxSize() {
+    static long initBufferListMaxSize() {
         MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
         MemoryUsage headMemory = memory.getHeapMemoryUsage();
         return Math.max(headMemory.getMax() / 75, DEFAULT_BUFFER_LIST_MAX_SIZE);
     }
 
     void write(String row) throws IOException {
-        if (rowHandler.accept(row)) {
-            int index = Math.abs(rowHandler.hash(rowHandler.getKey(row)) % shardingCount);
-            bufferListSize += bufferList[index].add(row);
+        int index = indexOf(row);
+        if (index >= 0) {
+            write(row, index);
+        }
+    }
+
+    /**
+     * 写入已经计算好分片下标的数据
+     *
+     * @param row   数据行
+     * @param index 分片下标
+     */
+    void write(String row, int index) throws IOException {
+        bufferListSize += bufferList[index].add(row);
 
-            ensureBufferSize(index);
+        ensureBufferSize(index);
+    }
+
+    /**
+     * 计算数据所在的分片下标, 不合法的数据返回 -1, 不修改任何状态, 可以在多个线程中并发调用
+     *
+     * @param row 数据行
+     */
+    int indexOf(String row) {
+        if (rowHandler.accept(row)) {
+            return partitioner.partition(rowHandler.getKey(row));
         }
+        return -1;
     }
 
     void flush() throws IOException {
@@ -122,10 +173,12 @@ public class ShardingBufferWriter {
             this.size = 0;
         }
 
+        // 返回数据行在内存中占用的字节数
         long add(String row) {
             rows.add(row);
-            size += row.length();
-            return row.length();
+            long rowSize = MemoryUtils.stringSize(row) + MemoryUtils.LIST_ELEMENT_SIZE;
+            size += rowSize;
+            return rowSize;
         }
 
         List<String> getRows() {
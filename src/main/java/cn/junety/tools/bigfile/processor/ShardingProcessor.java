@@ -1,46 +1,234 @@
 package cn.junety.tools.bigfile.processor;
 
+import cn.junety.tools.bigfile.config.BigFileConfig;
 import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowPredicate;
+import cn.junety.tools.bigfile.scheduler.MemoryBudget;
+import cn.junety.tools.bigfile.utils.ByteLineReader;
+import cn.junety.tools.bigfile.utils.ConcurrentUtils;
 import cn.junety.tools.bigfile.utils.FileUtils;
 import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.RowSource;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 /**
  * Created by caijt on 2018/8/17
  */
 public class ShardingProcessor {
 
-    private final String sourceFilePath;
+    private static final int BATCH_SIZE = 4096;
+
+    private final RowSource source;
     private final int shardingCount;
-    private final String shardingDirectory;
+    private final ScratchSpace scratchSpace;
     private final RowHandler rowHandler;
+    private final Partitioner partitioner;
+    private final int parallelism;
     private final List<String> shardingFileList;
+    // 字节级的过滤条件, 不满足条件的数据行不会被解码和缓存
+    private RowPredicate rowPredicate;
+    // 所有分片buffer总的字节大小上限, 为 0 时按堆内存大小计算
+    private long bufferListMaxSize;
+    // 共享的线程池, 为 null 时创建自己的线程池
+    private ExecutorService executor;
+    // 限制同时分片的数量, 为 null 时不限制
+    private Semaphore ioSemaphore;
+    // 分片buffer从内存预算中申请内存, 为 null 时不申请
+    private MemoryBudget memoryBudget;
 
     public ShardingProcessor(String shardingDirectory, String sourceFilePath, int shardingCount, RowHandler rowHandler) {
-        this.sourceFilePath = sourceFilePath;
-        this.shardingCount = shardingCount;
-        this.shardingDirectory = shardingDirectory;
+        this(shardingDirectory, sourceFilePath, rowHandler, new HashPartitioner(shardingCount, rowHandler));
+    }
+
+    public ShardingProcessor(String shardingDirectory, String sourceFilePath, RowHandler rowHandler,
+                             Partitioner partitioner) {
+        this(shardingDirectory, sourceFilePath, rowHandler, partitioner, 1);
+    }
+
+    public ShardingProcessor(String shardingDirectory, String sourceFilePath, RowHandler rowHandler,
+                             Partitioner partitioner, int parallelism) {
+        this(ScratchSpace.of(shardingDirectory), RowSource.of(sourceFilePath), rowHandler, partitioner, parallelism);
+    }
+
+    ShardingProcessor(ScratchSpace scratchSpace, RowSource source, RowHandler rowHandler,
+                      Partitioner partitioner, int parallelism) {
+        this.source = source;
+        this.shardingCount = partitioner.getPartitionCount();
+        this.scratchSpace = scratchSpace;
         this.rowHandler = rowHandler;
+        this.partitioner = partitioner;
+        this.parallelism = parallelism;
         this.shardingFileList = new ArrayList<>(shardingCount);
     }
 
+    /**
+     * 设置字节级的过滤条件, 在解码数据行之前过滤
+     *
+     * @param rowPredicate 过滤条件
+     */
+    public ShardingProcessor setRowPredicate(RowPredicate rowPredicate) {
+        this.rowPredicate = rowPredicate;
+        return this;
+    }
+
+    /**
+     * 使用配置中的分片buffer大小、内存预算、共享线程池和磁盘并发限制
+     *
+     * @param config 配置信息
+     */
+    ShardingProcessor setConfig(BigFileConfig config) {
+        this.bufferListMaxSize = config.getMaxShardingBufferSizeInMemory();
+        this.executor = config.getExecutor();
+        this.ioSemaphore = config.getIoSemaphore();
+        this.memoryBudget = config.getMemoryBudget();
+        return this;
+    }
+
     // 对源文件进行切分
     public List<String> sharding() throws IOException {
         List<String> shardingFileList = createFiles();
-        ShardingBufferWriter bufferWriter = new ShardingBufferWriter(shardingFileList, rowHandler);
+        long bufferListMaxSize = this.bufferListMaxSize > 0 ? this.bufferListMaxSize
+                : ShardingBufferWriter.initBufferListMaxSize();
+        boolean pipelined = parallelism > 1 && (source.isFile() || source.getRange() != null);
 
-        try (LineIterator lineIterator = FileUtils.newLineIterator(sourceFilePath)) {
-            while (lineIterator.hasNext()) {
-                bufferWriter.write(lineIterator.nextLine());
+        // 从内存预算中申请分片buffer和流水线字节块的内存, 分配不足时buffer相应减小, 更频繁地落盘
+        // buffer和字节块合计不超过分配到的内存, 分配到的内存放不下字节块时不使用流水线, 全部用作buffer
+        long blockMemory = pipelined ? PipelinedSharder.blockMemory(parallelism) : 0;
+        long reservedMemory = memoryBudget == null ? 0 : memoryBudget.reserve(bufferListMaxSize + blockMemory);
+        if (memoryBudget != null) {
+            if (reservedMemory <= blockMemory) {
+                pipelined = false;
+                blockMemory = 0;
+            }
+            bufferListMaxSize = reservedMemory - blockMemory;
+        }
+
+        ConcurrentUtils.acquire(ioSemaphore);
+        try {
+            if (pipelined) {
+                // 文件和文件区间按字节块读取, 读取、解析和写入流水线式地并行
+                InputStream inputStream = source.isFile() ? FileUtils.newDataInputStream(source.getFilePath())
+                        : FileUtils.openInputStream(source.getRange());
+                new PipelinedSharder(shardingFileList, rowHandler, partitioner, rowPredicate, parallelism,
+                        bufferListMaxSize, executor).sharding(inputStream);
+            } else {
+                shardingRows(new ShardingBufferWriter(shardingFileList, rowHandler, partitioner, bufferListMaxSize));
+            }
+        } finally {
+            ConcurrentUtils.release(ioSemaphore);
+            if (memoryBudget != null) {
+                memoryBudget.release(reservedMemory);
             }
-            bufferWriter.flush();
         }
         return shardingFileList;
     }
 
+    // 按行读取数据源进行切分
+    private void shardingRows(ShardingBufferWriter bufferWriter) throws IOException {
+        try (RowReader rowReader = openRowReader()) {
+            if (parallelism > 1) {
+                shardingWithThreadPool(rowReader, bufferWriter);
+            } else {
+                List<String> rows;
+                while (!(rows = rowReader.nextRows(BATCH_SIZE)).isEmpty()) {
+                    for (String row : rows) {
+                        bufferWriter.write(row);
+                    }
+                }
+            }
+            bufferWriter.flush();
+        }
+    }
+
+    // 在线程池中批量计算数据的合法性和分片下标, 按读取顺序写入buffer
+    private void shardingWithThreadPool(RowReader rowReader, ShardingBufferWriter bufferWriter)
+            throws IOException {
+        ExecutorService executor = this.executor != null ? this.executor : Executors.newFixedThreadPool(parallelism);
+        OrderedTaskRunner<RowBatch> runner = new OrderedTaskRunner<>(executor, parallelism * 2, batch -> {
+            for (int i = 0; i < batch.indexes.length; i++) {
+                if (batch.indexes[i] >= 0) {
+                    bufferWriter.write(batch.rows.get(i), batch.indexes[i]);
+                }
+            }
+        });
+        try {
+            List<String> rows;
+            while (!(rows = rowReader.nextRows(BATCH_SIZE)).isEmpty()) {
+                List<String> batchRows = rows;
+                runner.submit(() -> {
+                    int[] indexes = new int[batchRows.size()];
+                    for (int i = 0; i < indexes.length; i++) {
+                        indexes[i] = bufferWriter.indexOf(batchRows.get(i));
+                    }
+                    return new RowBatch(batchRows, indexes);
+                });
+            }
+            runner.finish();
+        } finally {
+            runner.cancel();
+            if (executor != this.executor) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    // 打开数据源, 数据源是文件并且设置了过滤条件时按字节读取, 只解码满足条件的数据行
+    private RowReader openRowReader() throws IOException {
+        if (rowPredicate == null || !source.isFile()) {
+            LineIterator lineIterator = source.open();
+            return new RowReader() {
+                @Override
+                public List<String> nextRows(int size) {
+                    if (rowPredicate == null) {
+                        return lineIterator.nextLines(size);
+                    }
+                    List<String> rows = new ArrayList<>(size);
+                    while (rows.size() < size && lineIterator.hasNext()) {
+                        String row = lineIterator.nextLine();
+                        byte[] bytes = row.getBytes(StandardCharsets.UTF_8);
+                        if (rowPredicate.test(bytes, 0, bytes.length)) {
+                            rows.add(row);
+                        }
+                    }
+                    return rows;
+                }
+
+                @Override
+                public void close() {
+                    lineIterator.close();
+                }
+            };
+        }
+
+        ByteLineReader byteLineReader = FileUtils.newByteLineReader(source.getFilePath());
+        return new RowReader() {
+            @Override
+            public List<String> nextRows(int size) throws IOException {
+                List<String> rows = new ArrayList<>(size);
+                while (rows.size() < size && byteLineReader.next()) {
+                    if (rowPredicate.test(byteLineReader.buffer(), byteLineReader.start(), byteLineReader.end())) {
+                        rows.add(byteLineReader.line());
+                    }
+                }
+                return rows;
+            }
+
+            @Override
+            public void close() {
+                byteLineReader.close();
+            }
+        };
+    }
+
     // 删除分片文件和临时目录
     public void clean() throws IOException {
         if (!shardingFileList.isEmpty()) {
@@ -50,14 +238,17 @@ public class ShardingProcessor {
         }
     }
 
-    // 创建每个分片文件
+    // 创建每个分片文件, 分片文件按分布方式放置到各个临时目录
     private List<String> createFiles() throws IOException {
         shardingFileList.clear();
-        String fileName = FileUtils.getName(sourceFilePath);
+        String fileName = source.getName();
         for (int i = 0; i < shardingCount; i++) {
-            String shardingFilePath = shardingDirectory + "/" + getShardingFileName(fileName, i);
+            String shardingFilePath = scratchSpace.nextDirectory() + getShardingFileName(fileName, i);
             if (!FileUtils.exist(shardingFilePath)) {
                 FileUtils.createFile(shardingFilePath);
+            } else {
+                // 恢复计算时清空上一次没有完成的分片文件, 避免追加写入重复的数据
+                FileUtils.writeLines(shardingFilePath, Collections.emptyList(), false);
             }
             shardingFileList.add(shardingFilePath);
         }
@@ -67,4 +258,24 @@ public class ShardingProcessor {
     private String getShardingFileName(String fileName, int index) {
         return String.format("%s-sharding-%s", fileName, index);
     }
+
+    // 按批读取数据行, 返回空列表表示读取完毕
+    private interface RowReader extends AutoCloseable {
+
+        List<String> nextRows(int size) throws IOException;
+
+        @Override
+        void close();
+    }
+
+    // 一批数据行及其分片下标
+    private static class RowBatch {
+        private final List<String> rows;
+        private final int[] indexes;
+
+        RowBatch(List<String> rows, int[] indexes) {
+            this.rows = rows;
+            this.indexes = indexes;
+        }
+    }
 }
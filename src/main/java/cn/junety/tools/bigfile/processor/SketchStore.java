@@ -0,0 +1,102 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.KeySketch;
+import cn.junety.tools.bigfile.utils.PartitionedDataset;
+import cn.junety.tools.bigfile.utils.RowSource;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 保存在数据源旁边的key概要: 文件 a.txt 的概要保存为 a.txt.sketch, 分区数据集的概要保存为数据集目录下的 keys.sketch
+ *
+ * 概要文件记录 rowHandler 的标识(hashId)和生成时数据源的大小、修改时间(分区数据集为 dataset.properties 的修改时间),
+ * 任何一项不一致时概要已经过期, 不会被使用; 数据流没有可以保存概要的位置, rowHandler 没有标识时既不读取也不保存
+ */
+@Slf4j
+class SketchStore {
+
+    private static final String SKETCH_SUFFIX = ".sketch";
+    private static final String DATASET_SKETCH_NAME = "keys.sketch";
+
+    private static final int MAGIC = 0x4B534B31;
+
+    private final RowHandler rowHandler;
+
+    SketchStore(RowHandler rowHandler) {
+        this.rowHandler = rowHandler;
+    }
+
+    /**
+     * 读取数据源已经保存的概要, 没有保存、已经过期、无法读取或者 rowHandler 没有标识时返回 null
+     *
+     * @param source 数据源
+     */
+    KeySketch load(RowSource source) {
+        String hashId = rowHandler.hashId();
+        Path sketchPath = sketchPath(source);
+        if (hashId == null || sketchPath == null || !FileUtils.exist(sketchPath)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sketchPath)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(hashId)
+                    || in.readLong() != source.getSizeHint() || in.readLong() != lastModified(source)) {
+                log.debug("sketch {} is stale", sketchPath);
+                return null;
+            }
+            return KeySketch.readFrom(in);
+        } catch (IOException e) {
+            log.debug("fail to read sketch {}: {}", sketchPath, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 把概要保存在数据源旁边, 先写入临时文件再原子替换, 数据源是数据流或者 rowHandler 没有标识时不保存
+     *
+     * @param source 数据源
+     * @param sketch 概要
+     */
+    void save(RowSource source, KeySketch sketch) throws IOException {
+        String hashId = rowHandler.hashId();
+        Path sketchPath = sketchPath(source);
+        if (hashId == null || sketchPath == null) {
+            return;
+        }
+        Path tempPath = Paths.get(sketchPath + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(hashId);
+            out.writeLong(source.getSizeHint());
+            out.writeLong(lastModified(source));
+            sketch.writeTo(out);
+        }
+        FileUtils.rename(tempPath, sketchPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("save sketch of {} to {}", source, sketchPath);
+    }
+
+    private Path sketchPath(RowSource source) {
+        PartitionedDataset dataset = source.getDataset();
+        if (dataset != null) {
+            return Paths.get(dataset.getDirectory(), DATASET_SKETCH_NAME);
+        }
+        return source.isFile() ? Paths.get(source.getFilePath() + SKETCH_SUFFIX) : null;
+    }
+
+    private long lastModified(RowSource source) throws IOException {
+        PartitionedDataset dataset = source.getDataset();
+        Path path = dataset != null ? Paths.get(dataset.getDirectory(), PartitionedDataset.MANIFEST_NAME)
+                : Paths.get(source.getFilePath());
+        return Files.getLastModifiedTime(path).toMillis();
+    }
+}
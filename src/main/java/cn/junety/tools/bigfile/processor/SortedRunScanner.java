@@ -0,0 +1,176 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.ByteLineReader;
+import cn.junety.tools.bigfile.utils.FileRange;
+import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.GzipUtils;
+import cn.junety.tools.bigfile.utils.LineIterator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 扫描文件中已有的升序段(按字典序), 用于判断文件是否已经有序或者只由少量有序段拼接而成; 也用于判断文件是否按key有序
+ */
+class SortedRunScanner {
+
+    // 抽样检查时读取开头的行数
+    private static final int SAMPLE_PREFIX_ROWS = 4096;
+    // 抽样检查时在文件中均匀分布的位置数, 以及每个位置读取的行数
+    private static final int SAMPLE_POINT_COUNT = 32;
+    private static final int SAMPLE_POINT_ROWS = 64;
+
+    private final RowHandler rowHandler;
+    private final int maxRunCount;
+
+    // 每个升序段在文件中的字节区间
+    private final List<FileRange> runList = new ArrayList<>();
+    // 合法数据的总行数
+    private long rowCount;
+    // 源文件是否可以直接拷贝作为排序结果
+    private boolean copyable;
+
+    SortedRunScanner(RowHandler rowHandler, int maxRunCount) {
+        this.rowHandler = rowHandler;
+        this.maxRunCount = maxRunCount;
+    }
+
+    /**
+     * 扫描源文件, 升序段数量超过 maxRunCount 时提前结束扫描并返回 false
+     *
+     * @param filePath 文件路径
+     */
+    boolean scan(String filePath) throws IOException {
+        runList.clear();
+        rowCount = 0;
+        copyable = true;
+
+        try (ByteLineReader reader = FileUtils.newByteLineReader(filePath)) {
+            String lastRow = null;
+            long runStart = 0;
+            while (reader.next()) {
+                String row = reader.line();
+                if (reader.hasCarriageReturn() || !reader.isTerminated()) {
+                    copyable = false;
+                }
+                if (!rowHandler.accept(row)) {
+                    copyable = false;
+                    continue;
+                }
+                rowCount++;
+                if (lastRow != null && lastRow.compareTo(row) > 0) {
+                    runList.add(new FileRange(filePath, runStart, reader.offset()));
+                    if (runList.size() >= maxRunCount) {
+                        return false;
+                    }
+                    runStart = reader.offset();
+                }
+                lastRow = row;
+            }
+            long end = reader.nextOffset();
+            if (end > runStart) {
+                runList.add(new FileRange(filePath, runStart, end));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 扫描文件是否按key升序, 发现逆序时提前结束扫描并返回 false
+     *
+     * @param filePath 文件路径, 可以是 gzip 文件
+     */
+    boolean isSortedByKey(String filePath) throws IOException {
+        try (LineIterator lineIterator = FileUtils.newLineIterator(filePath)) {
+            String lastKey = null;
+            while (lineIterator.hasNext()) {
+                String row = lineIterator.nextLine();
+                if (!rowHandler.accept(row)) {
+                    continue;
+                }
+                String key = rowHandler.getKey(row);
+                if (lastKey != null && lastKey.compareTo(key) > 0) {
+                    return false;
+                }
+                lastKey = key;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 抽样检查文件是否按key升序: 读取开头的一段和均匀分布的若干位置上的几行, 所有读取的key按文件中的顺序升序时返回 true
+     * 只读取有限的数据, 无序的文件通常可以发现, 但返回 true 不能保证整个文件有序, 使用方需要在完整读取时继续校验
+     * gzip 文件不能从中间开始读取, 只检查开头的一段
+     *
+     * @param filePath 文件路径, 可以是 gzip 文件
+     */
+    boolean looksSortedByKey(String filePath) throws IOException {
+        String[] lastKey = new String[1];
+        // 已经检查到的位置, 之后的抽样位置不早于该位置, 保证读取的key按文件中的顺序比较
+        long position;
+        try (ByteLineReader reader = FileUtils.newByteLineReader(filePath)) {
+            if (!isSortedWindow(reader, SAMPLE_PREFIX_ROWS, lastKey)) {
+                return false;
+            }
+            if (!reader.next()) {
+                return true;
+            }
+            position = reader.offset();
+        }
+        if (GzipUtils.isGzip(filePath)) {
+            return true;
+        }
+
+        long length = FileUtils.getFileLength(filePath);
+        for (int i = 1; i <= SAMPLE_POINT_COUNT && position < length; i++) {
+            long offset = length * i / (SAMPLE_POINT_COUNT + 1);
+            // 从抽样位置的前一个字节开始读取并跳过第一行, 之后的行都是完整的行
+            long start = offset > position ? offset - 1 : position;
+            try (ByteLineReader reader = FileUtils.newByteLineReader(new FileRange(filePath, start, length))) {
+                if (offset > position) {
+                    reader.next();
+                }
+                if (!isSortedWindow(reader, SAMPLE_POINT_ROWS, lastKey)) {
+                    return false;
+                }
+                position = start + reader.nextOffset();
+            }
+        }
+        return true;
+    }
+
+    // 继续读取最多 rowCount 行合法的数据, 检查key是否不小于上一个key
+    private boolean isSortedWindow(ByteLineReader reader, int rowCount, String[] lastKey) throws IOException {
+        for (int i = 0; i < rowCount && reader.next(); ) {
+            String row = reader.line();
+            if (!rowHandler.accept(row)) {
+                continue;
+            }
+            String key = rowHandler.getKey(row);
+            if (lastKey[0] != null && lastKey[0].compareTo(key) > 0) {
+                return false;
+            }
+            lastKey[0] = key;
+            i++;
+        }
+        return true;
+    }
+
+    List<FileRange> getRunList() {
+        return runList;
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * 只有一个升序段, 所有数据都合法并且都以 '\n' 结尾时, 源文件本身就是排序结果
+     */
+    boolean isCopyable() {
+        return copyable && runList.size() <= 1;
+    }
+}
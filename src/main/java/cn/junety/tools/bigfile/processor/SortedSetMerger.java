@@ -0,0 +1,140 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.LineIterator;
+import cn.junety.tools.bigfile.utils.LineWriter;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
+
+import java.io.IOException;
+
+/**
+ * 对两个按key有序的数据源做归并式的集合运算, 只需要顺序读取一遍, 内存中只保留当前的数据行
+ * 同一个数据源内key相同的相邻数据使用rowHandler合并, 两个数据源key相同的数据也使用rowHandler合并
+ */
+class SortedSetMerger {
+
+    private final RowHandler rowHandler;
+    // 只在数据源1中出现的key是否输出
+    private final boolean keepOnlyIn1;
+    // 两个数据源都出现的key是否输出
+    private final boolean keepInBoth;
+    // 只在数据源2中出现的key是否输出
+    private final boolean keepOnlyIn2;
+
+    SortedSetMerger(RowHandler rowHandler, SetOperation operation) {
+        this.rowHandler = rowHandler;
+        this.keepOnlyIn1 = operation != SetOperation.INTERSECT;
+        this.keepInBoth = operation != SetOperation.DIFFER;
+        this.keepOnlyIn2 = operation == SetOperation.UNION;
+    }
+
+    /**
+     * 归并两个数据源, 结果按key有序, 返回输出的行数
+     *
+     * @param source1 有序数据源1
+     * @param source2 有序数据源2
+     * @param sink    输出目标
+     */
+    long merge(RowSource source1, RowSource source2, RowSink sink) throws IOException {
+        long totalSize = 0;
+        try (KeyGroupIterator iterator1 = new KeyGroupIterator(source1);
+             KeyGroupIterator iterator2 = new KeyGroupIterator(source2);
+             LineWriter writer = sink.open()) {
+            boolean has1 = iterator1.next();
+            boolean has2 = iterator2.next();
+            while (has1 || has2) {
+                int cmp = !has1 ? 1 : !has2 ? -1 : iterator1.key.compareTo(iterator2.key);
+                if (cmp < 0) {
+                    if (keepOnlyIn1) {
+                        writer.writeLine(iterator1.row);
+                        totalSize++;
+                    }
+                    has1 = iterator1.next();
+                } else if (cmp > 0) {
+                    if (keepOnlyIn2) {
+                        writer.writeLine(iterator2.row);
+                        totalSize++;
+                    }
+                    has2 = iterator2.next();
+                } else {
+                    if (keepInBoth) {
+                        writer.writeLine(rowHandler.clash(iterator1.row, iterator2.row));
+                        totalSize++;
+                    }
+                    has1 = iterator1.next();
+                    has2 = iterator2.next();
+                }
+            }
+        }
+        return totalSize;
+    }
+
+    /**
+     * 按key分组读取有序数据源, 每次返回一个key合并后的数据行, 同时校验数据源是否有序
+     */
+    private class KeyGroupIterator implements AutoCloseable {
+        private final RowSource source;
+        private final LineIterator lineIterator;
+        private String nextRow;
+        private String nextKey;
+
+        private String row;
+        private String key;
+
+        KeyGroupIterator(RowSource source) throws IOException {
+            this.source = source;
+            this.lineIterator = source.open();
+            readNext();
+        }
+
+        boolean next() {
+            if (nextRow == null) {
+                return false;
+            }
+            row = nextRow;
+            key = nextKey;
+            readNext();
+            while (nextRow != null && nextKey.equals(key)) {
+                row = rowHandler.clash(nextRow, row);
+                readNext();
+            }
+            if (nextRow != null && nextKey.compareTo(key) < 0) {
+                throw new UnsortedSourceException(String.format("%s is not sorted by key, \"%s\" is after \"%s\"",
+                        source, nextKey, key));
+            }
+            return true;
+        }
+
+        // 读取下一行合法的数据
+        private void readNext() {
+            nextRow = null;
+            nextKey = null;
+            while (lineIterator.hasNext()) {
+                String line = lineIterator.nextLine();
+                if (rowHandler.accept(line)) {
+                    nextRow = line;
+                    nextKey = rowHandler.getKey(line);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            lineIterator.close();
+        }
+    }
+
+    /**
+     * 归并时发现数据源不是按key有序
+     */
+    static class UnsortedSourceException extends IllegalArgumentException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnsortedSourceException(String message) {
+            super(message);
+        }
+    }
+}
@@ -24,4 +24,12 @@ public class DefaultRowHandler implements RowHandler {
     public boolean accept(String row) {
         return true;
     }
+
+    /**
+     * 子类可能改变 key 和过滤规则, 只有 DefaultRowHandler 本身有固定的标识
+     */
+    @Override
+    public String hashId() {
+        return getClass() == DefaultRowHandler.class ? getClass().getName() : null;
+    }
 }
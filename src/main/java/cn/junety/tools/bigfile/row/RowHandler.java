@@ -39,4 +39,15 @@ public interface RowHandler {
      * @return true:合法 / false:不合法
      */
     boolean accept(String row);
+
+    /**
+     * 数据处理规则的标识, 用于判断保存在磁盘上的中间结果是否可以被另一次计算复用
+     * 标识相同的 rowHandler 的 getKey、hash 和 accept 必须完全一致, 例如可以配置key字段的实现需要把配置写入标识
+     * 返回 null 表示不能复用, 每次计算都重新开始
+     *
+     * @return 标识, 默认为 null
+     */
+    default String hashId() {
+        return null;
+    }
 }
@@ -0,0 +1,16 @@
+package cn.junety.tools.bigfile.row;
+
+/**
+ * 连接运算中组合两边数据行的规则, 决定输出的数据行, 也可以只保留需要的字段
+ */
+public interface RowJoiner {
+
+    /**
+     * 组合key相同的两行数据, 外连接中没有匹配的一边为 null, 实现需要是线程安全的
+     *
+     * @param leftRow  左边的数据行, 右外连接和全外连接中没有匹配时为 null
+     * @param rightRow 右边的数据行, 左外连接和全外连接中没有匹配时为 null
+     * @return 输出的数据行, 返回 null 表示丢弃
+     */
+    String join(String leftRow, String rightRow);
+}
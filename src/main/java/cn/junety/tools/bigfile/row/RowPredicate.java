@@ -0,0 +1,30 @@
+package cn.junety.tools.bigfile.row;
+
+/**
+ * 直接在数据行的原始字节(UTF-8)上进行判断的过滤条件, 不需要把数据行解码成字符串
+ * 可以通过 RowPredicates 创建常用的过滤条件
+ */
+public interface RowPredicate {
+
+    /**
+     * 判断数据行是否满足条件, 实现需要是线程安全的
+     *
+     * @param bytes 数据行所在的字节数组
+     * @param start 数据行的起始位置(包含)
+     * @param end   数据行的结束位置(不包含), 不包括换行符
+     * @return true:满足条件 / false:不满足条件
+     */
+    boolean test(byte[] bytes, int start, int end);
+
+    default RowPredicate and(RowPredicate other) {
+        return (bytes, start, end) -> test(bytes, start, end) && other.test(bytes, start, end);
+    }
+
+    default RowPredicate or(RowPredicate other) {
+        return (bytes, start, end) -> test(bytes, start, end) || other.test(bytes, start, end);
+    }
+
+    default RowPredicate negate() {
+        return (bytes, start, end) -> !test(bytes, start, end);
+    }
+}
@@ -0,0 +1,298 @@
+package cn.junety.tools.bigfile.row;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 常用的字节级过滤条件
+ */
+public class RowPredicates {
+
+    /**
+     * 数据行包含指定的子串, 使用 Boyer-Moore-Horspool 算法查找
+     *
+     * @param token 子串
+     */
+    public static RowPredicate contains(String token) {
+        return new ContainsPredicate(toBytes(token));
+    }
+
+    /**
+     * 数据行包含任意一个指定的子串, 使用 Aho-Corasick 自动机查找, 只需要扫描一遍数据行
+     *
+     * @param tokens 子串集合
+     */
+    public static RowPredicate containsAny(Collection<String> tokens) {
+        if (tokens.size() == 1) {
+            return contains(tokens.iterator().next());
+        }
+        return new ContainsAnyPredicate(tokens);
+    }
+
+    /**
+     * 数据行以指定的前缀开头
+     *
+     * @param prefix 前缀
+     */
+    public static RowPredicate startsWith(String prefix) {
+        byte[] pattern = toBytes(prefix);
+        return (bytes, start, end) -> end - start >= pattern.length
+                && regionEquals(bytes, start, pattern, 0, pattern.length);
+    }
+
+    /**
+     * 数据行等于集合中的某个值
+     *
+     * @param values 值集合
+     */
+    public static RowPredicate in(Collection<String> values) {
+        ByteSet set = new ByteSet(values);
+        return set::contains;
+    }
+
+    /**
+     * 按分隔符切分后, 第 fieldIndex 个字段(从0开始)等于指定的值
+     *
+     * @param delimiter  字段分隔符, 必须是 ASCII 字符
+     * @param fieldIndex 字段下标
+     * @param value      字段值
+     */
+    public static RowPredicate fieldEquals(char delimiter, int fieldIndex, String value) {
+        byte separator = toDelimiter(delimiter);
+        byte[] pattern = toBytes(value);
+        return (bytes, start, end) -> {
+            long field = findField(bytes, start, end, separator, fieldIndex);
+            if (field < 0) {
+                return false;
+            }
+            int fieldStart = (int) (field >>> 32), fieldEnd = (int) field;
+            return fieldEnd - fieldStart == pattern.length
+                    && regionEquals(bytes, fieldStart, pattern, 0, pattern.length);
+        };
+    }
+
+    /**
+     * 按分隔符切分后, 第 fieldIndex 个字段(从0开始)等于集合中的某个值
+     *
+     * @param delimiter  字段分隔符, 必须是 ASCII 字符
+     * @param fieldIndex 字段下标
+     * @param values     字段值集合
+     */
+    public static RowPredicate fieldIn(char delimiter, int fieldIndex, Collection<String> values) {
+        byte separator = toDelimiter(delimiter);
+        ByteSet set = new ByteSet(values);
+        return (bytes, start, end) -> {
+            long field = findField(bytes, start, end, separator, fieldIndex);
+            return field >= 0 && set.contains(bytes, (int) (field >>> 32), (int) field);
+        };
+    }
+
+    //---------------------------------------- 内部实现 ----------------------------------------
+
+    private static byte[] toBytes(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte toDelimiter(char delimiter) {
+        if (delimiter >= 0x80) {
+            throw new IllegalArgumentException("delimiter must be an ASCII character: " + delimiter);
+        }
+        return (byte) delimiter;
+    }
+
+    private static boolean regionEquals(byte[] bytes, int offset, byte[] pattern, int patternOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != pattern[patternOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查找第 fieldIndex 个字段的区间, 高32位为起始位置, 低32位为结束位置, 字段不存在返回 -1
+     */
+    private static long findField(byte[] bytes, int start, int end, byte separator, int fieldIndex) {
+        int fieldStart = start;
+        for (int i = 0; i < fieldIndex; i++) {
+            while (fieldStart < end && bytes[fieldStart] != separator) {
+                fieldStart++;
+            }
+            if (fieldStart >= end) {
+                return -1;
+            }
+            fieldStart++;
+        }
+        int fieldEnd = fieldStart;
+        while (fieldEnd < end && bytes[fieldEnd] != separator) {
+            fieldEnd++;
+        }
+        return ((long) fieldStart << 32) | fieldEnd;
+    }
+
+    // Boyer-Moore-Horspool 子串查找
+    private static class ContainsPredicate implements RowPredicate {
+        private final byte[] pattern;
+        private final int[] shift;
+
+        ContainsPredicate(byte[] pattern) {
+            this.pattern = pattern;
+            this.shift = new int[256];
+            Arrays.fill(shift, pattern.length);
+            for (int i = 0; i < pattern.length - 1; i++) {
+                shift[pattern[i] & 0xFF] = pattern.length - 1 - i;
+            }
+        }
+
+        @Override
+        public boolean test(byte[] bytes, int start, int end) {
+            int m = pattern.length;
+            if (m == 0) {
+                return true;
+            }
+            byte last = pattern[m - 1];
+            for (int i = start; i <= end - m; ) {
+                byte b = bytes[i + m - 1];
+                if (b == last && regionEquals(bytes, i, pattern, 0, m - 1)) {
+                    return true;
+                }
+                i += shift[b & 0xFF];
+            }
+            return false;
+        }
+    }
+
+    // Aho-Corasick 多模式查找, 预先计算好完整的状态转移表
+    private static class ContainsAnyPredicate implements RowPredicate {
+        private final int[][] transitions;
+        private final boolean[] matched;
+
+        ContainsAnyPredicate(Collection<String> tokens) {
+            List<int[]> gotoList = new ArrayList<>();
+            List<Boolean> matchedList = new ArrayList<>();
+            gotoList.add(newState());
+            matchedList.add(false);
+
+            // 构建字典树
+            for (String token : tokens) {
+                int state = 0;
+                for (byte b : toBytes(token)) {
+                    int next = gotoList.get(state)[b & 0xFF];
+                    if (next <= 0) {
+                        next = gotoList.size();
+                        gotoList.add(newState());
+                        matchedList.add(false);
+                        gotoList.get(state)[b & 0xFF] = next;
+                    }
+                    state = next;
+                }
+                matchedList.set(state, true);
+            }
+
+            // 按层计算失败指针, 同时补全状态转移表
+            int stateCount = gotoList.size();
+            int[][] table = gotoList.toArray(new int[0][]);
+            boolean[] output = new boolean[stateCount];
+            for (int i = 0; i < stateCount; i++) {
+                output[i] = matchedList.get(i);
+            }
+            int[] fail = new int[stateCount];
+            Deque<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < 256; c++) {
+                if (table[0][c] > 0) {
+                    fail[table[0][c]] = 0;
+                    queue.add(table[0][c]);
+                } else {
+                    table[0][c] = 0;
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                output[state] |= output[fail[state]];
+                for (int c = 0; c < 256; c++) {
+                    int next = table[state][c];
+                    if (next > 0) {
+                        fail[next] = table[fail[state]][c];
+                        queue.add(next);
+                    } else {
+                        table[state][c] = table[fail[state]][c];
+                    }
+                }
+            }
+            this.transitions = table;
+            this.matched = output;
+        }
+
+        private static int[] newState() {
+            int[] state = new int[256];
+            Arrays.fill(state, -1);
+            return state;
+        }
+
+        @Override
+        public boolean test(byte[] bytes, int start, int end) {
+            if (matched[0]) {
+                return true;
+            }
+            int state = 0;
+            for (int i = start; i < end; i++) {
+                state = transitions[state][bytes[i] & 0xFF];
+                if (matched[state]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // 字节数组集合, 使用线性探测的开放寻址哈希表, 查询时不需要创建新对象(包括装箱的哈希值)
+    private static class ByteSet {
+        // 槽位数是2的幂, 至少是元素数量的两倍, 保证总有空槽位结束探测
+        private final byte[][] values;
+        private final int[] hashes;
+        private final int mask;
+
+        ByteSet(Collection<String> values) {
+            int capacity = Integer.highestOneBit(Math.max(values.size(), 1) * 2 - 1) << 1;
+            this.values = new byte[capacity][];
+            this.hashes = new int[capacity];
+            this.mask = capacity - 1;
+            for (String value : values) {
+                byte[] bytes = toBytes(value);
+                if (!contains(bytes, 0, bytes.length)) {
+                    int h = hash(bytes, 0, bytes.length);
+                    int slot = h & mask;
+                    while (this.values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    this.values[slot] = bytes;
+                    hashes[slot] = h;
+                }
+            }
+        }
+
+        boolean contains(byte[] bytes, int start, int end) {
+            int h = hash(bytes, start, end);
+            for (int slot = h & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                byte[] value = values[slot];
+                if (hashes[slot] == h && value.length == end - start
+                        && regionEquals(bytes, start, value, 0, value.length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // 打散低位, 线性探测只使用哈希值的低位
+        private static int hash(byte[] bytes, int start, int end) {
+            int h = 1;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + bytes[i];
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package cn.junety.tools.bigfile.row;
+
+import java.util.Collection;
+
+/**
+ * 数据行的路由规则, 决定一行数据需要写入哪些输出
+ */
+public interface RowRouter {
+
+    /**
+     * 返回数据行需要写入的输出名称, 返回空集合或者 null 表示丢弃该行
+     * 重复的输出名称只写入一次
+     *
+     * @param row 数据行
+     * @return 输出名称集合
+     */
+    Collection<String> route(String row);
+}
@@ -0,0 +1,74 @@
+package cn.junety.tools.bigfile.scheduler;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowPredicate;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步的 BigFileProcessor, 每个方法提交一个计算到调度器, 返回输出行数的 CompletableFuture
+ * 没有对应方法的计算(例如 pipeline)可以通过 submit 提交
+ */
+public class AsyncBigFileProcessor {
+
+    private final JobScheduler scheduler;
+    private final BigFileConfig config;
+    private final RowHandler rowHandler;
+
+    AsyncBigFileProcessor(JobScheduler scheduler, BigFileConfig config, RowHandler rowHandler) {
+        this.scheduler = scheduler;
+        this.config = config;
+        this.rowHandler = rowHandler;
+    }
+
+    /**
+     * 提交任意计算
+     *
+     * @param job 计算
+     */
+    public <T> CompletableFuture<T> submit(BigFileJob<T> job) {
+        return scheduler.submit(config, rowHandler, job);
+    }
+
+    /**
+     * 提交任意计算, 申请指定大小的内存
+     *
+     * @param memory 申请的内存字节数
+     * @param job    计算
+     */
+    public <T> CompletableFuture<T> submit(long memory, BigFileJob<T> job) {
+        return scheduler.submit(config, rowHandler, memory, job);
+    }
+
+    public CompletableFuture<Long> intersect(String sourceFilePath1, String sourceFilePath2, String outputFilePath,
+                                             boolean sort) {
+        return submit(processor -> processor.intersect(sourceFilePath1, sourceFilePath2, outputFilePath, sort));
+    }
+
+    public CompletableFuture<Long> union(String sourceFilePath1, String sourceFilePath2, String outputFilePath,
+                                         boolean sort) {
+        return submit(processor -> processor.union(sourceFilePath1, sourceFilePath2, outputFilePath, sort));
+    }
+
+    public CompletableFuture<Long> differ(String sourceFilePath1, String sourceFilePath2, String outputFilePath,
+                                          boolean sort) {
+        return submit(processor -> processor.differ(sourceFilePath1, sourceFilePath2, outputFilePath, sort));
+    }
+
+    public CompletableFuture<Long> sort(String sourceFilePath, String outputFilePath) {
+        return submit(processor -> processor.sort(sourceFilePath, outputFilePath));
+    }
+
+    public CompletableFuture<Long> sortUnique(String sourceFilePath, String outputFilePath) {
+        return submit(processor -> processor.sortUnique(sourceFilePath, outputFilePath));
+    }
+
+    public CompletableFuture<Long> filter(String sourceFilePath, String outputFilePath) {
+        return submit(processor -> processor.filter(sourceFilePath, outputFilePath));
+    }
+
+    public CompletableFuture<Long> filter(String sourceFilePath, String outputFilePath, RowPredicate rowPredicate) {
+        return submit(processor -> processor.filter(sourceFilePath, outputFilePath, rowPredicate));
+    }
+}
@@ -0,0 +1,19 @@
+package cn.junety.tools.bigfile.scheduler;
+
+import cn.junety.tools.bigfile.BigFileProcessor;
+
+import java.io.IOException;
+
+/**
+ * 在调度器中执行的一次计算
+ */
+@FunctionalInterface
+public interface BigFileJob<T> {
+
+    /**
+     * 执行计算
+     *
+     * @param processor 按本次计算分配到的资源配置好的 BigFileProcessor
+     */
+    T run(BigFileProcessor processor) throws IOException;
+}
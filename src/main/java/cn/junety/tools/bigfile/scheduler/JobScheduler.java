@@ -0,0 +1,220 @@
+package cn.junety.tools.bigfile.scheduler;
+
+import cn.junety.tools.bigfile.BigFileProcessor;
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.DaemonThreadFactory;
+import cn.junety.tools.bigfile.utils.TimeMeter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步执行多个计算的调度器, 所有计算共享一份内存预算、一个计算线程池和磁盘并发限制
+ * 同时运行的计算数量不超过 maxRunningJobs, 其余的计算排队等待
+ * 每个计算开始前从内存预算中申请一份内存, 按申请到的内存设置分片buffer的上限和分片文件的大小
+ *
+ * <pre>
+ * JobScheduler scheduler = new JobScheduler.Builder()
+ *         .setMemoryBudget(2L * 1024 * 1024 * 1024)
+ *         .setMaxRunningJobs(4)
+ *         .build();
+ * AsyncBigFileProcessor processor = scheduler.processor(config);
+ * CompletableFuture&lt;Long&gt; count = processor.sort("input", "output");
+ * </pre>
+ */
+@Slf4j
+public class JobScheduler implements AutoCloseable {
+
+    private static final long MB = 1024 * 1024;
+
+    // 分片文件的最小大小
+    private static final long MIN_SHARDING_FILE_SIZE = MB;
+
+    // 分片读入内存计算时, 字符串和哈希表占用的内存约为文件大小的倍数
+    private static final int SHARD_MEMORY_FACTOR = 8;
+
+    private final MemoryBudget memoryBudget;
+    private final long memoryPerJob;
+    // 计算线程池, 所有计算内部的并行任务共享
+    private final ExecutorService cpuExecutor;
+    // 执行计算的线程池, 线程数即同时运行的计算数量
+    private final ExecutorService jobExecutor;
+    // 限制同时进行分片、归并输出等磁盘密集阶段的计算数量
+    private final Semaphore ioSemaphore;
+
+    private JobScheduler(Builder builder) {
+        this.memoryBudget = new MemoryBudget(builder.memoryBudget);
+        this.memoryPerJob = builder.memoryPerJob > 0 ? builder.memoryPerJob
+                : builder.memoryBudget / builder.maxRunningJobs;
+        this.cpuExecutor = Executors.newFixedThreadPool(builder.cpuThreads, new DaemonThreadFactory("bigfile-cpu-"));
+        this.jobExecutor = Executors.newFixedThreadPool(builder.maxRunningJobs,
+                new DaemonThreadFactory("bigfile-job-"));
+        this.ioSemaphore = new Semaphore(builder.maxIoConcurrency);
+    }
+
+    /**
+     * 创建使用默认 rowHandler 的异步处理器
+     *
+     * @param config 配置信息
+     */
+    public AsyncBigFileProcessor processor(BigFileConfig config) {
+        return processor(config, new DefaultRowHandler());
+    }
+
+    /**
+     * 创建使用自定义 rowHandler 的异步处理器
+     *
+     * @param config     配置信息
+     * @param rowHandler 数据处理规则
+     */
+    public AsyncBigFileProcessor processor(BigFileConfig config, RowHandler rowHandler) {
+        return new AsyncBigFileProcessor(this, config, rowHandler);
+    }
+
+    /**
+     * 提交计算, 申请默认大小的内存
+     *
+     * @param config     配置信息
+     * @param rowHandler 数据处理规则
+     * @param job        计算
+     */
+    public <T> CompletableFuture<T> submit(BigFileConfig config, RowHandler rowHandler, BigFileJob<T> job) {
+        return submit(config, rowHandler, memoryPerJob, job);
+    }
+
+    /**
+     * 提交计算, 申请指定大小的内存
+     *
+     * @param config     配置信息
+     * @param rowHandler 数据处理规则
+     * @param memory     申请的内存字节数
+     * @param job        计算
+     */
+    public <T> CompletableFuture<T> submit(BigFileConfig config, RowHandler rowHandler, long memory,
+                                           BigFileJob<T> job) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        jobExecutor.execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            long granted = 0;
+            T result = null;
+            Throwable error = null;
+            try {
+                granted = memoryBudget.acquire(memory);
+                TimeMeter timeMeter = new TimeMeter();
+                BigFileProcessor processor = BigFileProcessor.create(createJobConfig(config, granted), rowHandler);
+                result = job.run(processor);
+                log.debug("job with {} MB memory total use {} seconds", granted / MB,
+                        timeMeter.getUsed(TimeUnit.SECONDS));
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                // 先归还内存再通知调用方, 调用方拿到结果时内存已经可以被其它计算使用
+                memoryBudget.release(granted);
+            }
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 按分配到的内存生成本次计算的配置: 一半内存用于分片buffer, 另一半平分给并行计算的分片, 超过时分片切分成子分片;
+     * 计算内部的各个阶段从分配到的内存中申请
+     *
+     * @param config 调用方的配置
+     * @param memory 分配到的内存字节数
+     */
+    private BigFileConfig createJobConfig(BigFileConfig config, long memory) {
+        long shardMemory = memory / 2 / (SHARD_MEMORY_FACTOR * Math.max(config.getParallelism(), 1));
+        return new BigFileConfig.Builder(config)
+                .setMaxShardingBufferSizeInMemory(memory / 2)
+                .setMaxShardMemorySize(memory / 2 / Math.max(config.getParallelism(), 1))
+                .setMemoryBudget(new MemoryBudget(memory))
+                .setShardingFileSize(Math.min(config.getShardingFileSize(),
+                        Math.max(shardMemory, MIN_SHARDING_FILE_SIZE)))
+                .setExecutor(cpuExecutor)
+                .setIoSemaphore(ioSemaphore)
+                .build();
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * 不再接受新的计算, 已提交的计算继续执行
+     */
+    @Override
+    public void close() {
+        jobExecutor.shutdown();
+        cpuExecutor.shutdown();
+    }
+
+    public static class Builder {
+        private long memoryBudget = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax() / 2;
+        private long memoryPerJob;
+        private int cpuThreads = Runtime.getRuntime().availableProcessors();
+        private int maxIoConcurrency = 2;
+        private int maxRunningJobs = 2;
+
+        /**
+         * 所有计算共享的内存预算, 默认为最大堆内存的一半
+         */
+        public Builder setMemoryBudget(long memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * 每个计算默认申请的内存, 默认为内存预算除以同时运行的计算数量
+         */
+        public Builder setMemoryPerJob(long memoryPerJob) {
+            this.memoryPerJob = memoryPerJob;
+            return this;
+        }
+
+        /**
+         * 计算线程池的线程数, 默认为 CPU 核数
+         */
+        public Builder setCpuThreads(int cpuThreads) {
+            this.cpuThreads = cpuThreads;
+            return this;
+        }
+
+        /**
+         * 同时进行分片、归并输出等磁盘密集阶段的计算数量
+         */
+        public Builder setMaxIoConcurrency(int maxIoConcurrency) {
+            this.maxIoConcurrency = maxIoConcurrency;
+            return this;
+        }
+
+        /**
+         * 同时运行的计算数量
+         */
+        public Builder setMaxRunningJobs(int maxRunningJobs) {
+            this.maxRunningJobs = maxRunningJobs;
+            return this;
+        }
+
+        public JobScheduler build() {
+            if (memoryBudget <= 0 || cpuThreads <= 0 || maxIoConcurrency <= 0 || maxRunningJobs <= 0) {
+                throw new IllegalArgumentException("memory budget, cpu threads, io concurrency and running jobs "
+                        + "must be positive");
+            }
+            return new JobScheduler(this);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package cn.junety.tools.bigfile.scheduler;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 多个计算共享的内存预算, 计算开始前申请一份内存, 结束后归还, 剩余内存不足时等待其它计算归还
+ * 计算内部的分片、集合运算和排序等阶段也从预算中申请内存, 按实际分配到的内存决定何时落盘
+ */
+public class MemoryBudget {
+
+    // 剩余内存不足时至少分配申请量的该比例, 更少时等待
+    private static final int MIN_RESERVE_DIVISOR = 8;
+
+    // 预算的总字节数
+    private final long capacity;
+
+    // 当前可以申请的字节数
+    private long available;
+
+    public MemoryBudget(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("memory budget must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.available = capacity;
+    }
+
+    /**
+     * 申请内存, 剩余内存不足时阻塞, 超过总预算的申请按总预算分配, 返回实际分配的字节数
+     *
+     * @param bytes 申请的字节数
+     */
+    public long acquire(long bytes) throws InterruptedIOException {
+        return acquire(bytes, bytes);
+    }
+
+    /**
+     * 申请 min 到 max 字节的内存, 剩余内存不少于 min 时立即分配, 尽量多分配但不超过 max, 否则阻塞等待
+     *
+     * @param min 最少分配的字节数
+     * @param max 最多分配的字节数
+     */
+    public synchronized long acquire(long min, long max) throws InterruptedIOException {
+        long minGranted = Math.min(Math.max(min, 1), capacity);
+        try {
+            while (available < minGranted) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for memory budget");
+        }
+        long granted = Math.max(minGranted, Math.min(max, available));
+        available -= granted;
+        return granted;
+    }
+
+    /**
+     * 为计算的一个阶段申请内存, 剩余内存不足时按剩余内存分配, 调用方按实际分配的内存提前落盘;
+     * 剩余内存少于申请量的 1/8 时阻塞, 同时运行的阶段因此减少
+     *
+     * @param bytes 申请的字节数
+     */
+    public long reserve(long bytes) throws InterruptedIOException {
+        return acquire(bytes / MIN_RESERVE_DIVISOR, bytes);
+    }
+
+    /**
+     * 归还 acquire 或 reserve 分配的内存
+     *
+     * @param bytes 归还的字节数
+     */
+    public synchronized void release(long bytes) {
+        available = Math.min(available + bytes, capacity);
+        notifyAll();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getAvailable() {
+        return available;
+    }
+}
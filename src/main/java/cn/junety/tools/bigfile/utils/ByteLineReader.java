@@ -0,0 +1,180 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按字节读取数据行, 不进行字符解码, 同时记录每行在数据流中的偏移量
+ * 与 BufferedReader.readLine 一致, 行以 '\n'、'\r' 或 "\r\n" 结尾, 换行符不算作行的内容
+ */
+public class ByteLineReader implements AutoCloseable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final InputStream inputStream;
+
+    private byte[] buffer;
+    // buffer中有效数据的末尾
+    private int limit;
+    // 下一次扫描的起始位置
+    private int position;
+    // buffer[0] 在数据流中的偏移量
+    private long bufferOffset;
+    // 数据流是否已经读取完毕
+    private boolean eof;
+
+    // 当前行在buffer中的区间 [lineStart, lineEnd)
+    private int lineStart;
+    private int lineEnd;
+    // 当前行是否以换行符结尾
+    private boolean terminated;
+    // 当前行是否以 '\r' 或 "\r\n" 结尾
+    private boolean carriageReturn;
+
+    public ByteLineReader(InputStream inputStream) {
+        this(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ByteLineReader(InputStream inputStream, int bufferSize) {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("input stream must not be null");
+        }
+        this.inputStream = inputStream;
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * 读取下一行, 没有数据时返回 false
+     */
+    public boolean next() throws IOException {
+        int from = position;
+        while (true) {
+            for (int i = from; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    setLine(i, 1);
+                    return true;
+                }
+                // '\r' 之后是否还有 '\n' 需要读到下一个字节才能确定
+                if (buffer[i] == '\r' && (i + 1 < limit || eof)) {
+                    setLine(i, i + 1 < limit && buffer[i + 1] == '\n' ? 2 : 1);
+                    return true;
+                }
+            }
+            if (eof) {
+                if (position < limit) {
+                    setLine(limit, 0);
+                    return true;
+                }
+                return false;
+            }
+            // 末尾的 '\r' 在读取更多数据后重新判断
+            boolean pendingCarriageReturn = limit > position && buffer[limit - 1] == '\r';
+            from = fill() - (pendingCarriageReturn ? 1 : 0);
+        }
+    }
+
+    /**
+     * 设置当前行为 [position, end), 之后是长度为 separatorLength 的换行符, 为 0 时是数据流的最后一行并且没有换行符
+     */
+    private void setLine(int end, int separatorLength) {
+        this.lineStart = position;
+        this.lineEnd = end;
+        this.terminated = separatorLength > 0;
+        this.carriageReturn = terminated && buffer[end] == '\r';
+        this.position = end + separatorLength;
+    }
+
+    /**
+     * 读取更多数据到buffer, 返回继续扫描的起始位置
+     */
+    private int fill() throws IOException {
+        int scanned = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, scanned);
+            bufferOffset += position;
+            limit = scanned;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            byte[] newBuffer = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, newBuffer, 0, limit);
+            buffer = newBuffer;
+        }
+        int n = inputStream.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+        return scanned;
+    }
+
+    /**
+     * 当前行所在的buffer, 只在下一次调用 next() 之前有效
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * 当前行在buffer中的起始位置(包含)
+     */
+    public int start() {
+        return lineStart;
+    }
+
+    /**
+     * 当前行在buffer中的结束位置(不包含), 不包括换行符
+     */
+    public int end() {
+        return lineEnd;
+    }
+
+    /**
+     * 当前行的字节长度, 不包括换行符
+     */
+    public int length() {
+        return lineEnd - lineStart;
+    }
+
+    /**
+     * 当前行在数据流中的起始偏移量
+     */
+    public long offset() {
+        return bufferOffset + lineStart;
+    }
+
+    /**
+     * 下一行在数据流中的起始偏移量
+     */
+    public long nextOffset() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * 当前行是否以换行符结尾, 只有数据流的最后一行可能返回 false
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * 当前行是否以 '\r' 或 "\r\n" 结尾, 即换行符不是单独的 '\n'
+     */
+    public boolean hasCarriageReturn() {
+        return carriageReturn;
+    }
+
+    /**
+     * 使用 UTF-8 解码当前行
+     */
+    public String line() {
+        return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        IOUtils.closeQuietly(inputStream);
+    }
+}
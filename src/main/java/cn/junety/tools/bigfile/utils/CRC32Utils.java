@@ -0,0 +1,77 @@
+package cn.junety.tools.bigfile.utils;
+
+/**
+ * crc32 相关的工具方法
+ */
+public class CRC32Utils {
+
+    private static final long CRC32_POLYNOMIAL = 0xEDB88320L;
+
+    /**
+     * 合并两段连续数据的 crc32 校验和, 算法与 zlib 的 crc32_combine 相同
+     *
+     * @param crc1 第一段数据的校验和
+     * @param crc2 第二段数据的校验和
+     * @param len2 第二段数据的字节数
+     * @return 两段数据拼接后的校验和
+     */
+    public static long combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // 对应一个零比特的运算矩阵
+        odd[0] = CRC32_POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // 两个零比特
+        gf2MatrixSquare(even, odd);
+        // 四个零比特
+        gf2MatrixSquare(odd, even);
+
+        // 每次把 len2 的一个比特对应的零字节运算作用到 crc1 上
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>>= 1;
+            if (len2 == 0) {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>>= 1;
+        } while (len2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        int i = 0;
+        while (vec != 0) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+            vec >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+}
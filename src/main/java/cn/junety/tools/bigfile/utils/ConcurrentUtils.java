@@ -0,0 +1,62 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+public class ConcurrentUtils {
+
+    /**
+     * 等待并获取异步任务的结果, 任务抛出的 IOException 会原样抛出
+     *
+     * @param future 异步任务
+     */
+    public static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for task");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 获取一个许可, semaphore 为 null 时不做限制
+     *
+     * @param semaphore 信号量, 可以为 null
+     */
+    public static void acquire(Semaphore semaphore) throws IOException {
+        if (semaphore == null) {
+            return;
+        }
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for permit");
+        }
+    }
+
+    /**
+     * 释放 acquire 获取的许可
+     *
+     * @param semaphore 信号量, 可以为 null
+     */
+    public static void release(Semaphore semaphore) {
+        if (semaphore != null) {
+            semaphore.release();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 创建守护线程, 线程名称为前缀加序号, 不会阻止 JVM 退出
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger index = new AtomicInteger();
+
+    public DaemonThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, prefix + index.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
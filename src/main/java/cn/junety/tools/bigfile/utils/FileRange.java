@@ -0,0 +1,41 @@
+package cn.junety.tools.bigfile.utils;
+
+/**
+ * 文件中的一段字节区间 [start, end)
+ */
+public class FileRange {
+
+    private final String filePath;
+    private final long start;
+    private final long end;
+
+    public FileRange(String filePath, long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("illegal range: [" + start + ", " + end + ")");
+        }
+        this.filePath = filePath;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        return filePath + "[" + start + ", " + end + ")";
+    }
+}
@@ -1,6 +1,9 @@
 package cn.junety.tools.bigfile.utils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
@@ -9,6 +12,9 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.zip.CRC32;
 
@@ -19,6 +25,11 @@ public class FileUtils {
 
     public static final String FILE_SEPARATOR = File.separator;
 
+    // 并行计算行数和校验和时, 每个分块的字节数
+    private static final long CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final int IO_BUFFER_SIZE = 1024 * 1024;
+
     //---------------------------------------- 通用 ----------------------------------------
 
     /**
@@ -418,6 +429,190 @@ public class FileUtils {
         return new LineIterator(openBufferedReader(filePath));
     }
 
+    /**
+     * 创建 LineIterator, 只读取文件中指定的字节区间
+     *
+     * @param range 文件区间
+     */
+    public static LineIterator newLineIterator(FileRange range) throws IOException {
+        return new LineIterator(new BufferedReader(
+                new InputStreamReader(openInputStream(range), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 创建 ByteLineReader
+     *
+     * @param filePath 文件路径
+     */
+    public static ByteLineReader newByteLineReader(String filePath) throws IOException {
+        return new ByteLineReader(openDataInputStream(Paths.get(filePath)));
+    }
+
+    /**
+     * 打开读取文件数据的输入流, gzip 格式的文件会自动解压
+     *
+     * @param filePath 文件路径
+     */
+    public static InputStream newDataInputStream(String filePath) throws IOException {
+        return openDataInputStream(Paths.get(filePath));
+    }
+
+    /**
+     * 创建 ByteLineReader, 只读取文件中指定的字节区间
+     *
+     * @param range 文件区间
+     */
+    public static ByteLineReader newByteLineReader(FileRange range) throws IOException {
+        return new ByteLineReader(openInputStream(range));
+    }
+
+    /**
+     * 按照 chunkSize 把文件切分成多个字节区间, 每个区间都在换行符之后结束, 不会把一行数据切开
+     *
+     * @param filePath  文件路径
+     * @param chunkSize 每个区间的期望字节数
+     */
+    public static List<FileRange> splitRanges(String filePath, long chunkSize) throws IOException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        }
+        checkSplittable(filePath);
+        long length = getFileLength(filePath);
+        List<FileRange> rangeList = new ArrayList<>((int) Math.min(length / chunkSize + 1, Integer.MAX_VALUE));
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+            long start = 0;
+            while (start < length) {
+                long end = length - start <= chunkSize ? length : nextLineStart(channel, start + chunkSize - 1, buffer);
+                rangeList.add(new FileRange(filePath, start, end));
+                start = end;
+            }
+        }
+        return rangeList;
+    }
+
+    /**
+     * gzip 文件的字节偏移量和数据行没有对应关系, 不能按字节区间切分
+     *
+     * @param filePath 文件路径
+     */
+    private static void checkSplittable(String filePath) throws IOException {
+        if (GzipUtils.isGzip(filePath)) {
+            throw new IllegalArgumentException("gzip file can not be split into ranges: " + filePath);
+        }
+    }
+
+    /**
+     * 把文件切分成大小接近的 count 个字节区间, 每个区间都在换行符之后结束
+     * 行数很少或者单行很长时, 返回的区间数量可能小于 count
+     *
+     * @param filePath 文件路径
+     * @param count    区间数量
+     */
+    public static List<FileRange> splitRangesByCount(String filePath, int count) throws IOException {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        long length = getFileLength(filePath);
+        return splitRanges(filePath, Math.max((length + count - 1) / count, 1));
+    }
+
+    /**
+     * 按行数切分文件, 每个字节区间包含 lineCount 行(最后一个区间可能更少), 只扫描换行符, 不解码数据
+     *
+     * @param filePath  文件路径
+     * @param lineCount 每个区间的行数
+     */
+    public static List<FileRange> splitRangesByLines(String filePath, long lineCount) throws IOException {
+        if (lineCount < 1) {
+            throw new IllegalArgumentException("line count must be positive: " + lineCount);
+        }
+        checkSplittable(filePath);
+        List<FileRange> rangeList = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+            long start = 0, position = 0, lines = 0;
+            int n;
+            while ((n = channel.read(buffer)) != -1) {
+                buffer.flip();
+                for (int i = 0; i < n; i++) {
+                    if (buffer.get(i) == '\n' && ++lines == lineCount) {
+                        long end = position + i + 1;
+                        rangeList.add(new FileRange(filePath, start, end));
+                        start = end;
+                        lines = 0;
+                    }
+                }
+                position += n;
+                buffer.clear();
+            }
+            if (position > start) {
+                rangeList.add(new FileRange(filePath, start, position));
+            }
+        }
+        return rangeList;
+    }
+
+    /**
+     * 把文件的字节区间拷贝到目标文件, 使用 FileChannel.transferTo 零拷贝传输
+     *
+     * @param range          文件区间
+     * @param outputFilePath 目标文件路径
+     */
+    public static void copyRange(FileRange range, String outputFilePath) throws IOException {
+        try (FileChannel source = FileChannel.open(Paths.get(range.getFilePath()), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(Paths.get(outputFilePath), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = range.getStart();
+            while (position < range.getEnd()) {
+                long n = source.transferTo(position, range.getEnd() - position, target);
+                if (n <= 0) {
+                    throw new EOFException("unexpected end of file: " + range);
+                }
+                position += n;
+            }
+        }
+    }
+
+    /**
+     * 从 position(包含) 开始查找第一个换行符, 返回换行符的下一个位置, 找不到则返回文件末尾
+     *
+     * @param channel  文件
+     * @param position 查找的起始位置
+     * @param buffer   读取使用的buffer
+     */
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (true) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * 打开只读取文件中指定字节区间的输入流
+     *
+     * @param range 文件区间
+     */
+    public static InputStream openInputStream(FileRange range) throws IOException {
+        FileInputStream fis = openInputStream(Paths.get(range.getFilePath()));
+        try {
+            fis.getChannel().position(range.getStart());
+        } catch (IOException ioe) {
+            IOUtils.closeQuietly(fis);
+            throw ioe;
+        }
+        return new BoundedInputStream(new BufferedInputStream(fis, 64 * 1024), range.getLength());
+    }
+
     /**
      * 打开 BufferedReader
      *
@@ -433,7 +628,17 @@ public class FileUtils {
      * @param filePath 文件路径
      */
     private static BufferedReader openBufferedReader(Path filePath, Charset cs) throws IOException {
-        return new BufferedReader(new InputStreamReader(openInputStream(filePath), cs));
+        return new BufferedReader(new InputStreamReader(openDataInputStream(filePath), cs));
+    }
+
+    /**
+     * 打开读取文件数据的输入流, gzip 格式的文件会自动解压
+     *
+     * @param filePath 文件路径
+     */
+    private static InputStream openDataInputStream(Path filePath) throws IOException {
+        FileInputStream fis = openInputStream(filePath);
+        return GzipUtils.isGzip(filePath) ? new ParallelGzipInputStream(fis) : fis;
     }
 
     /**
@@ -522,6 +727,25 @@ public class FileUtils {
         }
     }
 
+    /**
+     * 打开 BufferedWriter 覆盖写入文件, 如果父目录不存在则创建, 文件名以 .gz 结尾时使用 gzip 压缩
+     *
+     * @param filePath 文件路径
+     */
+    public static BufferedWriter newBufferedWriter(String filePath) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(newOutputStream(filePath), StandardCharsets.UTF_8),
+                64 * 1024);
+    }
+
+    /**
+     * 打开输出流覆盖写入文件, 如果父目录不存在则创建, 文件名以 .gz 结尾时使用 gzip 压缩
+     *
+     * @param filePath 文件路径
+     */
+    public static OutputStream newOutputStream(String filePath) throws IOException {
+        return openDataOutputStream(Paths.get(filePath), false);
+    }
+
     /**
      * 打开 BufferedWriter, 如果父目录不存在则创建
      *
@@ -541,7 +765,21 @@ public class FileUtils {
      */
     private static BufferedWriter openBufferedWriter(Path filePath,  Charset cs, boolean append)
             throws IOException {
-        return new BufferedWriter(new OutputStreamWriter(openOutputStream(filePath, append), cs));
+        return new BufferedWriter(new OutputStreamWriter(openDataOutputStream(filePath, append), cs));
+    }
+
+    /**
+     * 打开写入文件数据的输出流, 文件名以 .gz 结尾时使用 gzip 压缩, 追加写入时会追加新的 gzip member
+     *
+     * @param filePath 文件路径
+     * @param append 是否以追加的形式写入
+     */
+    private static OutputStream openDataOutputStream(Path filePath, boolean append) throws IOException {
+        FileOutputStream fos = openOutputStream(filePath, append);
+        if (GzipUtils.isGzipOutput(filePath.toString())) {
+            return new ParallelGzipOutputStream(fos);
+        }
+        return new BufferedOutputStream(fos, 64 * 1024);
     }
 
     /**
@@ -752,7 +990,11 @@ public class FileUtils {
      * 获取文件行数
      *
      * @param filePath 文件路径
+     * @deprecated 行数超过 Integer.MAX_VALUE 时会溢出, 使用 {@link #countLines(String)};
+     * 注意这里统计的是行结束符的数量, 不以换行符结尾的最后一行不计入, 单独的 '\r' 也算作行结束符,
+     * 而 countLines 只把 '\n' 作为行结束符, 并且计入不以换行符结尾的最后一行
      */
+    @Deprecated
     public static int getLineNumber(String filePath) throws IOException {
         return getLineNumber(Paths.get(filePath));
     }
@@ -761,7 +1003,10 @@ public class FileUtils {
      * 获取文件行数
      *
      * @param filePath 文件路径
+     * @deprecated 行数超过 Integer.MAX_VALUE 时会溢出, 使用 {@link #countLines(Path)};
+     * 两者对行结束符的处理不同, 见 {@link #getLineNumber(String)}
      */
+    @Deprecated
     public static int getLineNumber(Path filePath) throws IOException {
         try (LineNumberReader lineNumberReader = new LineNumberReader(openBufferedReader(filePath))) {
             lineNumberReader.skip(Long.MAX_VALUE);
@@ -769,6 +1014,80 @@ public class FileUtils {
         }
     }
 
+    /**
+     * 统计文件的行数, 与逐行读取文件得到的行数一致, 把文件分块映射到内存后并行统计, 不解码数据
+     * 与 BufferedReader.readLine 一致, '\n'、'\r' 和 "\r\n" 都是行结束符, 不以换行符结尾的最后一行也算一行
+     *
+     * @param filePath 文件路径
+     */
+    public static long countLines(String filePath) throws IOException {
+        return countLines(Paths.get(filePath));
+    }
+
+    /**
+     * 统计文件的行数, 与逐行读取文件得到的行数一致, 把文件分块映射到内存后并行统计, 不解码数据
+     * 与 BufferedReader.readLine 一致, '\n'、'\r' 和 "\r\n" 都是行结束符, 不以换行符结尾的最后一行也算一行;
+     * gzip 格式的文件统计的是解压后的数据
+     *
+     * @param filePath 文件路径
+     */
+    public static long countLines(Path filePath) throws IOException {
+        if (GzipUtils.isGzip(filePath)) {
+            try (InputStream is = openDataInputStream(filePath)) {
+                byte[] buffer = new byte[IO_BUFFER_SIZE];
+                long count = 0;
+                byte last = '\n';
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    for (int i = 0; i < n; i++) {
+                        // "\r\n" 在 '\r' 处计数
+                        if (buffer[i] == '\r' || buffer[i] == '\n' && last != '\r') {
+                            count++;
+                        }
+                        last = buffer[i];
+                    }
+                }
+                return last == '\n' || last == '\r' ? count : count + 1;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long total = 0;
+            for (long count : mapChunks(channel, FileUtils::countNewLines)) {
+                total += count;
+            }
+            // 最后一行没有换行符时也算一行
+            long size = channel.size();
+            if (size > 0) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, size - 1);
+                if (last.get(0) != '\n' && last.get(0) != '\r') {
+                    total++;
+                }
+            }
+            return total;
+        }
+    }
+
+    // 统计分块中的行结束符, "\r\n" 在 '\r' 处计数, 分块开头的 '\n' 需要检查上一个分块的最后一个字节
+    private static long countNewLines(FileChannel channel, long position, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        byte last = '\n';
+        if (position > 0) {
+            ByteBuffer previous = ByteBuffer.allocate(1);
+            channel.read(previous, position - 1);
+            last = previous.get(0);
+        }
+        long count = 0;
+        for (int i = 0, n = (int) size; i < n; i++) {
+            byte b = buffer.get(i);
+            if (b == '\r' || b == '\n' && last != '\r') {
+                count++;
+            }
+            last = b;
+        }
+        return count;
+    }
+
     /**
      * 计算文件 crc32 校验和
      *
@@ -779,22 +1098,41 @@ public class FileUtils {
     }
 
     /**
-     * 计算文件 crc32 校验和
+     * 计算文件 crc32 校验和, 分块并行计算后再合并
      *
      * @param filePath 文件路径
      */
     public static long checksumCRC32(Path filePath) throws IOException {
-        try (InputStream is = new BufferedInputStream(openInputStream(filePath))) {
-            CRC32 crc32 = new CRC32();
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = is.read(buffer)) != -1) {
-                crc32.update(buffer, 0, length);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long crc = 0;
+            long length = channel.size();
+            List<Long> crcList = mapChunks(channel, FileUtils::checksumCRC32);
+            for (int i = 0; i < crcList.size(); i++) {
+                long chunkLength = Math.min(CHUNK_SIZE, length - (long) i * CHUNK_SIZE);
+                crc = CRC32Utils.combine(crc, crcList.get(i), chunkLength);
             }
-            return crc32.getValue();
+            return crc;
         }
     }
 
+    private static long checksumCRC32(FileChannel channel, long position, long size) throws IOException {
+        CRC32 crc32 = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        long end = position + size;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("unexpected end of file at " + position);
+            }
+            buffer.flip();
+            crc32.update(buffer);
+            position += n;
+        }
+        return crc32.getValue();
+    }
+
     /**
      * 计算文件 md5 校验和
      *
@@ -810,12 +1148,13 @@ public class FileUtils {
      * @param filePath 文件路径
      */
     public static String checksumMD5(Path filePath) throws IOException {
-        try (InputStream is = new BufferedInputStream(openInputStream(filePath))) {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
             MessageDigest md5 = MessageDigest.getInstance("MD5");
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = is.read(buffer)) != -1) {
-                md5.update(buffer, 0, length);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md5.update(buffer);
+                buffer.clear();
             }
             return toHexString(md5.digest());
         } catch (NoSuchAlgorithmException e) {
@@ -823,6 +1162,47 @@ public class FileUtils {
         }
     }
 
+    /**
+     * 把文件按 CHUNK_SIZE 分块, 在线程池中并行处理每一块, 按块的顺序返回结果
+     *
+     * @param channel      文件
+     * @param chunkHandler 分块的处理逻辑
+     */
+    private static <T> List<T> mapChunks(FileChannel channel, ChunkHandler<T> chunkHandler) throws IOException {
+        long length = channel.size();
+        int chunkCount = (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        List<T> resultList = new ArrayList<>(chunkCount);
+        if (chunkCount <= 1) {
+            if (chunkCount == 1) {
+                resultList.add(chunkHandler.handle(channel, 0, length));
+            }
+            return resultList;
+        }
+
+        int threads = Math.min(chunkCount, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<T>> futureList = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                long position = (long) i * CHUNK_SIZE;
+                long size = Math.min(CHUNK_SIZE, length - position);
+                futureList.add(executor.submit(() -> chunkHandler.handle(channel, position, size)));
+            }
+            for (Future<T> future : futureList) {
+                resultList.add(ConcurrentUtils.getResult(future));
+            }
+            return resultList;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // 文件分块的处理逻辑
+    private interface ChunkHandler<T> {
+
+        T handle(FileChannel channel, long position, long size) throws IOException;
+    }
+
     /**
      * 字节数组转16进制字符串
      *
@@ -0,0 +1,95 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * gzip 相关的工具方法
+ *
+ * 并行压缩输出的文件由多个 gzip member 拼接而成, 每个 member 的 FEXTRA 字段中记录了该 member 的总字节数,
+ * 读取时不需要解压就能定位到下一个 member, 从而可以并行解压. 这种文件仍然是标准的 gzip 文件, gzip/zcat 都可以直接读取
+ */
+public class GzipUtils {
+
+    public static final String GZIP_SUFFIX = ".gz";
+
+    static final int GZIP_MAGIC_1 = 0x1F;
+    static final int GZIP_MAGIC_2 = 0x8B;
+    static final int CM_DEFLATE = 8;
+
+    static final int FTEXT = 1;
+    static final int FHCRC = 2;
+    static final int FEXTRA = 4;
+    static final int FNAME = 8;
+    static final int FCOMMENT = 16;
+
+    // 记录 member 总字节数的 FEXTRA 子字段, 值为4个字节的小端整数
+    static final int SUBFIELD_MEMBER_SIZE_1 = 'J';
+    static final int SUBFIELD_MEMBER_SIZE_2 = 'B';
+    // bgzip(BGZF) 使用的子字段, 值为2个字节的小端整数, 等于 member 总字节数减1
+    static final int SUBFIELD_BGZF_1 = 'B';
+    static final int SUBFIELD_BGZF_2 = 'C';
+
+    // 并行压缩和解压使用的线程池
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("bigfile-gzip-"));
+
+    /**
+     * 通过文件头部的魔数判断文件是否为 gzip 格式
+     *
+     * @param filePath 文件路径
+     */
+    public static boolean isGzip(String filePath) throws IOException {
+        return isGzip(Paths.get(filePath));
+    }
+
+    /**
+     * 通过文件头部的魔数判断文件是否为 gzip 格式
+     *
+     * @param filePath 文件路径
+     */
+    public static boolean isGzip(Path filePath) throws IOException {
+        if (!Files.isRegularFile(filePath)) {
+            return false;
+        }
+        try (InputStream is = Files.newInputStream(filePath)) {
+            return is.read() == GZIP_MAGIC_1 && is.read() == GZIP_MAGIC_2;
+        }
+    }
+
+    /**
+     * 通过数据流头部的魔数判断数据是否为 gzip 格式, 是则返回解压后的数据流
+     *
+     * @param inputStream 输入流
+     */
+    public static InputStream decompressIfGzip(InputStream inputStream) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(inputStream, 64 * 1024);
+        bis.mark(2);
+        boolean gzip = bis.read() == GZIP_MAGIC_1 && bis.read() == GZIP_MAGIC_2;
+        bis.reset();
+        return gzip ? new ParallelGzipInputStream(bis) : bis;
+    }
+
+    /**
+     * 根据文件后缀判断输出文件是否需要使用 gzip 压缩
+     *
+     * @param filePath 文件路径
+     */
+    public static boolean isGzipOutput(String filePath) {
+        return filePath.endsWith(GZIP_SUFFIX);
+    }
+
+    static ExecutorService executor() {
+        return EXECUTOR;
+    }
+
+    static int parallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,162 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * HyperLogLog 基数估计, 使用固定大小的内存估算不重复的字符串数量
+ * 精度为 p 时使用 2^p 个寄存器, 标准误差约为 1.04 / sqrt(2^p), 基数较小时使用线性计数修正
+ * 相同精度的 HyperLogLog 可以合并, 也可以序列化后保存
+ */
+public class HyperLogLog {
+
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 16;
+    private static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision 精度, 取值范围 [4, 16]
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be in [" + MIN_PRECISION + ", " + MAX_PRECISION
+                    + "]: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * 添加一个字符串
+     *
+     * @param value 字符串
+     */
+    public void add(String value) {
+        addHash(hash64(value));
+    }
+
+    /**
+     * 添加一个已经计算好的 64 位哈希值, 哈希值需要来自 hash64
+     *
+     * @param hash 哈希值
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // 低位补一个 1, 保证前导零的数量有上限
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * 合并另一个相同精度的 HyperLogLog, 合并后估算两者的并集
+     *
+     * @param other 另一个 HyperLogLog
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("precision does not match: " + precision + ", " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * 估算添加过的不重复字符串的数量
+     */
+    public long cardinality() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // 基数较小时使用线性计数
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 复制一个相同状态的 HyperLogLog
+     */
+    public HyperLogLog copy() {
+        HyperLogLog copy = new HyperLogLog(precision);
+        System.arraycopy(registers, 0, copy.registers, 0, registers.length);
+        return copy;
+    }
+
+    /**
+     * 写入精度和所有寄存器
+     *
+     * @param out 输出
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(precision);
+        out.write(registers);
+    }
+
+    /**
+     * 读取 writeTo 写入的 HyperLogLog
+     *
+     * @param in 输入
+     */
+    public static HyperLogLog readFrom(DataInput in) throws IOException {
+        HyperLogLog hyperLogLog = new HyperLogLog(in.readByte());
+        in.readFully(hyperLogLog.registers);
+        return hyperLogLog;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    /**
+     * 字符串的 64 位哈希: FNV-1a 64 位哈希, 再使用 murmur3 的 fmix64 打散, 保证高位足够随机
+     *
+     * @param value 字符串
+     */
+    public static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
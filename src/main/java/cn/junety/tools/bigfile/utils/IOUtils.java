@@ -1,7 +1,11 @@
 package cn.junety.tools.bigfile.utils;
 
 import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Created by caijt on 2018/8/17
@@ -25,4 +29,37 @@ public class IOUtils {
             }
         }
     }
+
+    /**
+     * 包装输入流, 关闭包装后的流时不会关闭原始的输入流
+     *
+     * @param inputStream 输入流
+     */
+    public static InputStream closeShield(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public void close() {
+                // 由调用方关闭原始的输入流
+            }
+        };
+    }
+
+    /**
+     * 包装输出流, 关闭包装后的流时只会 flush, 不会关闭原始的输出流
+     *
+     * @param outputStream 输出流
+     */
+    public static OutputStream closeShield(OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
 }
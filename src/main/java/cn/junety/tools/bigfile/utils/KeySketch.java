@@ -0,0 +1,136 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 数据源中key的概要, 只读取一遍数据源, 使用固定大小的内存估算不重复的key的数量,
+ * 以及两个数据源按key做交集、并集、差集的结果大小
+ *
+ * 不重复的key的数量由 HyperLogLog 估算, 交集由 MinHash 估算的 Jaccard 相似度乘以并集的大小得到;
+ * 不重复的key少于 MinHash 保留的哈希值数量时结果是精确的(不考虑哈希冲突);
+ * 差集由不重复的key的数量减去交集得到, 两个大集合只相差很少的key时误差可能超过差集本身;
+ * 多个数据区间的概要可以合并, 也可以序列化后保存
+ */
+public class KeySketch {
+
+    // HyperLogLog 的精度, 标准误差约为 0.8%
+    private static final int PRECISION = 14;
+
+    private final HyperLogLog hyperLogLog;
+    private final MinHash minHash;
+    // 合法数据的行数
+    private long rowCount;
+
+    public KeySketch() {
+        this(new HyperLogLog(PRECISION), new MinHash(), 0);
+    }
+
+    private KeySketch(HyperLogLog hyperLogLog, MinHash minHash, long rowCount) {
+        this.hyperLogLog = hyperLogLog;
+        this.minHash = minHash;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * 添加一行数据的key
+     *
+     * @param key key
+     */
+    public void add(String key) {
+        long hash = HyperLogLog.hash64(key);
+        hyperLogLog.addHash(hash);
+        minHash.addHash(hash);
+        rowCount++;
+    }
+
+    /**
+     * 合并另一个概要, 合并后表示两者的数据拼接在一起
+     *
+     * @param other 另一个概要
+     */
+    public void merge(KeySketch other) {
+        hyperLogLog.merge(other.hyperLogLog);
+        minHash.merge(other.minHash);
+        rowCount += other.rowCount;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * 估算不重复的key的数量
+     */
+    public long cardinality() {
+        return minHash.isExact() ? minHash.size() : hyperLogLog.cardinality();
+    }
+
+    /**
+     * 估算两个数据源按key求并集后的行数
+     *
+     * @param a 数据源a的概要
+     * @param b 数据源b的概要
+     */
+    public static long estimateUnion(KeySketch a, KeySketch b) {
+        MinHash minHash = a.minHash.copy();
+        minHash.merge(b.minHash);
+        if (minHash.isExact()) {
+            return minHash.size();
+        }
+        HyperLogLog hyperLogLog = a.hyperLogLog.copy();
+        hyperLogLog.merge(b.hyperLogLog);
+        // 并集不会小于任何一方
+        return Math.max(hyperLogLog.cardinality(), Math.max(a.cardinality(), b.cardinality()));
+    }
+
+    /**
+     * 估算两个数据源按key求交集后的行数
+     *
+     * @param a 数据源a的概要
+     * @param b 数据源b的概要
+     */
+    public static long estimateIntersect(KeySketch a, KeySketch b) {
+        long intersect = Math.round(MinHash.jaccard(a.minHash, b.minHash) * estimateUnion(a, b));
+        // 交集不会大于任何一方
+        return Math.min(intersect, Math.min(a.cardinality(), b.cardinality()));
+    }
+
+    /**
+     * 估算两个数据源按key求差集(a-b)后的行数
+     *
+     * @param a 数据源a的概要
+     * @param b 数据源b的概要
+     */
+    public static long estimateDiffer(KeySketch a, KeySketch b) {
+        return Math.max(a.cardinality() - estimateIntersect(a, b), 0);
+    }
+
+    /**
+     * 写入行数、HyperLogLog 和 MinHash
+     *
+     * @param out 输出
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(rowCount);
+        hyperLogLog.writeTo(out);
+        minHash.writeTo(out);
+    }
+
+    /**
+     * 读取 writeTo 写入的概要
+     *
+     * @param in 输入
+     */
+    public static KeySketch readFrom(DataInput in) throws IOException {
+        long rowCount = in.readLong();
+        HyperLogLog hyperLogLog = HyperLogLog.readFrom(in);
+        return new KeySketch(hyperLogLog, MinHash.readFrom(in), rowCount);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rows %d, distinct keys %d", rowCount, cardinality());
+    }
+}
@@ -3,15 +3,19 @@ package cn.junety.tools.bigfile.utils;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
+ * 逐行读取数据, 数据可以来自 BufferedReader 或者内存中的 Iterator
+ *
  * Created by caijt on 2018/8/17
  */
 public class LineIterator implements AutoCloseable {
 
     private final BufferedReader bufferedReader;
+    private final Iterator<String> iterator;
     private String cacheLine;
     private boolean finished;
 
@@ -20,11 +24,22 @@ public class LineIterator implements AutoCloseable {
             throw new IllegalArgumentException("buffered reader must not be null");
         } else {
             this.bufferedReader = bufferedReader;
+            this.iterator = null;
             this.cacheLine = null;
             this.finished = false;
         }
     }
 
+    public LineIterator(Iterator<String> iterator) {
+        if (iterator == null) {
+            throw new IllegalArgumentException("iterator must not be null");
+        }
+        this.bufferedReader = null;
+        this.iterator = iterator;
+        this.cacheLine = null;
+        this.finished = false;
+    }
+
     /**
      * 检查还有没有下一行合法的数据, 如果发生 ioe 异常, 会自动 close 数据流, 避免资源泄漏
      */
@@ -36,7 +51,7 @@ public class LineIterator implements AutoCloseable {
         } else {
             try {
                 while (true) {
-                    String line = bufferedReader.readLine();
+                    String line = readLine();
                     if (line == null) {
                         finished = true;
                         return false;
@@ -52,6 +67,13 @@ public class LineIterator implements AutoCloseable {
         }
     }
 
+    private String readLine() throws IOException {
+        if (iterator != null) {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+        return bufferedReader.readLine();
+    }
+
     /**
      * 返回下一行合法的数据
      */
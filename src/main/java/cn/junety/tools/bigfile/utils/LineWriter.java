@@ -0,0 +1,54 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * 逐行写入数据, 数据可以写入 BufferedWriter 或者交给调用方的 Consumer 处理
+ */
+public class LineWriter implements AutoCloseable {
+
+    private final BufferedWriter bufferedWriter;
+    private final Consumer<String> consumer;
+
+    public LineWriter(BufferedWriter bufferedWriter) {
+        if (bufferedWriter == null) {
+            throw new IllegalArgumentException("buffered writer must not be null");
+        }
+        this.bufferedWriter = bufferedWriter;
+        this.consumer = null;
+    }
+
+    public LineWriter(Consumer<String> consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("consumer must not be null");
+        }
+        this.bufferedWriter = null;
+        this.consumer = consumer;
+    }
+
+    /**
+     * 写入一行数据, 写入 BufferedWriter 时会追加系统的换行符
+     *
+     * @param line 数据行
+     */
+    public void writeLine(String line) throws IOException {
+        if (consumer != null) {
+            consumer.accept(line);
+        } else {
+            bufferedWriter.write(line);
+            bufferedWriter.newLine();
+        }
+    }
+
+    /**
+     * 关闭 BufferedWriter, 关闭前会 flush 所有缓存的数据
+     */
+    @Override
+    public void close() throws IOException {
+        if (bufferedWriter != null) {
+            bufferedWriter.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package cn.junety.tools.bigfile.utils;
+
+/**
+ * 估算内存中的数据占用的字节数, 按 64 位 JVM 开启压缩指针(堆内存小于 32G 时的默认设置)计算
+ */
+public class MemoryUtils {
+
+    // String 对象: 对象头 12 字节, hash 4 字节, char 数组的引用 4 字节, 按 8 字节对齐
+    private static final int STRING_SIZE = 24;
+
+    // char 数组的对象头和长度
+    private static final int CHAR_ARRAY_HEADER_SIZE = 16;
+
+    // 对象引用的大小, 加上 ArrayList 扩容预留的空间
+    public static final int LIST_ELEMENT_SIZE = 8;
+
+    // HashMap.Node: 对象头 12 字节, hash 4 字节, 三个引用 12 字节, 加上负载因子 0.75 时哈希表数组中的槽位
+    public static final int HASH_ENTRY_SIZE = 40;
+
+    /**
+     * 字符串占用的字节数, 包括 String 对象和 char 数组
+     *
+     * @param value 字符串
+     */
+    public static long stringSize(String value) {
+        return STRING_SIZE + align(CHAR_ARRAY_HEADER_SIZE + 2L * value.length());
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
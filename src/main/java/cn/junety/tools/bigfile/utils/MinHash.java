@@ -0,0 +1,148 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * bottom-k MinHash, 保留所有字符串哈希值中最小的 k 个, 用于估算两个集合的 Jaccard 相似度
+ * 两个集合并集的最小 k 个哈希值可以由两者的最小 k 个哈希值得到, 其中同时出现在两个集合中的比例即为相似度的估计,
+ * 标准误差约为 1 / sqrt(k); 不重复的字符串少于 k 个时保留了所有哈希值, 相似度是精确的
+ */
+public class MinHash {
+
+    private static final int DEFAULT_SIZE = 1024;
+
+    private final int k;
+    private final TreeSet<Long> hashSet = new TreeSet<>();
+
+    public MinHash() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * @param k 保留的哈希值数量
+     */
+    public MinHash(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.k = k;
+    }
+
+    /**
+     * 添加一个字符串
+     *
+     * @param value 字符串
+     */
+    public void add(String value) {
+        addHash(HyperLogLog.hash64(value));
+    }
+
+    /**
+     * 添加一个已经计算好的 64 位哈希值
+     *
+     * @param hash 哈希值
+     */
+    public void addHash(long hash) {
+        if (hashSet.size() < k) {
+            hashSet.add(hash);
+        } else if (hash < hashSet.last() && hashSet.add(hash)) {
+            hashSet.pollLast();
+        }
+    }
+
+    /**
+     * 合并另一个 MinHash, 合并后表示两者的并集
+     *
+     * @param other 另一个 MinHash
+     */
+    public void merge(MinHash other) {
+        for (long hash : other.hashSet) {
+            addHash(hash);
+        }
+    }
+
+    /**
+     * 是否保留了所有不重复字符串的哈希值
+     */
+    public boolean isExact() {
+        return hashSet.size() < k;
+    }
+
+    /**
+     * 保留的哈希值数量
+     */
+    public int size() {
+        return hashSet.size();
+    }
+
+    /**
+     * 估算两个集合的 Jaccard 相似度, 即交集大小与并集大小之比
+     *
+     * @param a 集合a的 MinHash
+     * @param b 集合b的 MinHash
+     */
+    public static double jaccard(MinHash a, MinHash b) {
+        int k = Math.min(a.k, b.k);
+        Iterator<Long> iteratorA = a.hashSet.iterator();
+        Iterator<Long> iteratorB = b.hashSet.iterator();
+        Long hashA = iteratorA.hasNext() ? iteratorA.next() : null;
+        Long hashB = iteratorB.hasNext() ? iteratorB.next() : null;
+
+        // 按从小到大的顺序遍历并集的最小 k 个哈希值
+        int unionCount = 0, bothCount = 0;
+        while (unionCount < k && (hashA != null || hashB != null)) {
+            int cmp = hashA == null ? 1 : hashB == null ? -1 : hashA.compareTo(hashB);
+            if (cmp == 0) {
+                bothCount++;
+            }
+            if (cmp <= 0) {
+                hashA = iteratorA.hasNext() ? iteratorA.next() : null;
+            }
+            if (cmp >= 0) {
+                hashB = iteratorB.hasNext() ? iteratorB.next() : null;
+            }
+            unionCount++;
+        }
+        return unionCount == 0 ? 0 : (double) bothCount / unionCount;
+    }
+
+    /**
+     * 复制一个相同状态的 MinHash
+     */
+    public MinHash copy() {
+        MinHash copy = new MinHash(k);
+        copy.hashSet.addAll(hashSet);
+        return copy;
+    }
+
+    /**
+     * 写入 k 和保留的哈希值
+     *
+     * @param out 输出
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(k);
+        out.writeInt(hashSet.size());
+        for (long hash : hashSet) {
+            out.writeLong(hash);
+        }
+    }
+
+    /**
+     * 读取 writeTo 写入的 MinHash
+     *
+     * @param in 输入
+     */
+    public static MinHash readFrom(DataInput in) throws IOException {
+        MinHash minHash = new MinHash(in.readInt());
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            minHash.hashSet.add(in.readLong());
+        }
+        return minHash;
+    }
+}
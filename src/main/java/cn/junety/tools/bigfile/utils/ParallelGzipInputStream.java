@@ -0,0 +1,312 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * 流水线解压的 gzip 输入流, 由后台线程读取压缩数据, 解压和数据的消费同时进行
+ * 如果 gzip member 的 FEXTRA 字段中记录了 member 的字节数(ParallelGzipOutputStream 或 bgzip 的输出),
+ * 多个 member 会在线程池中并行解压; 否则在后台线程中顺序解压
+ * member 的字节数和 ISIZE(解压后的字节数对 2^32 取模)都来自输入数据, 不一定可信,
+ * 超过 MAX_MEMBER_SIZE 时不按记录的长度分配内存, 该 member 和之后的数据改为顺序解压
+ */
+public class ParallelGzipInputStream extends InputStream {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    // 并行解压时 member 压缩前后的最大字节数, ParallelGzipOutputStream 默认 1MB 一个 member, bgzip 不超过 64KB
+    private static final int MAX_MEMBER_SIZE = 64 * 1024 * 1024;
+    private static final int TRAILER_SIZE = 8;
+
+    // 数据读取完毕的标识
+    private static final Future<byte[]> END = CompletableFuture.completedFuture(null);
+
+    private final InputStream in;
+    private final BlockingQueue<Future<byte[]>> blockQueue;
+    private final Thread readerThread;
+
+    private byte[] block = new byte[0];
+    private int position;
+    private boolean finished;
+    private volatile boolean closed;
+
+    public ParallelGzipInputStream(InputStream in) {
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 64 * 1024);
+        this.blockQueue = new ArrayBlockingQueue<>(GzipUtils.parallelism() * 2);
+        this.readerThread = new Thread(this::readMembers, "bigfile-gunzip-reader");
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        readerThread.interrupt();
+        Future<byte[]> future;
+        while ((future = blockQueue.poll()) != null) {
+            future.cancel(true);
+        }
+        in.close();
+    }
+
+    private boolean ensureBlock() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        while (position >= block.length) {
+            if (finished) {
+                return false;
+            }
+            Future<byte[]> future;
+            try {
+                future = blockQueue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while reading gzip stream");
+            }
+            byte[] next = ConcurrentUtils.getResult(future);
+            if (next == null) {
+                finished = true;
+                return false;
+            }
+            block = next;
+            position = 0;
+        }
+        return true;
+    }
+
+    //---------------------------------------- 后台读取 ----------------------------------------
+
+    private void readMembers() {
+        try {
+            boolean first = true;
+            while (!closed) {
+                byte[] header = readHeader(first);
+                if (header == null) {
+                    break;
+                }
+                first = false;
+
+                int memberSize = findMemberSize(header);
+                if (memberSize < header.length + TRAILER_SIZE || memberSize > MAX_MEMBER_SIZE) {
+                    // 不知道 member 的长度或者长度不合理, 剩下的数据只能顺序解压
+                    inflateSequentially(new SequenceInputStream(new ByteArrayInputStream(header), in));
+                    break;
+                }
+                byte[] member = new byte[memberSize];
+                System.arraycopy(header, 0, member, 0, header.length);
+                readFully(member, header.length, memberSize - header.length);
+                long size = readIntLE(member, memberSize - 4) & 0xFFFFFFFFL;
+                if (size > MAX_MEMBER_SIZE) {
+                    // ISIZE 超过上限, 可能是解压后超过 4GB 取模的结果, 不能按它分配内存
+                    inflateSequentially(new SequenceInputStream(new ByteArrayInputStream(member), in));
+                    break;
+                }
+                blockQueue.put(GzipUtils.executor().submit(() -> inflate(member, (int) size)));
+            }
+            blockQueue.put(END);
+        } catch (InterruptedException e) {
+            // 输入流已经关闭
+        } catch (Exception e) {
+            CompletableFuture<byte[]> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            try {
+                blockQueue.put(failure);
+            } catch (InterruptedException ignored) {
+                // 输入流已经关闭
+            }
+        }
+    }
+
+    private void inflateSequentially(InputStream memberStream) throws IOException, InterruptedException {
+        try (GZIPInputStream gis = new GZIPInputStream(memberStream, 64 * 1024)) {
+            while (!closed) {
+                byte[] buffer = new byte[BLOCK_SIZE];
+                int count = 0, n;
+                while (count < buffer.length && (n = gis.read(buffer, count, buffer.length - count)) != -1) {
+                    count += n;
+                }
+                if (count == 0) {
+                    return;
+                }
+                byte[] data = count == buffer.length ? buffer : java.util.Arrays.copyOf(buffer, count);
+                blockQueue.put(CompletableFuture.completedFuture(data));
+            }
+        }
+    }
+
+    /**
+     * 读取 member 的固定头部和 FEXTRA 字段, 数据流结束或者遇到非 gzip 数据时返回 null
+     */
+    private byte[] readHeader(boolean first) throws IOException {
+        byte[] fixed = new byte[10];
+        int n = readAtMost(fixed, 0, fixed.length);
+        if (n == 0 && !first) {
+            return null;
+        }
+        if (n < fixed.length || (fixed[0] & 0xFF) != GzipUtils.GZIP_MAGIC_1
+                || (fixed[1] & 0xFF) != GzipUtils.GZIP_MAGIC_2) {
+            if (first) {
+                throw new ZipException("Not in GZIP format");
+            }
+            // 和 GZIPInputStream 一样, 忽略 member 之后的非 gzip 数据
+            return null;
+        }
+        if ((fixed[3] & GzipUtils.FEXTRA) == 0) {
+            return fixed;
+        }
+
+        byte[] xlen = new byte[2];
+        readFully(xlen, 0, 2);
+        int extraLength = (xlen[0] & 0xFF) | ((xlen[1] & 0xFF) << 8);
+        byte[] header = new byte[12 + extraLength];
+        System.arraycopy(fixed, 0, header, 0, 10);
+        header[10] = xlen[0];
+        header[11] = xlen[1];
+        readFully(header, 12, extraLength);
+        return header;
+    }
+
+    /**
+     * 从 FEXTRA 字段中找出 member 的总字节数, 找不到返回 -1
+     */
+    private static int findMemberSize(byte[] header) {
+        if (header.length <= 12) {
+            return -1;
+        }
+        int offset = 12;
+        while (offset + 4 <= header.length) {
+            int si1 = header[offset] & 0xFF, si2 = header[offset + 1] & 0xFF;
+            int length = (header[offset + 2] & 0xFF) | ((header[offset + 3] & 0xFF) << 8);
+            int value = offset + 4;
+            if (value + length > header.length) {
+                return -1;
+            }
+            if (si1 == GzipUtils.SUBFIELD_MEMBER_SIZE_1 && si2 == GzipUtils.SUBFIELD_MEMBER_SIZE_2 && length == 4) {
+                return readIntLE(header, value);
+            }
+            if (si1 == GzipUtils.SUBFIELD_BGZF_1 && si2 == GzipUtils.SUBFIELD_BGZF_2 && length == 2) {
+                return ((header[value] & 0xFF) | ((header[value + 1] & 0xFF) << 8)) + 1;
+            }
+            offset = value + length;
+        }
+        return -1;
+    }
+
+    /**
+     * 解压一个完整的 gzip member, 并校验 crc32 和数据长度
+     *
+     * @param member gzip member
+     * @param size   member 记录的解压后的字节数, 不超过 MAX_MEMBER_SIZE
+     */
+    private static byte[] inflate(byte[] member, int size) throws IOException {
+        int trailer = member.length - TRAILER_SIZE;
+        int flags = member[3] & 0xFF;
+        int offset = 10;
+        if ((flags & GzipUtils.FEXTRA) != 0) {
+            offset += 2 + ((member[10] & 0xFF) | ((member[11] & 0xFF) << 8));
+        }
+        if ((flags & GzipUtils.FNAME) != 0) {
+            while (offset < trailer && member[offset++] != 0) {
+                // skip file name
+            }
+        }
+        if ((flags & GzipUtils.FCOMMENT) != 0) {
+            while (offset < trailer && member[offset++] != 0) {
+                // skip comment
+            }
+        }
+        if ((flags & GzipUtils.FHCRC) != 0) {
+            offset += 2;
+        }
+
+        if (offset > trailer) {
+            throw new ZipException("Corrupt GZIP member: header exceeds member size");
+        }
+        long expectedCrc = readIntLE(member, trailer) & 0xFFFFFFFFL;
+
+        byte[] data = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, offset, trailer - offset);
+            int count = 0;
+            while (count < size) {
+                int n = inflater.inflate(data, count, size - count);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += n;
+            }
+            if (count != size) {
+                throw new ZipException("Corrupt GZIP member: size mismatch");
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, size);
+        if (crc32.getValue() != expectedCrc) {
+            throw new ZipException("Corrupt GZIP member: crc32 mismatch");
+        }
+        return data;
+    }
+
+    private static int readIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8)
+                | ((bytes[offset + 2] & 0xFF) << 16) | ((bytes[offset + 3] & 0xFF) << 24);
+    }
+
+    private int readAtMost(byte[] b, int off, int len) throws IOException {
+        int count = 0, n;
+        while (count < len && (n = in.read(b, off + count, len - count)) != -1) {
+            count += n;
+        }
+        return count;
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        if (readAtMost(b, off, len) < len) {
+            throw new EOFException("Unexpected end of GZIP stream");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 并行压缩的 gzip 输出流, 数据按块压缩成独立的 gzip member, 按顺序写入底层输出流
+ * 每个 member 的 FEXTRA 字段中记录了 member 的总字节数, 读取时可以使用 ParallelGzipInputStream 并行解压
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    // 头部10个字节 + XLEN(2) + 子字段(2 + 2 + 4)
+    private static final int HEADER_SIZE = 20;
+    private static final int TRAILER_SIZE = 8;
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final int level;
+    private final int window;
+    private final Deque<Future<byte[]>> pendingList;
+
+    private byte[] block;
+    private int count;
+    private boolean memberWritten;
+    private boolean closed;
+
+    public ParallelGzipOutputStream(OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelGzipOutputStream(OutputStream out, int blockSize, int level) {
+        this.out = out;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.window = GzipUtils.parallelism() * 2;
+        this.pendingList = new ArrayDeque<>(window + 1);
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[count++] = (byte) b;
+        if (count == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * 把已经写入的数据压缩成 member 并写入底层输出流, 频繁调用会产生很多小的 member
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (count > 0) {
+            submitBlock();
+        }
+        while (!pendingList.isEmpty()) {
+            writeFirst();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            // 没有任何数据时也需要写入一个空的 member, 保证输出是合法的 gzip 文件
+            if (count > 0 || !memberWritten) {
+                submitBlock();
+            }
+            while (!pendingList.isEmpty()) {
+                writeFirst();
+            }
+        } finally {
+            closed = true;
+            for (Future<byte[]> future : pendingList) {
+                future.cancel(true);
+            }
+            pendingList.clear();
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] data = block;
+        int length = count;
+        pendingList.add(GzipUtils.executor().submit(() -> compress(data, length, level)));
+        memberWritten = true;
+        block = new byte[blockSize];
+        count = 0;
+        while (pendingList.size() > window) {
+            writeFirst();
+        }
+    }
+
+    private void writeFirst() throws IOException {
+        out.write(ConcurrentUtils.getResult(pendingList.poll()));
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    /**
+     * 把一块数据压缩成一个完整的 gzip member
+     */
+    private static byte[] compress(byte[] data, int length, int level) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(length / 3 + HEADER_SIZE + TRAILER_SIZE + 64);
+        bos.write(new byte[HEADER_SIZE], 0, HEADER_SIZE);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                bos.write(buffer, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, length);
+        writeIntLE(bos, (int) crc32.getValue());
+        writeIntLE(bos, length);
+
+        byte[] member = bos.toByteArray();
+        writeHeader(member, member.length);
+        return member;
+    }
+
+    private static void writeHeader(byte[] member, int memberSize) {
+        member[0] = (byte) GzipUtils.GZIP_MAGIC_1;
+        member[1] = (byte) GzipUtils.GZIP_MAGIC_2;
+        member[2] = (byte) GzipUtils.CM_DEFLATE;
+        member[3] = (byte) GzipUtils.FEXTRA;
+        // MTIME(4) = 0, XFL = 0
+        member[9] = (byte) 0xFF;
+        // XLEN
+        member[10] = 8;
+        member[11] = 0;
+        member[12] = (byte) GzipUtils.SUBFIELD_MEMBER_SIZE_1;
+        member[13] = (byte) GzipUtils.SUBFIELD_MEMBER_SIZE_2;
+        member[14] = 4;
+        member[15] = 0;
+        member[16] = (byte) memberSize;
+        member[17] = (byte) (memberSize >>> 8);
+        member[18] = (byte) (memberSize >>> 16);
+        member[19] = (byte) (memberSize >>> 24);
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream bos, int value) {
+        bos.write(value);
+        bos.write(value >>> 8);
+        bos.write(value >>> 16);
+        bos.write(value >>> 24);
+    }
+}
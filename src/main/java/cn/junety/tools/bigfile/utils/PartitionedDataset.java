@@ -0,0 +1,213 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+/**
+ * 分区数据集, 一个目录下按哈希分区的多个文件, 以及记录分区信息的 dataset.properties
+ *
+ * dataset.properties 记录哈希函数(rowHandler 的标识 hashId)、分区数量、每个分区的文件名和行数,
+ * 哈希函数和分区数量都相同的数据集是共分区的, key相同的数据落在相同下标的分区, 集合运算时可以直接使用分区, 不需要重新分片;
+ * 只有一个分区的数据集和任何只有一个分区的数据集都是共分区的, rowHandler 没有标识时只有这种情况可以复用
+ */
+public class PartitionedDataset {
+
+    public static final String MANIFEST_NAME = "dataset.properties";
+
+    private final String directory;
+    // 分区使用的哈希函数, rowHandler 没有标识时为 null
+    private final String hashFunction;
+    private final List<String> fileList;
+    private final List<Long> rowCountList;
+
+    private PartitionedDataset(String directory, String hashFunction, List<String> fileList,
+                               List<Long> rowCountList) {
+        this.directory = directory;
+        this.hashFunction = hashFunction;
+        this.fileList = Collections.unmodifiableList(fileList);
+        this.rowCountList = Collections.unmodifiableList(rowCountList);
+    }
+
+    /**
+     * 判断目录是不是分区数据集
+     *
+     * @param path 路径
+     */
+    public static boolean isDataset(String path) {
+        return FileUtils.isDirectory(path) && FileUtils.exist(Paths.get(path, MANIFEST_NAME));
+    }
+
+    /**
+     * 读取分区数据集
+     *
+     * @param directory 数据集目录
+     */
+    public static PartitionedDataset read(String directory) throws IOException {
+        directory = FileUtils.checkDirectorySuffixSeparator(directory);
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(directory + MANIFEST_NAME))) {
+            properties.load(is);
+        }
+        int count = Integer.parseInt(properties.getProperty("partition.count"));
+        List<String> fileList = new ArrayList<>(count);
+        List<Long> rowCountList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            fileList.add(directory + properties.getProperty("partition." + i + ".file"));
+            rowCountList.add(Long.parseLong(properties.getProperty("partition." + i + ".rows")));
+        }
+        return new PartitionedDataset(directory, properties.getProperty("hash"), fileList, rowCountList);
+    }
+
+    /**
+     * 准备写入数据集的目录, 目录已经是数据集时先删除记录再删除原有的分区文件
+     *
+     * @param directory 数据集目录
+     */
+    public static void prepare(String directory) throws IOException {
+        if (isDataset(directory)) {
+            PartitionedDataset dataset = read(directory);
+            FileUtils.delete(dataset.directory + MANIFEST_NAME);
+            for (String filePath : dataset.fileList) {
+                FileUtils.deleteIfExists(filePath);
+            }
+        }
+        FileUtils.createDirectories(directory);
+    }
+
+    /**
+     * 分区文件已经写入数据集目录后, 写入分区信息, 先写入临时文件再原子替换
+     *
+     * @param directory    数据集目录
+     * @param hashFunction 分区使用的哈希函数的标识, 为 null 时数据集不会被当作已经按哈希分区
+     * @param fileList     分区文件列表
+     * @param rowCountList 每个分区的行数
+     */
+    public static PartitionedDataset write(String directory, String hashFunction, List<String> fileList,
+                                           List<Long> rowCountList) throws IOException {
+        directory = FileUtils.checkDirectorySuffixSeparator(directory);
+        Properties properties = new Properties();
+        if (hashFunction != null) {
+            properties.setProperty("hash", hashFunction);
+        }
+        properties.setProperty("partition.count", String.valueOf(fileList.size()));
+        for (int i = 0; i < fileList.size(); i++) {
+            properties.setProperty("partition." + i + ".file", FileUtils.getName(fileList.get(i)));
+            properties.setProperty("partition." + i + ".rows", String.valueOf(rowCountList.get(i)));
+        }
+        Path tempPath = Paths.get(directory + MANIFEST_NAME + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tempPath)) {
+            properties.store(os, null);
+        }
+        FileUtils.rename(tempPath, Paths.get(directory + MANIFEST_NAME),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new PartitionedDataset(directory, hashFunction, new ArrayList<>(fileList),
+                new ArrayList<>(rowCountList));
+    }
+
+    /**
+     * 分区文件的名称
+     *
+     * @param index 分区下标
+     */
+    public static String partitionFileName(int index) {
+        return String.format("part-%05d", index);
+    }
+
+    /**
+     * 判断数据集是否按指定的哈希函数和分区数量分区, 哈希函数没有标识时只有一个分区的数据集满足条件
+     *
+     * @param hashFunction   哈希函数的标识, 可以为 null
+     * @param partitionCount 分区数量
+     */
+    public boolean isPartitionedBy(String hashFunction, int partitionCount) {
+        return fileList.size() == partitionCount
+                && (partitionCount == 1 || hashFunction != null && hashFunction.equals(this.hashFunction));
+    }
+
+    /**
+     * 按分区的顺序读取所有数据
+     */
+    public LineIterator open() throws IOException {
+        Enumeration<InputStream> streams = new Enumeration<InputStream>() {
+            private int index;
+
+            @Override
+            public boolean hasMoreElements() {
+                return index < fileList.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return FileUtils.newDataInputStream(fileList.get(index++));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        return new LineIterator(new BufferedReader(
+                new InputStreamReader(new SequenceInputStream(streams), StandardCharsets.UTF_8)));
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getHashFunction() {
+        return hashFunction;
+    }
+
+    public int getPartitionCount() {
+        return fileList.size();
+    }
+
+    public List<String> getFileList() {
+        return fileList;
+    }
+
+    public List<Long> getRowCountList() {
+        return rowCountList;
+    }
+
+    public long getRowCount() {
+        long rowCount = 0;
+        for (long count : rowCountList) {
+            rowCount += count;
+        }
+        return rowCount;
+    }
+
+    /**
+     * 所有分区文件的字节数
+     */
+    public long getSize() {
+        long size = 0;
+        for (String filePath : fileList) {
+            size += FileUtils.getFileLength(filePath);
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return directory;
+    }
+}
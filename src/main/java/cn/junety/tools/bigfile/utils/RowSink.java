@@ -0,0 +1,160 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 数据的输出目标, 可以是文件、分区数据集、输出流、字节通道或者调用方的 Consumer
+ * 输出流和字节通道按 UTF-8 编码写入, 写入完成后只会 flush, 调用方负责关闭
+ */
+public class RowSink {
+
+    private static final AtomicInteger STREAM_INDEX = new AtomicInteger();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String filePath;
+    private final String name;
+    private final Opener opener;
+    private final String datasetDirectory;
+
+    private RowSink(String filePath, String name, Opener opener) {
+        this(filePath, name, opener, null);
+    }
+
+    private RowSink(String filePath, String name, Opener opener, String datasetDirectory) {
+        this.filePath = filePath;
+        this.name = name;
+        this.opener = opener;
+        this.datasetDirectory = datasetDirectory;
+    }
+
+    /**
+     * 覆盖写入文件, 文件名以 .gz 结尾时使用 gzip 压缩
+     *
+     * @param filePath 文件路径
+     */
+    public static RowSink of(String filePath) {
+        return new RowSink(filePath, FileUtils.getName(filePath),
+                () -> new LineWriter(FileUtils.newBufferedWriter(filePath)));
+    }
+
+    /**
+     * 写入分区数据集, 集合运算的结果分片直接作为数据集的分区, 不需要合并成一个文件;
+     * 其它操作的结果写入只有一个分区的数据集
+     *
+     * @param directory 数据集目录
+     */
+    public static RowSink dataset(String directory) {
+        String datasetDirectory = FileUtils.checkDirectorySuffixSeparator(directory);
+        return new RowSink(null, FileUtils.getName(datasetDirectory), () -> {
+            PartitionedDataset.prepare(datasetDirectory);
+            String partitionFilePath = datasetDirectory + PartitionedDataset.partitionFileName(0);
+            return new LineWriter(FileUtils.newBufferedWriter(partitionFilePath)) {
+                private long rowCount;
+
+                @Override
+                public void writeLine(String line) throws IOException {
+                    super.writeLine(line);
+                    rowCount++;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    PartitionedDataset.write(datasetDirectory, null, Collections.singletonList(partitionFilePath),
+                            Collections.singletonList(rowCount));
+                }
+            };
+        }, datasetDirectory);
+    }
+
+    /**
+     * 写入输出流, 按 UTF-8 编码
+     *
+     * @param outputStream 输出流
+     */
+    public static RowSink of(OutputStream outputStream) {
+        return new RowSink(null, nextStreamName(), () -> new LineWriter(new BufferedWriter(
+                new OutputStreamWriter(IOUtils.closeShield(outputStream), StandardCharsets.UTF_8), BUFFER_SIZE)));
+    }
+
+    /**
+     * 写入字节通道, 按 UTF-8 编码
+     *
+     * @param channel 字节通道
+     */
+    public static RowSink of(WritableByteChannel channel) {
+        return of(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * 把每行数据交给 consumer 处理
+     *
+     * @param consumer 数据行的处理
+     */
+    public static RowSink of(Consumer<String> consumer) {
+        return new RowSink(null, nextStreamName(), () -> new LineWriter(consumer));
+    }
+
+    private static String nextStreamName() {
+        return "sink-" + STREAM_INDEX.incrementAndGet();
+    }
+
+    /**
+     * 打开输出目标
+     */
+    public LineWriter open() throws IOException {
+        return opener.open();
+    }
+
+    /**
+     * 输出目标是文件时返回文件路径, 否则返回 null
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public boolean isFile() {
+        return filePath != null;
+    }
+
+    /**
+     * 输出目标是分区数据集时返回数据集目录, 否则返回 null
+     */
+    public String getDatasetDirectory() {
+        return datasetDirectory;
+    }
+
+    public boolean isDataset() {
+        return datasetDirectory != null;
+    }
+
+    /**
+     * 输出目标的名称, 用于命名临时文件
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        if (isDataset()) {
+            return datasetDirectory;
+        }
+        return isFile() ? filePath : name;
+    }
+
+    private interface Opener {
+
+        LineWriter open() throws IOException;
+    }
+}
@@ -0,0 +1,201 @@
+package cn.junety.tools.bigfile.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 数据源, 可以是文件、文件中的字节区间、分区数据集、输入流、字节通道或者内存中的数据行
+ * 输入流和字节通道按 UTF-8 解码, gzip 格式的数据会自动解压; 调用方负责关闭传入的输入流和字节通道
+ * 除文件、文件区间和分区数据集以外的数据源只能读取一次
+ */
+public class RowSource {
+
+    private static final AtomicInteger STREAM_INDEX = new AtomicInteger();
+
+    private final String filePath;
+    private final String name;
+    private final Opener opener;
+    private final PartitionedDataset dataset;
+    // 数据源是文件区间时的字节区间
+    private FileRange range;
+    // 数据的预估字节数, 用于计算分片数量, 小于0表示未知
+    private long sizeHint = -1;
+    private boolean opened;
+
+    private RowSource(String filePath, String name, Opener opener) {
+        this(filePath, name, opener, null);
+    }
+
+    private RowSource(String filePath, String name, Opener opener, PartitionedDataset dataset) {
+        this.filePath = filePath;
+        this.name = name;
+        this.opener = opener;
+        this.dataset = dataset;
+    }
+
+    /**
+     * 读取文件, 路径是分区数据集的目录时读取分区数据集
+     *
+     * @param filePath 文件路径
+     */
+    public static RowSource of(String filePath) {
+        if (PartitionedDataset.isDataset(filePath)) {
+            try {
+                return of(PartitionedDataset.read(filePath));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return new RowSource(filePath, FileUtils.getName(filePath), () -> FileUtils.newLineIterator(filePath));
+    }
+
+    /**
+     * 读取文件中的字节区间, 区间需要在换行处对齐, 不能是 gzip 文件
+     *
+     * @param range 文件区间
+     */
+    public static RowSource of(FileRange range) {
+        RowSource source = new RowSource(null, FileUtils.getName(range.getFilePath()) + "-" + range.getStart(),
+                () -> FileUtils.newLineIterator(range));
+        source.range = range;
+        source.sizeHint = range.getLength();
+        return source;
+    }
+
+    /**
+     * 按分区的顺序读取分区数据集
+     *
+     * @param dataset 分区数据集
+     */
+    public static RowSource of(PartitionedDataset dataset) {
+        return new RowSource(null, FileUtils.getName(dataset.getDirectory()), dataset::open, dataset);
+    }
+
+    /**
+     * 读取输入流, 按 UTF-8 解码
+     *
+     * @param inputStream 输入流
+     */
+    public static RowSource of(InputStream inputStream) {
+        return new RowSource(null, nextStreamName(), () -> new LineIterator(new BufferedReader(new InputStreamReader(
+                GzipUtils.decompressIfGzip(IOUtils.closeShield(inputStream)), StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * 读取字节通道, 按 UTF-8 解码
+     *
+     * @param channel 字节通道
+     */
+    public static RowSource of(ReadableByteChannel channel) {
+        return of(Channels.newInputStream(channel));
+    }
+
+    /**
+     * 读取内存中的数据行
+     *
+     * @param iterator 数据行
+     */
+    public static RowSource of(Iterator<String> iterator) {
+        return new RowSource(null, nextStreamName(), () -> new LineIterator(iterator));
+    }
+
+    /**
+     * 读取 Stream 中的数据行
+     *
+     * @param stream 数据行
+     */
+    public static RowSource of(Stream<String> stream) {
+        return of(stream.iterator());
+    }
+
+    private static String nextStreamName() {
+        return "stream-" + STREAM_INDEX.incrementAndGet();
+    }
+
+    /**
+     * 设置数据的预估字节数, 数据源不是文件时用于计算分片数量
+     *
+     * @param sizeHint 预估字节数
+     */
+    public RowSource setSizeHint(long sizeHint) {
+        this.sizeHint = sizeHint;
+        return this;
+    }
+
+    /**
+     * 打开数据源
+     */
+    public synchronized LineIterator open() throws IOException {
+        if (opened && filePath == null && dataset == null && range == null) {
+            throw new IllegalStateException(name + " can only be read once");
+        }
+        opened = true;
+        return opener.open();
+    }
+
+    /**
+     * 数据源是文件时返回文件路径, 否则返回 null
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public boolean isFile() {
+        return filePath != null;
+    }
+
+    /**
+     * 数据源是文件区间时返回区间, 否则返回 null
+     */
+    public FileRange getRange() {
+        return range;
+    }
+
+    /**
+     * 数据源是分区数据集时返回数据集, 否则返回 null
+     */
+    public PartitionedDataset getDataset() {
+        return dataset;
+    }
+
+    /**
+     * 数据源的名称, 用于命名临时文件
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 数据的预估字节数, 文件返回文件大小, 分区数据集返回分区文件的总大小, 未知时返回 -1
+     */
+    public long getSizeHint() {
+        if (dataset != null) {
+            return dataset.getSize();
+        }
+        return isFile() ? FileUtils.getFileLength(filePath) : sizeHint;
+    }
+
+    @Override
+    public String toString() {
+        if (dataset != null) {
+            return dataset.toString();
+        }
+        if (range != null) {
+            return range.toString();
+        }
+        return isFile() ? filePath : name;
+    }
+
+    private interface Opener {
+
+        LineIterator open() throws IOException;
+    }
+}
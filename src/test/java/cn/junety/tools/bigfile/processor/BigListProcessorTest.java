@@ -0,0 +1,408 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowPredicates;
+import cn.junety.tools.bigfile.utils.FileUtils;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BigListProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sortCopiesSortedFile() throws IOException {
+        List<String> rows = rows(10000);
+        Collections.sort(rows);
+        assertSorted(rows, newProcessor(4));
+    }
+
+    @Test
+    public void sortMergesFewSortedRuns() throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (int run = 0; run < 3; run++) {
+            List<String> runRows = rows(5000);
+            Collections.sort(runRows);
+            rows.addAll(runRows);
+        }
+        assertSorted(rows, newProcessor(4));
+    }
+
+    @Test
+    public void sortSplitsRowsOnLoneCarriageReturn() throws IOException {
+        // 单独的 '\r' 也是换行符, 扫描有序段和分片计算得到的数据行一致
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), "a\rc\r\nb\nd\re".getBytes(StandardCharsets.UTF_8));
+        File output = new File(folder.getRoot(), "output");
+        for (int maxSortedRunCount : new int[]{1, 4}) {
+            assertEquals(5, newProcessor(maxSortedRunCount).sort(source.getPath(), output.getPath()));
+            assertEquals(Arrays.asList("a", "b", "c", "d", "e"),
+                    Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void sortShardsRestAfterTooManyRuns() throws IOException {
+        // 开头的有序段直接参与归并, 剩下的部分作为文件区间流水线式地分片
+        List<String> rows = rows(100000);
+        List<String> head = new ArrayList<>(rows.subList(0, 20000));
+        Collections.sort(head);
+        rows.subList(0, 20000).clear();
+        rows.addAll(0, head);
+        assertSorted(rows, newProcessor(4));
+    }
+
+    @Test
+    public void sortShardFilesDeletesShards() throws IOException {
+        List<String> rows = rows(50000);
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+        File output = new File(folder.getRoot(), "output");
+        // 内存上限很小, 分片分段排序, 分段的有序文件也要删除
+        BigListProcessor processor = new BigListProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setMaxShardMemorySize(64 * 1024)
+                .build(), new DefaultRowHandler());
+
+        List<String> shardingFileList = processor.sharding(source.getPath(), 4);
+        File shardDirectory = new File(shardingFileList.get(0)).getParentFile();
+        assertEquals(rows.size(), processor.sort(shardingFileList, output.getPath()));
+        List<String> expected = new ArrayList<>(rows);
+        Collections.sort(expected);
+        assertEquals(expected, Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+        String[] leftFiles = shardDirectory.list();
+        assertTrue(leftFiles == null || leftFiles.length == 0);
+    }
+
+    @Test
+    public void sortUniqueMergesRowsOfSameKey() throws IOException {
+        // key 是逗号之前的部分, 冲突时保留较大的一行
+        RowHandler rowHandler = new DefaultRowHandler() {
+            @Override
+            public String getKey(String row) {
+                return row.substring(0, row.indexOf(','));
+            }
+
+            @Override
+            public String clash(String row1, String row2) {
+                return row1.compareTo(row2) >= 0 ? row1 : row2;
+            }
+        };
+        List<String> rows = new ArrayList<>();
+        TreeMap<String, String> expected = new TreeMap<>();
+        Random random = new Random(27);
+        for (int i = 0; i < 50000; i++) {
+            String key = String.format("key-%05d", random.nextInt(10000));
+            String row = key + "," + random.nextInt(100);
+            rows.add(row);
+            expected.merge(key, row, rowHandler::clash);
+        }
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+        File output = new File(folder.getRoot(), "output");
+
+        BigListProcessor processor = new BigListProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setShardingFileSize(64 * 1024)
+                .build(), rowHandler);
+        assertEquals(expected.size(), processor.sortUnique(source.getPath(), output.getPath()));
+        assertEquals(new ArrayList<>(expected.values()),
+                Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void uniqueSpillsShardsOverMemoryLimit() throws IOException {
+        List<String> rows = new ArrayList<>();
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 50000; i++) {
+            String row = "row-" + (i % 20000);
+            rows.add(row);
+            expected.add(row);
+        }
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+        File output = new File(folder.getRoot(), "output");
+
+        // 分片内存上限远小于分片大小, 分片必须切分成子分片去重
+        BigListProcessor processor = new BigListProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder("base").getPath() + File.separator)
+                .setMaxShardMemorySize(16 * 1024)
+                .build(), new DefaultRowHandler());
+        long count = processor.unique(source.getPath(), output.getPath());
+
+        List<String> actual = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+        assertEquals(expected.size(), count);
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, new HashSet<>(actual));
+    }
+
+    @Test
+    public void parallelFilterKeepsSourceOrder() throws IOException {
+        // 源文件超过一个过滤区间, 多个区间并行过滤后仍按源文件的顺序输出
+        List<String> rows = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 600000; i++) {
+            String row = String.format("row-%07d-payload", i);
+            rows.add(row);
+            if (i % 3 != 0) {
+                expected.add(row);
+            }
+        }
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+        File output = new File(folder.getRoot(), "output");
+
+        BigListProcessor processor = new BigListProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder("base").getPath() + File.separator)
+                .setParallelism(4)
+                .build(), new DefaultRowHandler() {
+            @Override
+            public boolean accept(String row) {
+                return Integer.parseInt(row.substring(4, 11)) % 3 != 0;
+            }
+        });
+        assertEquals(expected.size(), processor.filter(source.getPath(), output.getPath()));
+        assertEquals(expected, Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void filterByPredicateKeepsRawBytes() throws IOException {
+        // 字节级过滤不解码数据行, 输出的是源文件的原始字节
+        List<String> rows = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 600000; i++) {
+            String row = "user-" + i + (i % 7 == 0 ? ",登录," : ",logout,") + i;
+            rows.add(row);
+            if (i % 7 == 0) {
+                expected.add(row);
+            }
+        }
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+
+        for (int parallelism : new int[]{1, 4}) {
+            File output = new File(folder.getRoot(), "output-" + parallelism);
+            BigListProcessor processor = new BigListProcessor(new BigFileConfig.Builder()
+                    .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                    .setParallelism(parallelism)
+                    .build(), new DefaultRowHandler());
+            long count = processor.filter(source.getPath(), output.getPath(),
+                    RowPredicates.fieldEquals(',', 1, "登录"));
+            assertEquals(expected.size(), count);
+            assertEquals(expected, Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void routeWritesEachRowOncePerOutput() throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(String.valueOf(i));
+        }
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+        Map<String, String> outputFilePaths = new LinkedHashMap<>();
+        for (String name : Arrays.asList("even", "odd", "tens")) {
+            outputFilePaths.put(name, new File(folder.getRoot(), name).getPath());
+        }
+
+        // 偶数行重复返回 even, 能被10整除的行同时写入 even 和 tens, 能被7整除的行丢弃
+        Map<String, Long> counts = newProcessor(4).route(source.getPath(), outputFilePaths, row -> {
+            int value = Integer.parseInt(row);
+            if (value % 7 == 0) {
+                return null;
+            }
+            if (value % 2 != 0) {
+                return Collections.singletonList("odd");
+            }
+            return value % 10 == 0 ? Arrays.asList("even", "tens", "even") : Arrays.asList("even", "even");
+        });
+
+        Map<String, List<String>> expected = new LinkedHashMap<>();
+        for (String name : outputFilePaths.keySet()) {
+            expected.put(name, new ArrayList<>());
+        }
+        for (int i = 0; i < 1000; i++) {
+            if (i % 7 != 0) {
+                expected.get(i % 2 != 0 ? "odd" : "even").add(String.valueOf(i));
+                if (i % 10 == 0) {
+                    expected.get("tens").add(String.valueOf(i));
+                }
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().size(), (long) counts.get(entry.getKey()));
+            assertEquals(entry.getValue(), Files.readAllLines(
+                    new File(outputFilePaths.get(entry.getKey())).toPath(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void routeRejectsUnknownOutput() throws IOException {
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), Collections.singletonList("row"), StandardCharsets.UTF_8);
+        newProcessor(4).route(source.getPath(),
+                Collections.singletonMap("known", new File(folder.getRoot(), "known").getPath()),
+                row -> Collections.singletonList("unknown"));
+    }
+
+    @Test
+    public void routeSkipsRowsRejectedByRowHandler() throws IOException {
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), Arrays.asList("a", "#comment", "b"), StandardCharsets.UTF_8);
+        File output = new File(folder.getRoot(), "all");
+        BigListProcessor processor = new BigListProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .build(), new DefaultRowHandler() {
+            @Override
+            public boolean accept(String row) {
+                return !row.startsWith("#");
+            }
+        });
+
+        // 与 filter 一样, 不合法的数据不交给路由规则
+        Map<String, Long> counts = processor.route(source.getPath(),
+                Collections.singletonMap("all", output.getPath()), row -> Collections.singletonList("all"));
+        assertEquals(2, (long) counts.get("all"));
+        assertEquals(Arrays.asList("a", "b"), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void routeReadsRowSourceIntoRowSinks() throws IOException {
+        // 数据源和输出目标不需要是文件, 输出流和 Consumer 各自缓冲写入
+        ByteArrayOutputStream shortOutput = new ByteArrayOutputStream();
+        List<String> longRows = new ArrayList<>();
+        Map<String, RowSink> sinkMap = new LinkedHashMap<>();
+        sinkMap.put("short", RowSink.of(shortOutput));
+        sinkMap.put("long", RowSink.of(longRows::add));
+
+        Map<String, Long> counts = newProcessor(4).route(RowSource.of(Stream.of("a", "bbb", "cc", "dddd")),
+                sinkMap, row -> Collections.singletonList(row.length() > 2 ? "long" : "short"));
+        assertEquals(2, (long) counts.get("short"));
+        assertEquals(2, (long) counts.get("long"));
+        assertEquals("a" + System.lineSeparator() + "cc" + System.lineSeparator(),
+                new String(shortOutput.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList("bbb", "dddd"), longRows);
+    }
+
+    @Test
+    public void routeWaitsForIoPermit() throws Exception {
+        Semaphore ioSemaphore = new Semaphore(1);
+        BigListProcessor processor = new BigListProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setIoSemaphore(ioSemaphore)
+                .build(), new DefaultRowHandler());
+        List<String> rows = Collections.synchronizedList(new ArrayList<>());
+
+        // 许可被其它计算占用时, 路由等待许可释放后才开始写入
+        ioSemaphore.acquire();
+        CompletableFuture<Map<String, Long>> future = CompletableFuture.supplyAsync(() -> {
+            try {
+                return processor.route(RowSource.of(Stream.of("a", "b")),
+                        Collections.singletonMap("all", RowSink.of(rows::add)),
+                        row -> Collections.singletonList("all"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            fail("route should wait for the io permit");
+        } catch (TimeoutException expected) {
+            assertTrue(rows.isEmpty());
+        }
+        ioSemaphore.release();
+        assertEquals(2, (long) future.get(10, TimeUnit.SECONDS).get("all"));
+        assertEquals(Arrays.asList("a", "b"), rows);
+        assertEquals(1, ioSemaphore.availablePermits());
+    }
+
+    @Test
+    public void splitKeepsRowsInOrder() throws IOException {
+        List<String> rows = rows(10000);
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+        BigListProcessor processor = newProcessor(4);
+
+        List<String> splitFileList = processor.split(source.getPath(), 4);
+        assertEquals(4, splitFileList.size());
+        assertEquals(rows, readAll(splitFileList));
+
+        splitFileList = processor.splitByLines(source.getPath(), 3000);
+        assertEquals(4, splitFileList.size());
+        for (int i = 0; i < splitFileList.size(); i++) {
+            assertEquals(i < 3 ? 3000 : 1000, FileUtils.countLines(splitFileList.get(i)));
+        }
+        assertEquals(rows, readAll(splitFileList));
+    }
+
+    private void assertSorted(List<String> rows, BigListProcessor processor) throws IOException {
+        File source = folder.newFile();
+        Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+        File output = new File(folder.getRoot(), source.getName() + "-sorted");
+
+        List<String> expected = new ArrayList<>(rows);
+        Collections.sort(expected);
+        assertEquals(rows.size(), processor.sort(source.getPath(), output.getPath()));
+        assertEquals(expected, Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    private BigListProcessor newProcessor(int maxSortedRunCount) throws IOException {
+        return new BigListProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setMaxSortedRunCount(maxSortedRunCount)
+                .setShardingFileSize(64 * 1024)
+                .setParallelism(4)
+                .build(), new DefaultRowHandler());
+    }
+
+    // 随机顺序的数据行
+    private static List<String> rows(int count) {
+        List<String> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(String.format("row-%06d", i));
+        }
+        Collections.shuffle(rows, new Random(count));
+        return rows;
+    }
+
+    private static List<String> readAll(List<String> filePathList) throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (String filePath : filePathList) {
+            rows.addAll(Files.readAllLines(new File(filePath).toPath(), StandardCharsets.UTF_8));
+        }
+        return rows;
+    }
+}
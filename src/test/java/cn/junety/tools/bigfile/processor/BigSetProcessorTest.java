@@ -0,0 +1,524 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.config.PartitionStrategy;
+import cn.junety.tools.bigfile.config.SetStrategy;
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.row.RowJoiner;
+import cn.junety.tools.bigfile.utils.PartitionedDataset;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BigSetProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void autoMergesSortedFiles() throws IOException {
+        String source1 = write(rows(0, 30000));
+        String source2 = write(rows(10000, 40000));
+        File output = new File(folder.getRoot(), "output");
+
+        long count = newProcessor().intersect(source1, source2, output.getPath(), false);
+        // 归并的结果按key有序
+        assertEquals(20000, count);
+        assertEquals(rows(10000, 30000), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void autoFallsBackToShuffleWhenMergeFindsDisorder() throws IOException {
+        // 只有文件末尾的两行逆序, 抽样检查发现不了, 归并时发现后改为分片计算
+        List<String> rows1 = rows(0, 30000);
+        Collections.swap(rows1, 29998, 29999);
+        String source1 = write(rows1);
+        String source2 = write(rows(10000, 40000));
+        assertTrue(new SortedRunScanner(new DefaultRowHandler(), 1).looksSortedByKey(source1));
+        File output = new File(folder.getRoot(), "output");
+
+        long count = newProcessor().intersect(source1, source2, output.getPath(), false);
+        List<String> actual = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+        assertEquals(20000, count);
+        assertEquals(20000, actual.size());
+        assertEquals(new HashSet<>(rows(10000, 30000)), new HashSet<>(actual));
+    }
+
+    @Test
+    public void defaultStrategyMatchesShuffleResults() throws IOException {
+        List<String> shuffled1 = rows(0, 30000);
+        List<String> shuffled2 = rows(10000, 40000);
+        List<String> small = rows(5000, 5300);
+        Collections.shuffle(shuffled1, new Random(1));
+        Collections.shuffle(shuffled2, new Random(2));
+        Collections.shuffle(small, new Random(3));
+        String sortedSource1 = write(rows(0, 30000));
+        String sortedSource2 = write(rows(10000, 40000));
+        String shuffledSource1 = write(shuffled1);
+        String shuffledSource2 = write(shuffled2);
+        String smallSource = write(small);
+
+        // 默认配置依次走内存计算、广播、归并和分片计算, 结果的行都与指定 SHUFFLE 时相同
+        long[] memoryLimits = {64 * 1024 * 1024, 256 * 1024, 16 * 1024, 16 * 1024};
+        String[][] sourcesList = {
+                {shuffledSource1, shuffledSource2},
+                {shuffledSource1, smallSource},
+                {sortedSource1, sortedSource2},
+                {shuffledSource1, shuffledSource2}};
+        for (int i = 0; i < sourcesList.length; i++) {
+            BigSetProcessor defaultProcessor = new BigSetProcessor(new BigFileConfig.Builder()
+                    .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                    .setMaxShardMemorySize(memoryLimits[i])
+                    .build(), new DefaultRowHandler());
+            BigSetProcessor shuffleProcessor = new BigSetProcessor(new BigFileConfig.Builder()
+                    .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                    .setMaxShardMemorySize(memoryLimits[i])
+                    .setSetStrategy(SetStrategy.SHUFFLE)
+                    .build(), new DefaultRowHandler());
+            for (SetOperation operation : SetOperation.values()) {
+                for (boolean sort : new boolean[]{false, true}) {
+                    List<String> expected = calculate(shuffleProcessor, operation, sourcesList[i], sort);
+                    List<String> actual = calculate(defaultProcessor, operation, sourcesList[i], sort);
+                    String message = i + " " + operation + " " + sort;
+                    if (sort) {
+                        assertEquals(message, expected, actual);
+                    } else {
+                        assertEquals(message, toSet(expected), toSet(actual));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shardSetOperationsSpillOverMemoryLimit() throws IOException {
+        List<String> rows1 = rows(0, 30000);
+        List<String> rows2 = rows(10000, 40000);
+        Collections.shuffle(rows1);
+        Collections.shuffle(rows2);
+        String source1 = write(rows1);
+        String source2 = write(rows2);
+        BigSetProcessor processor = newProcessor();
+
+        File intersectOutput = new File(folder.getRoot(), "intersect");
+        assertEquals(20000, processor.intersect(source1, source2, intersectOutput.getPath(), true));
+        assertEquals(rows(10000, 30000), Files.readAllLines(intersectOutput.toPath(), StandardCharsets.UTF_8));
+
+        File unionOutput = new File(folder.getRoot(), "union");
+        assertEquals(40000, processor.union(source1, source2, unionOutput.getPath(), false));
+        assertEquals(new HashSet<>(rows(0, 40000)),
+                toSet(Files.readAllLines(unionOutput.toPath(), StandardCharsets.UTF_8)));
+
+        File differOutput = new File(folder.getRoot(), "differ");
+        assertEquals(10000, processor.differ(source1, source2, differOutput.getPath(), true));
+        assertEquals(rows(0, 10000), Files.readAllLines(differOutput.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void inMemorySetOperations() throws IOException {
+        String source1 = write(rows(0, 300));
+        String source2 = write(rows(100, 400));
+        BigSetProcessor processor = new BigSetProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setSetStrategy(SetStrategy.IN_MEMORY)
+                .build(), new DefaultRowHandler());
+
+        File output = new File(folder.getRoot(), "output");
+        assertEquals(200, processor.intersect(source1, source2, output.getPath(), true));
+        assertEquals(rows(100, 300), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+        assertEquals(400, processor.union(source1, source2, output.getPath(), true));
+        assertEquals(rows(0, 400), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+        assertEquals(100, processor.differ(source1, source2, output.getPath(), true));
+        assertEquals(rows(0, 100), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void sortedShuffleWithHashPartitions() throws IOException {
+        assertSortedShuffle(PartitionStrategy.HASH);
+    }
+
+    @Test
+    public void sortedShuffleWithRangePartitions() throws IOException {
+        // 分片之间的key有序, 结果分片直接拼接
+        assertSortedShuffle(PartitionStrategy.RANGE);
+    }
+
+    @Test
+    public void setOperationsOnStreams() throws IOException {
+        // 数据源是内存中的数据行和 gzip 压缩的输入流, 结果交给 Consumer
+        List<String> rows1 = rows(0, 30000);
+        List<String> rows2 = rows(10000, 40000);
+        Collections.shuffle(rows1, new Random(3));
+        Collections.shuffle(rows2, new Random(4));
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(compressed), StandardCharsets.UTF_8))) {
+            for (String row : rows2) {
+                bw.write(row);
+                bw.newLine();
+            }
+        }
+
+        List<String> actual = new ArrayList<>();
+        long count = newProcessor().intersect(RowSource.of(rows1.iterator()),
+                RowSource.of(new ByteArrayInputStream(compressed.toByteArray())), RowSink.of(actual::add), true);
+        assertEquals(20000, count);
+        assertEquals(rows(10000, 30000), actual);
+    }
+
+    @Test
+    public void streamSinkIsFlushedButNotClosed() throws IOException {
+        boolean[] closed = new boolean[1];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        long count = newProcessor().differ(RowSource.of(rows(0, 3000).stream()),
+                RowSource.of(rows(1000, 4000).iterator()), RowSink.of(baos), true);
+        assertEquals(1000, count);
+        assertFalse(closed[0]);
+        assertEquals(rows(0, 1000), Arrays.asList(
+                new String(baos.toByteArray(), StandardCharsets.UTF_8).split(System.lineSeparator())));
+    }
+
+    @Test
+    public void datasetPartitionsAreReused() throws IOException {
+        List<String> rows1 = rows(0, 30000);
+        List<String> rows2 = rows(10000, 40000);
+        Collections.shuffle(rows1, new Random(5));
+        Collections.shuffle(rows2, new Random(6));
+        String source1 = write(rows1);
+        String source2 = write(rows2);
+        BigSetProcessor processor = new BigSetProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setSetStrategy(SetStrategy.SHUFFLE)
+                .setShardingFileSize(32 * 1024)
+                .build(), new DefaultRowHandler());
+
+        // 集合运算的结果分片直接作为数据集的分区
+        String intersect = new File(folder.getRoot(), "intersect").getPath();
+        assertEquals(20000, processor.intersect(RowSource.of(source1), RowSource.of(source2),
+                RowSink.dataset(intersect), false));
+        PartitionedDataset intersectDataset = PartitionedDataset.read(intersect);
+        assertTrue(intersectDataset.getPartitionCount() > 1);
+        assertEquals(new DefaultRowHandler().hashId(), intersectDataset.getHashFunction());
+        assertEquals(20000, intersectDataset.getRowCount());
+
+        // 数据集的分区数不少于需要的分片数, 按数据集的分区数分片, 数据集本身不需要重新分片
+        String union = new File(folder.getRoot(), "union").getPath();
+        assertEquals(25000, processor.union(RowSource.of(intersect), RowSource.of(write(rows(0, 5000))),
+                RowSink.dataset(union), false));
+        PartitionedDataset unionDataset = PartitionedDataset.read(union);
+        assertEquals(intersectDataset.getPartitionCount(), unionDataset.getPartitionCount());
+        List<String> actual = new ArrayList<>();
+        for (String filePath : unionDataset.getFileList()) {
+            actual.addAll(Files.readAllLines(new File(filePath).toPath(), StandardCharsets.UTF_8));
+        }
+        Set<String> expected = new HashSet<>(rows(0, 5000));
+        expected.addAll(rows(10000, 30000));
+        assertEquals(expected, toSet(actual));
+    }
+
+    @Test
+    public void broadcastSmallerSource() throws IOException {
+        List<String> small = rows(0, 300);
+        List<String> large = rows(100, 40000);
+        Collections.shuffle(small, new Random(7));
+        Collections.shuffle(large, new Random(8));
+        String smallSource = write(small);
+        String largeSource = write(large);
+        File output = new File(folder.getRoot(), "output");
+
+        // 较小的数据源在内存上限之内, 另一个数据源超过上限, AUTO 选择广播
+        for (SetStrategy setStrategy : new SetStrategy[]{SetStrategy.AUTO, SetStrategy.BROADCAST}) {
+            BigSetProcessor processor = new BigSetProcessor(new BigFileConfig.Builder()
+                    .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                    .setMaxShardMemorySize(256 * 1024)
+                    .setParallelism(1)
+                    .setSetStrategy(setStrategy)
+                    .build(), new DefaultRowHandler());
+
+            assertEquals(200, processor.intersect(largeSource, smallSource, output.getPath(), true));
+            assertEquals(rows(100, 300), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+            assertEquals(100, processor.differ(smallSource, largeSource, output.getPath(), true));
+            assertEquals(rows(0, 100), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+            // 被减数较大时不能广播减数, 改为分片计算
+            assertEquals(39700, processor.differ(largeSource, smallSource, output.getPath(), true));
+            assertEquals(rows(300, 40000), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+            assertEquals(40000, processor.union(smallSource, largeSource, output.getPath(), true));
+            assertEquals(rows(0, 40000), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void sortMergeFallsBackToShuffleWhenRowsMustBeSorted() throws IOException {
+        // 按key有序不等于按行有序, 需要按行排序时不使用归并
+        DefaultRowHandler rowHandler = new DefaultRowHandler() {
+            @Override
+            public String getKey(String row) {
+                return row.substring(row.indexOf(',') + 1);
+            }
+        };
+        List<String> rows1 = new ArrayList<>();
+        List<String> rows2 = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows1.add(String.format("%03d,key-%04d", 999 - i, i));
+            if (i % 2 == 0) {
+                rows2.add(String.format("%03d,key-%04d", 999 - i, i));
+            }
+        }
+        BigSetProcessor processor = new BigSetProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setSetStrategy(SetStrategy.SORT_MERGE)
+                .build(), rowHandler);
+        File output = new File(folder.getRoot(), "output");
+
+        assertEquals(500, processor.intersect(write(rows1), write(rows2), output.getPath(), false));
+        assertEquals(rows2, Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+        assertEquals(500, processor.intersect(write(rows1), write(rows2), output.getPath(), true));
+        List<String> expected = new ArrayList<>(rows2);
+        Collections.sort(expected);
+        assertEquals(expected, Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void countMatchesResultsForEveryStrategy() throws IOException {
+        List<String> sorted1 = rows(0, 30000);
+        List<String> sorted2 = rows(10000, 40000);
+        List<String> shuffled1 = new ArrayList<>(sorted1);
+        List<String> shuffled2 = new ArrayList<>(sorted2);
+        Collections.shuffle(shuffled1, new Random(9));
+        Collections.shuffle(shuffled2, new Random(10));
+        // 有序的数据源归并计算, 无序的数据源分片计算
+        List<RowSource[]> sourcesList = new ArrayList<>();
+        sourcesList.add(new RowSource[]{RowSource.of(write(sorted1)), RowSource.of(write(sorted2))});
+        sourcesList.add(new RowSource[]{RowSource.of(write(shuffled1)), RowSource.of(write(shuffled2))});
+
+        for (SetStrategy setStrategy : new SetStrategy[]{SetStrategy.AUTO, SetStrategy.IN_MEMORY}) {
+            BigSetProcessor processor = new BigSetProcessor(new BigFileConfig.Builder()
+                    .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                    .setMaxShardMemorySize(16 * 1024)
+                    .setSetStrategy(setStrategy)
+                    .build(), new DefaultRowHandler());
+            for (RowSource[] sources : sourcesList) {
+                assertEquals(20000, processor.count(sources[0], sources[1], SetOperation.INTERSECT));
+                assertEquals(40000, processor.count(sources[0], sources[1], SetOperation.UNION));
+                assertEquals(10000, processor.count(sources[0], sources[1], SetOperation.DIFFER));
+            }
+        }
+    }
+
+    @Test
+    public void countShardsWritesNoResults() throws IOException {
+        List<String> rows1 = rows(0, 30000);
+        List<String> rows2 = rows(10000, 40000);
+        Collections.shuffle(rows1, new Random(11));
+        Collections.shuffle(rows2, new Random(12));
+        File base = folder.newFolder("base");
+        BigSetProcessor processor = new BigSetProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(base.getPath() + File.separator)
+                .setSetStrategy(SetStrategy.SHUFFLE)
+                .setShardingFileSize(32 * 1024)
+                .setParallelism(4)
+                .build(), new DefaultRowHandler());
+
+        List<Long> shardCounts = processor.countShards(RowSource.of(write(rows1)), RowSource.of(write(rows2)),
+                SetOperation.UNION);
+        assertTrue(shardCounts.size() > 1);
+        long total = 0;
+        for (long count : shardCounts) {
+            total += count;
+        }
+        assertEquals(40000, total);
+        // 临时目录已经清理, 没有留下结果分片
+        String[] names = base.list();
+        assertTrue(names == null || names.length == 0);
+    }
+
+    @Test
+    public void joinOutputsEveryMatchingPair() throws IOException {
+        // key 是逗号之前的部分, 两边都有重复的key
+        RowHandler rowHandler = new DefaultRowHandler() {
+            @Override
+            public String getKey(String row) {
+                return row.substring(0, row.indexOf(','));
+            }
+        };
+        List<String> left = new ArrayList<>();
+        List<String> right = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            left.add(String.format("k%05d,L%d", i, 0));
+            if (i % 3 == 0) {
+                left.add(String.format("k%05d,L%d", i, 1));
+            }
+        }
+        for (int i = 1000; i < 4000; i++) {
+            right.add(String.format("k%05d,R%d", i, 0));
+            if (i % 5 == 0) {
+                right.add(String.format("k%05d,R%d", i, 1));
+            }
+        }
+        Collections.shuffle(left, new Random(13));
+        Collections.shuffle(right, new Random(14));
+        RowSource leftSource = RowSource.of(write(left));
+        RowSource rightSource = RowSource.of(write(right));
+        RowJoiner rowJoiner = (leftRow, rightRow) -> (leftRow == null ? "-" : leftRow) + "|"
+                + (rightRow == null ? "-" : rightRow);
+
+        // 内存足够时不分片; 内存上限很小时自动分片; SHUFFLE 总是分片
+        for (SetStrategy setStrategy : new SetStrategy[]{SetStrategy.AUTO, SetStrategy.SHUFFLE}) {
+            for (long maxShardMemorySize : new long[]{64 * 1024 * 1024, 16 * 1024}) {
+                BigSetProcessor processor = new BigSetProcessor(new BigFileConfig.Builder()
+                        .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                        .setMaxShardMemorySize(maxShardMemorySize)
+                        .setSetStrategy(setStrategy)
+                        .setParallelism(2)
+                        .build(), rowHandler);
+                for (JoinType joinType : JoinType.values()) {
+                    List<String> actual = new ArrayList<>();
+                    long count = processor.join(leftSource, rightSource, RowSink.of(actual::add), joinType,
+                            rowJoiner);
+                    List<String> expected = nestedLoopJoin(left, right, joinType, rowHandler, rowJoiner);
+                    Collections.sort(actual);
+                    assertEquals(setStrategy + " " + joinType, expected.size(), count);
+                    assertEquals(setStrategy + " " + joinType, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void joinDropsRowsRejectedByJoiner() throws IOException {
+        RowSource leftSource = RowSource.of(write(rows(0, 1000)));
+        RowSource rightSource = RowSource.of(write(rows(500, 1500)));
+        List<String> actual = new ArrayList<>();
+        // 只保留两边都有的行, 外连接没有匹配的一边为 null 时丢弃
+        long count = newProcessor().join(leftSource, rightSource, RowSink.of(actual::add), JoinType.FULL,
+                (leftRow, rightRow) -> leftRow == null || rightRow == null ? null : leftRow);
+        Collections.sort(actual);
+        assertEquals(500, count);
+        assertEquals(rows(500, 1000), actual);
+    }
+
+    // 按定义逐对比较得到的连接结果, 已排序
+    private static List<String> nestedLoopJoin(List<String> left, List<String> right, JoinType joinType,
+                                               RowHandler rowHandler, RowJoiner rowJoiner) {
+        List<String> result = new ArrayList<>();
+        Set<String> matchedRight = new HashSet<>();
+        for (String leftRow : left) {
+            boolean matched = false;
+            for (String rightRow : right) {
+                if (rowHandler.getKey(leftRow).equals(rowHandler.getKey(rightRow))) {
+                    result.add(rowJoiner.join(leftRow, rightRow));
+                    matchedRight.add(rightRow);
+                    matched = true;
+                }
+            }
+            if (!matched && (joinType == JoinType.LEFT || joinType == JoinType.FULL)) {
+                result.add(rowJoiner.join(leftRow, null));
+            }
+        }
+        if (joinType == JoinType.RIGHT || joinType == JoinType.FULL) {
+            for (String rightRow : right) {
+                if (!matchedRight.contains(rightRow)) {
+                    result.add(rowJoiner.join(null, rightRow));
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private void assertSortedShuffle(PartitionStrategy partitionStrategy) throws IOException {
+        List<String> rows1 = rows(0, 30000);
+        List<String> rows2 = rows(10000, 40000);
+        Collections.shuffle(rows1, new Random(1));
+        Collections.shuffle(rows2, new Random(2));
+        String source1 = write(rows1);
+        String source2 = write(rows2);
+        BigSetProcessor processor = new BigSetProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setSetStrategy(SetStrategy.SHUFFLE)
+                .setPartitionStrategy(partitionStrategy)
+                .setShardingFileSize(32 * 1024)
+                .setParallelism(4)
+                .build(), new DefaultRowHandler());
+
+        File output = new File(folder.getRoot(), "output");
+        assertEquals(40000, processor.union(source1, source2, output.getPath(), true));
+        assertEquals(rows(0, 40000), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+        assertEquals(10000, processor.differ(source1, source2, output.getPath(), true));
+        assertEquals(rows(0, 10000), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    private List<String> calculate(BigSetProcessor processor, SetOperation operation, String[] sources,
+                                   boolean sort) throws IOException {
+        File output = folder.newFile();
+        switch (operation) {
+            case INTERSECT:
+                processor.intersect(sources[0], sources[1], output.getPath(), sort);
+                break;
+            case UNION:
+                processor.union(sources[0], sources[1], output.getPath(), sort);
+                break;
+            default:
+                processor.differ(sources[0], sources[1], output.getPath(), sort);
+                break;
+        }
+        return Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+    }
+
+    private BigSetProcessor newProcessor() throws IOException {
+        // 内存上限远小于数据源, 不会读入内存或者广播
+        return new BigSetProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setMaxShardMemorySize(16 * 1024)
+                .setParallelism(1)
+                .build(), new DefaultRowHandler());
+    }
+
+    private String write(List<String> rows) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), rows, StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+
+    private static Set<String> toSet(List<String> rows) {
+        assertEquals(new HashSet<>(rows).size(), rows.size());
+        return new HashSet<>(rows);
+    }
+
+    private static List<String> rows(int from, int to) {
+        List<String> rows = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            rows.add(String.format("row-%06d", i));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,120 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import cn.junety.tools.bigfile.utils.KeySketch;
+import cn.junety.tools.bigfile.utils.RowSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EstimateProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parallelSketchMatchesSequential() throws IOException {
+        // 文件超过一个概要区间, 并行生成的概要合并后与顺序生成的概要相同
+        String source = write(rows(0, 500000, 2));
+        KeySketch parallel = newProcessor(4, false).sketch(RowSource.of(source));
+        KeySketch sequential = newProcessor(1, false).sketch(RowSource.of(source));
+        assertEquals(1000000, parallel.getRowCount());
+        assertEquals(sequential.getRowCount(), parallel.getRowCount());
+        assertEquals(sequential.cardinality(), parallel.cardinality());
+        assertEquals(500000, parallel.cardinality(), 500000 * 0.03);
+    }
+
+    @Test
+    public void estimatesSetOperations() throws IOException {
+        RowSource source1 = RowSource.of(write(rows(0, 60000, 1)));
+        RowSource source2 = RowSource.of(write(rows(30000, 90000, 1)));
+        EstimateProcessor processor = newProcessor(1, false);
+        assertEquals(60000, processor.estimateDistinct(source1), 60000 * 0.03);
+        assertEquals(90000, processor.estimateUnion(source1, source2), 90000 * 0.03);
+        assertEquals(30000, processor.estimateIntersect(source1, source2), 30000 * 0.15);
+        assertEquals(30000, processor.estimateDiffer(source1, source2), 30000 * 0.15);
+        // 没有开启 persistSketch 时不保存概要
+        assertFalse(new File(source1.getFilePath() + ".sketch").exists());
+    }
+
+    @Test
+    public void persistedSketchIsReusedUntilSourceChanges() throws IOException {
+        String source = write(rows(0, 1000, 3));
+        EstimateProcessor processor = newProcessor(1, true);
+        assertEquals(1000, processor.sketch(RowSource.of(source)).cardinality());
+        assertTrue(new File(source + ".sketch").exists());
+
+        // 内容改为同样长度的一个key, 大小和修改时间不变时仍然读取保存的概要
+        Path sourcePath = new File(source).toPath();
+        FileTime lastModified = Files.getLastModifiedTime(sourcePath);
+        Files.write(sourcePath, Collections.nCopies(3000, "row-000000"), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(sourcePath, lastModified);
+        assertEquals(1000, processor.sketch(RowSource.of(source)).cardinality());
+
+        // 修改时间变化后概要过期, 重新生成
+        Files.setLastModifiedTime(sourcePath, FileTime.fromMillis(lastModified.toMillis() + 2000));
+        KeySketch sketch = processor.sketch(RowSource.of(source));
+        assertEquals(3000, sketch.getRowCount());
+        assertEquals(1, sketch.cardinality());
+    }
+
+    @Test
+    public void plannerUsesPersistedSketch() throws IOException {
+        // 每个key只重复4次, 采样发现不了重复, 概要给出准确的不重复key数量
+        RowSource source = RowSource.of(write(rows(0, 120000, 4)));
+        BigFileConfig config = newConfig(1, true);
+        ShardPlanner planner = new ShardPlanner(config, new DefaultRowHandler());
+        assertTrue(planner.plan(true, false, source).getEstimatedDistinctRows() > 240000);
+
+        new EstimateProcessor(config, new DefaultRowHandler()).sketch(source);
+        ShardPlan plan = planner.plan(true, false, source);
+        assertEquals(480000, plan.getEstimatedRows());
+        assertEquals(120000, plan.getEstimatedDistinctRows(), 120000 * 0.03);
+    }
+
+    private EstimateProcessor newProcessor(int parallelism, boolean persistSketch) throws IOException {
+        return new EstimateProcessor(newConfig(parallelism, persistSketch), new DefaultRowHandler());
+    }
+
+    private BigFileConfig newConfig(int parallelism, boolean persistSketch) throws IOException {
+        return new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setParallelism(parallelism)
+                .setPersistSketch(persistSketch)
+                .build();
+    }
+
+    private String write(List<String> rows) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), rows, StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+
+    // key 为 [from, to) 的数据行, 每行重复 times 次, 随机顺序
+    private static List<String> rows(int from, int to, int times) {
+        List<String> rows = new ArrayList<>((to - from) * times);
+        for (int i = from; i < to; i++) {
+            for (int j = 0; j < times; j++) {
+                rows.add(String.format("row-%06d", i));
+            }
+        }
+        Collections.shuffle(rows, new Random(to));
+        return rows;
+    }
+}
@@ -0,0 +1,165 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.utils.RowSource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JobManifestTest {
+
+    private static final String FINGERPRINT = "union,true,output|source,100,0";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScratchSpace scratchSpace;
+
+    @Before
+    public void setUp() throws IOException {
+        scratchSpace = ScratchSpace.of(folder.newFolder("scratch").getPath());
+    }
+
+    @Test
+    public void resumesPlanShardingAndShardResults() throws IOException {
+        JobManifest manifest = JobManifest.open(scratchSpace, FINGERPRINT);
+        assertEquals(0, manifest.getShardingCount());
+        manifest.planned(3, true);
+        List<String> shardingFileList = Arrays.asList(newFile("shard-0"), newFile("shard-1"), newFile("shard-2"));
+        manifest.shardingDone(0, shardingFileList);
+        // 结果文件名和数据行包含空格
+        String resultFilePath = newFile("result 0", "first row", "last row");
+        manifest.shardDone(0, new ShardResult(resultFilePath, 2, "first row", "last row"));
+        manifest.shardDone(1, new ShardResult(newFile("result-1"), 0, null, null));
+
+        JobManifest resumed = JobManifest.open(scratchSpace, FINGERPRINT);
+        assertEquals(3, resumed.getShardingCount());
+        assertTrue(resumed.isHashPartition());
+        assertEquals(shardingFileList, resumed.getShardingFiles(0));
+        assertNull(resumed.getShardingFiles(1));
+
+        ShardResult result = resumed.getShardResult(0);
+        assertEquals(resultFilePath, result.getFilePath());
+        assertEquals(2, result.getRowCount());
+        assertEquals("first row", result.getFirstRow());
+        assertEquals("last row", result.getLastRow());
+        assertNull(resumed.getShardResult(1).getFirstRow());
+        assertNull(resumed.getShardResult(2));
+    }
+
+    @Test
+    public void ignoresTornShardLogLine() throws IOException {
+        JobManifest manifest = JobManifest.open(scratchSpace, FINGERPRINT);
+        manifest.shardDone(0, new ShardResult(newFile("result-0", "row"), 1, "row", "row"));
+        manifest.shardDone(1, new ShardResult(newFile("result-1", "row"), 1, "row", "row"));
+
+        // 进程在写第三条记录时中断, 最后一行没有结束标记
+        Path shardLogPath = shardLogPath();
+        List<String> lines = Files.readAllLines(shardLogPath, StandardCharsets.UTF_8);
+        String torn = lines.get(1).replaceFirst("^1 ", "2 ");
+        torn = torn.substring(0, torn.length() - 5);
+        Files.write(shardLogPath, torn.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        JobManifest resumed = JobManifest.open(scratchSpace, FINGERPRINT);
+        assertEquals(1, resumed.getShardResult(0).getRowCount());
+        assertEquals(1, resumed.getShardResult(1).getRowCount());
+        assertNull(resumed.getShardResult(2));
+
+        // 写了一半的行已经被截掉, 恢复后追加的记录从新的一行开始
+        resumed.shardDone(3, new ShardResult(newFile("result-3", "row"), 1, "row", "row"));
+        JobManifest again = JobManifest.open(scratchSpace, FINGERPRINT);
+        assertEquals(1, again.getShardResult(1).getRowCount());
+        assertNull(again.getShardResult(2));
+        assertEquals(1, again.getShardResult(3).getRowCount());
+        assertEquals(3, Files.readAllLines(shardLogPath, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void ignoresBrokenEncodingInShardLog() throws IOException {
+        JobManifest manifest = JobManifest.open(scratchSpace, FINGERPRINT);
+        manifest.shardDone(0, new ShardResult(newFile("result-0", "row"), 1, "row", "row"));
+        Files.write(shardLogPath(), "1 1 0 !!! - - .\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        JobManifest resumed = JobManifest.open(scratchSpace, FINGERPRINT);
+        assertEquals(1, resumed.getShardResult(0).getRowCount());
+        assertNull(resumed.getShardResult(1));
+    }
+
+    @Test
+    public void rejectsChangedResultFile() throws IOException {
+        JobManifest manifest = JobManifest.open(scratchSpace, FINGERPRINT);
+        String resultFilePath = newFile("result-0", "row-1", "row-2");
+        manifest.shardDone(0, new ShardResult(resultFilePath, 2, "row-1", "row-2"));
+        Files.write(new File(resultFilePath).toPath(), Collections.singletonList("row-x"), StandardCharsets.UTF_8);
+
+        assertNull(JobManifest.open(scratchSpace, FINGERPRINT).getShardResult(0));
+    }
+
+    @Test
+    public void missingShardingFileNeedsShardingAgain() throws IOException {
+        JobManifest manifest = JobManifest.open(scratchSpace, FINGERPRINT);
+        String shard0 = newFile("shard-0");
+        String shard1 = newFile("shard-1");
+        manifest.shardingDone(0, Arrays.asList(shard0, shard1));
+        // 分片 0 运算完成后删除了输入的分片文件, 不需要重新分片
+        manifest.shardDone(0, new ShardResult(newFile("result-0"), 0, null, null));
+        Files.delete(new File(shard0).toPath());
+        assertEquals(Arrays.asList(shard0, shard1), manifest.getShardingFiles(0));
+
+        Files.delete(new File(shard1).toPath());
+        assertNull(manifest.getShardingFiles(0));
+    }
+
+    @Test
+    public void differentFingerprintStartsOver() throws IOException {
+        JobManifest manifest = JobManifest.open(scratchSpace, FINGERPRINT);
+        manifest.planned(3, false);
+        manifest.shardDone(0, new ShardResult(newFile("result-0"), 0, null, null));
+
+        JobManifest other = JobManifest.open(scratchSpace, FINGERPRINT + "-changed");
+        assertEquals(0, other.getShardingCount());
+        assertNull(other.getShardResult(0));
+        assertFalse(Files.exists(shardLogPath()));
+    }
+
+    @Test
+    public void fingerprintTracksSourceFiles() throws IOException {
+        File source = new File(newFile("source", "row"));
+        String fingerprint = JobManifest.fingerprint("union", RowSource.of(source.getPath()));
+        assertEquals(fingerprint, JobManifest.fingerprint("union", RowSource.of(source.getPath())));
+        assertEquals(JobManifest.directoryName(fingerprint), JobManifest.directoryName(fingerprint));
+        assertNotEquals(fingerprint, JobManifest.fingerprint("intersect", RowSource.of(source.getPath())));
+
+        Files.write(source.toPath(), Arrays.asList("row", "row"), StandardCharsets.UTF_8);
+        assertNotEquals(fingerprint, JobManifest.fingerprint("union", RowSource.of(source.getPath())));
+        // 不是文件的数据源不能恢复
+        assertNull(JobManifest.fingerprint("union", RowSource.of(Collections.singletonList("row").iterator())));
+    }
+
+    private Path shardLogPath() {
+        return new File(scratchSpace.getDirectoryList().get(0), "shards.log").toPath();
+    }
+
+    private String newFile(String name, String... rows) throws IOException {
+        File file = new File(scratchSpace.getDirectoryList().get(0), name);
+        Files.write(file.toPath(), Arrays.asList(rows), StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+}
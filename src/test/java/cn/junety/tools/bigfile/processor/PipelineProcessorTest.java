@@ -0,0 +1,172 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import cn.junety.tools.bigfile.row.RowPredicate;
+import cn.junety.tools.bigfile.row.RowPredicates;
+import cn.junety.tools.bigfile.utils.RowSink;
+import cn.junety.tools.bigfile.utils.RowSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PipelineProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void setPhaseSpillsShardsOverMemoryLimit() throws IOException {
+        String source = write("source", 0, 30000);
+        String other = write("other", 10000, 40000);
+        String excluded = write("excluded", 25000, 26000);
+
+        // (source ∩ other) - excluded
+        Set<String> expected = new HashSet<>();
+        for (int i = 10000; i < 30000; i++) {
+            if (i < 25000 || i >= 26000) {
+                expected.add("row-" + i);
+            }
+        }
+
+        PipelineProcessor processor = newProcessor();
+        File output = new File(folder.getRoot(), "output");
+        long count = processor.pipeline(RowSource.of(source))
+                .intersect(other).differ(excluded).execute(output.getPath());
+        List<String> actual = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+        assertEquals(expected.size(), count);
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, new HashSet<>(actual));
+
+        File sortedOutput = new File(folder.getRoot(), "sorted-output");
+        long sortedCount = processor.pipeline(RowSource.of(source))
+                .intersect(other).differ(excluded).sort().execute(sortedOutput.getPath());
+        assertEquals(expected.size(), sortedCount);
+        assertEquals(new ArrayList<>(new TreeSet<>(expected)),
+                Files.readAllLines(sortedOutput.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void filterOnlyStreamsInSourceOrder() throws IOException {
+        String source = write("source", 0, 30000);
+        List<String> expected = new ArrayList<>();
+        for (String row : Files.readAllLines(new File(source).toPath(), StandardCharsets.UTF_8)) {
+            if (isEven(row) && !row.startsWith("row-1")) {
+                expected.add(row);
+            }
+        }
+        List<String> actual = new ArrayList<>();
+        long count = newProcessor().pipeline(RowSource.of(source))
+                .filter(EVEN).filter(RowPredicates.startsWith("row-1").negate())
+                .execute(RowSink.of(actual::add));
+        // 没有去重和集合运算时不分片, 保留原有顺序和重复数据
+        assertEquals(expected.size(), count);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void filterAndSortKeepsDuplicates() throws IOException {
+        String source = write("source", 0, 30000);
+        List<String> expected = new ArrayList<>();
+        for (String row : Files.readAllLines(new File(source).toPath(), StandardCharsets.UTF_8)) {
+            if (isEven(row)) {
+                expected.add(row);
+            }
+        }
+        Collections.sort(expected);
+        List<String> actual = new ArrayList<>();
+        long count = newProcessor().pipeline(RowSource.of(source))
+                .filter(EVEN).sort().execute(RowSink.of(actual::add));
+        assertEquals(expected.size(), count);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void filterUniqueUnionSort() throws IOException {
+        String source = write("source", 0, 30000);
+        String other = write("other", 20000, 35000);
+        // filter 只作用于主数据源
+        Set<String> expected = new TreeSet<>();
+        for (int i = 0; i < 30000; i += 2) {
+            expected.add("row-" + i);
+        }
+        for (int i = 20000; i < 35000; i++) {
+            expected.add("row-" + i);
+        }
+        File output = new File(folder.getRoot(), "output");
+        long count = newProcessor().pipeline(RowSource.of(source))
+                .filter(EVEN).unique().union(other).sort().execute(output.getPath());
+        assertEquals(expected.size(), count);
+        assertEquals(new ArrayList<>(expected), Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+
+        File uniqueOutput = new File(folder.getRoot(), "unique-output");
+        long uniqueCount = newProcessor().pipeline(RowSource.of(source))
+                .unique().execute(uniqueOutput.getPath());
+        List<String> actual = Files.readAllLines(uniqueOutput.toPath(), StandardCharsets.UTF_8);
+        assertEquals(30000, uniqueCount);
+        assertEquals(30000, actual.size());
+        assertEquals(30000, new HashSet<>(actual).size());
+    }
+
+    @Test
+    public void stepsMustBeAddedInOrder() throws IOException {
+        Pipeline pipeline = newProcessor().pipeline(RowSource.of(write("source", 0, 10)));
+        pipeline.unique();
+        try {
+            pipeline.filter(EVEN);
+            fail();
+        } catch (IllegalStateException e) {
+            // 去重之后不能再过滤
+        }
+        pipeline.sort();
+        try {
+            pipeline.intersect(RowSource.of(write("other", 0, 10)));
+            fail();
+        } catch (IllegalStateException e) {
+            // 排序之后不能再做集合运算
+        }
+    }
+
+    // 最后一位数字是偶数, 即编号是偶数
+    private static final RowPredicate EVEN = (bytes, start, end) -> (bytes[end - 1] - '0') % 2 == 0;
+
+    private static boolean isEven(String row) {
+        return (row.charAt(row.length() - 1) - '0') % 2 == 0;
+    }
+
+    private PipelineProcessor newProcessor() throws IOException {
+        // 分片内存上限远小于分片大小, 分片必须切分成子分片计算
+        return new PipelineProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setMaxShardMemorySize(16 * 1024)
+                .build(), new DefaultRowHandler());
+    }
+
+    private String write(String name, int from, int to) throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            rows.add("row-" + i);
+            // 数据源内部的重复数据
+            if (i % 3 == 0) {
+                rows.add("row-" + i);
+            }
+        }
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), rows, StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+}
@@ -0,0 +1,172 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.scheduler.MemoryBudget;
+import cn.junety.tools.bigfile.utils.RowSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedSharderTest {
+
+    private static final int SHARDING_COUNT = 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final RowHandler rowHandler = new DefaultRowHandler();
+    private final Partitioner partitioner = new HashPartitioner(SHARDING_COUNT, rowHandler);
+
+    @Test
+    public void shardsInSourceOrderWithOwnThreads() throws IOException {
+        List<String> rows = rows(300000);
+        List<String> fileList = sharding(rows, 8, null);
+        assertShards(rows, fileList);
+    }
+
+    @Test
+    public void shardsOnSmallSharedExecutor() throws IOException {
+        // 共享线程池的线程比流水线需要的少, 各阶段不能互相等待
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<String> rows = rows(300000);
+            List<String> fileList = sharding(rows, 8, executor);
+            assertShards(rows, fileList);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shardsLinesLongerThanBlock() throws IOException {
+        List<String> rows = rows(1000);
+        char[] longRow = new char[3 * 1024 * 1024];
+        Arrays.fill(longRow, 'x');
+        rows.add(500, new String(longRow));
+        List<String> fileList = sharding(rows, 4, null);
+        assertShards(rows, fileList);
+    }
+
+    @Test
+    public void shardsShortRowsUnderRingMemoryLimit() throws IOException {
+        // 很短的行解码后的内存是字节数的数倍, 读取阶段按实际的解码比例限制提交
+        List<String> rows = new ArrayList<>(2000000);
+        for (int i = 0; i < 2000000; i++) {
+            rows.add(Integer.toString(i % 1000));
+        }
+        List<String> fileList = sharding(rows, 8, null);
+        assertShards(rows, fileList);
+    }
+
+    @Test
+    public void blockMemoryIncludesDecodedRows() {
+        // 字节块之外还要预留环形缓冲区中解码后的数据行
+        long mb = 1024 * 1024;
+        assertTrue(PipelinedSharder.blockMemory(4) >= (4 * 2 + 1) * mb + (4 * 2 + 2) * 3 * mb);
+    }
+
+    @Test
+    public void shardingStaysWithinReservedMemory() throws IOException {
+        List<String> rows = rows(300000);
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+        long blockMemory = PipelinedSharder.blockMemory(4);
+
+        // 预算放得下字节块时使用流水线, 放不下时按行分片, 分配到的内存全部用作buffer
+        for (long capacity : new long[]{blockMemory + 1024 * 1024, blockMemory / 2}) {
+            MemoryBudget budget = new MemoryBudget(capacity);
+            BigFileConfig config = new BigFileConfig.Builder()
+                    .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                    .setMemoryBudget(budget)
+                    .build();
+            ScratchSpace scratchSpace = ScratchSpace.create(config, "job");
+            List<String> fileList = new ShardingProcessor(scratchSpace, RowSource.of(source.getPath()), rowHandler,
+                    partitioner, 4).setConfig(config).sharding();
+            assertShards(rows, fileList);
+            assertEquals(capacity, budget.getAvailable());
+        }
+    }
+
+    @Test
+    public void propagatesParseFailure() throws IOException {
+        RowHandler failingHandler = new DefaultRowHandler() {
+            @Override
+            public String getKey(String row) {
+                if (row.equals("row-150000")) {
+                    throw new IllegalStateException("bad row");
+                }
+                return row;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            new PipelinedSharder(createFiles(), failingHandler, new HashPartitioner(SHARDING_COUNT, failingHandler),
+                    null, 8, 1024 * 1024, executor).sharding(stream(rows(300000)));
+            fail("expected failure");
+        } catch (IllegalStateException e) {
+            assertEquals("bad row", e.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<String> sharding(List<String> rows, int parallelism, ExecutorService executor) throws IOException {
+        List<String> fileList = createFiles();
+        new PipelinedSharder(fileList, rowHandler, partitioner, null, parallelism, 1024 * 1024, executor)
+                .sharding(stream(rows));
+        return fileList;
+    }
+
+    private List<String> createFiles() throws IOException {
+        List<String> fileList = new ArrayList<>(SHARDING_COUNT);
+        for (int i = 0; i < SHARDING_COUNT; i++) {
+            fileList.add(folder.newFile("sharding-" + i).getPath());
+        }
+        return fileList;
+    }
+
+    // 每个分片中的数据与数据源中属于该分片的数据顺序一致
+    private void assertShards(List<String> rows, List<String> fileList) throws IOException {
+        List<List<String>> expected = new ArrayList<>(SHARDING_COUNT);
+        for (int i = 0; i < SHARDING_COUNT; i++) {
+            expected.add(new ArrayList<>());
+        }
+        for (String row : rows) {
+            expected.get(partitioner.partition(rowHandler.getKey(row))).add(row);
+        }
+        for (int i = 0; i < SHARDING_COUNT; i++) {
+            List<String> actual = Files.readAllLines(new File(fileList.get(i)).toPath(), StandardCharsets.UTF_8);
+            assertTrue(actual.size() > 0);
+            assertEquals(expected.get(i), actual);
+        }
+    }
+
+    private static List<String> rows(int count) {
+        List<String> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add("row-" + i);
+        }
+        return rows;
+    }
+
+    private static ByteArrayInputStream stream(List<String> rows) {
+        return new ByteArrayInputStream((String.join("\n", rows) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,120 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.config.ScratchPlacement;
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScratchSpaceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void createsSameSubdirectoryInEachDirectory() throws IOException {
+        String[] directories = scratchDirectories(3);
+        ScratchSpace scratchSpace = ScratchSpace.create(newConfig(ScratchPlacement.ROUND_ROBIN, directories), "job");
+
+        List<String> directoryList = scratchSpace.getDirectoryList();
+        assertEquals(3, directoryList.size());
+        for (int i = 0; i < directories.length; i++) {
+            assertEquals(directories[i] + "job/", directoryList.get(i));
+            assertTrue(new File(directoryList.get(i)).isDirectory());
+        }
+
+        scratchSpace.delete();
+        for (String directory : directoryList) {
+            assertFalse(new File(directory).exists());
+        }
+    }
+
+    @Test
+    public void roundRobinUsesDirectoriesInTurn() throws IOException {
+        ScratchSpace scratchSpace = ScratchSpace.create(
+                newConfig(ScratchPlacement.ROUND_ROBIN, scratchDirectories(3)), "job");
+        List<String> directoryList = scratchSpace.getDirectoryList();
+        for (int i = 0; i < 9; i++) {
+            assertEquals(directoryList.get(i % 3), scratchSpace.nextDirectory());
+        }
+    }
+
+    @Test
+    public void freeSpaceOnSameDiskSpreadsEvenly() throws IOException {
+        // 所有目录都在同一个磁盘上, 剩余空间相同, 每个目录分到的次数相同
+        ScratchSpace scratchSpace = ScratchSpace.create(
+                newConfig(ScratchPlacement.FREE_SPACE, scratchDirectories(3)), "job");
+        List<String> directoryList = scratchSpace.getDirectoryList();
+        int[] counts = new int[directoryList.size()];
+        for (int i = 0; i < 300; i++) {
+            counts[directoryList.indexOf(scratchSpace.nextDirectory())]++;
+        }
+        assertEquals(Arrays.toString(new int[]{100, 100, 100}), Arrays.toString(counts));
+    }
+
+    @Test
+    public void otherDirectoryFallsBackOnSingleDisk() throws IOException {
+        ScratchSpace scratchSpace = ScratchSpace.create(
+                newConfig(ScratchPlacement.ROUND_ROBIN, scratchDirectories(2)), "job");
+        List<String> directoryList = scratchSpace.getDirectoryList();
+        // 没有其它磁盘时按轮询选择, 不会一直返回同一个目录
+        String first = scratchSpace.otherDirectory(directoryList.get(0) + "shard-0");
+        String second = scratchSpace.otherDirectory(directoryList.get(0) + "shard-0");
+        assertTrue(directoryList.contains(first));
+        assertTrue(directoryList.contains(second));
+        assertFalse(first.equals(second));
+    }
+
+    @Test
+    public void sortSpreadsShardsOverDirectories() throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            rows.add(String.format("row-%06d", i));
+        }
+        List<String> expected = new ArrayList<>(rows);
+        Collections.shuffle(rows, new Random(36));
+        File source = folder.newFile("source");
+        Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+        File output = new File(folder.getRoot(), "output");
+
+        String[] directories = scratchDirectories(2);
+        BigListProcessor processor = new BigListProcessor(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder("base").getPath() + File.separator)
+                .setScratchDirectories(directories)
+                .setShardingFileSize(16 * 1024)
+                .build(), new DefaultRowHandler());
+        assertEquals(rows.size(), processor.sort(source.getPath(), output.getPath()));
+        assertEquals(expected, Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    private String[] scratchDirectories(int count) throws IOException {
+        String[] directories = new String[count];
+        for (int i = 0; i < count; i++) {
+            directories[i] = folder.newFolder("scratch-" + i).getPath() + File.separator;
+        }
+        return directories;
+    }
+
+    private BigFileConfig newConfig(ScratchPlacement placement, String... directories) throws IOException {
+        return new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setScratchDirectories(directories)
+                .setScratchPlacement(placement)
+                .build();
+    }
+}
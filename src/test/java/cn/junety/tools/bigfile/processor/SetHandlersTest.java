@@ -0,0 +1,55 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import cn.junety.tools.bigfile.row.RowHandler;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class SetHandlersTest {
+
+    // key 是逗号之前的部分, 冲突时拼接两行的值
+    private final RowHandler rowHandler = new DefaultRowHandler() {
+        @Override
+        public String getKey(String row) {
+            return row.substring(0, row.indexOf(','));
+        }
+
+        @Override
+        public String clash(String row1, String row2) {
+            return row1 + row2.substring(row2.indexOf(','));
+        }
+    };
+
+    @Test
+    public void intersectMergesRowsOfSharedKeys() {
+        Map<String, String> result = SetHandlers.of(SetOperation.INTERSECT, rowHandler)
+                .handle(rowMap("a,1", "b,2", "c,3"), rowMap("b,20", "c,30", "d,40"));
+        assertEquals(rowMap("b,2,20", "c,3,30"), result);
+    }
+
+    @Test
+    public void unionKeepsAllKeys() {
+        Map<String, String> result = SetHandlers.of(SetOperation.UNION, rowHandler)
+                .handle(rowMap("a,1", "b,2"), rowMap("b,20", "d,40"));
+        assertEquals(rowMap("a,1", "b,2,20", "d,40"), result);
+    }
+
+    @Test
+    public void differRemovesKeysOfSecondSet() {
+        Map<String, String> result = SetHandlers.of(SetOperation.DIFFER, rowHandler)
+                .handle(rowMap("a,1", "b,2", "c,3"), rowMap("b,20", "d,40"));
+        assertEquals(rowMap("a,1", "c,3"), result);
+    }
+
+    private Map<String, String> rowMap(String... rows) {
+        Map<String, String> rowMap = new HashMap<>();
+        for (String row : rows) {
+            rowMap.put(rowHandler.getKey(row), row);
+        }
+        return rowMap;
+    }
+}
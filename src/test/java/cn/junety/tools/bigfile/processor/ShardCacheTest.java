@@ -0,0 +1,167 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import cn.junety.tools.bigfile.row.RowHandler;
+import cn.junety.tools.bigfile.utils.RowSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardCacheTest {
+
+    private final RowHandler rowHandler = new DefaultRowHandler();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void disabledWithoutSizeOrHashId() throws IOException {
+        assertNull(ShardCache.of(newConfig(0), rowHandler));
+        // 子类没有标识, 无法判断分片规则是否相同
+        assertNull(ShardCache.of(newConfig(1024 * 1024), new DefaultRowHandler() {
+        }));
+    }
+
+    @Test
+    public void secondOpenHitsCache() throws IOException {
+        ShardCache shardCache = ShardCache.of(newConfig(1024 * 1024), rowHandler);
+        RowSource source = RowSource.of(newSource(100));
+        AtomicInteger shardingTimes = new AtomicInteger();
+
+        List<String> first;
+        try (ShardCache.Entry entry = shardCache.open(source, new HashPartitioner(4, rowHandler),
+                sharder(4, 10, shardingTimes))) {
+            first = entry.getShardingFileList();
+        }
+        try (ShardCache.Entry entry = shardCache.open(source, new HashPartitioner(4, rowHandler),
+                sharder(4, 10, shardingTimes))) {
+            assertEquals(first, entry.getShardingFileList());
+        }
+        assertEquals(1, shardingTimes.get());
+        for (String filePath : first) {
+            assertTrue(new File(filePath).isFile());
+        }
+
+        // 分片数不同的缓存项需要重新分片
+        shardCache.open(source, new HashPartitioner(8, rowHandler), sharder(8, 10, shardingTimes)).close();
+        assertEquals(2, shardingTimes.get());
+    }
+
+    @Test
+    public void choosesSmallestCachedCountNotLessThanExpected() throws IOException {
+        ShardCache shardCache = ShardCache.of(newConfig(1024 * 1024), rowHandler);
+        RowSource source = RowSource.of(newSource(100));
+        for (int count : new int[]{4, 16}) {
+            shardCache.open(source, new HashPartitioner(count, rowHandler), sharder(count, 10, null)).close();
+        }
+        assertEquals(4, shardCache.chooseShardingCount(3, source));
+        assertEquals(16, shardCache.chooseShardingCount(5, source));
+        assertEquals(20, shardCache.chooseShardingCount(20, source));
+        // 其它数据源的缓存项不影响选择
+        assertEquals(3, shardCache.chooseShardingCount(3, RowSource.of(newSource(50))));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntriesNotInUse() throws Exception {
+        // 上限只能容纳两个缓存项
+        ShardCache shardCache = ShardCache.of(newConfig(250), rowHandler);
+        HashPartitioner partitioner = new HashPartitioner(2, rowHandler);
+        RowSource source1 = RowSource.of(newSource(10));
+        RowSource source2 = RowSource.of(newSource(11));
+        RowSource source3 = RowSource.of(newSource(12));
+        AtomicInteger shardingTimes = new AtomicInteger();
+
+        ShardCache.Entry entry1 = shardCache.open(source1, partitioner, sharder(2, 60, shardingTimes));
+        shardCache.open(source2, partitioner, sharder(2, 60, shardingTimes)).close();
+        // 缓存项1仍在使用, 淘汰最近最少使用的缓存项2
+        Thread.sleep(20);
+        shardCache.open(source3, partitioner, sharder(2, 60, shardingTimes)).close();
+        assertTrue(new File(entry1.getShardingFileList().get(0)).exists());
+        entry1.close();
+
+        shardCache.open(source2, partitioner, sharder(2, 60, shardingTimes)).close();
+        assertEquals(4, shardingTimes.get());
+        shardCache.open(source1, partitioner, sharder(2, 60, shardingTimes)).close();
+        assertEquals(5, shardingTimes.get());
+    }
+
+    @Test
+    public void skipsSourcesThatDoNotFit() throws IOException {
+        ShardCache shardCache = ShardCache.of(newConfig(100), rowHandler);
+        HashPartitioner partitioner = new HashPartitioner(2, rowHandler);
+        assertNull(shardCache.open(RowSource.of(newSource(1000)), partitioner, sharder(2, 10, null)));
+        assertNull(shardCache.open(RowSource.of(Collections.singletonList("row").iterator()), partitioner,
+                sharder(2, 10, null)));
+    }
+
+    @Test
+    public void failedShardingLeavesNoEntry() throws IOException {
+        BigFileConfig config = newConfig(1024 * 1024);
+        ShardCache shardCache = ShardCache.of(config, rowHandler);
+        RowSource source = RowSource.of(newSource(100));
+        try {
+            shardCache.open(source, new HashPartitioner(2, rowHandler), scratchSpace -> {
+                throw new IOException("broken source");
+            });
+            fail("sharding should fail");
+        } catch (IOException expected) {
+            // 临时目录已经删除
+        }
+        assertEquals(0, new File(config.getShardCacheDirectory()).list().length);
+        assertEquals(2, shardCache.chooseShardingCount(2, source));
+
+        ShardCache.Entry entry = shardCache.open(source, new HashPartitioner(2, rowHandler), sharder(2, 10, null));
+        assertNotNull(entry);
+        entry.close();
+        assertEquals(1, new File(config.getShardCacheDirectory()).list().length);
+    }
+
+    // 生成 count 个每个 size 字节的分片文件
+    private static ShardCache.Sharder sharder(int count, int size, AtomicInteger shardingTimes) {
+        return scratchSpace -> {
+            if (shardingTimes != null) {
+                shardingTimes.incrementAndGet();
+            }
+            List<String> fileList = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String filePath = scratchSpace.nextDirectory() + "shard-" + i;
+                Files.write(new File(filePath).toPath(), new byte[size]);
+                fileList.add(filePath);
+            }
+            return fileList;
+        };
+    }
+
+    private String newSource(int size) throws IOException {
+        File file = folder.newFile();
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append('x');
+        }
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    private BigFileConfig newConfig(long shardCacheSize) throws IOException {
+        return new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setShardCacheSize(shardCacheSize)
+                .build();
+    }
+}
@@ -0,0 +1,127 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import cn.junety.tools.bigfile.config.PartitionStrategy;
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import cn.junety.tools.bigfile.scheduler.MemoryBudget;
+import cn.junety.tools.bigfile.utils.RowSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardPlannerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void estimatesRowsFromSequentialSample() throws IOException {
+        // 每行 "row-%06d" 加换行符共 11 个字节
+        RowSource source = RowSource.of(write(rows(10000, 1)));
+        ShardPlan plan = newPlanner(64 * MB, 64 * MB, 1).plan(true, false, source);
+        assertEquals(10000, plan.getEstimatedRows());
+        assertEquals(10000, plan.getEstimatedDistinctRows(), 10000 * 0.05);
+        assertEquals(11, plan.getAverageRowSize());
+        assertEquals(1, plan.getShardingCount());
+    }
+
+    @Test
+    public void estimatesRowsAndKeysFromRandomSample() throws IOException {
+        // 文件超过顺序采样的大小, 随机位置采样; 只有500个key, 采样中的重复可以反映整个文件的重复
+        RowSource source = RowSource.of(write(rows(500, 960)));
+        ShardPlanner planner = newPlanner(64 * MB, 64 * MB, 1);
+        ShardPlan plan = planner.plan(true, false, source);
+        assertEquals(480000, plan.getEstimatedRows(), 480000 * 0.05);
+        assertTrue(plan.getEstimatedDistinctRows() < plan.getEstimatedRows() / 3);
+        assertEquals(11, plan.getAverageRowSize());
+
+        // 去重读入内存时只保存不重复的key
+        long uniqueMemory = planner.estimateMemory(source, true);
+        long listMemory = planner.estimateMemory(source, false);
+        assertTrue(uniqueMemory < listMemory);
+    }
+
+    @Test
+    public void shardCountFollowsShardMemory() throws IOException {
+        RowSource source = RowSource.of(write(rows(10000, 1)));
+        ShardPlanner planner = newPlanner(64 * MB, 64 * 1024, 2);
+        ShardPlan plan = planner.plan(true, false, source);
+        long expected = (planner.estimateMemory(source, true) + plan.getShardMemory() - 1) / plan.getShardMemory();
+        assertTrue(expected > 2);
+        assertEquals(expected, plan.getShardingCount());
+        assertEquals(2, plan.getParallelism());
+        assertEquals((long) (64 * 1024 * 0.8), plan.getShardMemory());
+    }
+
+    @Test
+    public void reducesParallelismWhenShardsAreTooMany() throws IOException {
+        // 每个分片只能使用 1KB 内存时分片数超过上限, 减少并行度使每个分片可以使用更多的内存
+        RowSource source = RowSource.of(write(rows(120000, 4)));
+        ShardPlan plan = newPlanner(16 * MB, 1024, 8).plan(true, false, source);
+        assertTrue(plan.getShardingCount() <= 4096);
+        assertTrue(plan.getParallelism() >= 1);
+        assertTrue(plan.getShardingCount() >= plan.getParallelism());
+
+        // 并行度不会超过需要的分片数以外的限制, 小数据源至少按并行度分片
+        ShardPlan small = newPlanner(64 * MB, 64 * MB, 4).plan(true, false, RowSource.of(write(rows(10, 1))));
+        assertEquals(4, small.getShardingCount());
+        assertEquals(4, small.getParallelism());
+    }
+
+    @Test
+    public void choosesRangePartitionsOnlyForSortedFileOutput() throws IOException {
+        RowSource source1 = RowSource.of(write(rows(10000, 1)));
+        RowSource source2 = RowSource.of(write(rows(10000, 1)));
+        ShardPlanner planner = newPlanner(64 * MB, 16 * 1024, 2);
+        assertEquals(PartitionStrategy.RANGE, planner.plan(true, true, source1, source2).getPartitionStrategy());
+        assertEquals(PartitionStrategy.HASH, planner.plan(true, false, source1, source2).getPartitionStrategy());
+
+        // 流式数据源不能随机采样, 行数未知
+        RowSource stream = RowSource.of(rows(100, 1).iterator());
+        ShardPlan plan = planner.plan(true, true, source1, stream);
+        assertEquals(PartitionStrategy.HASH, plan.getPartitionStrategy());
+        assertEquals(-1, plan.getEstimatedRows());
+    }
+
+    private ShardPlanner newPlanner(long memoryBudget, long maxShardMemorySize, int parallelism)
+            throws IOException {
+        return new ShardPlanner(new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setMemoryBudget(new MemoryBudget(memoryBudget))
+                .setMaxShardMemorySize(maxShardMemorySize)
+                .setParallelism(parallelism)
+                .build(), new DefaultRowHandler());
+    }
+
+    private String write(List<String> rows) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), rows, StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+
+    // count 个不同的数据行, 每行重复 times 次, 随机顺序
+    private static List<String> rows(int count, int times) {
+        List<String> rows = new ArrayList<>(count * times);
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < times; j++) {
+                rows.add(String.format("row-%06d", i));
+            }
+        }
+        Collections.shuffle(rows, new Random(count));
+        return rows;
+    }
+}
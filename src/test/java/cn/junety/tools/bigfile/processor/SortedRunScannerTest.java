@@ -0,0 +1,104 @@
+package cn.junety.tools.bigfile.processor;
+
+import cn.junety.tools.bigfile.row.DefaultRowHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SortedRunScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SortedRunScanner scanner = new SortedRunScanner(new DefaultRowHandler(), 1);
+
+    @Test
+    public void scanFindsSortedRuns() throws IOException {
+        // 三个有序段: [200, 300) [100, 200) [0, 100)
+        List<String> rows = rows(300);
+        List<String> runRows = new ArrayList<>(rows.subList(200, 300));
+        runRows.addAll(rows.subList(100, 200));
+        runRows.addAll(rows.subList(0, 100));
+        String filePath = write(runRows);
+
+        SortedRunScanner runScanner = new SortedRunScanner(new DefaultRowHandler(), 4);
+        assertTrue(runScanner.scan(filePath));
+        assertEquals(3, runScanner.getRunList().size());
+        assertEquals(300, runScanner.getRowCount());
+        assertFalse(runScanner.isCopyable());
+        assertEquals(new File(filePath).length(), runScanner.getRunList().get(2).getEnd());
+    }
+
+    @Test
+    public void scanStopsAfterMaxRunCount() throws IOException {
+        List<String> rows = rows(1000);
+        Collections.reverse(rows);
+        SortedRunScanner runScanner = new SortedRunScanner(new DefaultRowHandler(), 4);
+        assertFalse(runScanner.scan(write(rows)));
+        assertEquals(4, runScanner.getRunList().size());
+    }
+
+    @Test
+    public void sortedFileIsCopyable() throws IOException {
+        SortedRunScanner runScanner = new SortedRunScanner(new DefaultRowHandler(), 4);
+        assertTrue(runScanner.scan(write(rows(1000))));
+        assertTrue(runScanner.isCopyable());
+        assertEquals(1000, runScanner.getRowCount());
+    }
+
+    @Test
+    public void sampledSortedFileLooksSorted() throws IOException {
+        String filePath = write(rows(100000));
+        assertTrue(scanner.looksSortedByKey(filePath));
+        assertTrue(scanner.isSortedByKey(filePath));
+    }
+
+    @Test
+    public void shortFileIsCheckedCompletely() throws IOException {
+        List<String> rows = rows(100);
+        Collections.swap(rows, 98, 99);
+        assertFalse(scanner.looksSortedByKey(write(rows)));
+    }
+
+    @Test
+    public void disorderAfterPrefixIsSampled() throws IOException {
+        // 开头有序, 后半部分逆序
+        List<String> rows = rows(100000);
+        Collections.reverse(rows.subList(50000, 100000));
+        assertFalse(scanner.looksSortedByKey(write(rows)));
+    }
+
+    @Test
+    public void unsortedSampleWindowsAreDetected() throws IOException {
+        // 每个抽样位置附近都有序, 但是后面的数据比前面的小
+        List<String> rows = rows(100000);
+        Collections.rotate(rows, 40000);
+        assertFalse(scanner.looksSortedByKey(write(rows)));
+    }
+
+    private String write(List<String> rows) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), rows, StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+
+    private static List<String> rows(int count) {
+        List<String> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(String.format("row-%06d", i));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,83 @@
+package cn.junety.tools.bigfile.row;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RowPredicatesTest {
+
+    @Test
+    public void containsFindsTokenAnywhere() {
+        RowPredicate predicate = RowPredicates.contains("abcab");
+        assertTrue(test(predicate, "abcab"));
+        assertTrue(test(predicate, "xxabcabxx"));
+        assertTrue(test(predicate, "ababcabcab"));
+        assertFalse(test(predicate, "abcaabcb"));
+        assertFalse(test(predicate, "abca"));
+        assertTrue(test(RowPredicates.contains(""), "any"));
+    }
+
+    @Test
+    public void containsAnyMatchesOverlappingTokens() {
+        RowPredicate predicate = RowPredicates.containsAny(Arrays.asList("she", "hers", "his"));
+        assertTrue(test(predicate, "ushers"));
+        assertTrue(test(predicate, "xhisx"));
+        // 失败指针必须回退到 "he" 的前缀上, 才能找到 "hers"
+        assertTrue(test(RowPredicates.containsAny(Arrays.asList("shx", "hers")), "shers"));
+        assertFalse(test(predicate, "hesh"));
+        assertTrue(test(RowPredicates.containsAny(Collections.singletonList("中文")), "包含中文的行"));
+    }
+
+    @Test
+    public void startsWithAndIn() {
+        RowPredicate startsWith = RowPredicates.startsWith("2018-");
+        assertTrue(test(startsWith, "2018-08-31,login"));
+        assertFalse(test(startsWith, "2017-08-31,login"));
+        assertFalse(test(startsWith, "2018"));
+
+        RowPredicate in = RowPredicates.in(Arrays.asList("a", "bb", "ccc"));
+        assertTrue(test(in, "bb"));
+        assertFalse(test(in, "b"));
+        assertFalse(test(in, "bbb"));
+        assertFalse(test(in, ""));
+    }
+
+    @Test
+    public void fieldPredicatesMatchWholeField() {
+        RowPredicate equals = RowPredicates.fieldEquals(',', 1, "login");
+        assertTrue(test(equals, "u1,login,2018"));
+        assertTrue(test(equals, "u1,login"));
+        assertFalse(test(equals, "u1,logins,2018"));
+        assertFalse(test(equals, "u1"));
+
+        RowPredicate in = RowPredicates.fieldIn('\t', 2, Arrays.asList("x", "y"));
+        assertTrue(test(in, "a\tb\ty"));
+        assertFalse(test(in, "a\tb\tyy"));
+        assertFalse(test(in, "a\tb"));
+        assertTrue(test(RowPredicates.fieldIn(',', 1, Collections.singletonList("")), "a,,c"));
+    }
+
+    @Test
+    public void predicatesOnlyLookAtGivenRange() {
+        byte[] bytes = "xxloginxx".getBytes(StandardCharsets.UTF_8);
+        assertTrue(RowPredicates.contains("login").test(bytes, 2, 7));
+        assertFalse(RowPredicates.contains("login").test(bytes, 3, 9));
+        assertTrue(RowPredicates.in(Collections.singletonList("login")).test(bytes, 2, 7));
+        assertFalse(RowPredicates.startsWith("xx").test(bytes, 2, 7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonAsciiDelimiter() {
+        RowPredicates.fieldEquals('，', 0, "a");
+    }
+
+    private static boolean test(RowPredicate predicate, String row) {
+        byte[] bytes = row.getBytes(StandardCharsets.UTF_8);
+        return predicate.test(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,118 @@
+package cn.junety.tools.bigfile.scheduler;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JobSchedulerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void runsJobsConcurrently() throws Exception {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            rows.add(String.format("row-%06d", i));
+        }
+        List<String> expected = new ArrayList<>(rows);
+        Collections.shuffle(rows, new Random(39));
+
+        try (JobScheduler scheduler = newScheduler(256 * MB, 4)) {
+            AsyncBigFileProcessor processor = scheduler.processor(newConfig());
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            List<File> outputs = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                File source = folder.newFile();
+                Files.write(source.toPath(), rows, StandardCharsets.UTF_8);
+                File output = new File(folder.getRoot(), source.getName() + "-sorted");
+                futures.add(processor.sort(source.getPath(), output.getPath()));
+                outputs.add(output);
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(rows.size(), (long) futures.get(i).get(30, TimeUnit.SECONDS));
+                assertEquals(expected, Files.readAllLines(outputs.get(i).toPath(), StandardCharsets.UTF_8));
+            }
+            // 调用方拿到结果时内存已经归还
+            assertEquals(256 * MB, scheduler.getMemoryBudget().getAvailable());
+        }
+    }
+
+    @Test
+    public void jobsWaitForMemory() throws Exception {
+        // 两个计算各申请 3/4 的预算, 即使可以同时运行两个计算也只能先后执行
+        try (JobScheduler scheduler = newScheduler(64 * MB, 2)) {
+            AsyncBigFileProcessor processor = scheduler.processor(newConfig());
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(processor.submit(48 * MB, p -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return running.decrementAndGet();
+                }));
+            }
+            for (CompletableFuture<Integer> future : futures) {
+                assertEquals(0, (int) future.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, maxRunning.get());
+        }
+    }
+
+    @Test
+    public void failedJobReleasesMemory() throws Exception {
+        try (JobScheduler scheduler = newScheduler(64 * MB, 1)) {
+            CompletableFuture<Object> future = scheduler.processor(newConfig()).submit(p -> {
+                throw new IOException("broken job");
+            });
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("job should fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+                assertEquals("broken job", e.getCause().getMessage());
+            }
+            assertEquals(64 * MB, scheduler.getMemoryBudget().getAvailable());
+        }
+    }
+
+    private static JobScheduler newScheduler(long memoryBudget, int maxRunningJobs) {
+        return new JobScheduler.Builder()
+                .setMemoryBudget(memoryBudget)
+                .setMaxRunningJobs(maxRunningJobs)
+                .setCpuThreads(4)
+                .build();
+    }
+
+    private BigFileConfig newConfig() throws IOException {
+        return new BigFileConfig.Builder()
+                .setBaseDirectory(folder.newFolder().getPath() + File.separator)
+                .setParallelism(2)
+                .build();
+    }
+}
@@ -0,0 +1,102 @@
+package cn.junety.tools.bigfile.scheduler;
+
+import cn.junety.tools.bigfile.config.BigFileConfig;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void acquireCapsAtCapacity() throws InterruptedIOException {
+        MemoryBudget budget = new MemoryBudget(1000);
+        assertEquals(1000, budget.acquire(5000));
+        assertEquals(0, budget.getAvailable());
+        budget.release(1000);
+        // 重复归还不会超过总预算
+        budget.release(1000);
+        assertEquals(1000, budget.getAvailable());
+    }
+
+    @Test
+    public void defaultShardMemoryLeavesRoomInBudget() {
+        // 没有指定时, 所有并行计算的分片加上一份其它阶段的内存不超过预算
+        MemoryBudget budget = new MemoryBudget(1200);
+        assertEquals(600, new BigFileConfig.Builder().setMemoryBudget(budget).build().getMaxShardMemorySize());
+        assertEquals(300, new BigFileConfig.Builder().setMemoryBudget(budget).setParallelism(3).build()
+                .getMaxShardMemorySize());
+        assertEquals(1000, new BigFileConfig.Builder().setMemoryBudget(budget).setMaxShardMemorySize(1000).build()
+                .getMaxShardMemorySize());
+    }
+
+    @Test
+    public void reserveGrantsWhatIsLeft() throws InterruptedIOException {
+        MemoryBudget budget = new MemoryBudget(1000);
+        assertEquals(700, budget.acquire(700));
+        // 剩余 300, 不少于申请量的 1/8, 按剩余内存分配
+        assertEquals(300, budget.reserve(800));
+        assertEquals(0, budget.getAvailable());
+    }
+
+    @Test
+    public void acquireWaitsForRelease() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000);
+        budget.acquire(950);
+        CompletableFuture<Long> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.reserve(800);
+            } catch (InterruptedIOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            waiting.get(200, TimeUnit.MILLISECONDS);
+            fail("reserve should wait while less than 1/8 is available");
+        } catch (TimeoutException expected) {
+            // 剩余 50, 少于 800 的 1/8
+        }
+
+        budget.release(950);
+        assertEquals(800, (long) waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(200, budget.getAvailable());
+    }
+
+    @Test
+    public void interruptedAcquireThrows() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000);
+        budget.acquire(1000);
+        Thread current = Thread.currentThread();
+        Thread interrupter = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+                return;
+            }
+            current.interrupt();
+        });
+        interrupter.start();
+        try {
+            budget.acquire(1);
+            fail("acquire should be interrupted");
+        } catch (InterruptedIOException expected) {
+            assertTrue(Thread.interrupted());
+        } finally {
+            interrupter.join();
+        }
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertEquals(0, budget.getAvailable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCapacity() {
+        new MemoryBudget(0);
+    }
+}
@@ -0,0 +1,80 @@
+package cn.junety.tools.bigfile.utils;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ByteLineReaderTest {
+
+    @Test
+    public void splitsLinesLikeBufferedReader() throws IOException {
+        // 换行符落在buffer边界的各种位置, 包括 "\r\n" 被buffer边界分开
+        Random random = new Random(26);
+        byte[] alphabet = {'a', 'b', '\r', '\n'};
+        for (int round = 0; round < 200; round++) {
+            byte[] bytes = new byte[random.nextInt(100)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            List<String> expected = new ArrayList<>();
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes),
+                    StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    expected.add(line);
+                }
+            }
+            assertEquals(new String(bytes, StandardCharsets.UTF_8), expected, readLines(bytes));
+        }
+    }
+
+    @Test
+    public void reportsSeparatorAndOffsets() throws IOException {
+        byte[] bytes = "a\rb\r\nc\nd".getBytes(StandardCharsets.UTF_8);
+        try (ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(bytes), 16)) {
+            assertTrue(reader.next());
+            assertEquals("a", reader.line());
+            assertTrue(reader.hasCarriageReturn());
+            assertEquals(2, reader.nextOffset());
+
+            assertTrue(reader.next());
+            assertEquals("b", reader.line());
+            assertTrue(reader.hasCarriageReturn());
+            assertEquals(2, reader.offset());
+            assertEquals(5, reader.nextOffset());
+
+            assertTrue(reader.next());
+            assertEquals("c", reader.line());
+            assertFalse(reader.hasCarriageReturn());
+            assertTrue(reader.isTerminated());
+
+            assertTrue(reader.next());
+            assertEquals("d", reader.line());
+            assertFalse(reader.isTerminated());
+            assertEquals(bytes.length, reader.nextOffset());
+            assertFalse(reader.next());
+        }
+    }
+
+    private static List<String> readLines(byte[] bytes) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(bytes), 16)) {
+            while (reader.next()) {
+                lines.add(reader.line());
+                assertEquals(reader.length(), reader.end() - reader.start());
+            }
+        }
+        return lines;
+    }
+}
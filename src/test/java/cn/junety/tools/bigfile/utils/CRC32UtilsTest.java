@@ -0,0 +1,40 @@
+package cn.junety.tools.bigfile.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+
+public class CRC32UtilsTest {
+
+    @Test
+    public void combineMatchesWholeChecksum() {
+        byte[] bytes = new byte[100000];
+        new Random(34).nextBytes(bytes);
+        long expected = crc32(bytes, 0, bytes.length);
+        for (int split : new int[]{0, 1, 7, 4096, 65537, bytes.length - 1, bytes.length}) {
+            long crc1 = crc32(bytes, 0, split);
+            long crc2 = crc32(bytes, split, bytes.length - split);
+            assertEquals("split at " + split, expected, CRC32Utils.combine(crc1, crc2, bytes.length - split));
+        }
+    }
+
+    @Test
+    public void combineIsAssociative() {
+        byte[] bytes = new byte[30000];
+        new Random(35).nextBytes(bytes);
+        long crc = 0;
+        for (int position = 0; position < bytes.length; position += 1000) {
+            crc = CRC32Utils.combine(crc, crc32(bytes, position, 1000), 1000);
+        }
+        assertEquals(crc32(bytes, 0, bytes.length), crc);
+    }
+
+    private static long crc32(byte[] bytes, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, length);
+        return crc32.getValue();
+    }
+}
@@ -0,0 +1,195 @@
+package cn.junety.tools.bigfile.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileUtilsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void splitRangesEndAfterNewline() throws IOException {
+        File file = writeRows(1000);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        List<FileRange> rangeList = FileUtils.splitRanges(file.getPath(), 1000);
+
+        assertContiguous(rangeList, bytes.length);
+        for (FileRange range : rangeList) {
+            assertEquals('\n', bytes[(int) range.getEnd() - 1]);
+        }
+        assertArrayEquals(bytes, readRanges(rangeList));
+    }
+
+    @Test
+    public void splitRangesByCountCoversFile() throws IOException {
+        File file = writeRows(1000);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        List<FileRange> rangeList = FileUtils.splitRangesByCount(file.getPath(), 7);
+
+        assertEquals(7, rangeList.size());
+        assertContiguous(rangeList, bytes.length);
+        assertArrayEquals(bytes, readRanges(rangeList));
+    }
+
+    @Test
+    public void splitRangesByLinesKeepsLineCount() throws IOException {
+        // 最后一行没有换行符, 仍然属于最后一个区间
+        File file = folder.newFile();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("row-").append(i).append(i < 999 ? "\n" : "");
+        }
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        List<FileRange> rangeList = FileUtils.splitRangesByLines(file.getPath(), 300);
+
+        assertEquals(4, rangeList.size());
+        assertContiguous(rangeList, file.length());
+        int row = 0;
+        for (int i = 0; i < rangeList.size(); i++) {
+            List<String> lines = new ArrayList<>();
+            try (LineIterator lineIterator = FileUtils.newLineIterator(rangeList.get(i))) {
+                while (lineIterator.hasNext()) {
+                    lines.add(lineIterator.nextLine());
+                }
+            }
+            assertEquals(i < 3 ? 300 : 100, lines.size());
+            for (String line : lines) {
+                assertEquals("row-" + row++, line);
+            }
+        }
+    }
+
+    @Test
+    public void copyRangeCopiesBytes() throws IOException {
+        File file = writeRows(1000);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        FileRange range = new FileRange(file.getPath(), 100, 3000);
+        File output = new File(folder.getRoot(), "output");
+
+        FileUtils.copyRange(range, output.getPath());
+        byte[] expected = new byte[2900];
+        System.arraycopy(bytes, 100, expected, 0, expected.length);
+        assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void splitRangesRejectsGzip() throws IOException {
+        File file = new File(folder.getRoot(), "rows" + GzipUtils.GZIP_SUFFIX);
+        try (BufferedWriter bw = FileUtils.newBufferedWriter(file.getPath())) {
+            bw.write("row");
+            bw.newLine();
+        }
+        assertTrue(GzipUtils.isGzip(file.getPath()));
+        FileUtils.splitRanges(file.getPath(), 10);
+    }
+
+    @Test
+    public void countLinesMatchesLineIterator() throws IOException {
+        File file = writeRows(1000);
+        assertEquals(1000, FileUtils.countLines(file.getPath()));
+
+        // 不以换行符结尾的最后一行也算一行, 空文件没有行
+        Files.write(file.toPath(), "a\n\nb".getBytes(StandardCharsets.UTF_8));
+        assertEquals(3, FileUtils.countLines(file.getPath()));
+        Files.write(file.toPath(), new byte[0]);
+        assertEquals(0, FileUtils.countLines(file.getPath()));
+        // 与 BufferedReader 一致, 单独的 '\r' 和 "\r\n" 都是行结束符
+        Files.write(file.toPath(), "a\rb\r\n\r\nc\r".getBytes(StandardCharsets.UTF_8));
+        assertEquals(4, FileUtils.countLines(file.getPath()));
+        // "\r\n" 被分块边界分开时只算一次
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(64L * 1024 * 1024 + 10);
+            raf.seek(64L * 1024 * 1024 - 1);
+            raf.write(new byte[]{'\r', '\n'});
+        }
+        assertEquals(2, FileUtils.countLines(file.getPath()));
+
+        File gzip = new File(folder.getRoot(), "rows" + GzipUtils.GZIP_SUFFIX);
+        try (BufferedWriter bw = FileUtils.newBufferedWriter(gzip.getPath())) {
+            for (int i = 0; i < 1000; i++) {
+                bw.write("row-" + i);
+                bw.newLine();
+            }
+        }
+        assertEquals(1000, FileUtils.countLines(gzip.getPath()));
+    }
+
+    @Test
+    public void checksumCRC32CombinesChunks() throws IOException {
+        // 稀疏文件超过两个分块, 每个分块的校验和合并后与整个文件的校验和一致
+        File file = folder.newFile();
+        long length = 150L * 1024 * 1024 + 123;
+        byte[] marker = "marker".getBytes(StandardCharsets.UTF_8);
+        long[] positions = {0, 64L * 1024 * 1024 - 3, 100L * 1024 * 1024, length - marker.length};
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+            for (long position : positions) {
+                raf.seek(position);
+                raf.write(marker);
+            }
+        }
+
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                crc32.update(buffer, 0, n);
+            }
+        }
+        assertEquals(crc32.getValue(), FileUtils.checksumCRC32(file.getPath()));
+    }
+
+    private File writeRows(int count) throws IOException {
+        File file = folder.newFile();
+        List<String> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add("row-" + i);
+        }
+        Files.write(file.toPath(), rows, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static void assertContiguous(List<FileRange> rangeList, long length) {
+        long position = 0;
+        for (FileRange range : rangeList) {
+            assertEquals(position, range.getStart());
+            assertTrue(range.getEnd() > range.getStart());
+            position = range.getEnd();
+        }
+        assertEquals(length, position);
+    }
+
+    private static byte[] readRanges(List<FileRange> rangeList) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (FileRange range : rangeList) {
+            try (InputStream is = FileUtils.openInputStream(range)) {
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    baos.write(buffer, 0, n);
+                }
+            }
+        }
+        return baos.toByteArray();
+    }
+}
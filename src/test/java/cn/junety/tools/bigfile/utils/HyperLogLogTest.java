@@ -0,0 +1,72 @@
+package cn.junety.tools.bigfile.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void estimatesLargeCardinality() {
+        // 精度 12 的标准误差约为 1.6%
+        HyperLogLog hyperLogLog = new HyperLogLog();
+        for (int i = 0; i < 200000; i++) {
+            hyperLogLog.add("key-" + i);
+            hyperLogLog.add("key-" + i);
+        }
+        assertEquals(200000, hyperLogLog.cardinality(), 200000 * 0.05);
+    }
+
+    @Test
+    public void linearCountingForSmallCardinality() {
+        HyperLogLog hyperLogLog = new HyperLogLog();
+        assertEquals(0, hyperLogLog.cardinality());
+        for (int i = 0; i < 100; i++) {
+            hyperLogLog.add("key-" + i);
+        }
+        assertEquals(100, hyperLogLog.cardinality(), 3);
+    }
+
+    @Test
+    public void mergeEstimatesUnion() {
+        HyperLogLog a = new HyperLogLog(14);
+        HyperLogLog b = new HyperLogLog(14);
+        HyperLogLog all = new HyperLogLog(14);
+        for (int i = 0; i < 100000; i++) {
+            String key = "key-" + i;
+            (i < 60000 ? a : b).add(key);
+            if (i >= 40000 && i < 60000) {
+                b.add(key);
+            }
+            all.add(key);
+        }
+        a.merge(b);
+        // 合并的结果与直接添加所有数据的寄存器完全相同
+        assertEquals(all.cardinality(), a.cardinality());
+        assertEquals(100000, a.cardinality(), 100000 * 0.03);
+    }
+
+    @Test
+    public void writeThenRead() throws IOException {
+        HyperLogLog hyperLogLog = new HyperLogLog(10);
+        for (int i = 0; i < 5000; i++) {
+            hyperLogLog.add("key-" + i);
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        hyperLogLog.writeTo(new DataOutputStream(baos));
+        HyperLogLog copy = HyperLogLog.readFrom(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(10, copy.getPrecision());
+        assertEquals(hyperLogLog.cardinality(), copy.cardinality());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeRejectsDifferentPrecision() {
+        new HyperLogLog(10).merge(new HyperLogLog(12));
+    }
+}
@@ -0,0 +1,69 @@
+package cn.junety.tools.bigfile.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class KeySketchTest {
+
+    @Test
+    public void smallSetsAreExact() {
+        // 不重复的key少于 MinHash 保留的数量时, 估算值是精确的
+        KeySketch a = sketch(0, 600, 2);
+        KeySketch b = sketch(400, 900, 1);
+        assertEquals(1200, a.getRowCount());
+        assertEquals(600, a.cardinality());
+        assertEquals(900, KeySketch.estimateUnion(a, b));
+        assertEquals(200, KeySketch.estimateIntersect(a, b));
+        assertEquals(400, KeySketch.estimateDiffer(a, b));
+    }
+
+    @Test
+    public void estimatesLargeSetOperations() {
+        KeySketch a = sketch(0, 60000, 1);
+        KeySketch b = sketch(30000, 90000, 1);
+        assertEquals(60000, a.cardinality(), 60000 * 0.03);
+        assertEquals(90000, KeySketch.estimateUnion(a, b), 90000 * 0.03);
+        assertEquals(30000, KeySketch.estimateIntersect(a, b), 30000 * 0.15);
+        assertEquals(30000, KeySketch.estimateDiffer(a, b), 30000 * 0.15);
+
+        // 没有交集
+        assertEquals(0, KeySketch.estimateIntersect(a, sketch(100000, 160000, 1)), 60000 * 0.01);
+    }
+
+    @Test
+    public void mergeConcatenatesData() {
+        KeySketch a = sketch(0, 50000, 1);
+        a.merge(sketch(25000, 75000, 1));
+        assertEquals(100000, a.getRowCount());
+        assertEquals(75000, a.cardinality(), 75000 * 0.03);
+    }
+
+    @Test
+    public void writeThenRead() throws IOException {
+        KeySketch sketch = sketch(0, 30000, 2);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        sketch.writeTo(new DataOutputStream(baos));
+        KeySketch copy = KeySketch.readFrom(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(sketch.getRowCount(), copy.getRowCount());
+        assertEquals(sketch.cardinality(), copy.cardinality());
+        assertEquals(KeySketch.estimateIntersect(sketch, sketch), KeySketch.estimateIntersect(copy, copy));
+    }
+
+    // key 为 [from, to) 的概要, 每个key添加 times 次
+    private static KeySketch sketch(int from, int to, int times) {
+        KeySketch sketch = new KeySketch();
+        for (int t = 0; t < times; t++) {
+            for (int i = from; i < to; i++) {
+                sketch.add("key-" + i);
+            }
+        }
+        return sketch;
+    }
+}
@@ -0,0 +1,111 @@
+package cn.junety.tools.bigfile.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ParallelGzipStreamTest {
+
+    @Test
+    public void roundTripInParallel() throws IOException {
+        // 块很小, 产生大量 member, 读取时按 FEXTRA 记录的长度并行解压
+        byte[] data = data(3 * 1024 * 1024 + 17);
+        byte[] compressed = compress(data, 16 * 1024);
+        assertArrayEquals(data, readAll(new ParallelGzipInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void outputIsStandardGzip() throws IOException {
+        byte[] data = data(1024 * 1024 + 1);
+        byte[] compressed = compress(data, 64 * 1024);
+        assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void readsPlainGzipMembersSequentially() throws IOException {
+        // 没有记录 member 长度的普通 gzip 数据, 多个 member 拼接在一起
+        byte[] data = data(500000);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int offset = 0; offset < data.length; offset += 200000) {
+            try (GZIPOutputStream gos = new GZIPOutputStream(baos)) {
+                gos.write(data, offset, Math.min(200000, data.length - offset));
+            }
+        }
+        assertArrayEquals(data, readAll(new ParallelGzipInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+    }
+
+    @Test
+    public void emptyStream() throws IOException {
+        byte[] compressed = compress(new byte[0], 1024);
+        assertArrayEquals(new byte[0], readAll(new ParallelGzipInputStream(new ByteArrayInputStream(compressed))));
+        assertArrayEquals(new byte[0], readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void decompressIfGzipPassesPlainData() throws IOException {
+        byte[] data = data(100000);
+        assertArrayEquals(data, readAll(GzipUtils.decompressIfGzip(new ByteArrayInputStream(data))));
+        assertArrayEquals(data, readAll(GzipUtils.decompressIfGzip(
+                new ByteArrayInputStream(compress(data, 8 * 1024)))));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptMemberFails() throws IOException {
+        byte[] compressed = compress(data(200000), 16 * 1024);
+        // 破坏第二个 member 的 crc32
+        int second = memberSize(compressed, 0);
+        int trailer = second + memberSize(compressed, second) - 8;
+        compressed[trailer] ^= 0x55;
+        readAll(new ParallelGzipInputStream(new ByteArrayInputStream(compressed)));
+    }
+
+    // 可压缩但不是完全重复的数据
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        Random random = new Random(length);
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static byte[] compress(byte[] data, int blockSize) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputStream os = new ParallelGzipOutputStream(baos, blockSize, Deflater.BEST_SPEED)) {
+            // 分多次写入, 覆盖跨块的写入
+            for (int offset = 0; offset < data.length; offset += 10007) {
+                os.write(data, offset, Math.min(10007, data.length - offset));
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    // 头部 XLEN 之后的第一个子字段记录了 member 的总字节数(4个字节的小端整数)
+    private static int memberSize(byte[] compressed, int offset) {
+        int value = offset + 16;
+        return (compressed[value] & 0xFF) | (compressed[value + 1] & 0xFF) << 8
+                | (compressed[value + 2] & 0xFF) << 16 | (compressed[value + 3] & 0xFF) << 24;
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        try (InputStream in = is) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[7919];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                baos.write(buffer, 0, n);
+            }
+            return baos.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package cn.junety.tools.bigfile.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedDatasetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeThenRead() throws IOException {
+        String directory = folder.newFolder("dataset").getPath();
+        assertFalse(PartitionedDataset.isDataset(directory));
+        List<String> fileList = writePartitions(directory, 3);
+        PartitionedDataset.write(directory, "hash", fileList, Arrays.asList(2L, 2L, 2L));
+
+        assertTrue(PartitionedDataset.isDataset(directory));
+        PartitionedDataset dataset = PartitionedDataset.read(directory);
+        assertEquals(directory + File.separator, dataset.getDirectory());
+        assertEquals("hash", dataset.getHashFunction());
+        assertEquals(fileList, dataset.getFileList());
+        assertEquals(6, dataset.getRowCount());
+        assertEquals(Arrays.asList("0-a", "0-b", "1-a", "1-b", "2-a", "2-b"), readAll(dataset.open()));
+    }
+
+    @Test
+    public void coPartitionedNeedsSameHashAndCount() throws IOException {
+        String directory = folder.newFolder("dataset").getPath();
+        PartitionedDataset dataset = PartitionedDataset.write(directory, "hash",
+                writePartitions(directory, 3), Arrays.asList(2L, 2L, 2L));
+        assertTrue(dataset.isPartitionedBy("hash", 3));
+        assertFalse(dataset.isPartitionedBy("hash", 4));
+        assertFalse(dataset.isPartitionedBy("other", 3));
+        assertFalse(dataset.isPartitionedBy(null, 3));
+
+        // 只有一个分区的数据集没有哈希函数也可以复用
+        String single = folder.newFolder("single").getPath();
+        PartitionedDataset singleDataset = PartitionedDataset.write(single, null,
+                writePartitions(single, 1), Arrays.asList(2L));
+        assertNull(PartitionedDataset.read(single).getHashFunction());
+        assertTrue(singleDataset.isPartitionedBy(null, 1));
+        assertTrue(singleDataset.isPartitionedBy("hash", 1));
+    }
+
+    @Test
+    public void prepareRemovesOldPartitions() throws IOException {
+        String directory = folder.newFolder("dataset").getPath();
+        List<String> fileList = writePartitions(directory, 3);
+        PartitionedDataset.write(directory, "hash", fileList, Arrays.asList(2L, 2L, 2L));
+        File other = new File(directory, "other");
+        Files.write(other.toPath(), Arrays.asList("x"), StandardCharsets.UTF_8);
+
+        PartitionedDataset.prepare(directory);
+        assertFalse(PartitionedDataset.isDataset(directory));
+        for (String filePath : fileList) {
+            assertFalse(new File(filePath).exists());
+        }
+        // 不属于数据集的文件不会被删除
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void rowSourceAndSinkUseDataset() throws IOException {
+        String directory = folder.newFolder("dataset").getPath();
+        PartitionedDataset.write(directory, "hash", writePartitions(directory, 2), Arrays.asList(2L, 2L));
+        RowSource source = RowSource.of(directory);
+        assertEquals(PartitionedDataset.read(directory).getSize(), source.getSizeHint());
+
+        String output = new File(folder.getRoot(), "output").getPath();
+        RowSink sink = RowSink.dataset(output);
+        assertTrue(sink.isDataset());
+        try (LineIterator lineIterator = source.open(); LineWriter lineWriter = sink.open()) {
+            while (lineIterator.hasNext()) {
+                lineWriter.writeLine(lineIterator.nextLine());
+            }
+        }
+        // 其它操作的结果写入只有一个分区的数据集
+        PartitionedDataset dataset = PartitionedDataset.read(output);
+        assertEquals(1, dataset.getPartitionCount());
+        assertEquals(4, dataset.getRowCount());
+        assertEquals(Arrays.asList("0-a", "0-b", "1-a", "1-b"), readAll(dataset.open()));
+    }
+
+    private static List<String> writePartitions(String directory, int count) throws IOException {
+        List<String> fileList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            File file = new File(directory, PartitionedDataset.partitionFileName(i));
+            Files.write(file.toPath(), Arrays.asList(i + "-a", i + "-b"), StandardCharsets.UTF_8);
+            fileList.add(file.getPath());
+        }
+        return fileList;
+    }
+
+    private static List<String> readAll(LineIterator lineIterator) throws IOException {
+        List<String> rows = new ArrayList<>();
+        try (LineIterator it = lineIterator) {
+            while (it.hasNext()) {
+                rows.add(it.nextLine());
+            }
+        }
+        return rows;
+    }
+}